@@ -0,0 +1,128 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import org.alfasoftware.morf.dataset.DataSetConsumer;
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.Table;
+
+import com.google.common.base.Optional;
+
+/**
+ * Writes a data set to a directory in the binary data set format, one file per table.
+ *
+ * <p>This is a compact alternative to {@link org.alfasoftware.morf.xml.XmlDataSetConsumer}.
+ * Each table file holds the table meta data, then the rows in blocks, each value tagged with
+ * its type and held in binary rather than as text. Blocks can optionally be deflated. The
+ * data set is read back by {@link BinaryDataSetProducer}.</p>
+ *
+ * <p>Tables may be written concurrently.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class BinaryDataSetConsumer implements DataSetConsumer {
+
+  /**
+   * The directory to receive the data set.
+   */
+  private final File directory;
+
+  /**
+   * The deflate level with which to compress blocks, if any.
+   */
+  private Optional<Integer> compressionLevel = Optional.absent();
+
+
+  /**
+   * Creates a data set consumer which writes the data set to <var>directory</var>, which
+   * is created if it does not exist.
+   *
+   * @param directory The directory to receive the data set.
+   */
+  public BinaryDataSetConsumer(File directory) {
+    super();
+    this.directory = directory;
+  }
+
+
+  /**
+   * Deflates each block of rows at <var>level</var>.
+   *
+   * @param level The deflate level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION},
+   *          or {@link Deflater#DEFAULT_COMPRESSION}.
+   * @return this, for chaining.
+   */
+  public BinaryDataSetConsumer withCompression(int level) {
+    if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Invalid deflate level [" + level + "]");
+    }
+    this.compressionLevel = Optional.of(level);
+    return this;
+  }
+
+
+  /**
+   * Creates the directory if need be, and removes any table files already in it.
+   *
+   * @see org.alfasoftware.morf.dataset.DataSetConsumer#open()
+   */
+  @Override
+  public void open() {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IllegalArgumentException("Could not create directory [" + directory + "]");
+    }
+    for (File file : directory.listFiles()) {
+      if (file.getName().endsWith(BinaryDataSetFormat.FILE_EXTENSION) && !file.delete()) {
+        throw new RuntimeException("Could not delete file [" + file + "]");
+      }
+    }
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.DataSetConsumer#close(org.alfasoftware.morf.dataset.DataSetConsumer.CloseState)
+   */
+  @Override
+  public void close(CloseState closeState) {
+    // Each table file is closed as it is completed
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.DataSetConsumer#table(org.alfasoftware.morf.metadata.Table, java.lang.Iterable)
+   */
+  @Override
+  public void table(Table table, Iterable<Record> records) {
+    if (table == null) {
+      throw new IllegalArgumentException("table is null");
+    }
+
+    File file = new File(directory, table.getName() + BinaryDataSetFormat.FILE_EXTENSION);
+    try (BinaryTableWriter writer = new BinaryTableWriter(table, new BufferedOutputStream(new FileOutputStream(file), 65536), compressionLevel)) {
+      for (Record record : records) {
+        writer.write(record);
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("Error consuming table [" + table.getName() + "]", e);
+    }
+  }
+}
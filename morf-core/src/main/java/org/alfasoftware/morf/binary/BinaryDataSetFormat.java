@@ -0,0 +1,192 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.binary;
+
+import static org.alfasoftware.morf.metadata.SchemaUtils.column;
+import static org.alfasoftware.morf.metadata.SchemaUtils.index;
+import static org.alfasoftware.morf.metadata.SchemaUtils.table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.alfasoftware.morf.metadata.Column;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.Index;
+import org.alfasoftware.morf.metadata.SchemaUtils.ColumnBuilder;
+import org.alfasoftware.morf.metadata.SchemaUtils.IndexBuilder;
+import org.alfasoftware.morf.metadata.SchemaUtils.TableBuilder;
+import org.alfasoftware.morf.metadata.Table;
+
+/**
+ * The layout of a table file in the binary data set format.
+ *
+ * <p>A table file starts with {@link #MAGIC}, the format {@link #VERSION}, and the length
+ * and bytes of the table meta data. The rows follow in blocks, each of which is headed by
+ * its row count, whether it is compressed, and its length. A block of no rows ends the
+ * file. Within a block, each row holds a value for each column of the table, in column
+ * order, each being a tag byte identifying its type followed by the value itself.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+final class BinaryDataSetFormat {
+
+  /**
+   * The file extension of table files.
+   */
+  static final String FILE_EXTENSION = ".morf";
+
+  static final int MAGIC = 0x4D4F5246;
+  static final int VERSION = 1;
+
+  /**
+   * The uncompressed size at which a block is written.
+   */
+  static final int BLOCK_SIZE = 65536;
+
+  static final int UNCOMPRESSED_BLOCK = 0;
+  static final int DEFLATED_BLOCK = 1;
+
+  static final int NULL_TAG = 0;
+  static final int STRING_TAG = 1;
+  static final int LONG_TAG = 2;
+  static final int TRUE_TAG = 3;
+  static final int FALSE_TAG = 4;
+
+  /**
+   * A decimal whose unscaled value fits in a long, held as its scale then unscaled value.
+   */
+  static final int DECIMAL_TAG = 5;
+
+  /**
+   * A decimal held as its scale then the bytes of its unscaled value.
+   */
+  static final int BIG_DECIMAL_TAG = 6;
+
+  /**
+   * A date held as its year, month and day packed into one integer.
+   */
+  static final int DATE_TAG = 7;
+  static final int BYTES_TAG = 8;
+
+  private static final int NULLABLE = 1;
+  private static final int PRIMARY_KEY = 2;
+  private static final int AUTONUMBERED = 4;
+  private static final int HAS_DEFAULT = 8;
+  private static final int TEMPORARY = 1;
+
+
+  /**
+   * Prevent construction.
+   */
+  private BinaryDataSetFormat() {
+  }
+
+
+  /**
+   * Encodes the meta data of a table.
+   *
+   * @param table The table.
+   * @param output The output to encode it to.
+   */
+  static void writeTable(Table table, BinaryOutput output) {
+    output.writeString(table.getName());
+    output.writeByte(table.isTemporary() ? TEMPORARY : 0);
+
+    output.writeUnsigned(table.columns().size());
+    for (Column column : table.columns()) {
+      output.writeString(column.getName());
+      output.writeString(column.getType().name());
+      output.writeUnsigned(column.getWidth());
+      output.writeUnsigned(column.getScale());
+      boolean hasDefault = column.getDefaultValue() != null && !column.getDefaultValue().isEmpty();
+      output.writeByte((column.isNullable() ? NULLABLE : 0)
+        | (column.isPrimaryKey() ? PRIMARY_KEY : 0)
+        | (column.isAutoNumbered() ? AUTONUMBERED : 0)
+        | (hasDefault ? HAS_DEFAULT : 0));
+      if (column.isAutoNumbered()) {
+        output.writeSigned(column.getAutoNumberStart());
+      }
+      if (hasDefault) {
+        output.writeString(column.getDefaultValue());
+      }
+    }
+
+    output.writeUnsigned(table.indexes().size());
+    for (Index index : table.indexes()) {
+      output.writeString(index.getName());
+      output.writeByte(index.isUnique() ? 1 : 0);
+      output.writeUnsigned(index.columnNames().size());
+      for (String columnName : index.columnNames()) {
+        output.writeString(columnName);
+      }
+    }
+  }
+
+
+  /**
+   * Decodes the meta data of a table.
+   *
+   * @param input The input to decode it from.
+   * @return The table.
+   */
+  static Table readTable(BinaryInput input) {
+    TableBuilder table = table(input.readString());
+    if ((input.readByte() & TEMPORARY) != 0) {
+      table = table.temporary();
+    }
+
+    int columnCount = (int) input.readUnsigned();
+    List<Column> columns = new ArrayList<>(columnCount);
+    for (int i = 0; i < columnCount; i++) {
+      String name = input.readString();
+      DataType type = DataType.valueOf(input.readString());
+      int width = (int) input.readUnsigned();
+      int scale = (int) input.readUnsigned();
+      int flags = input.readByte();
+      ColumnBuilder column = column(name, type, width, scale);
+      if ((flags & NULLABLE) != 0) {
+        column = column.nullable();
+      }
+      if ((flags & PRIMARY_KEY) != 0) {
+        column = column.primaryKey();
+      }
+      if ((flags & AUTONUMBERED) != 0) {
+        column = column.autoNumbered((int) input.readSigned());
+      }
+      if ((flags & HAS_DEFAULT) != 0) {
+        column = column.defaultValue(input.readString());
+      }
+      columns.add(column);
+    }
+
+    int indexCount = (int) input.readUnsigned();
+    List<Index> indexes = new ArrayList<>(indexCount);
+    for (int i = 0; i < indexCount; i++) {
+      IndexBuilder index = index(input.readString());
+      if (input.readByte() != 0) {
+        index = index.unique();
+      }
+      int indexColumnCount = (int) input.readUnsigned();
+      List<String> columnNames = new ArrayList<>(indexColumnCount);
+      for (int j = 0; j < indexColumnCount; j++) {
+        columnNames.add(input.readString());
+      }
+      indexes.add(index.columns(columnNames));
+    }
+
+    return table.columns(columns.toArray(new Column[columns.size()])).indexes(indexes.toArray(new Index[indexes.size()]));
+  }
+}
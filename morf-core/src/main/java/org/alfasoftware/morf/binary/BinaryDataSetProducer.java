@@ -0,0 +1,197 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.binary;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.alfasoftware.morf.dataset.DataSetProducer;
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.dataset.TableSizeEstimator;
+import org.alfasoftware.morf.metadata.Schema;
+import org.alfasoftware.morf.metadata.SchemaUtils;
+import org.alfasoftware.morf.metadata.Table;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Reads a data set written by {@link BinaryDataSetConsumer} from a directory.
+ *
+ * <p>The meta data of every table is read when the producer is opened. Records are read
+ * as {@link org.alfasoftware.morf.metadata.LayoutRecord}s, holding values of the types of
+ * their columns. Table sizes are estimated from the size of each table file.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class BinaryDataSetProducer implements DataSetProducer, TableSizeEstimator {
+
+  /**
+   * The directory holding the data set.
+   */
+  private final File directory;
+
+  /**
+   * The table files, by upper case table name, read on open.
+   */
+  private final Map<String, File> files = new HashMap<>();
+
+  private Schema schema;
+
+
+  /**
+   * Creates a data set producer which reads the data set from <var>directory</var>.
+   *
+   * @param directory The directory holding the data set.
+   */
+  public BinaryDataSetProducer(File directory) {
+    super();
+    if (!directory.isDirectory()) {
+      throw new IllegalArgumentException("[" + directory + "] is not a directory");
+    }
+    this.directory = directory;
+  }
+
+
+  /**
+   * Reads the meta data of each table.
+   *
+   * @see org.alfasoftware.morf.dataset.DataSetProducer#open()
+   */
+  @Override
+  public void open() {
+    List<Table> tables = new ArrayList<>();
+    for (File file : directory.listFiles()) {
+      if (!file.getName().endsWith(BinaryDataSetFormat.FILE_EXTENSION)) {
+        continue;
+      }
+      try (BinaryTableReader reader = openReader(file)) {
+        tables.add(reader.getTable());
+        files.put(reader.getTable().getName().toUpperCase(), file);
+      } catch (IOException e) {
+        throw new RuntimeException("Error reading table meta data from [" + file + "]", e);
+      }
+    }
+    schema = SchemaUtils.schema(tables);
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.DataSetProducer#close()
+   */
+  @Override
+  public void close() {
+    files.clear();
+    schema = null;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.DataSetProducer#getSchema()
+   */
+  @Override
+  public Schema getSchema() {
+    if (schema == null) {
+      throw new IllegalStateException("Binary data set producer has not been opened");
+    }
+    return schema;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.DataSetProducer#records(java.lang.String)
+   */
+  @Override
+  public Iterable<Record> records(final String tableName) {
+    final File file = fileForTable(tableName);
+    return new Iterable<Record>() {
+      @Override
+      public Iterator<Record> iterator() {
+        final BinaryTableReader reader;
+        try {
+          reader = openReader(file);
+        } catch (IOException e) {
+          throw new RuntimeException("Error opening table [" + tableName + "]", e);
+        }
+
+        return new AbstractIterator<Record>() {
+          @Override
+          protected Record computeNext() {
+            try {
+              if (reader.hasNext()) {
+                return reader.next();
+              }
+              reader.close();
+              return endOfData();
+            } catch (IOException e) {
+              throw new RuntimeException("Error reading table [" + tableName + "]", e);
+            }
+          }
+        };
+      }
+    };
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.DataSetProducer#isTableEmpty(java.lang.String)
+   */
+  @Override
+  public boolean isTableEmpty(String tableName) {
+    try (BinaryTableReader reader = openReader(fileForTable(tableName))) {
+      return !reader.hasNext();
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading table [" + tableName + "]", e);
+    }
+  }
+
+
+  /**
+   * Estimates the size of the table as the length of its file in bytes.
+   *
+   * @see org.alfasoftware.morf.dataset.TableSizeEstimator#estimateSize(java.lang.String)
+   */
+  @Override
+  public Optional<Long> estimateSize(String tableName) {
+    return Optional.of(fileForTable(tableName).length());
+  }
+
+
+  private File fileForTable(String tableName) {
+    File file = files.get(tableName.toUpperCase());
+    if (file == null) {
+      throw new IllegalArgumentException("No such table [" + tableName + "]");
+    }
+    return file;
+  }
+
+
+  private BinaryTableReader openReader(File file) throws IOException {
+    FileInputStream inputStream = new FileInputStream(file);
+    try {
+      return new BinaryTableReader(inputStream);
+    } catch (IOException | RuntimeException e) {
+      inputStream.close();
+      throw e;
+    }
+  }
+}
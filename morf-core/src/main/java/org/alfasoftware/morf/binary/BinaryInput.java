@@ -0,0 +1,109 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.binary;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the binary data set format from a buffer, as written by {@link BinaryOutput}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+final class BinaryInput {
+
+  private byte[] buffer;
+  private int position;
+  private int limit;
+
+
+  /**
+   * Starts decoding the first <var>length</var> bytes of <var>buffer</var>.
+   *
+   * @param buffer The buffer.
+   * @param length The number of bytes in it to decode.
+   */
+  void reset(byte[] buffer, int length) {
+    this.buffer = buffer;
+    this.position = 0;
+    this.limit = length;
+  }
+
+
+  /**
+   * @return Whether all the bytes have been decoded.
+   */
+  boolean isExhausted() {
+    return position >= limit;
+  }
+
+
+  int readByte() {
+    checkAvailable(1);
+    return buffer[position++] & 0xFF;
+  }
+
+
+  long readUnsigned() {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int next = readByte();
+      result |= (long) (next & 0x7F) << shift;
+      if ((next & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IllegalStateException("Malformed variable length integer at [" + position + "]");
+  }
+
+
+  long readSigned() {
+    long encoded = readUnsigned();
+    return (encoded >>> 1) ^ -(encoded & 1);
+  }
+
+
+  int readLength() {
+    long length = readUnsigned();
+    if (length > limit - position) {
+      throw new IllegalStateException("Length [" + length + "] at [" + position + "] overruns the block");
+    }
+    return (int) length;
+  }
+
+
+  byte[] readBytes() {
+    int length = readLength();
+    byte[] result = new byte[length];
+    System.arraycopy(buffer, position, result, 0, length);
+    position += length;
+    return result;
+  }
+
+
+  String readString() {
+    int length = readLength();
+    String result = new String(buffer, position, length, StandardCharsets.UTF_8);
+    position += length;
+    return result;
+  }
+
+
+  private void checkAvailable(int bytes) {
+    if (position + bytes > limit) {
+      throw new IllegalStateException("Unexpected end of block at [" + position + "]");
+    }
+  }
+}
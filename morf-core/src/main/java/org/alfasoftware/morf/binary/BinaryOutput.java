@@ -0,0 +1,135 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.binary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable buffer into which the binary data set format is encoded.
+ *
+ * <p>Integers are written as variable length quantities, seven bits to a byte, low bits
+ * first. Signed values are zig-zag encoded first, so that small negative values are short
+ * too. Strings and byte arrays are written as their length followed by their bytes.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+final class BinaryOutput {
+
+  private byte[] buffer;
+  private int size;
+
+
+  /**
+   * @param initialCapacity The initial size of the buffer, in bytes.
+   */
+  BinaryOutput(int initialCapacity) {
+    this.buffer = new byte[initialCapacity];
+  }
+
+
+  /**
+   * @return The number of bytes written since the last {@link #reset()}.
+   */
+  int size() {
+    return size;
+  }
+
+
+  /**
+   * @return The buffer, of which the first {@link #size()} bytes have been written.
+   */
+  byte[] buffer() {
+    return buffer;
+  }
+
+
+  /**
+   * Discards the bytes written.
+   */
+  void reset() {
+    size = 0;
+  }
+
+
+  /**
+   * Writes the bytes written to <var>outputStream</var>.
+   *
+   * @param outputStream The stream to write to.
+   * @throws IOException If the stream cannot be written.
+   */
+  void writeTo(OutputStream outputStream) throws IOException {
+    outputStream.write(buffer, 0, size);
+  }
+
+
+  void writeByte(int value) {
+    ensureCapacity(1);
+    buffer[size++] = (byte) value;
+  }
+
+
+  void writeUnsigned(long value) {
+    ensureCapacity(10);
+    long remaining = value;
+    while ((remaining & ~0x7FL) != 0) {
+      buffer[size++] = (byte) ((remaining & 0x7F) | 0x80);
+      remaining >>>= 7;
+    }
+    buffer[size++] = (byte) remaining;
+  }
+
+
+  void writeSigned(long value) {
+    writeUnsigned((value << 1) ^ (value >> 63));
+  }
+
+
+  void writeBytes(byte[] value) {
+    writeUnsigned(value.length);
+    ensureCapacity(value.length);
+    System.arraycopy(value, 0, buffer, size, value.length);
+    size += value.length;
+  }
+
+
+  /**
+   * Writes a string as UTF-8, copying ASCII strings straight into the buffer.
+   */
+  void writeString(String value) {
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      if (value.charAt(i) >= 0x80) {
+        writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+    }
+    writeUnsigned(length);
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      buffer[size++] = (byte) value.charAt(i);
+    }
+  }
+
+
+  private void ensureCapacity(int extra) {
+    if (size + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+    }
+  }
+}
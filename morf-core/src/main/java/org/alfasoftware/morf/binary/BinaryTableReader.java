@@ -0,0 +1,267 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.binary;
+
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.BIG_DECIMAL_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.BYTES_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.DATE_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.DECIMAL_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.DEFLATED_BLOCK;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.FALSE_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.LONG_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.MAGIC;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.NULL_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.STRING_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.TRUE_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.UNCOMPRESSED_BLOCK;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.VERSION;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.LayoutRecord;
+import org.alfasoftware.morf.metadata.RecordLayout;
+import org.alfasoftware.morf.metadata.Table;
+import org.joda.time.LocalDate;
+
+/**
+ * Reads the meta data and rows of one table in the binary data set format.
+ *
+ * <p>Rows are read a block at a time, each row into a new {@link LayoutRecord} sharing
+ * the layout of the table's columns.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+final class BinaryTableReader implements Closeable {
+
+  private final DataInputStream inputStream;
+  private final Table table;
+  private final RecordLayout layout;
+
+  private final BinaryInput block = new BinaryInput();
+  private byte[] blockBytes = new byte[0];
+  private byte[] compressed = new byte[0];
+  private Inflater inflater;
+
+  /**
+   * The rows left in the current block, or -1 once the end of the table has been read.
+   */
+  private long blockRows;
+
+
+  /**
+   * Reads the meta data of the table held in <var>inputStream</var>, ready for its rows.
+   *
+   * @param inputStream The stream to read. This is closed by {@link #close()}.
+   * @throws IOException If the stream cannot be read, or does not hold a table.
+   */
+  BinaryTableReader(InputStream inputStream) throws IOException {
+    this.inputStream = new DataInputStream(new BufferedInputStream(inputStream, 65536));
+    if (this.inputStream.readInt() != MAGIC) {
+      throw new IOException("Not a binary data set table");
+    }
+    int version = this.inputStream.readUnsignedByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported binary data set version [" + version + "]");
+    }
+    int length = (int) readUnsigned();
+    block.reset(readFully(length), length);
+    this.table = BinaryDataSetFormat.readTable(block);
+    this.layout = RecordLayout.of(table.columns());
+  }
+
+
+  /**
+   * @return The meta data of the table.
+   */
+  Table getTable() {
+    return table;
+  }
+
+
+  /**
+   * @return Whether there is another row.
+   * @throws IOException If the stream cannot be read.
+   */
+  boolean hasNext() throws IOException {
+    while (blockRows == 0) {
+      readBlock();
+    }
+    return blockRows > 0;
+  }
+
+
+  /**
+   * @return The next row.
+   * @throws IOException If the stream cannot be read.
+   */
+  LayoutRecord next() throws IOException {
+    if (!hasNext()) {
+      throw new IllegalStateException("No more rows in table [" + table.getName() + "]");
+    }
+    LayoutRecord record = layout.newRecord();
+    for (int slot = 0; slot < layout.size(); slot++) {
+      readValue(record, slot);
+    }
+    blockRows--;
+    return record;
+  }
+
+
+  private void readValue(LayoutRecord record, int slot) {
+    int tag = block.readByte();
+    switch (tag) {
+      case NULL_TAG:
+        break;
+      case STRING_TAG:
+        record.setString(slot, block.readString());
+        break;
+      case LONG_TAG:
+        long value = block.readSigned();
+        if (layout.getType(slot) == DataType.INTEGER) {
+          record.setInt(slot, (int) value);
+        } else {
+          record.setLong(slot, value);
+        }
+        break;
+      case TRUE_TAG:
+      case FALSE_TAG:
+        record.setBoolean(slot, tag == TRUE_TAG);
+        break;
+      case DECIMAL_TAG:
+        int scale = (int) block.readSigned();
+        record.setObject(slot, BigDecimal.valueOf(block.readSigned(), scale));
+        break;
+      case BIG_DECIMAL_TAG:
+        int bigScale = (int) block.readSigned();
+        record.setObject(slot, new BigDecimal(new BigInteger(block.readBytes()), bigScale));
+        break;
+      case DATE_TAG:
+        long packed = block.readSigned();
+        record.setObject(slot, new LocalDate((int) (packed >> 9), (int) (packed >> 5) & 0xF, (int) packed & 0x1F));
+        break;
+      case BYTES_TAG:
+        record.setObject(slot, block.readBytes());
+        break;
+      default:
+        throw new IllegalStateException("Unknown value tag [" + tag + "] for column [" + layout.getColumnName(slot) + "] of table [" + table.getName() + "]");
+    }
+  }
+
+
+  /**
+   * Reads the next block into {@link #block}, or records the end of the table.
+   */
+  private void readBlock() throws IOException {
+    if (!block.isExhausted()) {
+      throw new IllegalStateException("Block of table [" + table.getName() + "] holds more than its rows");
+    }
+    blockRows = readUnsigned();
+    if (blockRows == 0) {
+      blockRows = -1;
+      return;
+    }
+    int compression = inputStream.readUnsignedByte();
+    int storedLength = (int) readUnsigned();
+    if (compression == UNCOMPRESSED_BLOCK) {
+      block.reset(readFully(storedLength), storedLength);
+    } else if (compression == DEFLATED_BLOCK) {
+      int length = (int) readUnsigned();
+      if (compressed.length < storedLength) {
+        compressed = new byte[storedLength];
+      }
+      inputStream.readFully(compressed, 0, storedLength);
+      block.reset(inflate(storedLength, length), length);
+    } else {
+      throw new IOException("Unknown block compression [" + compression + "] in table [" + table.getName() + "]");
+    }
+  }
+
+
+  private byte[] inflate(int storedLength, int length) throws IOException {
+    if (inflater == null) {
+      inflater = new Inflater(true);
+    }
+    inflater.reset();
+    inflater.setInput(compressed, 0, storedLength);
+    byte[] result = blockBuffer(length);
+    try {
+      int inflated = 0;
+      while (inflated < length) {
+        int count = inflater.inflate(result, inflated, length - inflated);
+        if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new IOException("Truncated block in table [" + table.getName() + "]");
+        }
+        inflated += count;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt block in table [" + table.getName() + "]", e);
+    }
+    return result;
+  }
+
+
+  private byte[] readFully(int length) throws IOException {
+    byte[] result = blockBuffer(length);
+    inputStream.readFully(result, 0, length);
+    return result;
+  }
+
+
+  private byte[] blockBuffer(int length) {
+    if (blockBytes.length < length) {
+      blockBytes = new byte[length];
+    }
+    return blockBytes;
+  }
+
+
+  private long readUnsigned() throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int next = inputStream.read();
+      if (next < 0) {
+        throw new EOFException("Unexpected end of table" + (table == null ? "" : " [" + table.getName() + "]"));
+      }
+      result |= (long) (next & 0x7F) << shift;
+      if ((next & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed variable length integer");
+  }
+
+
+  /**
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+    if (inflater != null) {
+      inflater.end();
+    }
+    inputStream.close();
+  }
+}
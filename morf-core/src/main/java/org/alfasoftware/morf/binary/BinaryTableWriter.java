@@ -0,0 +1,240 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.binary;
+
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.BIG_DECIMAL_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.BLOCK_SIZE;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.BYTES_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.DATE_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.DECIMAL_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.DEFLATED_BLOCK;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.FALSE_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.LONG_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.MAGIC;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.NULL_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.STRING_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.TRUE_TAG;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.UNCOMPRESSED_BLOCK;
+import static org.alfasoftware.morf.binary.BinaryDataSetFormat.VERSION;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.Column;
+import org.alfasoftware.morf.metadata.Table;
+import org.joda.time.LocalDate;
+
+import com.google.common.base.Optional;
+
+/**
+ * Writes the meta data and rows of one table in the binary data set format.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+final class BinaryTableWriter implements Closeable {
+
+  private final DataOutputStream outputStream;
+  private final List<Column> columns;
+
+  /**
+   * Compresses each block, if blocks are to be compressed.
+   */
+  private final Deflater deflater;
+
+  private final BinaryOutput block = new BinaryOutput(BLOCK_SIZE + BLOCK_SIZE / 4);
+  private final BinaryOutput blockHeader = new BinaryOutput(32);
+  private byte[] compressed = new byte[0];
+  private int blockRows;
+
+
+  /**
+   * Writes the meta data of <var>table</var> to <var>outputStream</var>, ready for its rows.
+   *
+   * @param table The table.
+   * @param outputStream The stream to write to.
+   * @param compressionLevel The deflate level with which to compress each block, or absent to leave blocks uncompressed.
+   * @throws IOException If the stream cannot be written.
+   */
+  BinaryTableWriter(Table table, OutputStream outputStream, Optional<Integer> compressionLevel) throws IOException {
+    this.outputStream = new DataOutputStream(outputStream);
+    this.columns = table.columns();
+    this.deflater = compressionLevel.isPresent() ? new Deflater(compressionLevel.get(), true) : null;
+
+    BinaryOutput metadata = new BinaryOutput(1024);
+    BinaryDataSetFormat.writeTable(table, metadata);
+    this.outputStream.writeInt(MAGIC);
+    this.outputStream.writeByte(VERSION);
+    blockHeader.writeUnsigned(metadata.size());
+    blockHeader.writeTo(this.outputStream);
+    metadata.writeTo(this.outputStream);
+  }
+
+
+  /**
+   * Writes a row, with a value for each column of the table.
+   *
+   * @param record The row.
+   * @throws IOException If the stream cannot be written.
+   */
+  void write(Record record) throws IOException {
+    for (Column column : columns) {
+      writeValue(record, column);
+    }
+    blockRows++;
+    if (block.size() >= BLOCK_SIZE) {
+      writeBlock();
+    }
+  }
+
+
+  /**
+   * Reads the value of a column from the record using the accessor for its type, and
+   * writes it with the corresponding tag.
+   */
+  private void writeValue(Record record, Column column) {
+    String name = column.getName();
+    switch (column.getType()) {
+      case BIG_INTEGER:
+      case INTEGER:
+        Long longValue = record.getLong(name);
+        if (longValue == null) {
+          block.writeByte(NULL_TAG);
+        } else {
+          block.writeByte(LONG_TAG);
+          block.writeSigned(longValue);
+        }
+        break;
+      case BOOLEAN:
+        Boolean booleanValue = record.getBoolean(name);
+        block.writeByte(booleanValue == null ? NULL_TAG : booleanValue ? TRUE_TAG : FALSE_TAG);
+        break;
+      case DECIMAL:
+        writeDecimal(record.getBigDecimal(name));
+        break;
+      case DATE:
+        LocalDate dateValue = record.getLocalDate(name);
+        if (dateValue == null) {
+          block.writeByte(NULL_TAG);
+        } else {
+          block.writeByte(DATE_TAG);
+          block.writeSigned((long) dateValue.getYear() << 9 | dateValue.getMonthOfYear() << 5 | dateValue.getDayOfMonth());
+        }
+        break;
+      case BLOB:
+        byte[] bytesValue = record.getByteArray(name);
+        if (bytesValue == null) {
+          block.writeByte(NULL_TAG);
+        } else {
+          block.writeByte(BYTES_TAG);
+          block.writeBytes(bytesValue);
+        }
+        break;
+      default:
+        String stringValue = record.getString(name);
+        if (stringValue == null) {
+          block.writeByte(NULL_TAG);
+        } else {
+          block.writeByte(STRING_TAG);
+          block.writeString(stringValue);
+        }
+        break;
+    }
+  }
+
+
+  private void writeDecimal(BigDecimal value) {
+    if (value == null) {
+      block.writeByte(NULL_TAG);
+    } else if (value.unscaledValue().bitLength() < 64) {
+      block.writeByte(DECIMAL_TAG);
+      block.writeSigned(value.scale());
+      block.writeSigned(value.unscaledValue().longValue());
+    } else {
+      block.writeByte(BIG_DECIMAL_TAG);
+      block.writeSigned(value.scale());
+      block.writeBytes(value.unscaledValue().toByteArray());
+    }
+  }
+
+
+  /**
+   * Writes the rows buffered so far as a block, compressing it if required.
+   */
+  private void writeBlock() throws IOException {
+    blockHeader.reset();
+    blockHeader.writeUnsigned(blockRows);
+    if (deflater == null) {
+      blockHeader.writeByte(UNCOMPRESSED_BLOCK);
+      blockHeader.writeUnsigned(block.size());
+      blockHeader.writeTo(outputStream);
+      block.writeTo(outputStream);
+    } else {
+      int compressedLength = deflate();
+      blockHeader.writeByte(DEFLATED_BLOCK);
+      blockHeader.writeUnsigned(compressedLength);
+      blockHeader.writeUnsigned(block.size());
+      blockHeader.writeTo(outputStream);
+      outputStream.write(compressed, 0, compressedLength);
+    }
+    block.reset();
+    blockRows = 0;
+  }
+
+
+  private int deflate() {
+    deflater.reset();
+    deflater.setInput(block.buffer(), 0, block.size());
+    deflater.finish();
+    int length = 0;
+    while (!deflater.finished()) {
+      if (length == compressed.length) {
+        compressed = Arrays.copyOf(compressed, Math.max(BLOCK_SIZE, compressed.length * 2));
+      }
+      length += deflater.deflate(compressed, length, compressed.length - length);
+    }
+    return length;
+  }
+
+
+  /**
+   * Writes any buffered rows and the end of the table, and closes the stream.
+   *
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (blockRows > 0) {
+        writeBlock();
+      }
+      blockHeader.reset();
+      blockHeader.writeUnsigned(0);
+      blockHeader.writeTo(outputStream);
+      outputStream.close();
+    } finally {
+      if (deflater != null) {
+        deflater.end();
+      }
+    }
+  }
+}
@@ -15,11 +15,31 @@
 
 package org.alfasoftware.morf.dataset;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.alfasoftware.morf.dataset.DataSetConsumer.CloseState;
+import org.alfasoftware.morf.metadata.RecordLayout;
+import org.alfasoftware.morf.metadata.Table;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Optional;
 
 /**
  * Transmits all data from a {@link DataSetProducer} to a {@link DataSetConsumer}. This
@@ -28,17 +48,78 @@ import org.alfasoftware.morf.dataset.DataSetConsumer.CloseState;
  *
  * <p>
  * This version of the connector works using an {@link ExecutorService} to provide
- * work management and concurrency.
+ * work management and concurrency. Tables are queued in the order given by a
+ * {@link TableScheduler} - largest first by default - and each worker thread takes
+ * the next table from the queue as soon as it finishes its current one.
+ * </p>
+ * <p>
+ * Large tables can also be split into key ranges which are transmitted in parallel,
+ * where both the producer and the consumer support it. See {@link #withPartitioning(int, long)}.
+ * </p>
+ * <p>
+ * Reading and writing each table can be overlapped, rather than run in turn on the
+ * same thread. See {@link #withPipelining(int, int)}.
+ * </p>
+ * <p>
+ * Progress can be recorded in a {@link TransferJournal}, so that a failed transfer
+ * can be resumed. See {@link #withJournal(TransferJournal)}.
  * </p>
  *
  * @author Copyright (c) Alfa Financial Software 2011
  */
 public class DataSetConnectorMultiThreaded {
 
+  private static final Log log = LogFactory.getLog(DataSetConnectorMultiThreaded.class);
+
   /**
    * Number of threads in the executor pool.
    */
-  private final int threadCount;
+  private int threadCount;
+
+  /**
+   * Decides the order in which tables are started.
+   */
+  private TableScheduler scheduler = new LargestFirstTableScheduler();
+
+  /**
+   * The number of key ranges to split large tables into. 1 disables partitioning.
+   */
+  private int partitionCount = 1;
+
+  /**
+   * The estimated size at or above which a table is partitioned.
+   */
+  private long minimumPartitionedTableSize;
+
+  /**
+   * The number of records in each batch passed from reader to writer. 0 disables pipelining.
+   */
+  private int pipelineBatchSize;
+
+  /**
+   * The maximum number of batches waiting to be written, per table.
+   */
+  private int pipelineQueueDepth;
+
+  /**
+   * The number of rows in each batch when tables are transmitted by column. 0 transmits record by record.
+   */
+  private int recordBatchSize;
+
+  /**
+   * Runs the reader side of each pipelined table, if pipelining is enabled.
+   */
+  private ExecutorService readerExecutor;
+
+  /**
+   * Records the tables and key ranges transmitted, if set.
+   */
+  private TransferJournal journal;
+
+  /**
+   * Time taken to transmit each table, in milliseconds, in order of completion.
+   */
+  private final Map<String, Long> tableTimings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
 
   /**
    * The producer from which all data will be retrieved and pushed to the {@link #consumer}.
@@ -66,23 +147,155 @@ public class DataSetConnectorMultiThreaded {
 
 
   /**
-   * Calculates the number of threads to use
+   * Sets the number of tables to transmit in parallel. If not called, this is
+   * derived from the number of available processors.
+   *
+   * @param threadCount The number of worker threads.
+   * @return this, for chaining.
+   */
+  public DataSetConnectorMultiThreaded withThreadCount(int threadCount) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("Thread count must be at least 1, but was [" + threadCount + "]");
+    }
+    this.threadCount = threadCount;
+    return this;
+  }
+
+
+  /**
+   * Sets the scheduler which orders the tables. Defaults to {@link LargestFirstTableScheduler}.
+   *
+   * @param scheduler The scheduler to use.
+   * @return this, for chaining.
+   */
+  public DataSetConnectorMultiThreaded withScheduler(TableScheduler scheduler) {
+    this.scheduler = scheduler;
+    return this;
+  }
+
+
+  /**
+   * Splits large tables into key ranges which are transmitted in parallel, each
+   * with its own worker thread. This only takes effect if the producer implements
+   * {@link PartitionedTableProducer} and the consumer implements {@link PartitionedTableConsumer}.
+   *
+   * <p>Tables are partitioned if the producer estimates their size, through
+   * {@link TableSizeEstimator}, to be at least <var>minimumEstimatedSize</var>.
+   * If the producer cannot estimate sizes, tables are only partitioned when
+   * <var>minimumEstimatedSize</var> is zero.</p>
+   *
+   * @param partitionCount The number of key ranges to split each large table into.
+   * @param minimumEstimatedSize The estimated size at or above which a table is partitioned.
+   * @return this, for chaining.
+   */
+  public DataSetConnectorMultiThreaded withPartitioning(int partitionCount, long minimumEstimatedSize) {
+    if (partitionCount < 1) {
+      throw new IllegalArgumentException("Partition count must be at least 1, but was [" + partitionCount + "]");
+    }
+    this.partitionCount = partitionCount;
+    this.minimumPartitionedTableSize = minimumEstimatedSize;
+    return this;
+  }
+
+
+  /**
+   * Reads each table on a separate thread from the one writing it, so that fetching
+   * records from the producer overlaps with loading them into the consumer. Records are
+   * passed from reader to writer in batches through a bounded queue, so the memory used
+   * is limited to <var>batchSize</var> &times; <var>queueDepth</var> records for each
+   * table in flight, however far the reader gets ahead.
+   *
+   * <p>This doubles the number of threads used, one reader for each worker thread.
+   * It applies to key ranges of partitioned tables in the same way.</p>
+   *
+   * @param batchSize The number of records passed across in each batch.
+   * @param queueDepth The maximum number of batches waiting to be written, per table.
+   * @return this, for chaining.
+   */
+  public DataSetConnectorMultiThreaded withPipelining(int batchSize, int queueDepth) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1, but was [" + batchSize + "]");
+    }
+    if (queueDepth < 1) {
+      throw new IllegalArgumentException("Queue depth must be at least 1, but was [" + queueDepth + "]");
+    }
+    this.pipelineBatchSize = batchSize;
+    this.pipelineQueueDepth = queueDepth;
+    return this;
+  }
+
+
+  /**
+   * Transmits each whole table in batches held by column, through
+   * {@link DataSetProducer#recordBatches(String, int)} and {@link DataSetConsumer#tableBatches(Table, Iterable)},
+   * rather than record by record. This pays off where the producer fills the batches directly,
+   * as the database and XML producers do.
+   *
+   * <p>Batches are handed straight to the consumer on the reading thread, so this takes the place
+   * of {@link #withPipelining(int, int)} for whole tables. Key ranges of partitioned tables are
+   * still transmitted record by record.</p>
+   *
+   * @param batchSize The number of rows in each batch.
+   * @return this, for chaining.
+   */
+  public DataSetConnectorMultiThreaded withRecordBatches(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1, but was [" + batchSize + "]");
+    }
+    this.recordBatchSize = batchSize;
+    return this;
+  }
+
+
+  /**
+   * Records each table, and each key range of a partitioned table, in <var>journal</var>
+   * once it has been transmitted, and skips any which the journal records as already
+   * transmitted. Running the connector again with the journal of a failed transfer
+   * therefore resumes it.
+   *
+   * <p>Tables which were not complete are transmitted again from the start, so the
+   * consumer must empty each table before loading it, as {@link TableLoaderBuilder#truncateBeforeLoad()}
+   * does. The consumer must also implement {@link ResumableDataSetConsumer}, and make each
+   * table durable as it is loaded, rather than only when it is closed, or there is nothing
+   * to resume from; see for example {@code DatabaseDataSetConsumer.withCommitPerTable()}.
+   * {@link #connect()} fails otherwise.</p>
+   *
+   * <p>A partitioned table is only resumed range by range if it is split into the same
+   * key ranges as before. Otherwise it is emptied and transmitted again in full.</p>
+   *
+   * <p>The consumer is told of each table which is skipped, or resumed range by range.</p>
+   *
+   * @param journal The journal to record progress in, and resume from.
+   * @return this, for chaining.
+   */
+  public DataSetConnectorMultiThreaded withJournal(TransferJournal journal) {
+    this.journal = journal;
+    return this;
+  }
+
+
+  /**
+   * @return The time taken to transmit each table by the last call to {@link #connect()},
+   *         in milliseconds, in the order the tables completed.
+   */
+  public Map<String, Long> getTableTimings() {
+    synchronized (tableTimings) {
+      return new LinkedHashMap<>(tableTimings);
+    }
+  }
+
+
+  /**
+   * Calculates the number of threads to use: one for each available processor.
    *
    * @return The number of threads to use for dumping the database.
    */
   private int calculateThreadCount() {
     int processorCount = Runtime.getRuntime().availableProcessors();
-
-    switch(processorCount) {
-      case 0:
-        throw new RuntimeException("Could not find at least 1 processor");
-      case 1:
-        return 1;
-      case 2:
-        return 2;
-      default:
-        return 8;
+    if (processorCount < 1) {
+      throw new RuntimeException("Could not find at least 1 processor");
     }
+    return processorCount;
   }
 
 
@@ -90,22 +303,56 @@ public class DataSetConnectorMultiThreaded {
    * Transmits all data from the producer to the consumer.
    */
   public void connect() {
+    if (journal != null && !(consumer instanceof ResumableDataSetConsumer && ((ResumableDataSetConsumer) consumer).isDurablePerTable())) {
+      throw new IllegalStateException("Consumer [" + consumer + "] does not make each table durable as it is loaded, so cannot be resumed from a journal");
+    }
+
     CloseState closeState = CloseState.INCOMPLETE;
     ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    // one reader per worker, so every table being written always has its reader running
+    readerExecutor = pipelineBatchSize > 0 ? Executors.newFixedThreadPool(threadCount) : null;
+    tableTimings.clear();
     try {
       consumer.open();
       producer.open();
       try {
-        for (String tableName : producer.getSchema().tableNames()) {
+        long start = System.currentTimeMillis();
+        List<String> tableNames = scheduler.schedule(producer, remainingTableNames());
+
+        CompletionService<String> completionService = new ExecutorCompletionService<>(executor);
+        int taskCount = 0;
+        for (String tableName : tableNames) {
+          List<KeyRange> keyRanges = partition(tableName);
+          if (keyRanges.isEmpty()) {
+            completionService.submit(new DataSetConnectorRunnable(producer, consumer, tableName), tableName);
+            taskCount++;
+          } else {
+            Table table = producer.getSchema().getTable(tableName);
+            List<KeyRange> remainingKeyRanges = openPartitionedTable(table, keyRanges);
+            PartitionedTableProgress progress = new PartitionedTableProgress(table, remainingKeyRanges.size());
+            if (remainingKeyRanges.isEmpty()) {
+              // every range was transmitted before the failure, but the table was not closed
+              closePartitionedTable(progress);
+            }
+            for (KeyRange keyRange : remainingKeyRanges) {
+              completionService.submit(new DataSetConnectorPartitionRunnable(progress, keyRange), tableName);
+              taskCount++;
+            }
+          }
+        }
+        executor.shutdown();
+
+        // wait for the tables in the order they finish, so that a failure is reported as soon as it happens
+        for (int i = 0; i < taskCount; i++) {
           try {
-            executor.execute(new DataSetConnectorRunnable(producer, consumer, tableName));
-          } catch (Exception e) {
+            completionService.take().get();
+          } catch (ExecutionException e) {
             executor.shutdownNow();
-            throw new RuntimeException("Error connecting table [" + tableName + "]", e);
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
           }
         }
-        executor.shutdown();
-        executor.awaitTermination(60, TimeUnit.MINUTES);
+
+        log.info("Transmitted [" + tableNames.size() + "] tables in [" + (System.currentTimeMillis() - start) + "] ms using [" + threadCount + "] threads");
 
         // once we've read all the tables without exception, we're complete
         closeState = CloseState.COMPLETE;
@@ -113,15 +360,180 @@ public class DataSetConnectorMultiThreaded {
         Thread.currentThread().interrupt();
         return;
       } finally {
+        // the workers must have stopped using the producer and consumer before they are closed
+        stop(executor);
         producer.close();
       }
     } finally {
-      executor.shutdownNow();
+      stop(executor);
       consumer.close(closeState);
     }
   }
 
 
+  /**
+   * Interrupts any tables still being transmitted, and waits for the workers and readers to stop.
+   *
+   * @param executor The executor running the workers.
+   */
+  private void stop(ExecutorService executor) {
+    executor.shutdownNow();
+    if (readerExecutor != null) {
+      readerExecutor.shutdownNow();
+    }
+    try {
+      executor.awaitTermination(60, TimeUnit.MINUTES);
+      if (readerExecutor != null) {
+        readerExecutor.awaitTermination(60, TimeUnit.MINUTES);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+
+  /**
+   * @return The names of the tables still to be transmitted.
+   */
+  private Collection<String> remainingTableNames() {
+    Collection<String> tableNames = producer.getSchema().tableNames();
+    if (journal == null) {
+      return tableNames;
+    }
+
+    Set<String> completedTables = journal.completedTables();
+    List<String> remaining = new ArrayList<>();
+    for (String tableName : tableNames) {
+      if (completedTables.contains(tableName)) {
+        tableResumed(producer.getSchema().getTable(tableName));
+      } else {
+        remaining.add(tableName);
+      }
+    }
+    if (remaining.size() < tableNames.size()) {
+      log.info("Resuming transfer: [" + (tableNames.size() - remaining.size()) + "] of [" + tableNames.size() + "] tables already transmitted");
+    }
+    return remaining;
+  }
+
+
+  /**
+   * Tells the consumer, if it wants to know, of a table started by an earlier transfer.
+   *
+   * @param table The table.
+   */
+  private void tableResumed(Table table) {
+    if (consumer instanceof ResumableDataSetConsumer) {
+      ((ResumableDataSetConsumer) consumer).tableResumed(table);
+    }
+  }
+
+
+  /**
+   * Prepares a partitioned table to receive its key ranges, unless it is being resumed.
+   *
+   * @param table The table.
+   * @param keyRanges All the key ranges of the table.
+   * @return The key ranges still to be transmitted.
+   */
+  private List<KeyRange> openPartitionedTable(Table table, List<KeyRange> keyRanges) {
+    if (journal != null) {
+      Set<KeyRange> completedKeyRanges = journal.completedKeyRanges(table.getName());
+      if (!completedKeyRanges.isEmpty() && keyRanges.containsAll(completedKeyRanges)) {
+        List<KeyRange> remaining = new ArrayList<>(keyRanges);
+        remaining.removeAll(completedKeyRanges);
+        log.info("Resuming table [" + table.getName() + "]: key ranges " + completedKeyRanges + " already transmitted");
+        tableResumed(table);
+        return remaining;
+      }
+    }
+
+    ((PartitionedTableConsumer) consumer).openPartitionedTable(table);
+    if (journal != null) {
+      journal.tableStarted(table.getName());
+    }
+    return keyRanges;
+  }
+
+
+  /**
+   * Completes a partitioned table once all its key ranges have been transmitted.
+   *
+   * @param progress The table.
+   */
+  private void closePartitionedTable(PartitionedTableProgress progress) {
+    String tableName = progress.table.getName();
+    try {
+      ((PartitionedTableConsumer) consumer).closePartitionedTable(progress.table);
+    } catch (Exception e) {
+      throw new RuntimeException("Error connecting table [" + tableName + "]", e);
+    }
+    if (journal != null) {
+      journal.tableCompleted(tableName);
+    }
+    long elapsed = progress.start.get() == 0 ? 0 : System.currentTimeMillis() - progress.start.get();
+    tableTimings.put(tableName, elapsed);
+    log.debug("Transmitted table [" + tableName + "] in [" + elapsed + "] ms");
+  }
+
+
+  /**
+   * Passes <var>records</var> to <var>writer</var>, through a {@link RecordPipeline} if
+   * pipelining is enabled.
+   *
+   * @param table The table being transmitted.
+   * @param records The records read from the producer.
+   * @param writer Writes the records to the consumer, on the current thread.
+   */
+  private void transmit(Table table, Iterable<Record> records, Consumer<Iterable<Record>> writer) {
+    if (readerExecutor == null) {
+      writer.accept(records);
+      return;
+    }
+
+    RecordPipeline pipeline = new RecordPipeline(RecordLayout.of(table.columns()), pipelineBatchSize, pipelineQueueDepth);
+    Future<?> reader = readerExecutor.submit(() -> {
+      pipeline.fill(records);
+      return null;
+    });
+    try {
+      writer.accept(pipeline);
+    } finally {
+      // stops the reader if the writer failed, or finished without reading everything
+      reader.cancel(true);
+    }
+  }
+
+
+  /**
+   * Splits a table into key ranges, if it qualifies for partitioning.
+   *
+   * @param tableName The table to split.
+   * @return The key ranges, or an empty list if the table is to be transmitted whole.
+   */
+  private List<KeyRange> partition(String tableName) {
+    if (partitionCount < 2 || !(producer instanceof PartitionedTableProducer) || !(consumer instanceof PartitionedTableConsumer)) {
+      return Collections.emptyList();
+    }
+
+    if (minimumPartitionedTableSize > 0) {
+      if (!(producer instanceof TableSizeEstimator)) {
+        return Collections.emptyList();
+      }
+      Optional<Long> estimate = ((TableSizeEstimator) producer).estimateSize(tableName);
+      if (!estimate.isPresent() || estimate.get() < minimumPartitionedTableSize) {
+        return Collections.emptyList();
+      }
+    }
+
+    List<KeyRange> keyRanges = ((PartitionedTableProducer) producer).partition(tableName, partitionCount);
+    if (!keyRanges.isEmpty()) {
+      log.debug("Transmitting table [" + tableName + "] in key ranges " + keyRanges);
+    }
+    return keyRanges;
+  }
+
+
   /**
    * Runnable for use in {@link ExecutorService} instances. "Cryo"-s one
    * table.
@@ -168,7 +580,81 @@ public class DataSetConnectorMultiThreaded {
      */
     @Override
     public void run() {
-      consumer.table(producer.getSchema().getTable(tableName), producer.records(tableName));
+      long start = System.currentTimeMillis();
+      try {
+        Table table = producer.getSchema().getTable(tableName);
+        if (recordBatchSize > 0) {
+          consumer.tableBatches(table, producer.recordBatches(tableName, recordBatchSize));
+        } else {
+          transmit(table, producer.records(tableName), records -> consumer.table(table, records));
+        }
+      } catch (Exception e) {
+        throw new RuntimeException("Error connecting table [" + tableName + "]", e);
+      }
+      if (journal != null) {
+        journal.tableCompleted(tableName);
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      tableTimings.put(tableName, elapsed);
+      log.debug("Transmitted table [" + tableName + "] in [" + elapsed + "] ms");
+    }
+  }
+
+
+  /**
+   * Tracks the key ranges of a partitioned table still to be transmitted.
+   */
+  private static final class PartitionedTableProgress {
+
+    private final Table table;
+    private final AtomicInteger remaining;
+    private final AtomicLong start = new AtomicLong();
+
+    PartitionedTableProgress(Table table, int partitions) {
+      this.table = table;
+      this.remaining = new AtomicInteger(partitions);
+    }
+  }
+
+
+  /**
+   * Runnable for use in {@link ExecutorService} instances. "Cryo"-s one key range
+   * of a table, and completes the table if it is the last range to finish.
+   */
+  private final class DataSetConnectorPartitionRunnable implements Runnable {
+
+    private final PartitionedTableProgress progress;
+    private final KeyRange keyRange;
+
+    /**
+     * @param progress The table being transmitted.
+     * @param keyRange The range of keys to transmit.
+     */
+    private DataSetConnectorPartitionRunnable(PartitionedTableProgress progress, KeyRange keyRange) {
+      this.progress = progress;
+      this.keyRange = keyRange;
+    }
+
+    /**
+     * Cryo-s the key range from the producer to the consumer.
+     */
+    @Override
+    public void run() {
+      String tableName = progress.table.getName();
+      progress.start.compareAndSet(0, System.currentTimeMillis());
+      try {
+        transmit(progress.table, ((PartitionedTableProducer) producer).records(tableName, keyRange),
+          records -> ((PartitionedTableConsumer) consumer).tablePartition(progress.table, keyRange, records));
+      } catch (Exception e) {
+        throw new RuntimeException("Error connecting table [" + tableName + "] key range " + keyRange, e);
+      }
+      if (journal != null) {
+        journal.keyRangeCompleted(tableName, keyRange);
+      }
+
+      if (progress.remaining.decrementAndGet() == 0) {
+        closePartitionedTable(progress);
+      }
     }
   }
 }
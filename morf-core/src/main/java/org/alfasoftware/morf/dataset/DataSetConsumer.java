@@ -15,6 +15,7 @@
 
 package org.alfasoftware.morf.dataset;
 
+import org.alfasoftware.morf.metadata.RecordBatch;
 import org.alfasoftware.morf.metadata.Table;
 
 /**
@@ -73,4 +74,18 @@ public interface DataSetConsumer {
    */
   public void table(Table table, Iterable<Record> records);
 
+
+  /**
+   * Receives a table and its data in batches held by column.
+   *
+   * <p>The default implementation passes a view of each row to {@link #table(Table, Iterable)}.</p>
+   *
+   * @param table Meta data for the table.
+   * @param batches The data.
+   * @see DataSetProducer#recordBatches(String, int)
+   */
+  public default void tableBatches(Table table, Iterable<RecordBatch> batches) {
+    table(table, RecordBatch.records(batches));
+  }
+
 }
@@ -15,6 +15,8 @@
 
 package org.alfasoftware.morf.dataset;
 
+import org.alfasoftware.morf.metadata.RecordBatch;
+import org.alfasoftware.morf.metadata.RecordLayout;
 import org.alfasoftware.morf.metadata.Schema;
 
 /**
@@ -62,6 +64,26 @@ public interface DataSetProducer {
   public Iterable<Record> records(String tableName);
 
 
+  /**
+   * Access the data for the table <var>tableName</var> in batches held by column, with
+   * a slot in the batch layout for each of the table's columns.
+   *
+   * <p>Unlike the records from {@link #records(String)}, batches are not re-used, but each
+   * must be finished with before the next is requested so that implementations need only
+   * hold one batch in memory.</p>
+   *
+   * <p>The default implementation copies the records from {@link #records(String)}
+   * into batches. Implementations which can fill the column vectors directly should override it.</p>
+   *
+   * @param tableName The table to get records from.
+   * @param batchSize The maximum number of rows in each batch.
+   * @return The batches.
+   */
+  public default Iterable<RecordBatch> recordBatches(String tableName, int batchSize) {
+    return RecordBatch.batches(RecordLayout.of(getSchema().getTable(tableName).columns()), records(tableName), batchSize);
+  }
+
+
   /**
    * @param tableName The table to check
    * @return Whether the specified table is empty.
@@ -0,0 +1,186 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * {@link TransferJournal} kept in a local file, so that it survives the failure of
+ * the process running the transfer.
+ *
+ * <p>If the file already exists, the progress it records is read when the journal is
+ * created and the transfer resumes from there. Delete the file to start afresh.</p>
+ *
+ * <p>The file is only ever appended to, one line per event, and each line is synced to
+ * disk before the event is considered recorded. A line left incomplete by a crash is
+ * ignored, and cut from the end of the file when it is read, so that the next event
+ * starts on a line of its own.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class FileTransferJournal implements TransferJournal {
+
+  private static final String TABLE_COMPLETED = "TABLE";
+  private static final String TABLE_STARTED = "START";
+  private static final String KEY_RANGE_COMPLETED = "RANGE";
+
+  private final File file;
+  private final Set<String> completedTables = new HashSet<>();
+  private final Map<String, Set<KeyRange>> completedKeyRanges = new HashMap<>();
+
+
+  /**
+   * @param file The journal file, which is created if it does not exist.
+   */
+  public FileTransferJournal(File file) {
+    this.file = file;
+    if (file.exists()) {
+      read();
+    }
+  }
+
+
+  /**
+   * Replays the events in the existing file, and truncates it to the end of the last complete line.
+   */
+  private void read() {
+    try (RandomAccessFile journal = new RandomAccessFile(file, "rw")) {
+      byte[] content = new byte[(int) journal.length()];
+      journal.readFully(content);
+
+      int end = content.length;
+      while (end > 0 && content[end - 1] != '\n') {
+        end--;
+      }
+      if (end < content.length) {
+        journal.setLength(end);
+        journal.getFD().sync();
+      }
+
+      for (String line : new String(content, 0, end, StandardCharsets.UTF_8).split("\n")) {
+        replay(line.split("\t", -1));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading transfer journal [" + file + "]", e);
+    }
+  }
+
+
+  /**
+   * Replays one event. Anything that does not parse is a line left incomplete by a crash.
+   */
+  private void replay(String[] fields) {
+    if (TABLE_COMPLETED.equals(fields[0]) && fields.length == 3) {
+      completedTables.add(fields[1]);
+    } else if (TABLE_STARTED.equals(fields[0]) && fields.length == 3) {
+      completedKeyRanges.remove(fields[1]);
+    } else if (KEY_RANGE_COMPLETED.equals(fields[0]) && fields.length == 5) {
+      try {
+        keyRanges(fields[1]).add(new KeyRange(Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+      } catch (IllegalArgumentException e) {
+        // not a complete line
+      }
+    }
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.TransferJournal#completedTables()
+   */
+  @Override
+  public synchronized Set<String> completedTables() {
+    return ImmutableSet.copyOf(completedTables);
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.TransferJournal#completedKeyRanges(java.lang.String)
+   */
+  @Override
+  public synchronized Set<KeyRange> completedKeyRanges(String tableName) {
+    return ImmutableSet.copyOf(keyRanges(tableName));
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.TransferJournal#tableStarted(java.lang.String)
+   */
+  @Override
+  public synchronized void tableStarted(String tableName) {
+    append(TABLE_STARTED, tableName);
+    completedKeyRanges.remove(tableName);
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.TransferJournal#keyRangeCompleted(java.lang.String, org.alfasoftware.morf.dataset.KeyRange)
+   */
+  @Override
+  public synchronized void keyRangeCompleted(String tableName, KeyRange keyRange) {
+    append(KEY_RANGE_COMPLETED, tableName, String.valueOf(keyRange.getFrom()), String.valueOf(keyRange.getTo()));
+    keyRanges(tableName).add(keyRange);
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.TransferJournal#tableCompleted(java.lang.String)
+   */
+  @Override
+  public synchronized void tableCompleted(String tableName) {
+    append(TABLE_COMPLETED, tableName);
+    completedTables.add(tableName);
+  }
+
+
+  private Set<KeyRange> keyRanges(String tableName) {
+    Set<KeyRange> keyRanges = completedKeyRanges.get(tableName);
+    if (keyRanges == null) {
+      keyRanges = new HashSet<>();
+      completedKeyRanges.put(tableName, keyRanges);
+    }
+    return keyRanges;
+  }
+
+
+  /**
+   * Appends an event to the file, and syncs it to disk. A trailing empty field marks
+   * the line as complete.
+   */
+  private void append(String... fields) {
+    StringBuilder line = new StringBuilder();
+    for (String field : fields) {
+      line.append(field).append('\t');
+    }
+    line.append('\n');
+
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+      out.getFD().sync();
+    } catch (IOException e) {
+      throw new RuntimeException("Error writing transfer journal [" + file + "]", e);
+    }
+  }
+}
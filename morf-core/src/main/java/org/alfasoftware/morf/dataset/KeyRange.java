@@ -0,0 +1,102 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+
+/**
+ * An inclusive range of values of a table's numeric primary key, used to split
+ * the transfer of a large table into independent parts.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ * @see PartitionedTableProducer
+ * @see PartitionedTableConsumer
+ */
+public final class KeyRange {
+
+  private final long from;
+  private final long to;
+
+
+  /**
+   * @param from The lowest key in the range.
+   * @param to The highest key in the range.
+   */
+  public KeyRange(long from, long to) {
+    if (from > to) {
+      throw new IllegalArgumentException("Invalid key range [" + from + "-" + to + "]");
+    }
+    this.from = from;
+    this.to = to;
+  }
+
+
+  /**
+   * @return The lowest key in the range.
+   */
+  public long getFrom() {
+    return from;
+  }
+
+
+  /**
+   * @return The highest key in the range.
+   */
+  public long getTo() {
+    return to;
+  }
+
+
+  /**
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    return new HashCodeBuilder()
+        .append(from)
+        .append(to)
+        .toHashCode();
+  }
+
+
+  /**
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    KeyRange other = (KeyRange) obj;
+    return new EqualsBuilder()
+        .append(from, other.from)
+        .append(to, other.to)
+        .isEquals();
+  }
+
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "[" + from + "-" + to + "]";
+  }
+}
@@ -0,0 +1,60 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * {@link TableScheduler} which starts the largest tables first, so that the
+ * long running tables overlap with each other and the small tables fill in the
+ * gaps at the end of the run.
+ *
+ * <p>Sizes are taken from the producer if it implements {@link TableSizeEstimator}.
+ * Tables without an estimate are started after all those with one, in the order
+ * given. If the producer cannot estimate sizes at all, the order is unchanged.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class LargestFirstTableScheduler implements TableScheduler {
+
+  /**
+   * @see org.alfasoftware.morf.dataset.TableScheduler#schedule(org.alfasoftware.morf.dataset.DataSetProducer, java.util.Collection)
+   */
+  @Override
+  public List<String> schedule(DataSetProducer producer, Collection<String> tableNames) {
+    List<String> result = Lists.newArrayList(tableNames);
+    if (!(producer instanceof TableSizeEstimator)) {
+      return result;
+    }
+
+    TableSizeEstimator estimator = (TableSizeEstimator) producer;
+    final Map<String, Long> sizes = Maps.newHashMap();
+    for (String tableName : tableNames) {
+      Optional<Long> estimate = estimator.estimateSize(tableName);
+      sizes.put(tableName, estimate.isPresent() ? estimate.get() : -1L);
+    }
+
+    // List.sort is stable, so tables of equal (or unknown) size keep their original order
+    result.sort((a, b) -> Long.compare(sizes.get(b), sizes.get(a)));
+    return result;
+  }
+}
@@ -0,0 +1,62 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import org.alfasoftware.morf.metadata.Table;
+
+/**
+ * Optionally implemented by a {@link DataSetConsumer} which can receive a table in
+ * independent parts, split on ranges of its primary key.
+ *
+ * <p>For each partitioned table, methods are expected to fire in the following order,
+ * with the calls to {@link #tablePartition(Table, KeyRange, Iterable)} possibly
+ * running concurrently on different threads:</p>
+ * <blockquote><pre><code>openPartitionedTable(...);
+ * tablePartition(...);
+ * tablePartition(...);
+ * closePartitionedTable(...);</code></pre></blockquote>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ * @see DataSetConnectorMultiThreaded#withPartitioning(int, long)
+ */
+public interface PartitionedTableConsumer {
+
+  /**
+   * Prepares to receive a table in parts. Takes the place of {@link DataSetConsumer#table(Table, Iterable)}
+   * for the table.
+   *
+   * @param table Meta data for the table.
+   */
+  public void openPartitionedTable(Table table);
+
+
+  /**
+   * Receives the data in one key range of a table.
+   *
+   * @param table Meta data for the table.
+   * @param keyRange The range of primary key values covered by <var>records</var>.
+   * @param records The data.
+   */
+  public void tablePartition(Table table, KeyRange keyRange, Iterable<Record> records);
+
+
+  /**
+   * Completes a table once all of its parts have been received.
+   *
+   * @param table Meta data for the table.
+   */
+  public void closePartitionedTable(Table table);
+}
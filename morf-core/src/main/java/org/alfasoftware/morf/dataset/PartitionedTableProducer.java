@@ -0,0 +1,53 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import java.util.List;
+
+/**
+ * Optionally implemented by a {@link DataSetProducer} which can read a table in
+ * independent parts, split on ranges of its primary key.
+ *
+ * <p>Each part may be read concurrently with the others, so implementations must
+ * not share a single stream or connection between the parts.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ * @see DataSetConnectorMultiThreaded#withPartitioning(int, long)
+ */
+public interface PartitionedTableProducer {
+
+  /**
+   * Splits the table into at most <var>partitionCount</var> key ranges, which
+   * together cover all of its records.
+   *
+   * @param tableName The table to split.
+   * @param partitionCount The maximum number of ranges.
+   * @return The key ranges, in ascending order. An empty list means that the table
+   *         cannot be split and should be transmitted whole.
+   */
+  public List<KeyRange> partition(String tableName, int partitionCount);
+
+
+  /**
+   * Access the data in one key range of the table <var>tableName</var>.
+   *
+   * @param tableName The table to get records from.
+   * @param keyRange The range of primary key values to read.
+   * @return The records.
+   * @see DataSetProducer#records(String)
+   */
+  public Iterable<Record> records(String tableName, KeyRange keyRange);
+}
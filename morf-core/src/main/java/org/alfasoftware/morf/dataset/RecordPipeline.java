@@ -0,0 +1,152 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.alfasoftware.morf.metadata.RecordBatch;
+import org.alfasoftware.morf.metadata.RecordLayout;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Hands records from a reader thread to a writer thread through a bounded queue of
+ * batches, so that reading from the producer overlaps with writing to the consumer.
+ *
+ * <p>The reader thread calls {@link #fill(Iterable)}, which blocks whenever the queue
+ * is full, so at most <var>queueDepth</var> batches are ever held in memory. The writer
+ * thread passes the pipeline itself to the consumer as the records to load.</p>
+ *
+ * <p>Producers may reuse the same {@link Record} instance for each record they return,
+ * so the values of each record are copied into a {@link RecordBatch} as it is read.</p>
+ *
+ * <p>A pipeline can only be iterated once.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+final class RecordPipeline implements Iterable<Record> {
+
+  /**
+   * Marks the end of the records. Compared by identity.
+   */
+  private static final RecordBatch END = new RecordBatch(RecordLayout.of(Collections.emptyList()), 1);
+
+  private final RecordLayout layout;
+  private final int batchSize;
+  private final BlockingQueue<RecordBatch> queue;
+  private final AtomicBoolean iterated = new AtomicBoolean();
+
+  /**
+   * Set by the reader before it queues {@link #END}, if reading failed.
+   */
+  private volatile Throwable failure;
+
+
+  /**
+   * @param layout The layout of the records.
+   * @param batchSize The number of records passed across in each batch.
+   * @param queueDepth The maximum number of batches waiting to be written.
+   */
+  RecordPipeline(RecordLayout layout, int batchSize, int queueDepth) {
+    this.layout = layout;
+    this.batchSize = batchSize;
+    this.queue = new ArrayBlockingQueue<>(queueDepth);
+  }
+
+
+  /**
+   * Reads all of <var>source</var> into the pipeline. Called on the reader thread.
+   *
+   * <p>A failure to read is passed across to be thrown on the writer thread, where
+   * it will fail the table being written.</p>
+   *
+   * @param source The records to read.
+   * @throws InterruptedException if the writer has given up and cancelled the read.
+   */
+  void fill(Iterable<Record> source) throws InterruptedException {
+    boolean cancelled = false;
+    try {
+      RecordBatch batch = new RecordBatch(layout, batchSize);
+      for (Record record : source) {
+        batch.addRecord(record);
+        if (batch.isFull()) {
+          queue.put(batch);
+          batch = new RecordBatch(layout, batchSize);
+        }
+      }
+      if (batch.size() > 0) {
+        queue.put(batch);
+      }
+    } catch (InterruptedException e) {
+      // nothing is waiting for the end once the writer has cancelled the read
+      cancelled = true;
+      throw e;
+    } catch (Throwable e) {
+      failure = e;
+    } finally {
+      if (!cancelled) {
+        queue.put(END);
+      }
+    }
+  }
+
+
+  /**
+   * @see java.lang.Iterable#iterator()
+   */
+  @Override
+  public Iterator<Record> iterator() {
+    if (!iterated.compareAndSet(false, true)) {
+      throw new IllegalStateException("Pipelined records can only be iterated once");
+    }
+
+    return new AbstractIterator<Record>() {
+      private Iterator<Record> batch = Collections.emptyIterator();
+
+      @Override
+      protected Record computeNext() {
+        while (!batch.hasNext()) {
+          RecordBatch next = take();
+          if (next == END) {
+            if (failure != null) {
+              throw new RuntimeException("Error reading records", failure);
+            }
+            return endOfData();
+          }
+          batch = next.records().iterator();
+        }
+        return batch.next();
+      }
+    };
+  }
+
+
+  /**
+   * Waits for the next batch from the reader.
+   */
+  private RecordBatch take() {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted waiting for records", e);
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import org.alfasoftware.morf.metadata.Table;
+
+/**
+ * Implemented by a {@link DataSetConsumer} which can receive a transfer recorded in a
+ * {@link TransferJournal}, and which needs to know about the tables started by an
+ * earlier transfer, when a failed transfer is resumed from its journal.
+ *
+ * <p>Such tables are either skipped, because the journal records them as complete, or
+ * receive only the key ranges not yet transmitted, without being opened again. Any
+ * preparation the consumer made when the earlier transfer first received them, and
+ * meant to undo when it was closed, may therefore still need undoing.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ * @see DataSetConnectorMultiThreaded#withJournal(TransferJournal)
+ */
+public interface ResumableDataSetConsumer {
+
+  /**
+   * Notes a table which an earlier transfer started, and which is not received again
+   * in full. Called after {@link DataSetConsumer#open()}, on the thread connecting the
+   * data set, before any of the rest of the table is received.
+   *
+   * @param table Meta data for the table.
+   */
+  public void tableResumed(Table table);
+
+
+  /**
+   * Whether each table, and each key range of a partitioned table, is durable, for
+   * example committed, by the time the call receiving it returns. Only then can the
+   * journal record it as transmitted.
+   *
+   * @return true if each table and key range is durable once received.
+   */
+  public boolean isDurablePerTable();
+}
@@ -19,6 +19,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 
 import org.alfasoftware.morf.dataset.TableLoaderBuilder.TableLoaderBuilderImpl;
+import org.alfasoftware.morf.jdbc.AdaptiveBatchSize;
+import org.alfasoftware.morf.jdbc.BulkLoader;
 import org.alfasoftware.morf.jdbc.RuntimeSqlException;
 import org.alfasoftware.morf.jdbc.SqlDialect;
 import org.alfasoftware.morf.jdbc.SqlScriptExecutor;
@@ -30,6 +32,8 @@ import org.alfasoftware.morf.sql.element.TableReference;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.base.Optional;
+
 
 /**
  * Loads a list of {@link Record}s into a database table, using native load if it is available.
@@ -50,6 +54,9 @@ public class TableLoader {
   private final boolean truncateBeforeLoad;
   private final String insertStatement;
   private final int batchSize;
+  private final Optional<AdaptiveBatchSize> adaptiveBatchSize;
+  private final int maximumRecordsPerStatement;
+  private final boolean bulkLoad;
 
 
   /**
@@ -71,7 +78,10 @@ public class TableLoader {
                      boolean insertingWithPresetAutonums,
                      boolean insertingUnderAutonumLimit,
                      boolean truncateBeforeLoad,
-                     int batchSize) {
+                     int batchSize,
+                     Optional<AdaptiveBatchSize> adaptiveBatchSize,
+                     int maximumRecordsPerStatement,
+                     boolean bulkLoad) {
     super();
     this.connection = connection;
     this.sqlExecutor = sqlScriptExecutor;
@@ -82,6 +92,9 @@ public class TableLoader {
     this.insertingUnderAutonumLimit = insertingUnderAutonumLimit;
     this.truncateBeforeLoad = truncateBeforeLoad;
     this.batchSize = batchSize;
+    this.adaptiveBatchSize = adaptiveBatchSize;
+    this.maximumRecordsPerStatement = maximumRecordsPerStatement;
+    this.bulkLoad = bulkLoad;
     this.insertStatement = sqlDialect.convertStatementToSQL(
       new InsertStatement().into(new TableReference(table.getName())),
       SchemaUtils.schema(table)
@@ -104,6 +117,15 @@ public class TableLoader {
   }
 
 
+  /**
+   * Empties the table without loading any records, as {@link #load(Iterable)} does
+   * if {@link TableLoaderBuilder#truncateBeforeLoad()} was specified.
+   */
+  public void truncate() {
+    truncate(table, connection);
+  }
+
+
   /**
    * Empties the specified table.
    *
@@ -137,7 +159,12 @@ public class TableLoader {
       sqlExecutor.execute(sqlDialect.preInsertWithPresetAutonumStatements(table, insertingUnderAutonumLimit), connection);
     }
 
-    sqlInsertLoad(table, records, connection);
+    Optional<BulkLoader> bulkLoader = bulkLoad ? sqlDialect.bulkLoader() : Optional.<BulkLoader>absent();
+    if (bulkLoader.isPresent() && bulkLoader.get().supports(connection, table, explicitCommit)) {
+      bulkLoad(bulkLoader.get(), records);
+    } else {
+      sqlInsertLoad(table, records, connection);
+    }
 
     if (insertingWithPresetAutonums) {
       sqlDialect.postInsertWithPresetAutonumStatements(table, sqlExecutor, connection,insertingUnderAutonumLimit);
@@ -154,9 +181,47 @@ public class TableLoader {
    */
   private void sqlInsertLoad(Table table, Iterable<Record> records, Connection connection) {
     try {
-      sqlExecutor.executeStatementBatch(insertStatement, SqlParameter.parametersFromColumns(table.columns()), records, connection, explicitCommit, batchSize);
+      int recordsPerStatement = recordsPerStatement();
+      if (recordsPerStatement > 1) {
+        sqlExecutor.executeMultiRowStatementBatch(
+          rowCount -> sqlDialect.buildParameterisedInsert(new InsertStatement().into(new TableReference(table.getName())), SchemaUtils.schema(table), rowCount),
+          recordsPerStatement, SqlParameter.parametersFromColumns(table.columns()), records, connection, explicitCommit, Math.max(1, batchSize / recordsPerStatement));
+      } else if (adaptiveBatchSize.isPresent()) {
+        sqlExecutor.executeStatementBatch(insertStatement, SqlParameter.parametersFromColumns(table.columns()), records, connection, explicitCommit, adaptiveBatchSize.get());
+      } else {
+        sqlExecutor.executeStatementBatch(insertStatement, SqlParameter.parametersFromColumns(table.columns()), records, connection, explicitCommit, batchSize);
+      }
     } catch (Exception e) {
       throw new RuntimeException(String.format("Failure in batch insert for table [%s]", table.getName()), e);
     }
   }
+
+
+  /**
+   * Loads the data using the dialect's bulk loader.
+   *
+   * @param bulkLoader The bulk loader.
+   * @param records The data to insert.
+   */
+  private void bulkLoad(BulkLoader bulkLoader, Iterable<Record> records) {
+    log.debug("Bulk loading table [" + table.getName() + "]");
+    try {
+      bulkLoader.load(connection, sqlExecutor, table, records, explicitCommit);
+    } catch (Exception e) {
+      throw new RuntimeException(String.format("Failure in bulk load for table [%s]", table.getName()), e);
+    }
+  }
+
+
+  /**
+   * @return The number of records to insert with each statement, within the dialect's
+   *         limit on the number of parameters in one statement.
+   */
+  private int recordsPerStatement() {
+    if (maximumRecordsPerStatement < 2 || !sqlDialect.supportsMultiRowInsert()) {
+      return 1;
+    }
+    int parametersPerRecord = Math.max(1, table.columns().size());
+    return Math.max(1, Math.min(maximumRecordsPerStatement, sqlDialect.maximumParametersPerStatement() / parametersPerRecord));
+  }
 }
@@ -18,11 +18,13 @@ package org.alfasoftware.morf.dataset;
 import java.sql.Connection;
 
 import org.alfasoftware.morf.dataset.TableLoaderBuilder.TableLoaderBuilderImpl;
+import org.alfasoftware.morf.jdbc.AdaptiveBatchSize;
 import org.alfasoftware.morf.jdbc.SqlDialect;
 import org.alfasoftware.morf.jdbc.SqlScriptExecutor;
 import org.alfasoftware.morf.jdbc.SqlScriptExecutorProvider;
 import org.alfasoftware.morf.metadata.Table;
 
+import com.google.common.base.Optional;
 import com.google.inject.ImplementedBy;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
@@ -121,6 +123,43 @@ public interface TableLoaderBuilder {
    */
   TableLoaderBuilder withBatchSize(int recordsPerBatch);
 
+  /**
+   * Chooses how many records to include in each JDBC batch from the column types of
+   * the table, then tunes it from how long each batch takes to execute. Overrides
+   * {@link #withBatchSize(int)}.
+   *
+   * @param minimumRecordsPerBatch The fewest records to include in each JDBC batch.
+   * @param maximumRecordsPerBatch The most records to include in each JDBC batch.
+   * @return This builder for chaining
+   * @see AdaptiveBatchSize
+   */
+  TableLoaderBuilder withAdaptiveBatchSize(int minimumRecordsPerBatch, int maximumRecordsPerBatch);
+
+  /**
+   * Inserts several records with each insert statement, where the dialect
+   * {@link SqlDialect#supportsMultiRowInsert() supports it}, keeping within the
+   * dialect's limit on the number of parameters in one statement. Otherwise, records
+   * are inserted one per statement as usual.
+   *
+   * <p>The statements are still executed in JDBC batches of about {@link #withBatchSize(int)}
+   * records. {@link #withAdaptiveBatchSize(int, int)} does not apply to multi-row inserts.</p>
+   *
+   * @param maximumRecordsPerStatement The most records to insert with each statement.
+   * @return This builder for chaining
+   */
+  TableLoaderBuilder withMultiRowInserts(int maximumRecordsPerStatement);
+
+  /**
+   * Loads the records through the dialect's {@link SqlDialect#bulkLoader() bulk loader},
+   * where it has one which supports the table, rather than inserting them over JDBC.
+   * Truncation and the autonumber handling requested through this builder still apply.
+   *
+   * <p>Defaults to false if not called.</p>
+   *
+   * @return This builder for chaining
+   */
+  TableLoaderBuilder withBulkLoad();
+
   /**
    * Build the table loader for the specified table.
    *
@@ -142,6 +181,11 @@ public interface TableLoaderBuilder {
     private boolean insertingUnderAutonumLimit;
     private Provider<SqlDialect> sqlDialect;
     private int batchSize = 1000;
+    private boolean adaptiveBatchSize;
+    private int minimumBatchSize;
+    private int maximumBatchSize;
+    private int maximumRecordsPerStatement = 1;
+    private boolean bulkLoad;
 
     TableLoaderBuilderImpl() {
       super();
@@ -212,6 +256,26 @@ public interface TableLoaderBuilder {
       return this;
     }
 
+    @Override
+    public TableLoaderBuilder withAdaptiveBatchSize(int minimumRecordsPerBatch, int maximumRecordsPerBatch) {
+      this.adaptiveBatchSize = true;
+      this.minimumBatchSize = minimumRecordsPerBatch;
+      this.maximumBatchSize = maximumRecordsPerBatch;
+      return this;
+    }
+
+    @Override
+    public TableLoaderBuilder withMultiRowInserts(int maximumRecordsPerStatement) {
+      this.maximumRecordsPerStatement = maximumRecordsPerStatement;
+      return this;
+    }
+
+    @Override
+    public TableLoaderBuilder withBulkLoad() {
+      this.bulkLoad = true;
+      return this;
+    }
+
     @Override
     public TableLoader forTable(Table table) {
       SqlScriptExecutor executor = sqlScriptExecutor;
@@ -230,7 +294,12 @@ public interface TableLoaderBuilder {
         insertingWithPresetAutonums,
         insertingUnderAutonumLimit,
         truncateBeforeLoad,
-        batchSize);
+        batchSize,
+        adaptiveBatchSize
+          ? Optional.of(new AdaptiveBatchSize(table).withBounds(minimumBatchSize, maximumBatchSize))
+          : Optional.<AdaptiveBatchSize>absent(),
+        maximumRecordsPerStatement,
+        bulkLoad);
     }
   }
 }
@@ -0,0 +1,40 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Decides the order in which {@link DataSetConnectorMultiThreaded} hands tables
+ * to its worker threads.
+ *
+ * <p>Workers take the next table from a shared queue as soon as they finish their
+ * current one, so the order given here is the order in which tables are started.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public interface TableScheduler {
+
+  /**
+   * Orders the tables for transmission.
+   *
+   * @param producer The producer the tables will be read from. This will have been opened.
+   * @param tableNames The names of the tables to transmit.
+   * @return The same table names, in the order in which they should be started.
+   */
+  public List<String> schedule(DataSetProducer producer, Collection<String> tableNames);
+}
@@ -0,0 +1,42 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import com.google.common.base.Optional;
+
+/**
+ * Optionally implemented by a {@link DataSetProducer} which can cheaply estimate
+ * how much data each of its tables holds.
+ *
+ * <p>The unit of the estimate is up to the implementation (a row count for a database,
+ * a byte count for a file based data set) but must be consistent across all the tables
+ * of one producer, as the estimates are only ever compared with each other.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ * @see LargestFirstTableScheduler
+ */
+public interface TableSizeEstimator {
+
+  /**
+   * Estimates the size of the table <var>tableName</var>.
+   *
+   * <p>Implementations should not read the table contents to do this.</p>
+   *
+   * @param tableName The table to estimate.
+   * @return The estimated size, or absent if no estimate is available.
+   */
+  public Optional<Long> estimateSize(String tableName);
+}
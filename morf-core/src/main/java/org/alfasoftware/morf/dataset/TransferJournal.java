@@ -0,0 +1,73 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import java.util.Set;
+
+/**
+ * Records the progress of a data set transfer so that, if it fails, it can be resumed
+ * without transmitting again the tables which were already complete.
+ *
+ * <p>Used by {@link DataSetConnectorMultiThreaded#withJournal(TransferJournal)}. Work is
+ * only recorded once the consumer has returned from loading it, so a journal is only
+ * meaningful with a consumer which makes each table durable as soon as it has been
+ * loaded, rather than when the consumer is closed.</p>
+ *
+ * <p>Implementations must be safe to call from several threads at once.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ * @see FileTransferJournal
+ */
+public interface TransferJournal {
+
+  /**
+   * @return The names of the tables already transmitted in full.
+   */
+  public Set<String> completedTables();
+
+
+  /**
+   * @param tableName The name of a table transmitted in key ranges.
+   * @return The key ranges of the table already transmitted, since the table was last started.
+   */
+  public Set<KeyRange> completedKeyRanges(String tableName);
+
+
+  /**
+   * Records that a table transmitted in key ranges has been emptied, ready for its
+   * ranges to be loaded, discarding any ranges previously recorded for it.
+   *
+   * @param tableName The name of the table.
+   */
+  public void tableStarted(String tableName);
+
+
+  /**
+   * Records that a key range of a table has been transmitted.
+   *
+   * @param tableName The name of the table.
+   * @param keyRange The key range transmitted.
+   */
+  public void keyRangeCompleted(String tableName, KeyRange keyRange);
+
+
+  /**
+   * Records that a table has been transmitted in full.
+   *
+   * @param tableName The name of the table.
+   */
+  public void tableCompleted(String tableName);
+}
@@ -0,0 +1,94 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.Column;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.Table;
+
+/**
+ * Base for {@link BulkLoader}s which pass the records to the database as text.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public abstract class AbstractTextBulkLoader implements BulkLoader {
+
+  /**
+   * Text loads cannot carry binary data faithfully, so tables with {@link DataType#BLOB}
+   * columns are left to JDBC.
+   *
+   * @see org.alfasoftware.morf.jdbc.BulkLoader#supports(java.sql.Connection, org.alfasoftware.morf.metadata.Table, boolean)
+   */
+  @Override
+  public boolean supports(Connection connection, Table table, boolean explicitCommit) {
+    for (Column column : table.columns()) {
+      if (column.getType() == DataType.BLOB) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * Formats the value of a column as the text to load.
+   *
+   * <p>Empty strings are treated as null, as they are when inserted over JDBC.</p>
+   *
+   * @param record The record.
+   * @param column The column.
+   * @return The value as text, or null if it is null.
+   */
+  protected String textValue(Record record, Column column) {
+    String name = column.getName();
+    switch (column.getType()) {
+      case BIG_INTEGER:
+        Long longValue = record.getLong(name);
+        return longValue == null ? null : longValue.toString();
+      case INTEGER:
+        Integer integerValue = record.getInteger(name);
+        return integerValue == null ? null : integerValue.toString();
+      case DECIMAL:
+        BigDecimal decimalValue = record.getBigDecimal(name);
+        return decimalValue == null ? null : decimalValue.toPlainString();
+      case BOOLEAN:
+        Boolean booleanValue = record.getBoolean(name);
+        return booleanValue == null ? null : booleanText(booleanValue);
+      case DATE:
+        java.sql.Date dateValue = record.getDate(name);
+        return dateValue == null ? null : dateValue.toString();
+      case STRING:
+      case CLOB:
+        String stringValue = record.getString(name);
+        return stringValue == null || stringValue.isEmpty() ? null : stringValue;
+      default:
+        throw new UnsupportedOperationException("Cannot bulk load column [" + name + "] of type [" + column.getType() + "]");
+    }
+  }
+
+
+  /**
+   * @param value A boolean value.
+   * @return The value as text the database will convert to its boolean column type.
+   */
+  protected String booleanText(boolean value) {
+    return value ? "TRUE" : "FALSE";
+  }
+}
@@ -0,0 +1,211 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.alfasoftware.morf.metadata.Column;
+import org.alfasoftware.morf.metadata.Table;
+
+/**
+ * Chooses how many statements {@link SqlScriptExecutor#executeStatementBatch(String, Iterable, Iterable, java.sql.Connection, boolean, AdaptiveBatchSize)}
+ * adds to each JDBC batch, for a particular table.
+ *
+ * <p>The first batch is sized so that it holds roughly {@link #withTargetBatchBytes(long) a target
+ * number of bytes}, based on the column types of the table. Each time a full batch is
+ * executed, the size is then scaled towards that which would take {@link #withTargetFlushMillis(long)
+ * a target time} to execute, by at most a factor of two each time. The size always stays
+ * within {@link #withBounds(int, int) the bounds}.</p>
+ *
+ * <p>Instances hold the tuning state for one table, and are not thread safe.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class AdaptiveBatchSize {
+
+  /**
+   * Assumed size of a BLOB or CLOB value, which has no declared width.
+   */
+  private static final int LOB_BYTES_ESTIMATE = 64 * 1024;
+
+  /**
+   * Assumed overhead of each parameter in the driver, on top of its value.
+   */
+  private static final int PARAMETER_OVERHEAD_BYTES = 8;
+
+  private final long estimatedBytesPerRow;
+
+  private int minimum = 10;
+  private int maximum = 10000;
+  private long targetBatchBytes = 1024 * 1024;
+  private long targetFlushMillis = 250;
+
+  /**
+   * The current batch size, or zero until first used.
+   */
+  private int batchSize;
+
+
+  /**
+   * @param table The table whose records are to be batched.
+   */
+  public AdaptiveBatchSize(Table table) {
+    this(estimateBytesPerRow(table));
+  }
+
+
+  private AdaptiveBatchSize(long estimatedBytesPerRow) {
+    super();
+    this.estimatedBytesPerRow = estimatedBytesPerRow;
+  }
+
+
+  /**
+   * @param statementsPerFlush The batch size.
+   * @return A batch size which never changes.
+   */
+  static AdaptiveBatchSize fixed(int statementsPerFlush) {
+    return new AdaptiveBatchSize(1).withBounds(statementsPerFlush, statementsPerFlush);
+  }
+
+
+  /**
+   * Sets the smallest and largest batch size which may be chosen. Defaults to 10 and 10,000.
+   *
+   * @param minimum The smallest batch size.
+   * @param maximum The largest batch size.
+   * @return this, for chaining.
+   */
+  public AdaptiveBatchSize withBounds(int minimum, int maximum) {
+    if (minimum < 1 || maximum < minimum) {
+      throw new IllegalArgumentException("Invalid batch size bounds [" + minimum + "-" + maximum + "]");
+    }
+    this.minimum = minimum;
+    this.maximum = maximum;
+    return this;
+  }
+
+
+  /**
+   * Sets the estimated number of bytes the first batch should hold. Defaults to 1MB.
+   *
+   * @param targetBatchBytes The target size of the first batch, in bytes.
+   * @return this, for chaining.
+   */
+  public AdaptiveBatchSize withTargetBatchBytes(long targetBatchBytes) {
+    this.targetBatchBytes = targetBatchBytes;
+    return this;
+  }
+
+
+  /**
+   * Sets how long each batch should take to execute. Defaults to 250ms.
+   *
+   * @param targetFlushMillis The target execution time of each batch, in milliseconds.
+   * @return this, for chaining.
+   */
+  public AdaptiveBatchSize withTargetFlushMillis(long targetFlushMillis) {
+    this.targetFlushMillis = targetFlushMillis;
+    return this;
+  }
+
+
+  /**
+   * @return The number of statements to add to the next batch.
+   */
+  public int getBatchSize() {
+    if (batchSize == 0) {
+      batchSize = clamp(Math.max(1, targetBatchBytes / estimatedBytesPerRow));
+    }
+    return batchSize;
+  }
+
+
+  /**
+   * @return Whether the batch size can change at all.
+   */
+  boolean isFixed() {
+    return minimum == maximum;
+  }
+
+
+  /**
+   * Tunes the batch size from the time taken to execute a batch.
+   *
+   * @param statements The number of statements in the batch.
+   * @param elapsedNanos The time taken to execute it.
+   * @return Whether the batch size changed.
+   */
+  boolean batchExecuted(int statements, long elapsedNanos) {
+    // a partial batch says little about how long a full one takes
+    if (statements < getBatchSize()) {
+      return false;
+    }
+
+    double elapsedMillis = Math.max(1d, (double) elapsedNanos / TimeUnit.MILLISECONDS.toNanos(1));
+    double ratio = targetFlushMillis / elapsedMillis;
+
+    // leave alone anything reasonably close to the target, to avoid reacting to noise
+    if (ratio > 0.5d && ratio < 1.5d) {
+      return false;
+    }
+
+    int previous = batchSize;
+    batchSize = clamp((long) (batchSize * Math.min(2d, Math.max(0.5d, ratio))));
+    return batchSize != previous;
+  }
+
+
+  private int clamp(long size) {
+    return (int) Math.min(maximum, Math.max(minimum, size));
+  }
+
+
+  /**
+   * Estimates the number of bytes a record of the table takes up in a JDBC batch.
+   */
+  private static long estimateBytesPerRow(Table table) {
+    long bytes = 0;
+    for (Column column : table.columns()) {
+      bytes += PARAMETER_OVERHEAD_BYTES;
+      switch (column.getType()) {
+        case STRING:
+          bytes += 2L * column.getWidth();
+          break;
+        case DECIMAL:
+          bytes += 16;
+          break;
+        case BIG_INTEGER:
+        case DATE:
+          bytes += 8;
+          break;
+        case INTEGER:
+          bytes += 4;
+          break;
+        case BOOLEAN:
+          bytes += 1;
+          break;
+        case BLOB:
+        case CLOB:
+          bytes += LOB_BYTES_ESTIMATE;
+          break;
+        default:
+          break;
+      }
+    }
+    return Math.max(1, bytes);
+  }
+}
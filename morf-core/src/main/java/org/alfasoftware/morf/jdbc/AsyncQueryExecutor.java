@@ -0,0 +1,344 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.alfasoftware.morf.jdbc.SqlScriptExecutor.QueryBuilder;
+import org.alfasoftware.morf.jdbc.SqlScriptExecutor.ResultSetProcessor;
+import org.alfasoftware.morf.metadata.DataSetUtils;
+import org.alfasoftware.morf.metadata.DataValueLookup;
+import org.alfasoftware.morf.sql.SelectStatement;
+import org.alfasoftware.morf.sql.element.SqlParameter;
+
+import com.google.common.base.Optional;
+
+/**
+ * Runs independent queries asynchronously, so that their round trips to the database
+ * overlap, while limiting how many run against the database at once.
+ *
+ * <p>Each query is run {@link QueryBuilder#standalone() standalone}, on a connection of
+ * its own from the {@link SqlScriptExecutor}'s data source, so the limit on concurrent
+ * queries is also a limit on the connections taken from it. Queries beyond the limit
+ * wait, in the order submitted, without occupying a thread. Share one instance for each
+ * data source for the limit to apply to the data source as a whole.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ * try (AsyncQueryExecutor async = new AsyncQueryExecutor(sqlScriptExecutor).withMaxConcurrentQueries(8).withQueryTimeout(60)) {
+ *   CompletableFuture&lt;Long&gt; count = async.executeQuery(countStatement, resultSet -&gt; resultSet.next() ? resultSet.getLong(1) : 0L);
+ *   ...
+ * }
+ * </pre>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public final class AsyncQueryExecutor implements AutoCloseable {
+
+  /**
+   * The default limit on the number of queries run at once.
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_QUERIES = 4;
+
+  private final SqlScriptExecutor sqlScriptExecutor;
+
+  /**
+   * Queries waiting for one of the running queries to finish. Guarded by this.
+   */
+  private final Queue<PendingQuery<?>> waiting = new ArrayDeque<>();
+
+  private int maxConcurrentQueries = DEFAULT_MAX_CONCURRENT_QUERIES;
+  private Optional<Integer> queryTimeout = Optional.absent();
+
+  /** Null until first needed, if not supplied. */
+  private Executor executor;
+
+  /** The executor created by this, if one was not supplied, to be shut down on close. */
+  private ExecutorService ownExecutor;
+
+  /** Guarded by this. */
+  private int running;
+
+  /** Guarded by this. */
+  private boolean closed;
+
+
+  /**
+   * @param sqlScriptExecutor The executor to run the queries with, which must have a data source.
+   */
+  public AsyncQueryExecutor(SqlScriptExecutor sqlScriptExecutor) {
+    super();
+    this.sqlScriptExecutor = sqlScriptExecutor;
+  }
+
+
+  /**
+   * Sets the maximum number of queries to run at once. Defaults to {@link #DEFAULT_MAX_CONCURRENT_QUERIES}.
+   *
+   * @param maxConcurrentQueries The limit.
+   * @return this
+   */
+  public synchronized AsyncQueryExecutor withMaxConcurrentQueries(int maxConcurrentQueries) {
+    if (maxConcurrentQueries < 1) {
+      throw new IllegalArgumentException("Maximum concurrent queries must be at least 1, not [" + maxConcurrentQueries + "]");
+    }
+    this.maxConcurrentQueries = maxConcurrentQueries;
+    return this;
+  }
+
+
+  /**
+   * Sets the executor on which to run the queries. It is not shut down by {@link #close()}.
+   * By default, a fixed pool of one thread for each concurrent query is created.
+   *
+   * @param executor The executor.
+   * @return this
+   */
+  public synchronized AsyncQueryExecutor withExecutor(Executor executor) {
+    if (this.executor != null) {
+      throw new IllegalStateException("Executor already in use");
+    }
+    this.executor = executor;
+    return this;
+  }
+
+
+  /**
+   * Sets the time in <b>seconds</b> after which each query times out on the database side,
+   * unless given a timeout of its own. Optional.
+   *
+   * @param queryTimeout time out length in seconds
+   * @return this
+   * @see QueryBuilder#withQueryTimeout(int)
+   */
+  public synchronized AsyncQueryExecutor withQueryTimeout(int queryTimeout) {
+    if (queryTimeout < 1) {
+      throw new IllegalArgumentException("Query timeout must be at least 1, not [" + queryTimeout + "]");
+    }
+    this.queryTimeout = Optional.of(queryTimeout);
+    return this;
+  }
+
+
+  /**
+   * Runs a select statement asynchronously.
+   *
+   * @param query the select statement to run.
+   * @param resultSetProcessor the code to be run to process the {@link java.sql.ResultSet}.
+   * @param <T> the type of results processed
+   * @return a future result from {@link ResultSetProcessor#process(java.sql.ResultSet)}.
+   */
+  public <T> CompletableFuture<T> executeQuery(SelectStatement query, ResultSetProcessor<T> resultSetProcessor) {
+    return executeQuery(query, Collections.<SqlParameter>emptyList(), DataSetUtils.record(), resultSetProcessor);
+  }
+
+
+  /**
+   * Runs a select statement with parameters asynchronously.
+   *
+   * @param query the select statement to run.
+   * @param parameterMetadata the metadata describing the parameters.
+   * @param parameterData the values of the parameters.
+   * @param resultSetProcessor the code to be run to process the {@link java.sql.ResultSet}.
+   * @param <T> the type of results processed
+   * @return a future result from {@link ResultSetProcessor#process(java.sql.ResultSet)}.
+   */
+  public <T> CompletableFuture<T> executeQuery(SelectStatement query, Iterable<SqlParameter> parameterMetadata, DataValueLookup parameterData,
+      ResultSetProcessor<T> resultSetProcessor) {
+    return submit(sqlScriptExecutor.executeQuery(query), parameterMetadata, parameterData, timeout(), resultSetProcessor);
+  }
+
+
+  /**
+   * Runs a select statement with parameters asynchronously, with a timeout of its own.
+   *
+   * @param query the select statement to run.
+   * @param parameterMetadata the metadata describing the parameters.
+   * @param parameterData the values of the parameters.
+   * @param queryTimeout the time in <b>seconds</b> after which the query times out on the database side.
+   * @param resultSetProcessor the code to be run to process the {@link java.sql.ResultSet}.
+   * @param <T> the type of results processed
+   * @return a future result from {@link ResultSetProcessor#process(java.sql.ResultSet)}.
+   */
+  public <T> CompletableFuture<T> executeQuery(SelectStatement query, Iterable<SqlParameter> parameterMetadata, DataValueLookup parameterData,
+      int queryTimeout, ResultSetProcessor<T> resultSetProcessor) {
+    return submit(sqlScriptExecutor.executeQuery(query), parameterMetadata, parameterData, Optional.of(queryTimeout), resultSetProcessor);
+  }
+
+
+  /**
+   * Runs a select statement, already converted to SQL, asynchronously.
+   *
+   * @param sql the SQL of the select statement to run.
+   * @param resultSetProcessor the code to be run to process the {@link java.sql.ResultSet}.
+   * @param <T> the type of results processed
+   * @return a future result from {@link ResultSetProcessor#process(java.sql.ResultSet)}.
+   */
+  public <T> CompletableFuture<T> executeQuery(String sql, ResultSetProcessor<T> resultSetProcessor) {
+    return submit(sqlScriptExecutor.executeQuery(sql), Collections.<SqlParameter>emptyList(), DataSetUtils.record(), timeout(), resultSetProcessor);
+  }
+
+
+  /**
+   * Queues a query, which has been converted to SQL on the calling thread, to run once there is capacity.
+   */
+  private <T> CompletableFuture<T> submit(QueryBuilder queryBuilder, Iterable<SqlParameter> parameterMetadata, DataValueLookup parameterData,
+      Optional<Integer> timeout, ResultSetProcessor<T> resultSetProcessor) {
+    queryBuilder.withParameterMetadata(parameterMetadata).withParameterData(parameterData).standalone();
+    if (timeout.isPresent()) {
+      queryBuilder.withQueryTimeout(timeout.get());
+    }
+
+    PendingQuery<T> query = new PendingQuery<>(queryBuilder, resultSetProcessor);
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("Asynchronous query executor has been closed");
+      }
+      waiting.add(query);
+    }
+    dispatch();
+    return query.result;
+  }
+
+
+  /**
+   * Starts waiting queries, up to the limit on those running at once.
+   */
+  private void dispatch() {
+    while (true) {
+      PendingQuery<?> query;
+      Executor target;
+      synchronized (this) {
+        if (running >= maxConcurrentQueries || waiting.isEmpty()) {
+          return;
+        }
+        query = waiting.poll();
+        target = executor();
+        running++;
+      }
+      try {
+        target.execute(query);
+      } catch (RejectedExecutionException e) {
+        query.result.completeExceptionally(e);
+        synchronized (this) {
+          running--;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Records that a query has finished, and starts the next, or shuts down if closed and there are none left.
+   */
+  private void finished() {
+    synchronized (this) {
+      running--;
+      if (closed && waiting.isEmpty() && running == 0) {
+        shutdown();
+        return;
+      }
+    }
+    dispatch();
+  }
+
+
+  /**
+   * @return The executor to run the queries on, creating one if none was supplied. Must hold the lock.
+   */
+  private Executor executor() {
+    if (executor == null) {
+      ownExecutor = Executors.newFixedThreadPool(maxConcurrentQueries);
+      executor = ownExecutor;
+    }
+    return executor;
+  }
+
+
+  /**
+   * @return The default timeout.
+   */
+  private synchronized Optional<Integer> timeout() {
+    return queryTimeout;
+  }
+
+
+  /**
+   * Shuts down the executor, if it was created by this. Must hold the lock.
+   */
+  private void shutdown() {
+    if (ownExecutor != null) {
+      ownExecutor.shutdown();
+    }
+  }
+
+
+  /**
+   * Stops accepting queries. The executor, if it was created by this, is shut down
+   * once the queries already submitted have run.
+   *
+   * @see java.lang.AutoCloseable#close()
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (waiting.isEmpty() && running == 0) {
+      shutdown();
+    }
+  }
+
+
+  /**
+   * A query waiting to run, and its result.
+   *
+   * @author Copyright (c) Alfa Financial Software 2017
+   */
+  private final class PendingQuery<T> implements Runnable {
+
+    private final QueryBuilder queryBuilder;
+    private final ResultSetProcessor<T> resultSetProcessor;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+
+    PendingQuery(QueryBuilder queryBuilder, ResultSetProcessor<T> resultSetProcessor) {
+      this.queryBuilder = queryBuilder;
+      this.resultSetProcessor = resultSetProcessor;
+    }
+
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+      try {
+        // Not worth running if cancelled while waiting
+        if (!result.isDone()) {
+          result.complete(queryBuilder.processWith(resultSetProcessor));
+        }
+      } catch (Throwable e) {
+        result.completeExceptionally(e);
+      } finally {
+        finished();
+      }
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import java.sql.Connection;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.Table;
+
+/**
+ * Loads records into a table by a platform specific route which is faster than
+ * inserting them a row at a time over JDBC, such as a native file load or a direct
+ * path insert. Offered by a {@link SqlDialect} through {@link SqlDialect#bulkLoader()}.
+ *
+ * <p>A bulk loader only inserts the records. Emptying the table beforehand, and the
+ * autonumber statements around the load, remain the responsibility of the caller.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ * @see org.alfasoftware.morf.dataset.TableLoaderBuilder#withBulkLoad()
+ */
+public interface BulkLoader {
+
+  /**
+   * Whether this loader can load the given table. If not, the caller should fall back
+   * to inserting the records over JDBC. This is checked before any records are read.
+   *
+   * @param connection The connection the table would be loaded through.
+   * @param table The table to load.
+   * @param explicitCommit Whether the caller permits the load to be committed.
+   * @return true if {@link #load(Connection, SqlScriptExecutor, Table, Iterable, boolean)} can be used.
+   */
+  public boolean supports(Connection connection, Table table, boolean explicitCommit);
+
+
+  /**
+   * Loads the records into the table.
+   *
+   * @param connection The connection to load through.
+   * @param executor Used to run any SQL.
+   * @param table The table to load.
+   * @param records The records to insert.
+   * @param explicitCommit Whether to commit the load once it is complete.
+   */
+  public void load(Connection connection, SqlScriptExecutor executor, Table table, Iterable<Record> records, boolean explicitCommit);
+}
@@ -17,6 +17,18 @@ package org.alfasoftware.morf.jdbc;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import javax.sql.DataSource;
 
@@ -24,9 +36,16 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.alfasoftware.morf.dataset.DataSetConsumer;
+import org.alfasoftware.morf.dataset.KeyRange;
+import org.alfasoftware.morf.dataset.PartitionedTableConsumer;
 import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.dataset.ResumableDataSetConsumer;
 import org.alfasoftware.morf.dataset.TableLoader;
+import org.alfasoftware.morf.dataset.TableLoaderBuilder;
+import org.alfasoftware.morf.metadata.Index;
+import org.alfasoftware.morf.metadata.SchemaResource;
 import org.alfasoftware.morf.metadata.Table;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 
 
@@ -34,9 +53,23 @@ import com.google.inject.Inject;
  * Implementation of {@link DataSetConsumer} that pipes records into a JDBC
  * database connection.
  *
+ * <p>Tables received in key ranges through {@link PartitionedTableConsumer} are loaded
+ * on a connection per range, each of which commits as soon as its range is loaded.
+ * Unlike tables received whole, these are not rolled back if the data set is closed
+ * as {@link CloseState#INCOMPLETE}.</p>
+ *
+ * <p>By default every table is loaded through one connection, which serialises the
+ * inserts of a multi-threaded connector. {@link #withConnectionPerThread()} gives each
+ * thread which calls {@link #table(Table, Iterable)} a connection of its own.
+ * {@link #withCommitPerTable()} instead commits each table as soon as it is loaded,
+ * so that a failed transfer can be resumed.</p>
+ *
+ * <p>{@link #withDeferredIndexBuilds(int)} drops the indexes of each table before it is
+ * loaded, and rebuilds them all in parallel when the data set is closed.</p>
+ *
  * @author Copyright (c) Alfa Financial Software 2009
  */
-public class DatabaseDataSetConsumer implements DataSetConsumer {
+public class DatabaseDataSetConsumer implements DataSetConsumer, PartitionedTableConsumer, ResumableDataSetConsumer {
   /** Standard logger */
   private static final Log log = LogFactory.getLog(DatabaseDataSetConsumer.class);
 
@@ -67,6 +100,30 @@ public class DatabaseDataSetConsumer implements DataSetConsumer {
 
   private boolean wasAutoCommit;
 
+  /**
+   * Whether each thread loads tables through its own connection.
+   */
+  private boolean connectionPerThread;
+
+  /**
+   * Whether each table is loaded, and committed, on a connection of its own.
+   */
+  private boolean commitPerTable;
+
+  /**
+   * Connections opened for the threads loading tables, when {@link #connectionPerThread} is set.
+   */
+  private final Map<Thread, Connection> threadConnections = new ConcurrentHashMap<>();
+
+  /**
+   * The number of threads rebuilding indexes, or zero if indexes are maintained during the load.
+   */
+  private int indexBuildThreadCount;
+
+  /**
+   * Indexes dropped before loading their tables, to be rebuilt by {@link #close(CloseState)}.
+   */
+  private final Queue<DeferredIndex> deferredIndexes = new ConcurrentLinkedQueue<>();
 
 
   /**
@@ -98,6 +155,64 @@ public class DatabaseDataSetConsumer implements DataSetConsumer {
   }
 
 
+  /**
+   * Loads the tables received by each thread through a connection of its own, so that
+   * tables received concurrently are also inserted concurrently.
+   *
+   * <p>The connections are committed together by {@link #close(CloseState)}, only once
+   * all the tables have been received, or are all rolled back. If a commit fails, the
+   * connections not yet committed are rolled back, but those already committed cannot be.</p>
+   *
+   * @return this, for chaining.
+   */
+  public DatabaseDataSetConsumer withConnectionPerThread() {
+    this.connectionPerThread = true;
+    return this;
+  }
+
+
+  /**
+   * Loads each table on a new connection of its own, and commits it as soon as it has
+   * been loaded. Tables completed before a failure are then kept, rather than rolled
+   * back by {@link #close(CloseState)}, so that the transfer can be resumed with a
+   * {@link org.alfasoftware.morf.dataset.TransferJournal}.
+   *
+   * <p>This takes precedence over {@link #withConnectionPerThread()}.</p>
+   *
+   * @return this, for chaining.
+   */
+  public DatabaseDataSetConsumer withCommitPerTable() {
+    this.commitPerTable = true;
+    return this;
+  }
+
+
+  /**
+   * Drops the indexes of each table before loading it, so that the inserts do not have to
+   * maintain them, and rebuilds them all once every table has been received, on
+   * <var>threadCount</var> threads using {@link SqlDialect#addIndexStatements(Table, Index)}.
+   *
+   * <p>The indexes are dropped and rebuilt on connections of their own, and are rebuilt
+   * by {@link #close(CloseState)} even if the data set is incomplete, after the data has
+   * been committed or rolled back. Violations of a unique index are therefore only
+   * reported when it is rebuilt. Primary keys are not indexes and are left in place.</p>
+   *
+   * <p>If the process fails before the indexes are rebuilt, a transfer resumed from its
+   * journal checks each table it does not load again in full for indexes missing from
+   * the database, and rebuilds those too; see {@link #tableResumed(Table)}.</p>
+   *
+   * @param threadCount The number of indexes to build concurrently.
+   * @return this, for chaining.
+   */
+  public DatabaseDataSetConsumer withDeferredIndexBuilds(int threadCount) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("Index build thread count must be at least 1, not [" + threadCount + "]");
+    }
+    this.indexBuildThreadCount = threadCount;
+    return this;
+  }
+
+
   /**
    * @see org.alfasoftware.morf.dataset.DataSetConsumer#open()
    */
@@ -120,18 +235,47 @@ public class DatabaseDataSetConsumer implements DataSetConsumer {
    */
   @Override
   public void close(CloseState closeState) {
+    RuntimeException failure = null;
+    try {
+      closeConnections(closeState);
+    } catch (RuntimeException e) {
+      failure = e;
+    }
+
+    try {
+      rebuildIndexes();
+    } catch (RuntimeException e) {
+      if (failure == null) {
+        throw e;
+      }
+      failure.addSuppressed(e);
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+
+  /**
+   * Commits or rolls back, and closes, every connection loading tables.
+   */
+  private void closeConnections(CloseState closeState) {
+    List<Connection> connections = Lists.newArrayList(connection);
+    connections.addAll(threadConnections.values());
+    threadConnections.clear();
+
     try {
       try {
         if (CloseState.COMPLETE.equals(closeState)) {
           log.debug("Closing and committing");
-          connection.commit();
+          commit(connections);
         } else {
           log.debug("Rolling back");
-          connection.rollback();
+          rollback(connections);
         }
       } finally {
-        connection.setAutoCommit(wasAutoCommit);
-        connection.close();
+        closeAll(connections);
       }
     } catch (SQLException e) {
       throw new RuntimeSqlException("Error committing and closing", e);
@@ -139,15 +283,91 @@ public class DatabaseDataSetConsumer implements DataSetConsumer {
   }
 
 
+  /**
+   * Commits each connection in turn, rolling back the rest if any commit fails.
+   */
+  private void commit(List<Connection> connections) throws SQLException {
+    for (int i = 0; i < connections.size(); i++) {
+      try {
+        connections.get(i).commit();
+      } catch (SQLException e) {
+        for (Connection remaining : connections.subList(i + 1, connections.size())) {
+          try {
+            remaining.rollback();
+          } catch (SQLException rollbackException) {
+            e.addSuppressed(rollbackException);
+          }
+        }
+        throw e;
+      }
+    }
+  }
+
+
+  /**
+   * Rolls back every connection, even if some fail.
+   */
+  private void rollback(List<Connection> connections) throws SQLException {
+    SQLException failure = null;
+    for (Connection each : connections) {
+      try {
+        each.rollback();
+      } catch (SQLException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+
+  /**
+   * Restores the auto-commit flag on, and closes, every connection, even if some fail.
+   */
+  private void closeAll(List<Connection> connections) throws SQLException {
+    SQLException failure = null;
+    for (Connection each : connections) {
+      try {
+        each.setAutoCommit(wasAutoCommit);
+        each.close();
+      } catch (SQLException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+
   /**
    * @see org.alfasoftware.morf.dataset.DataSetConsumer#table(org.alfasoftware.morf.metadata.Table, java.lang.Iterable)
    */
   @Override
   public void table(Table table, Iterable<Record> records) {
-    TableLoader.builder()
-      .withConnection(connection)
-      .withSqlScriptExecutor(sqlExecutor)
-      .withDialect(sqlDialect)
+    deferIndexes(table);
+    if (commitPerTable) {
+      inOwnConnection(tableConnection -> loadTable(tableConnection, table, records));
+    } else {
+      loadTable(connectionForCurrentThread(), table, records);
+    }
+  }
+
+
+  /**
+   * Empties <var>table</var> and loads <var>records</var> into it.
+   */
+  private void loadTable(Connection targetConnection, Table table, Iterable<Record> records) {
+    tableLoader(targetConnection)
       .truncateBeforeLoad()
       .insertingWithPresetAutonums()
       .forTable(table)
@@ -155,6 +375,220 @@ public class DatabaseDataSetConsumer implements DataSetConsumer {
   }
 
 
+  /**
+   * Empties the table on a separate connection, committing straight away so that the
+   * key ranges can be loaded concurrently without waiting on its locks.
+   *
+   * @see org.alfasoftware.morf.dataset.PartitionedTableConsumer#openPartitionedTable(org.alfasoftware.morf.metadata.Table)
+   */
+  @Override
+  public void openPartitionedTable(Table table) {
+    deferIndexes(table);
+    inOwnConnection(partitionConnection -> tableLoader(partitionConnection).forTable(table).truncate());
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.PartitionedTableConsumer#tablePartition(org.alfasoftware.morf.metadata.Table, org.alfasoftware.morf.dataset.KeyRange, java.lang.Iterable)
+   */
+  @Override
+  public void tablePartition(Table table, KeyRange keyRange, Iterable<Record> records) {
+    inOwnConnection(partitionConnection -> {
+      // The autonumber repair runs once, when the table is closed, but any session
+      // level set-up is needed on every connection, and must be undone on the same
+      // connection before it goes back to the pool.
+      Collection<String> sessionSetUp = sqlDialect.preInsertWithPresetAutonumStatements(table, false);
+      sqlExecutor.execute(sessionSetUp, partitionConnection);
+      try {
+        tableLoader(partitionConnection).forTable(table).load(records);
+      } finally {
+        if (!sessionSetUp.isEmpty()) {
+          sqlDialect.postInsertWithPresetAutonumStatements(table, sqlExecutor, partitionConnection, false);
+        }
+      }
+    });
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.dataset.PartitionedTableConsumer#closePartitionedTable(org.alfasoftware.morf.metadata.Table)
+   */
+  @Override
+  public void closePartitionedTable(Table table) {
+    inOwnConnection(partitionConnection -> sqlDialect.postInsertWithPresetAutonumStatements(table, sqlExecutor, partitionConnection, false));
+  }
+
+
+  /**
+   * Rebuilds, with the deferred indexes, any index of <var>table</var> missing from the
+   * database, in case an earlier transfer dropped it and failed before rebuilding it.
+   * Has no effect unless index builds are deferred.
+   *
+   * @see org.alfasoftware.morf.dataset.ResumableDataSetConsumer#tableResumed(org.alfasoftware.morf.metadata.Table)
+   */
+  @Override
+  public void tableResumed(Table table) {
+    if (indexBuildThreadCount == 0) {
+      return;
+    }
+
+    SchemaResource schemaResource = connectionResources.openSchemaResource(dataSource);
+    try {
+      if (!schemaResource.tableExists(table.getName())) {
+        return;
+      }
+      List<Index> existing = schemaResource.getTable(table.getName()).indexes();
+      for (Index index : table.indexes()) {
+        if (existing.stream().noneMatch(each -> each.getName().equalsIgnoreCase(index.getName()))) {
+          log.info("Index [" + index.getName() + "] missing from resumed table [" + table.getName() + "]");
+          deferredIndexes.add(new DeferredIndex(table, index));
+        }
+      }
+    } finally {
+      schemaResource.close();
+    }
+  }
+
+
+  /**
+   * Key ranges are always committed as they are loaded, but whole tables only with
+   * {@link #withCommitPerTable()}.
+   *
+   * @see org.alfasoftware.morf.dataset.ResumableDataSetConsumer#isDurablePerTable()
+   */
+  @Override
+  public boolean isDurablePerTable() {
+    return commitPerTable;
+  }
+
+
+  /**
+   * Drops the indexes of <var>table</var>, if index builds are deferred, noting each one
+   * dropped so that it can be rebuilt.
+   */
+  private void deferIndexes(Table table) {
+    if (indexBuildThreadCount == 0) {
+      return;
+    }
+
+    for (Index index : table.indexes()) {
+      inOwnConnection(indexConnection -> sqlExecutor.execute(sqlDialect.indexDropStatements(table, index), indexConnection));
+      deferredIndexes.add(new DeferredIndex(table, index));
+    }
+  }
+
+
+  /**
+   * Rebuilds every index dropped by {@link #deferIndexes(Table)}, each on a connection of
+   * its own. All the indexes are attempted even if some fail.
+   */
+  private void rebuildIndexes() {
+    if (deferredIndexes.isEmpty()) {
+      return;
+    }
+
+    log.info("Rebuilding [" + deferredIndexes.size() + "] indexes using [" + indexBuildThreadCount + "] threads");
+    long start = System.currentTimeMillis();
+    ExecutorService executor = Executors.newFixedThreadPool(indexBuildThreadCount);
+    try {
+      List<DeferredIndex> indexes = new ArrayList<>();
+      List<Future<?>> builds = new ArrayList<>();
+      for (DeferredIndex each = deferredIndexes.poll(); each != null; each = deferredIndexes.poll()) {
+        DeferredIndex deferredIndex = each;
+        indexes.add(deferredIndex);
+        builds.add(executor.submit(() -> inOwnConnection(indexConnection ->
+          sqlExecutor.execute(sqlDialect.addIndexStatements(deferredIndex.table, deferredIndex.index), indexConnection))));
+      }
+      executor.shutdown();
+
+      RuntimeException failure = null;
+      for (int i = 0; i < builds.size(); i++) {
+        try {
+          builds.get(i).get();
+        } catch (ExecutionException e) {
+          RuntimeException buildFailure = new RuntimeException("Error rebuilding index [" + indexes.get(i).index.getName() + "] on table [" + indexes.get(i).table.getName() + "]", e.getCause());
+          if (failure == null) {
+            failure = buildFailure;
+          } else {
+            failure.addSuppressed(buildFailure);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("Interrupted rebuilding indexes", e);
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      log.info("Rebuilt [" + builds.size() + "] indexes in [" + (System.currentTimeMillis() - start) + "] ms");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+
+  /**
+   * @return The connection through which the current thread should load tables.
+   */
+  private Connection connectionForCurrentThread() {
+    if (!connectionPerThread) {
+      return connection;
+    }
+
+    return threadConnections.computeIfAbsent(Thread.currentThread(), thread -> {
+      log.debug("Opening database connection for thread [" + thread.getName() + "]");
+      try {
+        Connection threadConnection = dataSource.getConnection();
+        threadConnection.setAutoCommit(false);
+        return threadConnection;
+      } catch (SQLException e) {
+        throw new RuntimeSqlException("Error opening connection", e);
+      }
+    });
+  }
+
+
+  /**
+   * @param targetConnection The connection to load through.
+   * @return A table loader builder for the connection.
+   */
+  private TableLoaderBuilder tableLoader(Connection targetConnection) {
+    return TableLoader.builder()
+      .withConnection(targetConnection)
+      .withSqlScriptExecutor(sqlExecutor)
+      .withDialect(sqlDialect);
+  }
+
+
+  /**
+   * Runs <var>work</var> in a transaction on a new connection, committing if it succeeds.
+   *
+   * @param work The work to run.
+   */
+  private void inOwnConnection(Consumer<Connection> work) {
+    try {
+      Connection partitionConnection = dataSource.getConnection();
+      try {
+        boolean partitionWasAutoCommit = partitionConnection.getAutoCommit();
+        partitionConnection.setAutoCommit(false);
+        try {
+          work.accept(partitionConnection);
+          partitionConnection.commit();
+        } catch (RuntimeException e) {
+          partitionConnection.rollback();
+          throw e;
+        } finally {
+          partitionConnection.setAutoCommit(partitionWasAutoCommit);
+        }
+      } finally {
+        partitionConnection.close();
+      }
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("Error loading table", e);
+    }
+  }
+
+
   /**
    * @return the dataSource
    */
@@ -170,4 +604,17 @@ public class DatabaseDataSetConsumer implements DataSetConsumer {
     return sqlExecutor;
   }
 
+
+  /**
+   * An index dropped before its table was loaded.
+   */
+  private static final class DeferredIndex {
+    private final Table table;
+    private final Index index;
+
+    DeferredIndex(Table table, Index index) {
+      this.table = table;
+      this.index = index;
+    }
+  }
 }
@@ -15,10 +15,24 @@
 
 package org.alfasoftware.morf.jdbc;
 
+import static org.alfasoftware.morf.metadata.SchemaUtils.primaryKeysForTable;
+import static org.alfasoftware.morf.sql.SqlUtils.field;
+import static org.alfasoftware.morf.sql.SqlUtils.select;
+import static org.alfasoftware.morf.sql.SqlUtils.tableRef;
+import static org.alfasoftware.morf.sql.element.Criterion.and;
+import static org.alfasoftware.morf.sql.element.Criterion.greaterThanOrEqualTo;
+import static org.alfasoftware.morf.sql.element.Criterion.lessThanOrEqualTo;
+import static org.alfasoftware.morf.sql.element.Function.max;
+import static org.alfasoftware.morf.sql.element.Function.min;
+
+import java.math.BigInteger;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -28,12 +42,21 @@ import java.util.Set;
 import javax.sql.DataSource;
 
 import org.alfasoftware.morf.dataset.DataSetProducer;
+import org.alfasoftware.morf.dataset.KeyRange;
+import org.alfasoftware.morf.dataset.PartitionedTableProducer;
 import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.dataset.TableSizeEstimator;
+import org.alfasoftware.morf.metadata.Column;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.RecordBatch;
 import org.alfasoftware.morf.metadata.Schema;
 import org.alfasoftware.morf.metadata.Table;
 import org.alfasoftware.morf.sql.SelectStatement;
 import org.alfasoftware.morf.sql.element.TableReference;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 
@@ -45,9 +68,41 @@ import com.google.inject.Inject;
  * {@linkplain DatabaseDataSetProducer} but will not close the database connection
  * supplied on construction</p>
  *
+ * <p>Table sizes are estimated as row counts from the index statistics held by the
+ * database, so will only be as accurate as those statistics.</p>
+ *
+ * <p>Tables with a single numeric {@code id} primary key can be read in key ranges, each on
+ * its own database connection, so that they can be transferred in parallel.
+ * See {@link PartitionBoundaries} for how the ranges are chosen.</p>
+ *
  * @author Copyright (c) Alfa Financial Software 2009
  */
-public class DatabaseDataSetProducer implements DataSetProducer {
+public class DatabaseDataSetProducer implements DataSetProducer, TableSizeEstimator, PartitionedTableProducer {
+
+  /**
+   * How the boundaries between key ranges are chosen by {@link DatabaseDataSetProducer#partition(String, int)}.
+   */
+  public enum PartitionBoundaries {
+    /**
+     * Divide the span between the lowest and highest key evenly. This needs only one cheap query, but
+     * gives uneven ranges if the keys have large gaps.
+     */
+    MIN_MAX,
+    /**
+     * Divide the span between the lowest and highest key into many short slices, and probe each for
+     * its lowest and highest key. The occupied slices are then shared out evenly, so that gaps in the
+     * keys do not leave ranges empty. Each probe is a seek on the primary key index; no key is read
+     * that is not the bound of a slice.
+     */
+    SAMPLED
+  }
+
+  private static final Log log = LogFactory.getLog(DatabaseDataSetProducer.class);
+
+  /**
+   * The number of slices probed for each range when sampling the keys.
+   */
+  private static final int SAMPLES_PER_PARTITION = 16;
 
   /**
    * Dialect used to generate SQL statements.
@@ -79,7 +134,19 @@ public class DatabaseDataSetProducer implements DataSetProducer {
 
   private final ConnectionResources connectionResources;
 
-  private final Set<ResultSetIterator> openResultSets = Sets.newHashSet();
+  private final Set<ResultSetIterator> openResultSets = Sets.newConcurrentHashSet();
+
+  /**
+   * Result sets opened to read tables in batches.
+   */
+  private final Set<ResultSetBatchIterator> openBatchResultSets = Sets.newConcurrentHashSet();
+
+  /**
+   * Connections opened to read key ranges of tables.
+   */
+  private final Set<Connection> openPartitionConnections = Sets.newConcurrentHashSet();
+
+  private PartitionBoundaries partitionBoundaries = PartitionBoundaries.MIN_MAX;
 
 
   /**
@@ -122,6 +189,18 @@ public class DatabaseDataSetProducer implements DataSetProducer {
   }
 
 
+  /**
+   * Sets how the boundaries between key ranges are chosen. Defaults to {@link PartitionBoundaries#MIN_MAX}.
+   *
+   * @param partitionBoundaries How to choose the boundaries.
+   * @return this, for chaining.
+   */
+  public DatabaseDataSetProducer withPartitionBoundaries(PartitionBoundaries partitionBoundaries) {
+    this.partitionBoundaries = partitionBoundaries;
+    return this;
+  }
+
+
   /**
    * @see org.alfasoftware.morf.dataset.DataSetProducer#open()
    */
@@ -155,6 +234,15 @@ public class DatabaseDataSetProducer implements DataSetProducer {
       }
       openResultSets.clear();
 
+      for (ResultSetBatchIterator resultSetBatchIterator : openBatchResultSets) {
+        resultSetBatchIterator.close();
+      }
+      openBatchResultSets.clear();
+
+      for (Connection partitionConnection : openPartitionConnections) {
+        closePartitionConnection(partitionConnection);
+      }
+
       // restore the auto-commit flag.
       connection.setAutoCommit(wasAutoCommit);
       connection.close();
@@ -175,23 +263,278 @@ public class DatabaseDataSetProducer implements DataSetProducer {
     return new Iterable<Record>() {
       @Override
       public Iterator<Record> iterator() {
-        List<String> columnOrdering = null;
+        ResultSetIterator resultSetIterator = new ResultSetIterator(table, columnOrdering(table), connection, sqlDialect);
+        openResultSets.add(resultSetIterator);
+        return resultSetIterator;
+      }
+    };
+  }
 
-        for (Map.Entry<String, List<String>> entry : orderingOverrides.entrySet()) {
-          if (entry.getKey().equalsIgnoreCase(table.getName())) {
-            columnOrdering = entry.getValue();
-            break;
-          }
-        }
 
-        ResultSetIterator resultSetIterator = new ResultSetIterator(table, columnOrdering, connection, sqlDialect);
+  /**
+   * Reads each batch straight from the result set into its column vectors.
+   *
+   * @see org.alfasoftware.morf.dataset.DataSetProducer#recordBatches(java.lang.String, int)
+   */
+  @Override
+  public Iterable<RecordBatch> recordBatches(String tableName, int batchSize) {
+    final Table table = getSchema().getTable(tableName);
+
+    return () -> {
+      ResultSetBatchIterator resultSetBatchIterator = new ResultSetBatchIterator(table, columnOrdering(table), batchSize, connection, sqlDialect);
+      openBatchResultSets.add(resultSetBatchIterator);
+      return resultSetBatchIterator;
+    };
+  }
+
+
+  /**
+   * @param table The table.
+   * @return The ordering override for the table, or null to order by its primary key.
+   */
+  private List<String> columnOrdering(Table table) {
+    for (Map.Entry<String, List<String>> entry : orderingOverrides.entrySet()) {
+      if (entry.getKey().equalsIgnoreCase(table.getName())) {
+        return entry.getValue();
+      }
+    }
+    return null;
+  }
+
+
+
+  /**
+   * Splits tables whose primary key is a single numeric {@code id} column into key ranges.
+   *
+   * @see org.alfasoftware.morf.dataset.PartitionedTableProducer#partition(java.lang.String, int)
+   */
+  @Override
+  public List<KeyRange> partition(String tableName, int partitionCount) {
+    Table table = getSchema().getTable(tableName);
+    Column key = partitionKey(table);
+    if (key == null || partitionCount < 2) {
+      return Collections.emptyList();
+    }
+
+    List<KeyRange> keyRanges;
+    switch (partitionBoundaries) {
+      case MIN_MAX:
+        keyRanges = partitionByMinMax(table, key, partitionCount);
+        break;
+      case SAMPLED:
+        keyRanges = partitionBySampling(table, key, partitionCount);
+        break;
+      default:
+        throw new UnsupportedOperationException("Unsupported partition boundaries [" + partitionBoundaries + "]");
+    }
+
+    // a single range is no better than reading the table whole
+    return keyRanges.size() < 2 ? Collections.<KeyRange>emptyList() : keyRanges;
+  }
+
+
+  /**
+   * Reads one key range of a table on a connection of its own, which is closed once
+   * the records have been read.
+   *
+   * @see org.alfasoftware.morf.dataset.PartitionedTableProducer#records(java.lang.String, org.alfasoftware.morf.dataset.KeyRange)
+   */
+  @Override
+  public Iterable<Record> records(String tableName, final KeyRange keyRange) {
+    final Table table = getSchema().getTable(tableName);
+    final Column key = partitionKey(table);
+    if (key == null) {
+      throw new IllegalArgumentException("Table [" + tableName + "] cannot be read in key ranges");
+    }
+
+    return new Iterable<Record>() {
+      @Override
+      public Iterator<Record> iterator() {
+        SelectStatement select = new SelectStatement()
+            .from(new TableReference(table.getName()))
+            .where(and(
+              greaterThanOrEqualTo(field(key.getName()), keyRange.getFrom()),
+              lessThanOrEqualTo(field(key.getName()), keyRange.getTo())))
+            .orderBy(field(key.getName()));
+
+        final Connection partitionConnection = openPartitionConnection();
+        final ResultSetIterator resultSetIterator = new ResultSetIterator(table, sqlDialect.convertStatementToSQL(select), partitionConnection, sqlDialect);
         openResultSets.add(resultSetIterator);
-        return resultSetIterator;
+
+        return new Iterator<Record>() {
+          @Override
+          public boolean hasNext() {
+            boolean result = resultSetIterator.hasNext();
+            if (!result) {
+              openResultSets.remove(resultSetIterator);
+              closePartitionConnection(partitionConnection);
+            }
+            return result;
+          }
+
+          @Override
+          public Record next() {
+            return resultSetIterator.next();
+          }
+        };
       }
     };
   }
 
 
+  /**
+   * @param table The table.
+   * @return The column on which the table can be split into key ranges, or null if it cannot be.
+   */
+  private Column partitionKey(Table table) {
+    List<Column> primaryKeys = primaryKeysForTable(table);
+    if (primaryKeys.size() != 1) {
+      return null;
+    }
+
+    Column key = primaryKeys.get(0);
+    boolean numeric = key.getType() == DataType.BIG_INTEGER || key.getType() == DataType.INTEGER;
+    return numeric && key.getName().equalsIgnoreCase("id") ? key : null;
+  }
+
+
+  /**
+   * Splits the span between the lowest and highest key evenly.
+   */
+  private List<KeyRange> partitionByMinMax(Table table, Column key, int partitionCount) {
+    SelectStatement select = select(min(field(key.getName())), max(field(key.getName()))).from(tableRef(table.getName()));
+    String sql = sqlDialect.convertStatementToSQL(select);
+
+    try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+         ResultSet resultSet = statement.executeQuery(sql)) {
+      resultSet.next();
+      long lowest = resultSet.getLong(1);
+      if (resultSet.wasNull()) {
+        return Collections.emptyList();
+      }
+      return splitEvenly(lowest, resultSet.getLong(2), partitionCount);
+
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("Error finding key range of table [" + table.getName() + "]: [" + sql + "]", e);
+    }
+  }
+
+
+  /**
+   * Splits the keys from <var>lowest</var> to <var>highest</var> inclusive into ranges
+   * of equal length, but for a shorter last range. Calculated without overflowing, even
+   * for keys at the limits of a {@code long}.
+   *
+   * @param lowest The lowest key.
+   * @param highest The highest key.
+   * @param partitionCount The maximum number of ranges.
+   * @return The key ranges.
+   */
+  static List<KeyRange> splitEvenly(long lowest, long highest, int partitionCount) {
+    BigInteger last = BigInteger.valueOf(highest);
+    BigInteger step = last.subtract(BigInteger.valueOf(lowest)).divide(BigInteger.valueOf(partitionCount)).add(BigInteger.ONE);
+    List<KeyRange> keyRanges = new ArrayList<>();
+    for (BigInteger from = BigInteger.valueOf(lowest); from.compareTo(last) <= 0; from = from.add(step)) {
+      keyRanges.add(new KeyRange(from.longValue(), from.add(step).subtract(BigInteger.ONE).min(last).longValue()));
+    }
+    return keyRanges;
+  }
+
+
+  /**
+   * Probes short slices of the span between the lowest and highest key, and shares the
+   * occupied slices out evenly.
+   */
+  private List<KeyRange> partitionBySampling(Table table, Column key, int partitionCount) {
+    List<KeyRange> bounds = partitionByMinMax(table, key, 1);
+    if (bounds.isEmpty()) {
+      return bounds;
+    }
+
+    List<KeyRange> occupied = new ArrayList<>();
+    try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+      for (KeyRange slice : splitEvenly(bounds.get(0).getFrom(), bounds.get(0).getTo(), partitionCount * SAMPLES_PER_PARTITION)) {
+        SelectStatement select = select(min(field(key.getName())), max(field(key.getName())))
+            .from(tableRef(table.getName()))
+            .where(and(
+              greaterThanOrEqualTo(field(key.getName()), slice.getFrom()),
+              lessThanOrEqualTo(field(key.getName()), slice.getTo())));
+        String sql = sqlDialect.convertStatementToSQL(select);
+        try (ResultSet resultSet = statement.executeQuery(sql)) {
+          resultSet.next();
+          long lowest = resultSet.getLong(1);
+          if (!resultSet.wasNull()) {
+            occupied.add(new KeyRange(lowest, resultSet.getLong(2)));
+          }
+        } catch (SQLException e) {
+          throw new RuntimeSqlException("Error sampling key ranges of table [" + table.getName() + "]: [" + sql + "]", e);
+        }
+      }
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("Error sampling key ranges of table [" + table.getName() + "]", e);
+    }
+
+    return shareOut(occupied, partitionCount);
+  }
+
+
+  /**
+   * Shares the occupied slices out among ranges, each with as near the same number of
+   * slices as possible. The ranges are contiguous, from the lowest key of the first slice
+   * to the highest key of the last.
+   *
+   * @param occupied The occupied slices, in key order, each bounded by its lowest and highest key.
+   * @param partitionCount The maximum number of ranges.
+   * @return The key ranges.
+   */
+  static List<KeyRange> shareOut(List<KeyRange> occupied, int partitionCount) {
+    int partitions = Math.min(partitionCount, occupied.size());
+    List<KeyRange> keyRanges = new ArrayList<>();
+    for (int partition = 0; partition < partitions; partition++) {
+      int first = occupied.size() * partition / partitions;
+      int next = occupied.size() * (partition + 1) / partitions;
+      long to = next < occupied.size() ? occupied.get(next).getFrom() - 1 : occupied.get(next - 1).getTo();
+      keyRanges.add(new KeyRange(occupied.get(first).getFrom(), to));
+    }
+    return keyRanges;
+  }
+
+
+  /**
+   * @return A new connection, configured as for the main connection, for reading a key range.
+   */
+  private Connection openPartitionConnection() {
+    if (connection == null) {
+      throw new IllegalStateException("Dataset has not been opened");
+    }
+
+    try {
+      Connection partitionConnection = dataSource.getConnection();
+      partitionConnection.setAutoCommit(false);
+      openPartitionConnections.add(partitionConnection);
+      return partitionConnection;
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("Error opening connection", e);
+    }
+  }
+
+
+  /**
+   * Closes a connection opened by {@link #openPartitionConnection()}, if it is still open.
+   */
+  private void closePartitionConnection(Connection partitionConnection) {
+    if (!openPartitionConnections.remove(partitionConnection)) {
+      return;
+    }
+
+    try {
+      partitionConnection.setAutoCommit(wasAutoCommit);
+      partitionConnection.close();
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("Error closing connection", e);
+    }
+  }
+
 
   /**
    * @see org.alfasoftware.morf.dataset.DataSetProducer#isTableEmpty(java.lang.String)
@@ -226,6 +569,44 @@ public class DatabaseDataSetProducer implements DataSetProducer {
   }
 
 
+  /**
+   * Estimates the number of rows in the table from the approximate index statistics
+   * reported through {@link DatabaseMetaData#getIndexInfo(String, String, String, boolean, boolean)}.
+   * The table statistic row is used where the driver provides one, otherwise the highest
+   * index cardinality, which is the row count for the primary key.
+   *
+   * @see org.alfasoftware.morf.dataset.TableSizeEstimator#estimateSize(java.lang.String)
+   */
+  @Override
+  public Optional<Long> estimateSize(String tableName) {
+    String name = getSchema().getTable(tableName).getName();
+
+    try {
+      ResultSet indexInfo = connection.getMetaData().getIndexInfo(null, connectionResources.getSchemaName(), name, false, true);
+      try {
+        long estimate = -1;
+        while (indexInfo.next()) {
+          long cardinality = indexInfo.getLong(11);
+          if (indexInfo.wasNull()) {
+            continue;
+          }
+          if (indexInfo.getShort(7) == DatabaseMetaData.tableIndexStatistic) {
+            return Optional.of(cardinality);
+          }
+          estimate = Math.max(estimate, cardinality);
+        }
+        return estimate < 0 ? Optional.<Long>absent() : Optional.of(estimate);
+      } finally {
+        indexInfo.close();
+      }
+    } catch (SQLException e) {
+      // an estimate is only ever an optimisation, so never fail the transfer for the lack of one
+      log.debug("Unable to estimate size of table [" + tableName + "]", e);
+      return Optional.absent();
+    }
+  }
+
+
   /**
    * @see org.alfasoftware.morf.dataset.DataSetProducer#getSchema()
    */
@@ -30,6 +30,8 @@ import java.util.Map;
 
 import org.alfasoftware.morf.sql.element.SqlParameter;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -53,17 +55,45 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
   /** The statement - for logging and exceptions. */
   private final ParseResult sql;
 
+  /** Whether the statement is set up for bulk queries. */
+  private final boolean queryOnly;
+
+  /** If not negative, the only occurrence of each parameter which is set. */
+  private int occurrence = -1;
+
+  /** The cache this statement is returned to when closed, if any. */
+  private PreparedStatementCache cache;
+
+  /** Whether anything other than the parameters has been changed since the statement was last reset. */
+  private boolean modified;
+
+  /**
+   * The most recently parsed SQL, bounded by the total length of the SQL held.
+   */
+  private static final Cache<String, ParseResult> PARSE_RESULTS = CacheBuilder.newBuilder()
+      .maximumWeight(Long.getLong("NamedParameterPreparedStatement.PARSE_CACHE_CHARACTERS", 8_000_000L))
+      .weigher((String sql, ParseResult parseResult) -> sql.length())
+      .build();
+
 
   /**
    * Parses the SQL string containing named parameters in such a form that
    * can be cached, so that prepared statements using the parsed result
    * can be created rapidly.
    *
+   * <p>The results are cached, keyed by the SQL, so identical SQL is only parsed
+   * once while it remains in the cache.</p>
+   *
    * @param sql the SQL
    * @return the parsed result
    */
   public static ParseResult parse(String sql) {
-    return new ParseResult(sql);
+    ParseResult parseResult = PARSE_RESULTS.getIfPresent(sql);
+    if (parseResult == null) {
+      parseResult = new ParseResult(sql);
+      PARSE_RESULTS.put(sql, parseResult);
+    }
+    return parseResult;
   }
 
 
@@ -80,6 +110,7 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
   NamedParameterPreparedStatement(Connection connection, String query, Map<String, List<Integer>> indexMap, boolean queryOnly, ParseResult sql) throws SQLException {
     this.indexMap = indexMap;
     this.sql = sql;
+    this.queryOnly = queryOnly;
     if (queryOnly) {
       this.statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
     } else {
@@ -156,15 +187,91 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
 
 
   /**
+   * Closes the statement, or returns it to the {@link PreparedStatementCache} it came from.
+   *
    * @see PreparedStatement#close()
    * @exception SQLException if a database access error occurs
    */
   @Override
   public void close() throws SQLException {
+    if (cache == null) {
+      statement.close();
+    } else {
+      cache.release(this);
+    }
+  }
+
+
+  /**
+   * Marks this statement as belonging to <var>cache</var>, to which it is returned when closed.
+   */
+  void cachedBy(PreparedStatementCache cache) {
+    this.cache = cache;
+  }
+
+
+  /**
+   * @return The parsed SQL from which the statement was prepared.
+   */
+  ParseResult getParseResult() {
+    return sql;
+  }
+
+
+  /**
+   * @return Whether the statement is set up for bulk queries.
+   */
+  boolean isQueryOnly() {
+    return queryOnly;
+  }
+
+
+  /**
+   * @return The underlying JDBC statement.
+   */
+  PreparedStatement getJdbcStatement() {
+    return statement;
+  }
+
+
+  /**
+   * @return The zero based occurrence of each parameter which is set, or -1 if every occurrence is set.
+   * @see #forOccurrence(int)
+   */
+  int getOccurrence() {
+    return occurrence;
+  }
+
+
+  /**
+   * Closes the underlying statement, even if this belongs to a cache.
+   *
+   * @throws SQLException if a database access error occurs
+   */
+  void closeStatement() throws SQLException {
     statement.close();
   }
 
 
+  /**
+   * Clears the parameters, and any batch, row limit, timeout or fetch size, so that the statement
+   * can be reused as if it had just been prepared.
+   *
+   * @throws SQLException if a database access error occurs
+   */
+  void reset() throws SQLException {
+    occurrence = -1;
+    statement.clearParameters();
+    if (modified) {
+      statement.clearBatch();
+      statement.setMaxRows(0);
+      statement.setQueryTimeout(0);
+      statement.setFetchSize(0);
+      modified = false;
+    }
+  }
+
+
   /**
    * @see PreparedStatement#addBatch()
    * @exception SQLException if a database access error occurs,
@@ -176,6 +283,7 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
    * the currently running {@code Statement}
    */
   public void addBatch() throws SQLException {
+    modified = true;
     statement.addBatch();
   }
 
@@ -217,10 +325,25 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
    *        condition {@code rows >= 0} is not satisfied.
    */
   public void setFetchSize(int rows) throws SQLException {
+    modified = true;
     statement.setFetchSize(rows);
   }
 
 
+  /**
+   * Restricts the parameter setters to one occurrence of each named parameter, rather than
+   * every occurrence. Used to set the values of each row of a multi-row insert, in which
+   * every row repeats the same parameter names.
+   *
+   * @param occurrence the zero based occurrence to set, or -1 to set every occurrence again.
+   * @return this, for method chaining
+   */
+  public NamedParameterPreparedStatement forOccurrence(int occurrence) {
+    this.occurrence = occurrence;
+    return this;
+  }
+
+
   /**
    * Allows arbitrary code to be executed for each index position at which the named parameter can be found.
    */
@@ -229,6 +352,13 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
     if (indexes == null) {
       throw new IllegalArgumentException("Parameter not found: " + parameter.getImpliedName());
     }
+    if (occurrence >= 0) {
+      if (occurrence >= indexes.size()) {
+        throw new IllegalArgumentException("Parameter " + parameter.getImpliedName() + " does not occur [" + (occurrence + 1) + "] times");
+      }
+      operation.apply(indexes.get(occurrence));
+      return;
+    }
     for (int i = 0; i < indexes.size(); i++) {
       operation.apply(indexes.get(i));
     }
@@ -409,16 +539,29 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
     forEachOccurrenceOfParameter(parameter, new Operation() {
       @Override
       public void apply(int parameterIndex) throws SQLException {
-        Blob blob = statement.getConnection().createBlob();
-        int written = blob.setBytes(1 /* odd position thing */, value);
-        if (written != value.length) throw new IllegalStateException("Failed to write all bytes to BLOB (written = " + written + ", actual = " + value.length + ")");
-        statement.setBlob(parameterIndex, blob);
+        setBlob(statement, parameterIndex, value);
       }
     });
     return this;
   }
 
 
+  /**
+   * Sets the value of a blob parameter of a JDBC statement.
+   *
+   * @param statement the statement.
+   * @param parameterIndex the parameter index.
+   * @param value the parameter value.
+   * @exception SQLException if an error occurs when setting the parameter
+   */
+  static void setBlob(PreparedStatement statement, int parameterIndex, byte[] value) throws SQLException {
+    Blob blob = statement.getConnection().createBlob();
+    int written = blob.setBytes(1 /* odd position thing */, value);
+    if (written != value.length) throw new IllegalStateException("Failed to write all bytes to BLOB (written = " + written + ", actual = " + value.length + ")");
+    statement.setBlob(parameterIndex, blob);
+  }
+
+
   /**
    * Sets the limit for the maximum number of rows that any
    * <code>ResultSet</code> object  generated by this <code>Statement</code>
@@ -433,6 +576,7 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
    * @see Statement#setMaxRows(int)
    */
   public void setMaxRows(Integer maxRows) throws SQLException {
+    modified = true;
     statement.setMaxRows(maxRows);
   }
 
@@ -447,6 +591,7 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
    * @exception SQLException if an error occurs when setting the timeout
    */
   public void setQueryTimeout(Integer queryTimeout) throws SQLException {
+    modified = true;
     statement.setQueryTimeout(queryTimeout);
   }
 
@@ -468,13 +613,18 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
    */
   public static final class ParseResult {
 
+    private final String namedSql;
     private final String query;
     private final Map<String, List<Integer>> indexMap = Maps.newHashMap();
 
+    /** The most recently compiled binder for this SQL. */
+    private volatile ParameterBinder binder;
+
     /**
      * Private constructor.
      */
     private ParseResult(String query) {
+      this.namedSql = query;
       this.query = parse(query);
     }
 
@@ -501,6 +651,15 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
     }
 
 
+    /**
+     * @return the SQL as given, with named parameters. Unlike the parsed SQL, this
+     *         distinguishes statements whose parameters appear in a different order.
+     */
+    String getNamedSql() {
+      return namedSql;
+    }
+
+
     /**
      * For testing only.
      *
@@ -511,6 +670,24 @@ public class NamedParameterPreparedStatement implements AutoCloseable {
     }
 
 
+    /**
+     * Returns a binder which sets <var>parameters</var> on statements prepared from this SQL,
+     * compiling one only if the parameters or dialect differ from those last used.
+     *
+     * @param parameters the parameters to set.
+     * @param dialect the dialect whose conventions to follow.
+     * @return the binder.
+     */
+    ParameterBinder binderFor(Iterable<SqlParameter> parameters, SqlDialect dialect) {
+      ParameterBinder result = binder;
+      if (result == null || !result.isFor(parameters, dialect)) {
+        result = ParameterBinder.compile(indexMap, parameters, dialect);
+        binder = result;
+      }
+      return result;
+    }
+
+
     /**
      * Create the prepared statement against the specified connection.
      *
@@ -0,0 +1,266 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import org.alfasoftware.morf.metadata.DataValueLookup;
+import org.alfasoftware.morf.sql.element.SqlParameter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+/**
+ * Sets a fixed list of parameters on statements prepared from one piece of SQL,
+ * as {@link SqlDialect#prepareStatementParameters(NamedParameterPreparedStatement, Iterable, DataValueLookup)}
+ * does, but with the type of each parameter and the JDBC indexes at which it occurs
+ * resolved once, when the binder is compiled, rather than for every row.
+ *
+ * <p>The dialect's behaviour is preserved: a dialect which overrides
+ * {@link SqlDialect#prepareStatementParameters(NamedParameterPreparedStatement, Iterable, DataValueLookup)}
+ * is still called for every row, and one which overrides
+ * {@link SqlDialect#prepareBooleanParameter(NamedParameterPreparedStatement, Boolean, SqlParameter)} or
+ * {@link SqlDialect#prepareIntegerParameter(NamedParameterPreparedStatement, Integer, SqlParameter)}
+ * is still called for the parameters of that type.</p>
+ *
+ * <p>Binders are immutable, so can be shared between threads.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+final class ParameterBinder {
+
+  private final Class<?> dialectClass;
+  private final List<SqlParameter> parameters;
+
+  /** The setter of each parameter, or null if the dialect sets them all itself. */
+  private final Setter[] setters;
+
+  /** The JDBC indexes at which each parameter occurs, or null for those which do not occur. */
+  private final int[][] indexes;
+
+
+  /**
+   * Compiles a binder.
+   *
+   * @param indexMap The JDBC indexes at which each named parameter occurs in the SQL.
+   * @param parameters The parameters to set, in order.
+   * @param dialect The dialect whose conventions to follow.
+   * @return The binder.
+   */
+  static ParameterBinder compile(Map<String, List<Integer>> indexMap, Iterable<SqlParameter> parameters, SqlDialect dialect) {
+    return new ParameterBinder(indexMap, ImmutableList.copyOf(parameters), dialect);
+  }
+
+
+  private ParameterBinder(Map<String, List<Integer>> indexMap, List<SqlParameter> parameters, SqlDialect dialect) {
+    this.dialectClass = dialect.getClass();
+    this.parameters = parameters;
+    this.indexes = new int[parameters.size()][];
+
+    for (int i = 0; i < parameters.size(); i++) {
+      List<Integer> occurrences = indexMap.get(parameters.get(i).getImpliedName());
+      if (occurrences != null) {
+        indexes[i] = occurrences.stream().mapToInt(Integer::intValue).toArray();
+      }
+    }
+
+    if (overrides(dialectClass, "prepareStatementParameters", NamedParameterPreparedStatement.class, Iterable.class, DataValueLookup.class)) {
+      this.setters = null;
+    } else {
+      boolean booleanHook = overrides(dialectClass, "prepareBooleanParameter", NamedParameterPreparedStatement.class, Boolean.class, SqlParameter.class);
+      boolean integerHook = overrides(dialectClass, "prepareIntegerParameter", NamedParameterPreparedStatement.class, Integer.class, SqlParameter.class);
+      this.setters = new Setter[parameters.size()];
+      for (int i = 0; i < parameters.size(); i++) {
+        setters[i] = setterFor(parameters.get(i), booleanHook, integerHook);
+      }
+    }
+  }
+
+
+  /**
+   * @param parameters The parameters to set.
+   * @param dialect The dialect whose conventions to follow.
+   * @return Whether this binder sets the same parameters in the same way.
+   */
+  boolean isFor(Iterable<SqlParameter> parameters, SqlDialect dialect) {
+    return dialect.getClass() == dialectClass && Iterables.elementsEqual(this.parameters, parameters);
+  }
+
+
+  /**
+   * Sets the parameters of <var>statement</var> from <var>values</var>.
+   *
+   * @param statement The statement, which must have been prepared from the SQL this binder was compiled against.
+   * @param values The values.
+   * @param dialect The dialect, for those parameters which it sets itself.
+   * @throws RuntimeException if a supplied value cannot be converted to the parameter data type.
+   */
+  void bind(NamedParameterPreparedStatement statement, DataValueLookup values, SqlDialect dialect) {
+    if (setters == null) {
+      dialect.prepareStatementParameters(statement, parameters, values);
+      return;
+    }
+
+    PreparedStatement jdbcStatement = statement.getJdbcStatement();
+    int occurrence = statement.getOccurrence();
+    for (int i = 0; i < setters.length; i++) {
+      try {
+        setters[i].set(statement, jdbcStatement, indexesOf(i, occurrence), values, dialect);
+      } catch (Exception e) {
+        SqlParameter parameter = parameters.get(i);
+        throw new RuntimeException(String.format("Error setting parameter value, column [%s], value [%s] on prepared statement",
+          parameter.getMetadata().getName(), values.getObject(parameter.getMetadata())), e);
+      }
+    }
+  }
+
+
+  /**
+   * @return The JDBC indexes to set for the parameter at <var>position</var>.
+   */
+  private int[] indexesOf(int position, int occurrence) {
+    int[] all = indexes[position];
+    if (all == null) {
+      throw new IllegalArgumentException("Parameter not found: " + parameters.get(position).getImpliedName());
+    }
+    if (occurrence < 0) {
+      return all;
+    }
+    if (occurrence >= all.length) {
+      throw new IllegalArgumentException("Parameter " + parameters.get(position).getImpliedName() + " does not occur [" + (occurrence + 1) + "] times");
+    }
+    return new int[] { all[occurrence] };
+  }
+
+
+  /**
+   * @return The setter for <var>parameter</var>, following the conversions of
+   *         {@link SqlDialect#prepareStatementParameters(NamedParameterPreparedStatement, Iterable, DataValueLookup)}.
+   */
+  private static Setter setterFor(SqlParameter parameter, boolean booleanHook, boolean integerHook) {
+    final String name = parameter.getImpliedName();
+    switch (parameter.getMetadata().getType()) {
+      case BIG_INTEGER:
+        return (statement, jdbcStatement, indexes, values, dialect) -> {
+          Long longVal = values.getLong(name);
+          for (int index : indexes) {
+            if (longVal == null) {
+              jdbcStatement.setObject(index, null);
+            } else {
+              jdbcStatement.setLong(index, longVal);
+            }
+          }
+        };
+      case BLOB:
+        return (statement, jdbcStatement, indexes, values, dialect) -> {
+          byte[] blobVal = values.getByteArray(name);
+          for (int index : indexes) {
+            NamedParameterPreparedStatement.setBlob(jdbcStatement, index, blobVal == null ? new byte[] {} : blobVal);
+          }
+        };
+      case BOOLEAN:
+        if (booleanHook) {
+          return (statement, jdbcStatement, indexes, values, dialect) -> dialect.prepareBooleanParameter(statement, values.getBoolean(name), parameter);
+        }
+        return (statement, jdbcStatement, indexes, values, dialect) -> {
+          Boolean boolVal = values.getBoolean(name);
+          for (int index : indexes) {
+            if (boolVal == null) {
+              jdbcStatement.setObject(index, null);
+            } else {
+              jdbcStatement.setBoolean(index, boolVal);
+            }
+          }
+        };
+      case DATE:
+        return (statement, jdbcStatement, indexes, values, dialect) -> {
+          Date dateVal = values.getDate(name);
+          for (int index : indexes) {
+            if (dateVal == null) {
+              jdbcStatement.setObject(index, null);
+            } else {
+              jdbcStatement.setDate(index, dateVal);
+            }
+          }
+        };
+      case DECIMAL:
+        return (statement, jdbcStatement, indexes, values, dialect) -> {
+          BigDecimal decimalVal = values.getBigDecimal(name);
+          for (int index : indexes) {
+            jdbcStatement.setBigDecimal(index, decimalVal);
+          }
+        };
+      case INTEGER:
+        if (integerHook) {
+          return (statement, jdbcStatement, indexes, values, dialect) -> dialect.prepareIntegerParameter(statement, values.getInteger(name), parameter);
+        }
+        return (statement, jdbcStatement, indexes, values, dialect) -> {
+          Integer integerVal = values.getInteger(name);
+          for (int index : indexes) {
+            if (integerVal == null) {
+              jdbcStatement.setObject(index, null);
+            } else {
+              jdbcStatement.setInt(index, integerVal);
+            }
+          }
+        };
+      case CLOB:
+      case STRING:
+        return (statement, jdbcStatement, indexes, values, dialect) -> {
+          String stringVal = values.getString(name);
+          for (int index : indexes) {
+            // empty strings are stored as null, as for SqlDialect#prepareStatementParameters
+            jdbcStatement.setString(index, stringVal == null || stringVal.equals("") ? null : stringVal);
+          }
+        };
+      default:
+        return (statement, jdbcStatement, indexes, values, dialect) -> {
+          throw new RuntimeException(String.format("Unexpected DataType [%s]", parameter.getMetadata().getType()));
+        };
+    }
+  }
+
+
+  /**
+   * @return Whether <var>dialectClass</var> overrides the named method of {@link SqlDialect}.
+   */
+  private static boolean overrides(Class<?> dialectClass, String methodName, Class<?>... parameterTypes) {
+    for (Class<?> clazz = dialectClass; clazz != SqlDialect.class; clazz = clazz.getSuperclass()) {
+      try {
+        clazz.getDeclaredMethod(methodName, parameterTypes);
+        return true;
+      } catch (NoSuchMethodException e) {
+        // Not declared at this level, so try the superclass
+      }
+    }
+    return false;
+  }
+
+
+  /**
+   * Sets one parameter at each of the given JDBC indexes.
+   *
+   * @author Copyright (c) Alfa Financial Software 2017
+   */
+  private interface Setter {
+    public void set(NamedParameterPreparedStatement statement, PreparedStatement jdbcStatement, int[] indexes, DataValueLookup values, SqlDialect dialect) throws SQLException;
+  }
+}
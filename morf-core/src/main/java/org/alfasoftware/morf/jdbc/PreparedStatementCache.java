@@ -0,0 +1,232 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.alfasoftware.morf.jdbc.NamedParameterPreparedStatement.ParseResult;
+
+/**
+ * Holds prepared statements open on one connection, so that repeatedly executing the
+ * same SQL within a unit of work reuses the statement, and with it any server side
+ * cursor, rather than preparing it again.
+ *
+ * <p>Obtained from {@link SqlScriptExecutor#cachePreparedStatements(Connection)}. While it
+ * is open, statements the executor prepares on the connection are taken from the cache,
+ * and returned to it rather than closed. A statement is only ever in use once at a time:
+ * if the same SQL is executed again while its statement is still in use, another is
+ * prepared. The least recently used idle statements are closed once more than the
+ * maximum are held. Closing the cache closes every statement held.</p>
+ *
+ * <p>Like the connection it belongs to, a cache is intended for use by one thread at a time.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public final class PreparedStatementCache implements AutoCloseable {
+
+  /**
+   * The number of idle statements held unless otherwise specified.
+   */
+  public static final int DEFAULT_MAXIMUM_SIZE = 50;
+
+  private final Connection connection;
+  private final int maximumSize;
+  private final Runnable onClose;
+
+  /**
+   * The idle statements, least recently used first.
+   */
+  private final Map<Key, NamedParameterPreparedStatement> idle = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long hitCount;
+  private long missCount;
+  private boolean closed;
+
+
+  /**
+   * @param connection The connection on which statements are prepared.
+   * @param maximumSize The maximum number of idle statements to hold.
+   * @param onClose Run when the cache is closed.
+   */
+  PreparedStatementCache(Connection connection, int maximumSize, Runnable onClose) {
+    super();
+    if (maximumSize < 1) {
+      throw new IllegalArgumentException("Prepared statement cache size must be at least 1, not [" + maximumSize + "]");
+    }
+    this.connection = connection;
+    this.maximumSize = maximumSize;
+    this.onClose = onClose;
+  }
+
+
+  /**
+   * Takes an idle statement for <var>parseResult</var> from the cache, or prepares one.
+   *
+   * @param parseResult The parsed SQL.
+   * @param queryOnly Whether the statement is for bulk queries.
+   * @return The statement, which is returned to the cache when closed.
+   * @throws SQLException if the statement could not be prepared.
+   */
+  synchronized NamedParameterPreparedStatement statementFor(ParseResult parseResult, boolean queryOnly) throws SQLException {
+    if (closed) {
+      throw new IllegalStateException("Prepared statement cache is closed");
+    }
+
+    NamedParameterPreparedStatement statement = idle.remove(new Key(parseResult.getNamedSql(), queryOnly));
+    if (statement != null) {
+      hitCount++;
+      return statement;
+    }
+
+    missCount++;
+    statement = queryOnly ? parseResult.createForQueryOn(connection) : parseResult.createFor(connection);
+    statement.cachedBy(this);
+    return statement;
+  }
+
+
+  /**
+   * Returns a statement to the cache, closing it if the cache is closed or already
+   * holds an idle statement for the same SQL.
+   *
+   * @param statement The statement.
+   * @throws SQLException if a database access error occurs.
+   */
+  synchronized void release(NamedParameterPreparedStatement statement) throws SQLException {
+    Key key = new Key(statement.getParseResult().getNamedSql(), statement.isQueryOnly());
+    if (closed || idle.containsKey(key)) {
+      statement.closeStatement();
+      return;
+    }
+
+    try {
+      statement.reset();
+    } catch (SQLException e) {
+      statement.closeStatement();
+      throw e;
+    }
+    idle.put(key, statement);
+
+    Iterator<NamedParameterPreparedStatement> leastRecentlyUsed = idle.values().iterator();
+    while (idle.size() > maximumSize) {
+      NamedParameterPreparedStatement evicted = leastRecentlyUsed.next();
+      leastRecentlyUsed.remove();
+      evicted.closeStatement();
+    }
+  }
+
+
+  /**
+   * @return The number of statements taken from the cache.
+   */
+  public synchronized long hitCount() {
+    return hitCount;
+  }
+
+
+  /**
+   * @return The number of statements prepared as none were idle in the cache.
+   */
+  public synchronized long missCount() {
+    return missCount;
+  }
+
+
+  /**
+   * @return The number of idle statements held.
+   */
+  public synchronized int size() {
+    return idle.size();
+  }
+
+
+  /**
+   * Closes every statement held. Statements in use are closed when they are released.
+   *
+   * @see java.lang.AutoCloseable#close()
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    onClose.run();
+
+    SQLException failure = null;
+    for (NamedParameterPreparedStatement statement : idle.values()) {
+      try {
+        statement.closeStatement();
+      } catch (SQLException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    idle.clear();
+
+    if (failure != null) {
+      throw new RuntimeSqlException("Error closing cached prepared statements", failure);
+    }
+  }
+
+
+  /**
+   * Identifies the statements which can be used interchangeably. Keyed on the named SQL,
+   * as each statement binds its parameters by the positions in the SQL it was prepared from.
+   */
+  private static final class Key {
+
+    private final String sql;
+    private final boolean queryOnly;
+
+
+    Key(String sql, boolean queryOnly) {
+      super();
+      this.sql = sql;
+      this.queryOnly = queryOnly;
+    }
+
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + (queryOnly ? 1231 : 1237);
+      result = prime * result + sql.hashCode();
+      return result;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null)
+        return false;
+      if (getClass() != obj.getClass())
+        return false;
+      Key other = (Key) obj;
+      return queryOnly == other.queryOnly && sql.equals(other.sql);
+    }
+  }
+}
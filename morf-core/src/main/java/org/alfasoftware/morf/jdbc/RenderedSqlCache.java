@@ -0,0 +1,138 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import static org.alfasoftware.morf.util.DeepCopyTransformations.noTransformation;
+
+import java.util.function.Function;
+
+import org.alfasoftware.morf.sql.Statement;
+import org.alfasoftware.morf.util.Builder;
+import org.alfasoftware.morf.util.DeepCopyableWithTransformation;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Holds the SQL most recently rendered by a {@link SqlDialect}, keyed on the structure
+ * of the statements rendered.
+ *
+ * <p>Statements are mutable, so each is keyed on a deep copy of its own, taken once it
+ * has been rendered and never handed out. Changing a statement after rendering it can
+ * therefore never change what is cached for it. A statement whose copy does not equal
+ * it is simply not cached.</p>
+ *
+ * <p>The least recently used entries are evicted once the cache is full. The size
+ * defaults to {@value #DEFAULT_MAXIMUM_SIZE} entries, and can be set with the system
+ * property {@code SqlDialect.RENDERED_SQL_CACHE_SIZE}, where zero disables caching.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public final class RenderedSqlCache {
+
+  /**
+   * The number of statements cached unless otherwise specified.
+   */
+  public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+  private final long maximumSize;
+  private final Cache<Statement, String> cache;
+
+
+  /**
+   * Creates a cache sized from the system property {@code SqlDialect.RENDERED_SQL_CACHE_SIZE}.
+   */
+  RenderedSqlCache() {
+    this(Integer.getInteger("SqlDialect.RENDERED_SQL_CACHE_SIZE", DEFAULT_MAXIMUM_SIZE));
+  }
+
+
+  /**
+   * @param maximumSize The maximum number of statements to cache.
+   */
+  RenderedSqlCache(long maximumSize) {
+    super();
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException("Rendered SQL cache size must not be negative, not [" + maximumSize + "]");
+    }
+    this.maximumSize = maximumSize;
+    this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+
+  /**
+   * Gets the SQL for <var>statement</var>, rendering and caching it if it is not already cached.
+   *
+   * @param statement The statement.
+   * @param renderer Renders the statement.
+   * @return The SQL.
+   */
+  <T extends Statement & DeepCopyableWithTransformation<T, ? extends Builder<T>>> String get(T statement, Function<T, String> renderer) {
+    if (maximumSize == 0) {
+      return renderer.apply(statement);
+    }
+
+    String sql = cache.getIfPresent(statement);
+    if (sql == null) {
+      sql = renderer.apply(statement);
+      T key = noTransformation().deepCopy(statement);
+      if (key.equals(statement)) {
+        cache.put(key, sql);
+      }
+    }
+    return sql;
+  }
+
+
+  /**
+   * @return The number of statements found in the cache.
+   */
+  public long hitCount() {
+    return cache.stats().hitCount();
+  }
+
+
+  /**
+   * @return The number of statements rendered as they were not found in the cache.
+   */
+  public long missCount() {
+    return cache.stats().missCount();
+  }
+
+
+  /**
+   * @return The number of statements evicted to make room for others.
+   */
+  public long evictionCount() {
+    return cache.stats().evictionCount();
+  }
+
+
+  /**
+   * @return The number of statements currently cached.
+   */
+  public long size() {
+    return cache.size();
+  }
+
+
+  /**
+   * Discards every cached statement.
+   */
+  public void clear() {
+    cache.invalidateAll();
+  }
+}
@@ -0,0 +1,160 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.alfasoftware.morf.metadata.RecordBatch;
+import org.alfasoftware.morf.metadata.RecordLayout;
+import org.alfasoftware.morf.metadata.Table;
+
+/**
+ * Reads a table through a jdbc result set in batches held by column.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ * @see ResultSetIterator
+ */
+class ResultSetBatchIterator implements Iterator<RecordBatch>, AutoCloseable {
+
+  /**
+   * The underlying result set to iterate over.
+   */
+  private final ResultSet resultSet;
+
+  /**
+   * The jdbc statement opened to supply the result set.
+   */
+  private final Statement statement;
+
+  /**
+   * The layout of the query result, with the columns in the order in which they appear.
+   */
+  private final RecordLayout recordLayout;
+
+  /**
+   * The maximum number of rows in each batch.
+   */
+  private final int batchSize;
+
+  /**
+   * The SQL dialect.
+   */
+  private final SqlDialect sqlDialect;
+
+  /**
+   * Indicates if the result set is positioned on a row not yet read.
+   */
+  private boolean hasNext;
+
+
+  /**
+   * Creates a {@link ResultSetBatchIterator} by selecting all records from a table,
+   * ordering the results using the supplied column ordering.
+   *
+   * @param table Meta data for the table we want to iterate over.
+   * @param columnOrdering The columns to order by.
+   * @param batchSize The maximum number of rows in each batch.
+   * @param connection The database connection to use.
+   * @param sqlDialect The vendor-specific dialect for the database connection.
+   */
+  ResultSetBatchIterator(Table table, List<String> columnOrdering, int batchSize, Connection connection, SqlDialect sqlDialect) {
+    super();
+    this.batchSize = batchSize;
+    this.sqlDialect = sqlDialect;
+
+    if (connection == null) {
+      throw new IllegalStateException("Dataset has not been opened");
+    }
+
+    String query = ResultSetIterator.buildSqlQuery(table, columnOrdering, sqlDialect);
+    try {
+      this.statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      this.statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+      this.statement.setFetchSize(Math.max(batchSize, sqlDialect.fetchSizeForBulkSelects()));
+      this.resultSet = statement.executeQuery(query);
+      this.recordLayout = RecordLayout.of(ResultSetMetadataSorter.sortedCopy(table.columns(), resultSet));
+      advanceResultSet();
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("Error running statement for table [" + table.getName() + "]: " + query, e);
+    }
+  }
+
+
+  /**
+   * @see java.util.Iterator#hasNext()
+   */
+  @Override
+  public boolean hasNext() {
+    return hasNext;
+  }
+
+
+  /**
+   * @see java.util.Iterator#next()
+   */
+  @Override
+  public RecordBatch next() {
+    if (!hasNext) {
+      throw new NoSuchElementException();
+    }
+    RecordBatch batch = new RecordBatch(recordLayout, batchSize);
+    while (hasNext && !batch.isFull()) {
+      sqlDialect.resultSetToBatch(resultSet, batch);
+      advanceResultSet();
+    }
+    return batch;
+  }
+
+
+  /**
+   * @see java.util.Iterator#remove()
+   */
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("Cannot remove items from a result set iterator");
+  }
+
+
+  /**
+   * Advances the underlying result set.
+   */
+  private void advanceResultSet() {
+    try {
+      hasNext = this.resultSet.next();
+      if (!hasNext) {
+        close();
+      }
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("Error advancing result set", e);
+    }
+  }
+
+
+  /**
+   * @see java.lang.AutoCloseable#close()
+   */
+  @Override
+  public final void close() throws SQLException {
+    this.resultSet.close();
+    this.statement.close();
+  }
+}
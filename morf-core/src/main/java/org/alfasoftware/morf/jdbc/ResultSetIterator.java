@@ -5,13 +5,13 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.alfasoftware.morf.dataset.Record;
 import org.alfasoftware.morf.metadata.Column;
+import org.alfasoftware.morf.metadata.RecordLayout;
 import org.alfasoftware.morf.metadata.Table;
 import org.alfasoftware.morf.sql.SelectStatement;
 import org.alfasoftware.morf.sql.element.AliasedField;
@@ -52,9 +52,9 @@ class ResultSetIterator implements Iterator<Record>, AutoCloseable {
   private final Table table;
 
   /**
-   * The metadata for the query result, sorted in the order in which the columns appear.
+   * The layout of the query result, with the columns in the order in which they appear.
    */
-  private Collection<Column> sortedMetadata;
+  private RecordLayout recordLayout;
 
   /**
    * The SQL dialect.
@@ -85,7 +85,7 @@ class ResultSetIterator implements Iterator<Record>, AutoCloseable {
       this.statement.setFetchDirection(ResultSet.FETCH_FORWARD);
       this.statement.setFetchSize(sqlDialect.fetchSizeForBulkSelects());
       this.resultSet = statement.executeQuery(query);
-      this.sortedMetadata = ResultSetMetadataSorter.sortedCopy(table.columns(), resultSet);
+      this.recordLayout = RecordLayout.of(ResultSetMetadataSorter.sortedCopy(table.columns(), resultSet));
       advanceResultSet();
     } catch (SQLException e) {
       throw new RuntimeSqlException("Error running statement for table [" + table.getName() + "]: " + query, e);
@@ -107,7 +107,7 @@ class ResultSetIterator implements Iterator<Record>, AutoCloseable {
   }
 
 
-  private static String buildSqlQuery(Table table, List<String> columnOrdering, SqlDialect sqlDialect) {
+  static String buildSqlQuery(Table table, List<String> columnOrdering, SqlDialect sqlDialect) {
     SelectStatement selectStatement = new SelectStatement();
 
     if (columnOrdering == null || columnOrdering.isEmpty()) {
@@ -174,7 +174,7 @@ class ResultSetIterator implements Iterator<Record>, AutoCloseable {
     try {
       hasNext = this.resultSet.next();
       if (hasNext) {
-        nextRecord = sqlDialect.resultSetToRecord(resultSet, sortedMetadata);
+        nextRecord = sqlDialect.resultSetToRecord(resultSet, recordLayout);
       } else {
         close();
       }
@@ -42,11 +42,12 @@ import java.util.Set;
 
 import org.alfasoftware.morf.dataset.Record;
 import org.alfasoftware.morf.metadata.Column;
-import org.alfasoftware.morf.metadata.DataSetUtils;
-import org.alfasoftware.morf.metadata.DataSetUtils.RecordBuilder;
 import org.alfasoftware.morf.metadata.DataType;
 import org.alfasoftware.morf.metadata.DataValueLookup;
 import org.alfasoftware.morf.metadata.Index;
+import org.alfasoftware.morf.metadata.LayoutRecord;
+import org.alfasoftware.morf.metadata.RecordBatch;
+import org.alfasoftware.morf.metadata.RecordLayout;
 import org.alfasoftware.morf.metadata.Schema;
 import org.alfasoftware.morf.metadata.Table;
 import org.alfasoftware.morf.metadata.View;
@@ -93,6 +94,7 @@ import org.joda.time.LocalDate;
 import org.joda.time.Months;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
@@ -131,6 +133,11 @@ public abstract class SqlDialect {
    */
   private final String                   schemaName;
 
+  /**
+   * The SQL most recently rendered from statements.
+   */
+  private final RenderedSqlCache         renderedSqlCache = new RenderedSqlCache();
+
   /**
    * Returns the database schema name. May be null.
    * @return The schema name
@@ -140,6 +147,17 @@ public abstract class SqlDialect {
   }
 
 
+  /**
+   * Returns the cache of SQL rendered by {@link #convertStatementToSQL(SelectStatement)} and its
+   * siblings, for its hit and miss counts.
+   *
+   * @return The rendered SQL cache.
+   */
+  public RenderedSqlCache getRenderedSqlCache() {
+    return renderedSqlCache;
+  }
+
+
   /**
    * @param schemaName The schema to use for statements.
    */
@@ -571,7 +589,7 @@ public abstract class SqlDialect {
       throw new IllegalArgumentException("Cannot convert a null statement to SQL");
     }
 
-    return getSqlFrom(statement);
+    return renderedSqlCache.get(statement, this::getSqlFrom);
   }
 
 
@@ -601,7 +619,7 @@ public abstract class SqlDialect {
       throw new IllegalArgumentException("Cannot convert a null statement to SQL");
     }
 
-    return getSqlFrom(statement);
+    return renderedSqlCache.get(statement, this::getSqlFrom);
   }
 
 
@@ -628,6 +646,39 @@ public abstract class SqlDialect {
   }
 
 
+  /**
+   * A faster, platform specific, route for loading large numbers of records into
+   * a table than inserting them over JDBC, if the dialect has one.
+   *
+   * @return the bulk loader, or absent if records can only be inserted over JDBC.
+   */
+  public Optional<BulkLoader> bulkLoader() {
+    return Optional.absent();
+  }
+
+
+  /**
+   * Whether the database can insert several rows with one statement, through a
+   * {@code VALUES} list of several rows. See {@link #buildParameterisedInsert(InsertStatement, Schema, int)}.
+   *
+   * @return <var>true</var> if multi-row inserts are supported.
+   */
+  public boolean supportsMultiRowInsert() {
+    return false;
+  }
+
+
+  /**
+   * The most parameters which the JDBC driver accepts in one statement. Used to limit
+   * the number of rows in each multi-row insert.
+   *
+   * @return the maximum number of parameters in one statement.
+   */
+  public int maximumParametersPerStatement() {
+    return 2000;
+  }
+
+
   /**
    * Different JDBC drivers and platforms have different behaviour for paging results
    * into a {@link ResultSet} as they are fetched.  For example, MySQL defaults
@@ -2297,7 +2348,7 @@ public abstract class SqlDialect {
       throw new IllegalArgumentException("Cannot convert a null statement to SQL");
     }
 
-    return getSqlFrom(statement);
+    return renderedSqlCache.get(statement, this::getSqlFrom);
   }
 
 
@@ -2317,7 +2368,7 @@ public abstract class SqlDialect {
       throw new IllegalArgumentException("Invalid select first statement - missing order by clause");
     }
 
-    return getSqlFrom(statement);
+    return renderedSqlCache.get(statement, this::getSqlFrom);
   }
 
 
@@ -2353,6 +2404,29 @@ public abstract class SqlDialect {
    *         table
    */
   public String buildParameterisedInsert(final InsertStatement statement, Schema metadata) {
+    return buildParameterisedInsert(statement, metadata, 1);
+  }
+
+
+  /**
+   * Creates an SQL statement to insert <var>rowCount</var> rows with named parameterised
+   * fields based on the insert statement specified. Each row repeats the same parameter
+   * names, so the values of each row must be set using
+   * {@link NamedParameterPreparedStatement#forOccurrence(int)}.
+   *
+   * @param statement the insert statement to build an SQL query for
+   * @param metadata the metadata for the database
+   * @param rowCount the number of rows to insert
+   * @return a string containing a parameterised insert query for the specified
+   *         table
+   * @throws UnsupportedOperationException if <var>rowCount</var> is more than one and
+   *         the dialect does not {@link #supportsMultiRowInsert() support multi-row inserts}.
+   */
+  public String buildParameterisedInsert(final InsertStatement statement, Schema metadata, int rowCount) {
+    if (rowCount > 1 && !supportsMultiRowInsert()) {
+      throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support multi-row inserts");
+    }
+
     String destinationTableName = statement.getTable().getName();
 
     if (StringUtils.isBlank(destinationTableName)) {
@@ -2409,6 +2483,11 @@ public abstract class SqlDialect {
     }
     values.append(")");
     sqlBuilder.append(values);
+
+    String row = values.substring(") VALUES ".length());
+    for (int i = 1; i < rowCount; i++) {
+      sqlBuilder.append(", ").append(row);
+    }
     return sqlBuilder.toString();
   }
 
@@ -3315,7 +3394,7 @@ public abstract class SqlDialect {
             if (dateVal == null) {
               statement.setObject(parameter, null);
             } else {
-              statement.setDate(parameter, new java.sql.Date(dateVal.getTime()));
+              statement.setDate(parameter, dateVal);
             }
             break;
           case DECIMAL:
@@ -3427,69 +3506,130 @@ public abstract class SqlDialect {
    *         row.
    */
   public Record resultSetToRecord(ResultSet resultSet, Iterable<Column> columns) {
+    return resultSetToRecord(resultSet, RecordLayout.of(columns));
+  }
 
-    // Provide initial sizing hint to the array. This potentially means double-traversal
-    // of the columns if the column list is not a simple list, but it's almost certainly
-    // worth it to minimise the array size and prevent resizing.
-    RecordBuilder recordBuilder = DataSetUtils.record()
-        .withInitialColumnCount(Iterables.size(columns));
 
-    int idx = 1;
-    for (Column column : columns) {
+  /**
+   * Given a {@link RecordLayout} and a {@link ResultSet}, creates a {@link Record}
+   * from the current row.
+   *
+   * <p>Resolve the layout once and use it for every row of the result set, rather than
+   * calling {@link #resultSetToRecord(ResultSet, Iterable)} for each.</p>
+   *
+   * @param resultSet The {@link ResultSet}. Must have been advanced (using
+   *          {@link ResultSet#next()}) to the appropriate row.
+   * @param layout The layout of the columns, whose slots are ordered according to
+   *          their appearance in the {@link ResultSet}.
+   * @return A {@link Record} representation of the current {@link ResultSet}
+   *         row.
+   */
+  public Record resultSetToRecord(ResultSet resultSet, RecordLayout layout) {
+    LayoutRecord record = layout.newRecord();
+    for (int slot = 0; slot < layout.size(); slot++) {
+      int idx = slot + 1;
       try {
-        switch (column.getType()) {
+        switch (layout.getType(slot)) {
           case BIG_INTEGER:
             long longVal = resultSet.getLong(idx);
-            if (resultSet.wasNull()) {
-              recordBuilder.setObject(column.getName(), null);
-            } else {
-              recordBuilder.setLong(column.getName(), longVal);
+            if (!resultSet.wasNull()) {
+              record.setLong(slot, longVal);
             }
             break;
           case BOOLEAN:
             boolean boolVal = resultSet.getBoolean(idx);
-            if (resultSet.wasNull()) {
-              recordBuilder.setObject(column.getName(), null);
-            } else {
-              recordBuilder.setBoolean(column.getName(), boolVal);
+            if (!resultSet.wasNull()) {
+              record.setBoolean(slot, boolVal);
             }
             break;
           case INTEGER:
             int intVal = resultSet.getInt(idx);
-            if (resultSet.wasNull()) {
-              recordBuilder.setObject(column.getName(), null);
-            } else {
-              recordBuilder.setInteger(column.getName(), intVal);
+            if (!resultSet.wasNull()) {
+              record.setInt(slot, intVal);
             }
             break;
           case DATE:
             Date date = resultSet.getDate(idx);
-            if (date == null) {
-              recordBuilder.setObject(column.getName(), null);
-            } else {
-              recordBuilder.setLocalDate(column.getName(), LocalDate.fromDateFields(date));
+            record.setObject(slot, date == null ? null : LocalDate.fromDateFields(date));
+            break;
+          case DECIMAL:
+            record.setObject(slot, resultSet.getBigDecimal(idx));
+            break;
+          case BLOB:
+            record.setObject(slot, resultSet.getBytes(idx));
+            break;
+          case CLOB:
+          case STRING:
+            record.setObject(slot, resultSet.getString(idx));
+            break;
+          default:
+            record.setObject(slot, resultSet.getObject(idx));
+            break;
+        }
+      } catch (SQLException e) {
+        throw new RuntimeSqlException("Error retrieving value from result set with name [" + layout.getColumnName(slot) + "]", e);
+      }
+    }
+    return record;
+  }
+
+
+  /**
+   * Appends the current row of a {@link ResultSet} to a {@link RecordBatch}, reading
+   * each column into its vector without creating a {@link Record}.
+   *
+   * @param resultSet The {@link ResultSet}. Must have been advanced (using
+   *          {@link ResultSet#next()}) to the appropriate row.
+   * @param batch The batch, whose layout's slots are ordered according to the
+   *          appearance of the columns in the {@link ResultSet}.
+   */
+  public void resultSetToBatch(ResultSet resultSet, RecordBatch batch) {
+    RecordLayout layout = batch.getLayout();
+    int row = batch.addRow();
+    for (int slot = 0; slot < layout.size(); slot++) {
+      int idx = slot + 1;
+      try {
+        switch (layout.getType(slot)) {
+          case BIG_INTEGER:
+            long longVal = resultSet.getLong(idx);
+            if (!resultSet.wasNull()) {
+              batch.setLong(row, slot, longVal);
             }
             break;
+          case BOOLEAN:
+            boolean boolVal = resultSet.getBoolean(idx);
+            if (!resultSet.wasNull()) {
+              batch.setBoolean(row, slot, boolVal);
+            }
+            break;
+          case INTEGER:
+            int intVal = resultSet.getInt(idx);
+            if (!resultSet.wasNull()) {
+              batch.setInt(row, slot, intVal);
+            }
+            break;
+          case DATE:
+            Date date = resultSet.getDate(idx);
+            batch.setObject(row, slot, date == null ? null : LocalDate.fromDateFields(date));
+            break;
           case DECIMAL:
-            recordBuilder.setBigDecimal(column.getName(), resultSet.getBigDecimal(idx));
+            batch.setObject(row, slot, resultSet.getBigDecimal(idx));
             break;
           case BLOB:
-            recordBuilder.setByteArray(column.getName(), resultSet.getBytes(idx));
+            batch.setObject(row, slot, resultSet.getBytes(idx));
             break;
           case CLOB:
           case STRING:
-            recordBuilder.setString(column.getName(), resultSet.getString(idx));
+            batch.setObject(row, slot, resultSet.getString(idx));
             break;
           default:
-            recordBuilder.setObject(column.getName(), resultSet.getObject(idx));
+            batch.setObject(row, slot, resultSet.getObject(idx));
             break;
         }
-        idx++;
       } catch (SQLException e) {
-        throw new RuntimeSqlException("Error retrieving value from result set with name [" + column.getName() + "]", e);
+        throw new RuntimeSqlException("Error retrieving value from result set with name [" + layout.getColumnName(slot) + "]", e);
       }
     }
-    return recordBuilder;
   }
 
 
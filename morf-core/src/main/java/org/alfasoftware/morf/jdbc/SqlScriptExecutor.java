@@ -23,13 +23,26 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.sql.DataSource;
 
+import org.alfasoftware.morf.dataset.Record;
 import org.alfasoftware.morf.jdbc.NamedParameterPreparedStatement.ParseResult;
+import org.alfasoftware.morf.metadata.Column;
 import org.alfasoftware.morf.metadata.DataSetUtils;
+import org.alfasoftware.morf.metadata.DataSetUtils.StatementParametersBuilder;
 import org.alfasoftware.morf.metadata.DataValueLookup;
+import org.alfasoftware.morf.metadata.RecordBatch;
+import org.alfasoftware.morf.metadata.RecordLayout;
 import org.alfasoftware.morf.sql.SelectStatement;
 import org.alfasoftware.morf.sql.element.SqlParameter;
 import org.apache.commons.logging.Log;
@@ -58,6 +71,11 @@ public class SqlScriptExecutor {
 
   private final SqlDialect sqlDialect;
 
+  /**
+   * The prepared statement caches open, by the connection they belong to.
+   */
+  private final Map<Connection, PreparedStatementCache> statementCaches = new ConcurrentHashMap<>();
+
   /**
    * Create an SQL executor with the given visitor, who will
    * be notified about events.
@@ -77,6 +95,57 @@ public class SqlScriptExecutor {
   }
 
 
+  /**
+   * Caches the statements this executor prepares on <var>connection</var> until the
+   * cache returned is closed, so that SQL executed repeatedly within a unit of work
+   * is only prepared once. Holds up to {@value PreparedStatementCache#DEFAULT_MAXIMUM_SIZE}
+   * idle statements.
+   *
+   * <pre>
+   * try (PreparedStatementCache statements = executor.cachePreparedStatements(connection)) {
+   *   ...
+   * }
+   * </pre>
+   *
+   * @param connection The connection.
+   * @return The cache, which must be closed before the connection.
+   * @see PreparedStatementCache
+   */
+  public PreparedStatementCache cachePreparedStatements(Connection connection) {
+    return cachePreparedStatements(connection, PreparedStatementCache.DEFAULT_MAXIMUM_SIZE);
+  }
+
+
+  /**
+   * As {@link #cachePreparedStatements(Connection)}, holding up to <var>maximumSize</var>
+   * idle statements.
+   *
+   * @param connection The connection.
+   * @param maximumSize The maximum number of idle statements to hold.
+   * @return The cache, which must be closed before the connection.
+   */
+  public PreparedStatementCache cachePreparedStatements(final Connection connection, int maximumSize) {
+    PreparedStatementCache cache = new PreparedStatementCache(connection, maximumSize, () -> statementCaches.remove(connection));
+    if (statementCaches.putIfAbsent(connection, cache) != null) {
+      throw new IllegalStateException("Prepared statements are already cached on connection [" + connection + "]");
+    }
+    return cache;
+  }
+
+
+  /**
+   * Prepares a statement on <var>connection</var>, taking it from the connection's
+   * {@link PreparedStatementCache} if there is one.
+   */
+  private NamedParameterPreparedStatement prepare(ParseResult parseResult, Connection connection, boolean queryOnly) throws SQLException {
+    PreparedStatementCache cache = statementCaches.isEmpty() ? null : statementCaches.get(connection);
+    if (cache != null) {
+      return cache.statementFor(parseResult, queryOnly);
+    }
+    return queryOnly ? parseResult.createForQueryOn(connection) : parseResult.createFor(connection);
+  }
+
+
   /**
    * Receives notification about the execution of one or more SQL statements.
    *
@@ -107,6 +176,17 @@ public class SqlScriptExecutor {
      */
     public void afterExecute(String sql, long numberOfRowsUpdated);
 
+    /**
+     * Notify the visitor of the batch size chosen for the given SQL by
+     * {@link AdaptiveBatchSize}, when execution starts and whenever it changes.
+     *
+     * @param sql SQL being executed in batches.
+     * @param statementsPerFlush Number of statements now added to each batch.
+     */
+    public default void batchSizeChanged(String sql, int statementsPerFlush) {
+      // Nothing by default
+    }
+
     /**
      * The batch of SQL statements has completed.
      */
@@ -285,8 +365,8 @@ public class SqlScriptExecutor {
     int numberOfRowsUpdated = 0;
     try {
       try {
-        try (NamedParameterPreparedStatement preparedStatement = NamedParameterPreparedStatement.parse(sqlStatement).createFor(connection)) {
-          sqlDialect.prepareStatementParameters(preparedStatement, parameterMetadata, parameterData);
+        try (NamedParameterPreparedStatement preparedStatement = prepare(parse(sqlStatement), connection, false)) {
+          binderFor(preparedStatement, parameterMetadata).bind(preparedStatement, parameterData, sqlDialect);
           numberOfRowsUpdated = preparedStatement.executeUpdate();
         }
       } catch (SQLException e) {
@@ -511,8 +591,7 @@ public class SqlScriptExecutor {
       Connection connection, ResultSetProcessor<T> resultSetProcessor, Optional<Integer> maxRows, Optional<Integer> queryTimeout,
       boolean standalone) {
     try {
-      ParseResult parseResult = parse(sql);
-      try (NamedParameterPreparedStatement preparedStatement = standalone ? parseResult.createForQueryOn(connection) : parseResult.createFor(connection)) {
+      try (NamedParameterPreparedStatement preparedStatement = prepare(parse(sql), connection, standalone)) {
         if (standalone) {
           preparedStatement.setFetchSize(sqlDialect.fetchSizeForBulkSelects());
         } else {
@@ -551,7 +630,7 @@ public class SqlScriptExecutor {
       throw new IllegalStateException("Must construct with dialect");
     }
     try {
-      sqlDialect.prepareStatementParameters(preparedStatement, parameterMetadata, parameterData);
+      binderFor(preparedStatement, parameterMetadata).bind(preparedStatement, parameterData, sqlDialect);
       if (maxRows.isPresent()) {
         preparedStatement.setMaxRows(maxRows.get());
       }
@@ -589,8 +668,8 @@ public class SqlScriptExecutor {
    */
   public void executeStatementBatch(String sqlStatement, Iterable<SqlParameter> parameterMetadata, Iterable<? extends DataValueLookup> parameterData, Connection connection, boolean explicitCommit, int statementsPerFlush) {
     try {
-      try (NamedParameterPreparedStatement preparedStatement = NamedParameterPreparedStatement.parse(sqlStatement).createFor(connection)) {
-        executeStatementBatch(preparedStatement, parameterMetadata, parameterData, connection, explicitCommit, statementsPerFlush);
+      try (NamedParameterPreparedStatement preparedStatement = prepare(parse(sqlStatement), connection, false)) {
+        executeStatementBatch(sqlStatement, preparedStatement, parameterMetadata, parameterData, connection, explicitCommit, AdaptiveBatchSize.fixed(statementsPerFlush));
       } finally {
         if (explicitCommit) {
           connection.commit();
@@ -602,25 +681,198 @@ public class SqlScriptExecutor {
   }
 
 
-  private void executeStatementBatch(NamedParameterPreparedStatement preparedStatement, Iterable<SqlParameter> parameterMetadata, Iterable<? extends DataValueLookup> parameterData, Connection connection, boolean explicitCommit, int statementsPerFlush) {
+  /**
+   * Runs the specified SQL statement (which should contain parameters), repeatedly for
+   * each record, as {@link #executeStatementBatch(String, Iterable, Iterable, Connection, boolean, int)},
+   * but with the number of statements between JDBC batch flushes chosen by <var>batchSize</var>.
+   * The sizes chosen are reported to {@link SqlScriptVisitor#batchSizeChanged(String, int)}.
+   *
+   * @param sqlStatement the SQL statement.
+   * @param parameterMetadata the metadata describing the parameters.
+   * @param parameterData the values to insert.
+   * @param connection the JDBC connection to use.
+   * @param explicitCommit Determine if an explicit commit should be invoked after executing the supplied batch
+   * @param batchSize chooses the number of statements to execute between JDBC batch flushes.
+   */
+  public void executeStatementBatch(String sqlStatement, Iterable<SqlParameter> parameterMetadata, Iterable<? extends DataValueLookup> parameterData, Connection connection, boolean explicitCommit, AdaptiveBatchSize batchSize) {
+    try {
+      try (NamedParameterPreparedStatement preparedStatement = prepare(parse(sqlStatement), connection, false)) {
+        executeStatementBatch(sqlStatement, preparedStatement, parameterMetadata, parameterData, connection, explicitCommit, batchSize);
+      } finally {
+        if (explicitCommit) {
+          connection.commit();
+        }
+      }
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("SQL exception executing batch", e);
+    }
+  }
+
+
+  /**
+   * Inserts each record using multi-row insert statements, each of which inserts up to
+   * <var>rowsPerStatement</var> records, mapping the contents of the records into the
+   * statement parameters in their defined order. Full statements are executed in JDBC
+   * batches; the records left over at the end are inserted with a statement of their own.
+   *
+   * <p>The values of each record are copied as it is read, so <var>parameterData</var>
+   * may reuse the same instance for every record.</p>
+   *
+   * @param sqlForRowCount builds the SQL to insert the given number of rows, such as
+   *   {@link SqlDialect#buildParameterisedInsert(org.alfasoftware.morf.sql.InsertStatement, org.alfasoftware.morf.metadata.Schema, int)}.
+   * @param rowsPerStatement the number of records to insert with each statement.
+   * @param parameterMetadata the metadata describing the parameters of each row.
+   * @param parameterData the values to insert.
+   * @param connection the JDBC connection to use.
+   * @param explicitCommit Determine if an explicit commit should be invoked after executing the supplied batch
+   * @param statementsPerFlush the number of statements to execute between JDBC batch flushes.
+   */
+  public void executeMultiRowStatementBatch(IntFunction<String> sqlForRowCount, int rowsPerStatement, Iterable<SqlParameter> parameterMetadata, Iterable<? extends DataValueLookup> parameterData, Connection connection, boolean explicitCommit, int statementsPerFlush) {
+    if (sqlDialect == null) {
+      throw new IllegalStateException("Must construct with dialect");
+    }
+
+    try {
+      try (NamedParameterPreparedStatement preparedStatement = prepare(parse(sqlForRowCount.apply(rowsPerStatement)), connection, false)) {
+        // reused for each group of rows
+        StatementParametersBuilder[] rows = new StatementParametersBuilder[rowsPerStatement];
+        for (int i = 0; i < rowsPerStatement; i++) {
+          rows[i] = DataSetUtils.statementParameters();
+        }
+
+        int rowCount = 0;
+        int pending = 0;
+        for (DataValueLookup row : parameterData) {
+          copyRow(parameterMetadata, row, rows[rowCount++]);
+          if (rowCount < rowsPerStatement) {
+            continue;
+          }
+
+          prepareRows(preparedStatement, parameterMetadata, rows, rowCount);
+          rowCount = 0;
+          if (sqlDialect.useInsertBatching()) {
+            preparedStatement.addBatch();
+            if (++pending == statementsPerFlush) {
+              preparedStatement.executeBatch();
+              preparedStatement.clearBatch();
+              pending = 0;
+              // commit each batch for performance reasons
+              if (explicitCommit) {
+                connection.commit();
+              }
+            }
+          } else {
+            preparedStatement.executeUpdate();
+          }
+        }
+
+        if (pending > 0) {
+          preparedStatement.executeBatch();
+        }
+
+        if (rowCount > 0) {
+          try (NamedParameterPreparedStatement remainderStatement = prepare(parse(sqlForRowCount.apply(rowCount)), connection, false)) {
+            prepareRows(remainderStatement, parameterMetadata, rows, rowCount);
+            remainderStatement.executeUpdate();
+          }
+        }
+      } finally {
+        if (explicitCommit) {
+          connection.commit();
+        }
+      }
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("SQL exception executing multi-row batch", e);
+    }
+  }
+
+
+  /**
+   * Sets the parameters of the first <var>rowCount</var> rows of a multi-row statement.
+   */
+  private void prepareRows(NamedParameterPreparedStatement preparedStatement, Iterable<SqlParameter> parameterMetadata, DataValueLookup[] rows, int rowCount) {
+    ParameterBinder binder = binderFor(preparedStatement, parameterMetadata);
+    for (int i = 0; i < rowCount; i++) {
+      preparedStatement.forOccurrence(i);
+      binder.bind(preparedStatement, rows[i], sqlDialect);
+    }
+    preparedStatement.forOccurrence(-1);
+  }
+
+
+  /**
+   * Copies the value of each parameter from <var>row</var> into <var>copy</var>, as
+   * the type of the parameter, replacing the values copied from any previous row.
+   */
+  private static void copyRow(Iterable<SqlParameter> parameterMetadata, DataValueLookup row, StatementParametersBuilder copy) {
+    for (SqlParameter parameter : parameterMetadata) {
+      String name = parameter.getImpliedName();
+      switch (parameter.getMetadata().getType()) {
+        case BIG_INTEGER:
+          copy.setLong(name, row.getLong(name));
+          break;
+        case INTEGER:
+          copy.setInteger(name, row.getInteger(name));
+          break;
+        case BOOLEAN:
+          copy.setBoolean(name, row.getBoolean(name));
+          break;
+        case DATE:
+          copy.setDate(name, row.getDate(name));
+          break;
+        case DECIMAL:
+          copy.setBigDecimal(name, row.getBigDecimal(name));
+          break;
+        case BLOB:
+          copy.setByteArray(name, row.getByteArray(name));
+          break;
+        default:
+          copy.setString(name, row.getString(name));
+          break;
+      }
+    }
+  }
+
+
+  /**
+   * Returns the binder which sets the values of <var>parameterMetadata</var> on <var>preparedStatement</var>,
+   * compiled once for its SQL rather than resolving the type and position of each parameter for every row.
+   */
+  private ParameterBinder binderFor(NamedParameterPreparedStatement preparedStatement, Iterable<SqlParameter> parameterMetadata) {
+    return preparedStatement.getParseResult().binderFor(parameterMetadata, sqlDialect);
+  }
+
+
+  private void executeStatementBatch(String sqlStatement, NamedParameterPreparedStatement preparedStatement, Iterable<SqlParameter> parameterMetadata, Iterable<? extends DataValueLookup> parameterData, Connection connection, boolean explicitCommit, AdaptiveBatchSize batchSize) {
     if (sqlDialect == null) {
       throw new IllegalStateException("Must construct with dialect");
     }
 
+    boolean reportBatchSize = sqlDialect.useInsertBatching() && !batchSize.isFixed();
+    if (reportBatchSize) {
+      visitor.batchSizeChanged(sqlStatement, batchSize.getBatchSize());
+    }
+
     try {
-      long count = 0;
+      ParameterBinder binder = binderFor(preparedStatement, parameterMetadata);
+      int pending = 0;
       for (DataValueLookup data : parameterData) {
 
-        sqlDialect.prepareStatementParameters(preparedStatement, parameterMetadata, data);
+        binder.bind(preparedStatement, data, sqlDialect);
 
         // Use batching or just execute directly
         if (sqlDialect.useInsertBatching()) {
           preparedStatement.addBatch();
-          count++;
-          if (count % statementsPerFlush == 0) {
+          pending++;
+          if (pending >= batchSize.getBatchSize()) {
             try {
+              long start = System.nanoTime();
               preparedStatement.executeBatch();
               preparedStatement.clearBatch();
+              if (batchSize.batchExecuted(pending, System.nanoTime() - start) && reportBatchSize) {
+                visitor.batchSizeChanged(sqlStatement, batchSize.getBatchSize());
+              }
+              pending = 0;
             } catch (SQLException e) {
               throw new RuntimeSqlException("Error executing batch", e);
             }
@@ -644,7 +896,7 @@ public class SqlScriptExecutor {
 
       // Clear up any remaining batch statements if in batch mode and
       // have un-executed statements
-      if (sqlDialect.useInsertBatching() && count % statementsPerFlush > 0) {
+      if (sqlDialect.useInsertBatching() && pending > 0) {
         preparedStatement.executeBatch();
       }
     } catch (SQLException e) {
@@ -812,6 +1064,17 @@ public class SqlScriptExecutor {
     QueryBuilder standalone();
 
 
+    /**
+     * Specifies that {@link #iterator(Iterable)} and {@link #stream(Iterable)} should
+     * fetch rows on a separate thread, ahead of the caller, so that fetching overlaps
+     * with consumption. Optional.
+     *
+     * @param chunks The number of chunks of rows, each the size of a fetch, to hold ahead of the caller.
+     * @return this
+     */
+    QueryBuilder withReadAhead(int chunks);
+
+
     /**
      * Executes the query, passing the results to the supplied result set
      * processor, and returns the result of the processor.
@@ -821,6 +1084,53 @@ public class SqlScriptExecutor {
      * @return The result of the processor.
      */
     <T> T processWith(ResultSetProcessor<T> resultSetProcessor);
+
+
+    /**
+     * Executes the query, returning an iterator over the records of the result, which
+     * are fetched lazily as the iterator is advanced.
+     *
+     * <p>The statement, and the connection if one was not supplied, are held until the
+     * last record has been read or the iterator is closed, so callers must close the
+     * iterator if they may stop early. If no connection was supplied, the query is
+     * run on a connection of its own, as if {@link #standalone()}.</p>
+     *
+     * @param columns The columns of the result, in any order, matched by name.
+     * @return The records.
+     */
+    RecordIterator iterator(Iterable<Column> columns);
+
+
+    /**
+     * Executes the query, returning a stream of the records of the result, which
+     * are fetched lazily as the stream is consumed.
+     *
+     * <p>As for {@link #iterator(Iterable)}, the stream must be closed if it may not
+     * be consumed in full.</p>
+     *
+     * @param columns The columns of the result, in any order, matched by name.
+     * @return The records.
+     */
+    Stream<Record> stream(Iterable<Column> columns);
+  }
+
+
+  /**
+   * Iterates the records of a query, holding the database resources it needs
+   * until it is exhausted or closed.
+   *
+   * @author Copyright (c) Alfa Financial Software 2017
+   * @see QueryBuilder#iterator(Iterable)
+   */
+  public interface RecordIterator extends Iterator<Record>, AutoCloseable {
+
+    /**
+     * Releases the database resources, if not already released.
+     *
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    public void close();
   }
 
 
@@ -838,6 +1148,7 @@ public class SqlScriptExecutor {
     private Optional<Integer> maxRows = Optional.absent();
     private Optional<Integer> queryTimeout = Optional.absent();
     private boolean standalone;
+    private int readAheadChunks;
 
 
     QueryBuilderImpl(String query) {
@@ -908,6 +1219,18 @@ public class SqlScriptExecutor {
       return this;
     }
 
+    /**
+     * @see org.alfasoftware.morf.jdbc.SqlScriptExecutor.QueryBuilder#withReadAhead(int)
+     */
+    @Override
+    public QueryBuilder withReadAhead(int chunks) {
+      if (chunks < 1) {
+        throw new IllegalArgumentException("Read ahead must be at least 1, not [" + chunks + "]");
+      }
+      this.readAheadChunks = chunks;
+      return this;
+    }
+
     /**
      * @see org.alfasoftware.morf.jdbc.SqlScriptExecutor.QueryBuilder#processWith(org.alfasoftware.morf.jdbc.SqlScriptExecutor.ResultSetProcessor)
      */
@@ -936,6 +1259,101 @@ public class SqlScriptExecutor {
         throw new RuntimeSqlException("Error with statement", e);
       }
     }
+
+    /**
+     * @see org.alfasoftware.morf.jdbc.SqlScriptExecutor.QueryBuilder#iterator(java.lang.Iterable)
+     */
+    @Override
+    public RecordIterator iterator(Iterable<Column> columns) {
+      try {
+        if (connection != null) {
+          return openIterator(connection, columns, standalone, () -> { /* Belongs to the caller */ });
+        }
+
+        if (dataSource == null) {
+          // Either initialise this executor with a DataSource or use withConnection(Connection).
+          throw new IllegalStateException("No data source found.");
+        }
+        Connection ownConnection = dataSource.getConnection();
+        boolean wasAutoCommit;
+        try {
+          wasAutoCommit = ownConnection.getAutoCommit();
+          if (wasAutoCommit) ownConnection.setAutoCommit(false);
+        } catch (SQLException | RuntimeException e) {
+          ownConnection.close();
+          throw e;
+        }
+        AutoCloseable release = () -> {
+          try (Connection closing = ownConnection) {
+            closing.commit();
+            if (wasAutoCommit) closing.setAutoCommit(true);
+          }
+        };
+        try {
+          return openIterator(ownConnection, columns, true, release);
+        } catch (SQLException | RuntimeException e) {
+          try (Connection closing = ownConnection) {
+            closing.rollback();
+            if (wasAutoCommit) closing.setAutoCommit(true);
+          }
+          throw e;
+        }
+      } catch (SQLException e) {
+        throw new RuntimeSqlException("Error with statement", e);
+      }
+    }
+
+    /**
+     * @see org.alfasoftware.morf.jdbc.SqlScriptExecutor.QueryBuilder#stream(java.lang.Iterable)
+     */
+    @Override
+    public Stream<Record> stream(Iterable<Column> columns) {
+      RecordIterator iterator = iterator(columns);
+      return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+          .onClose(iterator::close);
+    }
+
+    /**
+     * Runs the query on <var>connection</var>, leaving the result set open for the returned iterator.
+     *
+     * @param release Releases the connection once the iterator is done with it.
+     */
+    private RecordIterator openIterator(Connection connection, Iterable<Column> columns, boolean queryOnly, AutoCloseable release) throws SQLException {
+      if (sqlDialect == null) {
+        throw new IllegalStateException("Must construct with dialect");
+      }
+      NamedParameterPreparedStatement preparedStatement = prepare(parse(query), connection, queryOnly);
+      try {
+        int fetchSize = queryOnly ? sqlDialect.fetchSizeForBulkSelects() : sqlDialect.fetchSizeForBulkSelectsAllowingConnectionUseDuringStreaming();
+        preparedStatement.setFetchSize(fetchSize);
+        binderFor(preparedStatement, parameterMetadata).bind(preparedStatement, parameterData, sqlDialect);
+        if (maxRows.isPresent()) {
+          preparedStatement.setMaxRows(maxRows.get());
+        }
+        if (queryTimeout.isPresent()) {
+          preparedStatement.setQueryTimeout(queryTimeout.get());
+        }
+        ResultSet resultSet = preparedStatement.executeQuery();
+        RecordLayout layout = RecordLayout.of(ResultSetMetadataSorter.sortedCopy(columns, resultSet));
+
+        // Some dialects use a negative fetch size to switch on streaming, so it is no use as a chunk size
+        int chunkSize = fetchSize > 0 ? fetchSize : RecordBatch.DEFAULT_CAPACITY;
+        return new StreamingRecordIterator(resultSet, layout, sqlDialect, readAheadChunks, chunkSize, () -> {
+          try {
+            visitor.afterExecute(preparedStatement.toString(), 0);
+            preparedStatement.close();
+          } finally {
+            release.close();
+          }
+        });
+      } catch (SQLException e) {
+        preparedStatement.close();
+        throw new RuntimeSqlException("SQL exception when executing query: [" + preparedStatement + "]", e);
+      } catch (RuntimeException e) {
+        preparedStatement.close();
+        throw e;
+      }
+    }
   }
 
 
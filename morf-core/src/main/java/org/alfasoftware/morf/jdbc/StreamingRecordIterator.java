@@ -0,0 +1,352 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import java.lang.ref.WeakReference;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.jdbc.SqlScriptExecutor.RecordIterator;
+import org.alfasoftware.morf.metadata.RecordLayout;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Lazily reads the records of an open {@link ResultSet}, releasing the result set and
+ * everything it depends on once the last record has been read, or when closed early.
+ *
+ * <p>Optionally, a read-ahead thread fetches and converts rows while the caller is
+ * still consuming earlier ones, handing them across in chunks through a bounded queue.
+ * Without read-ahead, rows are only fetched as the caller advances.</p>
+ *
+ * <p>The read-ahead threads are shared daemon threads, so cannot keep the JVM alive.
+ * If an iterator is discarded without being read in full or closed, its read-ahead
+ * stops, and releases the result set, once the iterator has been garbage collected.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ * @see SqlScriptExecutor.QueryBuilder#iterator(Iterable)
+ */
+final class StreamingRecordIterator extends AbstractIterator<Record> implements RecordIterator {
+
+  private static final Log log = LogFactory.getLog(StreamingRecordIterator.class);
+
+  /**
+   * Marks the end of the records in the read-ahead queue. Compared by identity.
+   */
+  private static final List<Record> END = Collections.unmodifiableList(new ArrayList<Record>());
+
+  /**
+   * How long the read-ahead thread waits for space in the queue, or for the end to be taken,
+   * before checking whether the iterator has been discarded.
+   */
+  private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+  /**
+   * Runs the read-ahead of every iterator. Idle threads are discarded after a minute.
+   */
+  private static final ExecutorService READ_AHEAD_EXECUTOR = Executors.newCachedThreadPool(
+    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("morf-read-ahead-%d").build());
+
+  private final ResultSet resultSet;
+  private final RecordLayout layout;
+  private final SqlDialect sqlDialect;
+  private final AutoCloseable resources;
+
+  /** Null if there is no read-ahead. */
+  private final ReadAhead readAhead;
+  private final Future<?> readAheadTask;
+
+  private Iterator<Record> chunk = Collections.emptyIterator();
+  private volatile boolean closed;
+
+
+  /**
+   * @param resultSet The result set to read.
+   * @param layout The layout of the records, whose slots are ordered according to their appearance in the result set.
+   * @param sqlDialect The dialect, to convert each row to a record.
+   * @param readAheadChunks The number of chunks of rows to fetch ahead of the caller, or 0 for none.
+   * @param chunkSize The number of rows in each chunk fetched ahead.
+   * @param resources Released, after the result set, once the records have been read or the iterator is closed.
+   */
+  StreamingRecordIterator(ResultSet resultSet, RecordLayout layout, SqlDialect sqlDialect, int readAheadChunks, int chunkSize, AutoCloseable resources) {
+    super();
+    this.resultSet = resultSet;
+    this.layout = layout;
+    this.sqlDialect = sqlDialect;
+    this.resources = resources;
+
+    if (readAheadChunks > 0) {
+      this.readAhead = new ReadAhead(this, readAheadChunks, Math.max(1, chunkSize));
+      this.readAheadTask = READ_AHEAD_EXECUTOR.submit(readAhead);
+    } else {
+      this.readAhead = null;
+      this.readAheadTask = null;
+    }
+  }
+
+
+  /**
+   * @see com.google.common.collect.AbstractIterator#computeNext()
+   */
+  @Override
+  protected Record computeNext() {
+    if (closed) {
+      return endOfData();
+    }
+
+    if (readAhead == null) {
+      try {
+        if (resultSet.next()) {
+          return sqlDialect.resultSetToRecord(resultSet, layout);
+        }
+      } catch (SQLException e) {
+        close();
+        throw new RuntimeSqlException("Error advancing result set", e);
+      } catch (RuntimeException e) {
+        close();
+        throw e;
+      }
+      close();
+      return endOfData();
+    }
+
+    while (!chunk.hasNext()) {
+      List<Record> next = take();
+      if (next == END) {
+        close();
+        if (readAhead.failure != null) {
+          throw new RuntimeException("Error reading records", readAhead.failure);
+        }
+        return endOfData();
+      }
+      chunk = next.iterator();
+    }
+    return chunk.next();
+  }
+
+
+  /**
+   * Waits for the next chunk from the read-ahead thread.
+   */
+  private List<Record> take() {
+    try {
+      return readAhead.queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close();
+      throw new RuntimeException("Interrupted waiting for records", e);
+    }
+  }
+
+
+  /**
+   * Stops any read-ahead, then closes the result set and releases the resources. Has no effect if already closed.
+   *
+   * @see org.alfasoftware.morf.jdbc.SqlScriptExecutor.RecordIterator#close()
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    try {
+      if (readAhead != null) {
+        // The result set must not be closed while the read-ahead thread is still using it
+        readAhead.stop();
+        try {
+          readAheadTask.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          throw new RuntimeException("Error reading records", e.getCause());
+        }
+      }
+    } finally {
+      release(resultSet, resources);
+    }
+  }
+
+
+  /**
+   * Closes <var>resultSet</var>, then releases <var>resources</var>.
+   */
+  private static void release(ResultSet resultSet, AutoCloseable resources) {
+    try {
+      resultSet.close();
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("Error closing result set", e);
+    } finally {
+      try {
+        resources.close();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException("Error closing result set", e);
+      }
+    }
+  }
+
+
+  /**
+   * Reads all the rows of an iterator into its queue, on a read-ahead thread.
+   *
+   * <p>Only holds a weak reference to the iterator, so that it can tell if the iterator
+   * has been discarded without being closed, and must not otherwise refer to it. It
+   * watches for that until the iterator is closed, which it is once it takes the end
+   * of the records, even if every row has already been queued.</p>
+   */
+  private static final class ReadAhead implements Runnable {
+
+    private final WeakReference<StreamingRecordIterator> owner;
+    private final ResultSet resultSet;
+    private final RecordLayout layout;
+    private final SqlDialect sqlDialect;
+    private final AutoCloseable resources;
+    private final int chunkSize;
+    private final BlockingQueue<List<Record>> queue;
+
+    /** Counted down when the iterator is closed. */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Set before {@link #END} is queued, if reading failed.
+     */
+    private volatile RuntimeException failure;
+
+    ReadAhead(StreamingRecordIterator owner, int readAheadChunks, int chunkSize) {
+      this.owner = new WeakReference<>(owner);
+      this.resultSet = owner.resultSet;
+      this.layout = owner.layout;
+      this.sqlDialect = owner.sqlDialect;
+      this.resources = owner.resources;
+      this.chunkSize = chunkSize;
+      this.queue = new ArrayBlockingQueue<>(readAheadChunks);
+    }
+
+    /**
+     * Reads the rows, and stops early if the iterator is closed or discarded.
+     *
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+      try {
+        List<Record> next = new ArrayList<>(chunkSize);
+        while (!isStopped() && resultSet.next()) {
+          next.add(sqlDialect.resultSetToRecord(resultSet, layout));
+          if (next.size() == chunkSize) {
+            if (!offer(next)) {
+              return;
+            }
+            next = new ArrayList<>(chunkSize);
+          }
+        }
+        if (!next.isEmpty() && !offer(next)) {
+          return;
+        }
+      } catch (SQLException e) {
+        failure = new RuntimeSqlException("Error advancing result set", e);
+      } catch (RuntimeException e) {
+        failure = e;
+      }
+      if (offer(END)) {
+        awaitStop();
+      }
+    }
+
+    /**
+     * Notes that the iterator has been closed, so that the result set is no longer read.
+     */
+    void stop() {
+      stopped.countDown();
+    }
+
+    private boolean isStopped() {
+      return stopped.getCount() == 0;
+    }
+
+    /**
+     * Waits for the iterator to be closed, once every row has been queued, releasing
+     * the result set if the iterator is discarded first.
+     */
+    private void awaitStop() {
+      try {
+        while (!stopped.await(OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+          if (owner.get() == null) {
+            releaseDiscarded();
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Queues a chunk of rows, waiting for space unless the iterator is closed or discarded.
+     * If it has been discarded, the result set is released.
+     *
+     * @return false if the iterator was closed or discarded first.
+     */
+    private boolean offer(List<Record> next) {
+      try {
+        while (!isStopped()) {
+          if (queue.offer(next, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            return true;
+          }
+          if (owner.get() == null) {
+            releaseDiscarded();
+            return false;
+          }
+        }
+        return false;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    /**
+     * Releases the result set of a discarded iterator, as nothing else will.
+     */
+    private void releaseDiscarded() {
+      log.warn("Record iterator discarded without being closed; releasing its result set");
+      try {
+        release(resultSet, resources);
+      } catch (RuntimeException e) {
+        log.warn("Error releasing discarded record iterator", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,276 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.metadata;
+
+import java.math.BigDecimal;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.DataSetUtils.ValueMapper;
+import org.alfasoftware.morf.metadata.ValueConverters.BigDecimalValueConverter;
+import org.alfasoftware.morf.metadata.ValueConverters.BooleanValueConverter;
+import org.alfasoftware.morf.metadata.ValueConverters.ByteArrayValueConverter;
+import org.alfasoftware.morf.metadata.ValueConverters.DateValueConverter;
+import org.alfasoftware.morf.metadata.ValueConverters.DoubleValueConverter;
+import org.alfasoftware.morf.metadata.ValueConverters.IntegerConverter;
+import org.alfasoftware.morf.metadata.ValueConverters.JodaLocalDateValueConverter;
+import org.alfasoftware.morf.metadata.ValueConverters.LongValueConverter;
+import org.alfasoftware.morf.metadata.ValueConverters.StringValueConverter;
+import org.joda.time.LocalDate;
+
+/**
+ * Base for {@link Record}s whose values are held in the slots of a {@link RecordLayout}.
+ * Implements reading values by column name, with the same conversions as a
+ * {@link DataSetUtils#record()}, over the slot accessors of the subclass.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+abstract class AbstractSlotRecord implements Record {
+
+  /**
+   * @return The layout of this record.
+   */
+  abstract RecordLayout layout();
+
+
+  /**
+   * @param slot The slot.
+   * @return The object held in a slot which does not hold an unboxed value.
+   */
+  abstract Object object(int slot);
+
+
+  /**
+   * @param slot The slot.
+   * @return Whether the value in the slot is {@code null}.
+   */
+  public abstract boolean isNull(int slot);
+
+
+  /**
+   * Reads an unboxed value without conversion. Check {@link #isNull(int)} first, as a
+   * {@code null} reads as zero or false.
+   *
+   * @param slot A {@link DataType#BIG_INTEGER} slot.
+   * @return The value.
+   */
+  public abstract long longValue(int slot);
+
+
+  /**
+   * Reads an unboxed value without conversion. Check {@link #isNull(int)} first, as a
+   * {@code null} reads as zero or false.
+   *
+   * @param slot An {@link DataType#INTEGER} slot.
+   * @return The value.
+   */
+  public abstract int intValue(int slot);
+
+
+  /**
+   * Reads an unboxed value without conversion. Check {@link #isNull(int)} first, as a
+   * {@code null} reads as zero or false.
+   *
+   * @param slot A {@link DataType#BOOLEAN} slot.
+   * @return The value.
+   */
+  public abstract boolean booleanValue(int slot);
+
+
+  /**
+   * Reads the value of a slot, boxing it if it is held unboxed.
+   *
+   * @param slot The slot.
+   * @return The value, which may be {@code null}.
+   */
+  public Object objectValue(int slot) {
+    if (isNull(slot)) {
+      return null;
+    }
+    switch (layout().getType(slot)) {
+      case BIG_INTEGER:
+        return longValue(slot);
+      case INTEGER:
+        return intValue(slot);
+      case BOOLEAN:
+        return booleanValue(slot);
+      default:
+        return object(slot);
+    }
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.DataValueLookup#getValue(java.lang.String)
+   */
+  @SuppressWarnings("deprecation")
+  @Override
+  public String getValue(String name) {
+    return getString(name);
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.DataValueLookup#getInteger(java.lang.String)
+   */
+  @Override
+  public Integer getInteger(String name) {
+    int slot = layout().slotOf(name);
+    if (slot != -1 && layout().getType(slot) == DataType.INTEGER) {
+      return isNull(slot) ? null : intValue(slot);
+    }
+    return getAndConvert(slot, (o, c) -> c.integerValue(o));
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.DataValueLookup#getLong(java.lang.String)
+   */
+  @Override
+  public Long getLong(String name) {
+    int slot = layout().slotOf(name);
+    if (slot != -1 && layout().getType(slot) == DataType.BIG_INTEGER) {
+      return isNull(slot) ? null : longValue(slot);
+    }
+    return getAndConvert(slot, (o, c) -> c.longValue(o));
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.DataValueLookup#getBoolean(java.lang.String)
+   */
+  @Override
+  public Boolean getBoolean(String name) {
+    int slot = layout().slotOf(name);
+    if (slot != -1 && layout().getType(slot) == DataType.BOOLEAN) {
+      return isNull(slot) ? null : booleanValue(slot);
+    }
+    return getAndConvert(slot, (o, c) -> c.booleanValue(o));
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.DataValueLookup#getDouble(java.lang.String)
+   */
+  @Override
+  public Double getDouble(String name) {
+    return getAndConvert(layout().slotOf(name), (o, c) -> c.doubleValue(o));
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.DataValueLookup#getString(java.lang.String)
+   */
+  @Override
+  public String getString(String name) {
+    return getAndConvert(layout().slotOf(name), (o, c) -> c.stringValue(o));
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.DataValueLookup#getBigDecimal(java.lang.String)
+   */
+  @Override
+  public BigDecimal getBigDecimal(String name) {
+    return getAndConvert(layout().slotOf(name), (o, c) -> c.bigDecimalValue(o));
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.DataValueLookup#getDate(java.lang.String)
+   */
+  @Override
+  public java.sql.Date getDate(String name) {
+    return getAndConvert(layout().slotOf(name), (o, c) -> c.dateValue(o));
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.DataValueLookup#getLocalDate(java.lang.String)
+   */
+  @Override
+  public LocalDate getLocalDate(String name) {
+    return getAndConvert(layout().slotOf(name), (o, c) -> c.localDateValue(o));
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.DataValueLookup#getByteArray(java.lang.String)
+   */
+  @Override
+  public byte[] getByteArray(String name) {
+    return getAndConvert(layout().slotOf(name), ValueMapper.OBJECT_TO_BYTE_ARRAY);
+  }
+
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    for (int slot = 0; slot < layout().size(); slot++) {
+      if (slot > 0) builder.append(", ");
+      builder.append(layout().getColumnName(slot)).append("=").append(objectValue(slot));
+    }
+    return builder.append('}').toString();
+  }
+
+
+  void checkType(int slot, DataType type) {
+    if (layout().getType(slot) != type) {
+      throw new IllegalArgumentException("Slot [" + slot + "] column [" + layout().getColumnName(slot) + "] is of type [" + layout().getType(slot) + "], not [" + type + "]");
+    }
+  }
+
+
+  /**
+   * Converts the value in a slot, using the converter a {@link DataSetUtils#record()}
+   * would use for a value of its type.
+   */
+  @SuppressWarnings("unchecked")
+  private <RETURNED> RETURNED getAndConvert(int slot, ValueMapper<Object, RETURNED> mapper) {
+    if (slot == -1) {
+      return null;
+    }
+    Object value = objectValue(slot);
+    return value == null ? null : mapper.map(value, (ValueConverter<Object>) converterFor(value));
+  }
+
+
+  static ValueConverter<?> converterFor(Object value) {
+    if (value instanceof String) {
+      return StringValueConverter.instance();
+    } else if (value instanceof Integer) {
+      return IntegerConverter.instance();
+    } else if (value instanceof Long) {
+      return LongValueConverter.instance();
+    } else if (value instanceof BigDecimal) {
+      return BigDecimalValueConverter.instance();
+    } else if (value instanceof Boolean) {
+      return BooleanValueConverter.instance();
+    } else if (value instanceof Double) {
+      return DoubleValueConverter.instance();
+    } else if (value instanceof LocalDate) {
+      return JodaLocalDateValueConverter.instance();
+    } else if (value instanceof java.sql.Date) {
+      return DateValueConverter.instance();
+    } else if (value instanceof byte[]) {
+      return ByteArrayValueConverter.instance();
+    } else {
+      throw new IllegalArgumentException("Type [" + value.getClass().getCanonicalName() + "] not supported for values");
+    }
+  }
+}
\ No newline at end of file
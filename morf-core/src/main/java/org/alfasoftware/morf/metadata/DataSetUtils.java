@@ -93,6 +93,17 @@ public final class DataSetUtils {
      */
     DataValueLookupBuilder withInitialColumnCount(int count);
 
+    /**
+     * Stores the values of the columns in <var>layout</var> at the positions of
+     * their slots, so that they are found with a hash probe rather than by
+     * scanning every column. Share one layout between all the records built
+     * for the same columns. Columns not in the layout may still be set.
+     *
+     * @param layout The layout.
+     * @return this, for method chaining.
+     */
+    DataValueLookupBuilder withLayout(RecordLayout layout);
+
     /**
      * Specify a value for a particular column.
      *
@@ -259,6 +270,8 @@ public final class DataSetUtils {
     @Override
     RecordBuilder withInitialColumnCount(int count);
     @Override
+    RecordBuilder withLayout(RecordLayout layout);
+    @Override
     RecordBuilder setObject(String columnName, Object value);
     @Override
     RecordBuilder setString(String columnName, String value);
@@ -307,6 +320,8 @@ public final class DataSetUtils {
     @Override
     StatementParametersBuilder withInitialColumnCount(int count);
     @Override
+    StatementParametersBuilder withLayout(RecordLayout layout);
+    @Override
     StatementParametersBuilder setObject(String columnName, Object value);
     @Override
     StatementParametersBuilder setString(String columnName, String value);
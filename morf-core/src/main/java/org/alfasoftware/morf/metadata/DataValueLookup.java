@@ -57,7 +57,7 @@ public interface DataValueLookup {
    */
   public default Integer getInteger(String name) {
     String value = getValue(name);
-    return value == null ? null : Integer.valueOf(value);
+    return value == null ? null : DataValueLookupHelper.parseInteger(value);
   }
 
 
@@ -72,7 +72,7 @@ public interface DataValueLookup {
    */
   public default Long getLong(String name) {
     String value = getValue(name);
-    return value == null ? null : Long.valueOf(value);
+    return value == null ? null : DataValueLookupHelper.parseLong(value);
   }
 
 
@@ -102,7 +102,7 @@ public interface DataValueLookup {
    */
   public default org.joda.time.LocalDate getLocalDate(String name) {
     String value = getValue(name);
-    return value == null ? null : org.joda.time.LocalDate.parse(value, DataValueLookupHelper.FROM_YYYY_MM_DD);
+    return value == null ? null : DataValueLookupHelper.parseLocalDate(value);
   }
 
 
@@ -117,7 +117,7 @@ public interface DataValueLookup {
    */
   public default java.sql.Date getDate(String name) {
     String value = getValue(name);
-    return value == null ? null : java.sql.Date.valueOf(value);
+    return value == null ? null : DataValueLookupHelper.parseDate(value);
   }
 
 
@@ -51,6 +51,13 @@ import org.joda.time.LocalDate;
  * array and nothing else.
  * </p>
  * <p>
+ * Column lookups scan the columns in turn, unless the builder was given a
+ * shared {@link RecordLayout} with {@link #withLayout(RecordLayout)}. The
+ * columns of the layout are then stored at the position of their slot, and
+ * found with a hash probe. Any other columns are stored, and scanned, after
+ * them.
+ * </p>
+ * <p>
  * <strong>Be careful with use of lambdas</strong>. They are used, but are
  * very carefully designed to be stateless, thus allowing the compiler to
  * inline them and avoid runtime allocation and GC.
@@ -79,9 +86,12 @@ class DataValueLookupBuilderImpl implements DataValueLookupBuilder {
    *  or use of "node" objects which also have to be independently GCed. */
   private Object[] data;
 
-  /** How many columns we have stored. */
+  /** How many columns we have stored, including the slots of {@link #layout} whether set or not. */
   private int size;
 
+  /** The layout shared with other records of the same columns, if any. */
+  private RecordLayout layout;
+
 
   @Override
   public DataValueLookupBuilder withInitialColumnCount(int count) {
@@ -92,6 +102,17 @@ class DataValueLookupBuilderImpl implements DataValueLookupBuilder {
     return this;
   }
 
+  @Override
+  public DataValueLookupBuilder withLayout(RecordLayout layout) {
+    if (data != null) {
+      throw new IllegalStateException("Can't set layout after values have been specified.");
+    }
+    this.layout = layout;
+    this.data = initialiseArray(layout.size() + 1);
+    this.size = layout.size();
+    return this;
+  }
+
   @Override
   public DataValueLookupBuilder setNull(String columnName) {
     return set(columnName, null, NullValueConverter.instance());
@@ -228,9 +249,12 @@ class DataValueLookupBuilderImpl implements DataValueLookupBuilder {
   public String toString() {
     if (data == null) return "{}";
     StringBuilder builder = new StringBuilder('{');
+    boolean first = true;
     for (int i = 0 ; i < size ; i++) {
-      if (i > 0) builder.append(", ");
       int offset = i * BLOCK_SIZE;
+      if (data[offset + NAME] == null) continue;
+      if (!first) builder.append(", ");
+      first = false;
       builder.append(data[offset + NAME]).append("=").append(data[offset + VALUE]);
     }
     return builder.append('}').toString();
@@ -241,17 +265,31 @@ class DataValueLookupBuilderImpl implements DataValueLookupBuilder {
    * as different types.  Resizes or allocates the array as required.
    */
   private DataValueLookupBuilder set(String columnName, Object value, ValueConverter<?> converter) {
+    if (layout != null) {
+      int slot = layout.slotOf(columnName);
+      if (slot != -1) {
+        store(slot, columnName, value, converter);
+        return this;
+      }
+    }
     if (data == null) {
       data = initialiseArray(DEFAULT_INITIAL_SIZE);
     } else if (size * BLOCK_SIZE == data.length) {
       grow();
     }
-    int offset = size * BLOCK_SIZE;
+    store(size, columnName, value, converter);
+    size++;
+    return this;
+  }
+
+  /**
+   * Stores a column value and its converter in the block at the specified index.
+   */
+  private void store(int index, String columnName, Object value, ValueConverter<?> converter) {
+    int offset = index * BLOCK_SIZE;
     data[offset + NAME] = columnName;
     data[offset + VALUE] = value;
     data[offset + CONVERTER] = value == null ? NullValueConverter.instance() : converter;
-    size++;
-    return this;
   }
 
   /**
@@ -267,7 +305,7 @@ class DataValueLookupBuilderImpl implements DataValueLookupBuilder {
    * that big.
    */
   private void grow() {
-    data = Arrays.copyOf(data, (size + (size >> 1)) * BLOCK_SIZE);
+    data = Arrays.copyOf(data, Math.max(size + 1, size + (size >> 1)) * BLOCK_SIZE);
   }
 
   /**
@@ -279,16 +317,11 @@ class DataValueLookupBuilderImpl implements DataValueLookupBuilder {
   }
 
   /**
-   * O(n) search implementation.
-   *
-   * <p>We *could* create a hashtable here, but we would need to (a) define a
-   * case-insensitive hash which avoids explicitly upper- or lower- casing the
-   * input strings (because that has a cost in churn) and (b) maintain the
-   * table ourselves, and there's no current evidence that this loop is a
-   * significant cost in real usage. We can always do that if it looks
-   * worthwhile.</p>
+   * Finds a column in the shared {@link RecordLayout}, if there is one, with a
+   * hash probe, or otherwise by an O(n) search of the columns added ad hoc.
    *
-   * <p>TODO WEB-66337 improve this</p>
+   * <p>The case-insensitive hash table is maintained by the layout, so that it
+   * is built once for all the records which share it, rather than for each.</p>
    *
    * <p>We use -1 to indicate not found to avoid unnecessary boxing.</p>
    *
@@ -298,9 +331,19 @@ class DataValueLookupBuilderImpl implements DataValueLookupBuilder {
    * @return The index at which the column is found.
    */
   protected int indexOf(String key) {
+    int layoutSize = 0;
+    if (layout != null) {
+      int slot = layout.slotOf(key);
+      if (slot != -1) {
+        return data[slot * BLOCK_SIZE + NAME] == null ? -1 : slot;
+      }
+      // Columns in the layout are only ever stored in their slots
+      layoutSize = layout.size();
+    }
+
     // Search backwards, so that later values for the same column name override previously
     // entered values.
-    for (int i = size - 1 ; i >= 0 ; i-- ) {
+    for (int i = size - 1 ; i >= layoutSize ; i-- ) {
       if (key.equalsIgnoreCase((String) data[i * BLOCK_SIZE + NAME])) {
         return i;
       }
@@ -1,14 +1,160 @@
 package org.alfasoftware.morf.metadata;
 
+import org.joda.time.LocalDate;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
 /**
  * Helper code for {@link DataValueLookup} default methods, which we don't want to appear on the interface.
  *
+ * <p>Also parses values held as strings, which is how every value arrives from an XML data set,
+ * so is done for every row of a restore. The common cases are parsed without creating
+ * intermediate objects, and the commonest values are shared rather than created afresh:
+ * non-negative integers below {@value #SMALL_VALUE_LIMIT}, and recently parsed dates.
+ * Anything unusual falls back to the general parsers, so that errors are reported as before.</p>
+ *
  * @author Copyright (c) CHP Consulting Ltd. 2017
  */
 class DataValueLookupHelper {
   static final DateTimeFormatter FROM_YYYY_MM_DD = DateTimeFormat.forPattern("yyyy-MM-dd");
+
+  /**
+   * Integers from zero up to, but not including, this are shared.
+   */
+  static final int SMALL_VALUE_LIMIT = 1024;
+
+  /**
+   * The number of recently parsed dates kept. Must be a power of two.
+   */
+  private static final int DATE_CACHE_SIZE = 1024;
+
+  private static final Long[] SMALL_LONGS = new Long[SMALL_VALUE_LIMIT];
+  private static final Integer[] SMALL_INTEGERS = new Integer[SMALL_VALUE_LIMIT];
+  static {
+    for (int i = 0; i < SMALL_VALUE_LIMIT; i++) {
+      SMALL_LONGS[i] = Long.valueOf(i);
+      SMALL_INTEGERS[i] = Integer.valueOf(i);
+    }
+  }
+
+  /**
+   * Recently parsed dates, indexed by the hash of their string form. Entries are immutable and
+   * are replaced rather than updated, so racing threads can at worst miss or overwrite each other's entries.
+   */
+  private static final ParsedDate[] DATE_CACHE = new ParsedDate[DATE_CACHE_SIZE];
+
+
+  /**
+   * Parses a long, sharing small values.
+   *
+   * @param value The string form.
+   * @return The value.
+   * @throws NumberFormatException if the string is not a long.
+   */
+  static Long parseLong(String value) {
+    long result = Long.parseLong(value);
+    return result >= 0 && result < SMALL_VALUE_LIMIT ? SMALL_LONGS[(int) result] : Long.valueOf(result);
+  }
+
+
+  /**
+   * Parses an integer, sharing small values.
+   *
+   * @param value The string form.
+   * @return The value.
+   * @throws NumberFormatException if the string is not an integer.
+   */
+  static Integer parseInteger(String value) {
+    int result = Integer.parseInt(value);
+    return result >= 0 && result < SMALL_VALUE_LIMIT ? SMALL_INTEGERS[result] : Integer.valueOf(result);
+  }
+
+
+  /**
+   * Parses a date in the form {@code yyyy-MM-dd} as a Joda {@link LocalDate}, sharing
+   * recently parsed dates.
+   *
+   * @param value The string form.
+   * @return The value.
+   * @throws IllegalArgumentException if the string is not a valid date.
+   */
+  static LocalDate parseLocalDate(String value) {
+    int index = (value.hashCode() ^ value.hashCode() >>> 16) & (DATE_CACHE_SIZE - 1);
+    ParsedDate cached = DATE_CACHE[index];
+    if (cached != null && cached.text.equals(value)) {
+      return cached.date;
+    }
+
+    LocalDate result = isCanonicalDate(value)
+        ? new LocalDate(digits(value, 0, 4), digits(value, 5, 7), digits(value, 8, 10))
+        : LocalDate.parse(value, FROM_YYYY_MM_DD);
+    DATE_CACHE[index] = new ParsedDate(value, result);
+    return result;
+  }
+
+
+  /**
+   * Parses a date in the form {@code yyyy-[m]m-[d]d} as a {@link java.sql.Date}, exactly as
+   * {@link java.sql.Date#valueOf(String)} does, but without splitting the string.
+   *
+   * <p>{@link java.sql.Date} is mutable, so a new instance is always returned.</p>
+   *
+   * @param value The string form.
+   * @return The value.
+   * @throws IllegalArgumentException if the string is not a valid date.
+   */
+  @SuppressWarnings("deprecation")
+  static java.sql.Date parseDate(String value) {
+    if (isCanonicalDate(value)) {
+      int month = digits(value, 5, 7);
+      int day = digits(value, 8, 10);
+      if (month >= 1 && month <= 12 && day >= 1 && day <= 31) {
+        return new java.sql.Date(digits(value, 0, 4) - 1900, month - 1, day);
+      }
+    }
+    return java.sql.Date.valueOf(value);
+  }
+
+
+  /**
+   * @return Whether the string is exactly {@code dddd-dd-dd}.
+   */
+  private static boolean isCanonicalDate(String value) {
+    if (value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+      return false;
+    }
+    for (int i = 0; i < 10; i++) {
+      if (i != 4 && i != 7 && (value.charAt(i) < '0' || value.charAt(i) > '9')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * @return The number formed by the decimal digits between <var>start</var> and <var>end</var>.
+   */
+  private static int digits(String value, int start, int end) {
+    int result = 0;
+    for (int i = start; i < end; i++) {
+      result = result * 10 + value.charAt(i) - '0';
+    }
+    return result;
+  }
+
+
+  /**
+   * A date and the string it was parsed from.
+   */
+  private static final class ParsedDate {
+    final String text;
+    final LocalDate date;
+
+    ParsedDate(String text, LocalDate date) {
+      this.text = text;
+      this.date = date;
+    }
+  }
 }
 
@@ -0,0 +1,246 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.metadata;
+
+import java.math.BigDecimal;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.ValueConverters.StringValueConverter;
+import org.joda.time.LocalDate;
+
+/**
+ * A {@link Record} whose values are held in the slots of a shared {@link RecordLayout},
+ * rather than against their column names.
+ *
+ * <p>This is intended for reading large volumes of rows, such as from a result set. Each
+ * record holds only an array of unboxed values, an array of object values, and a bit per
+ * unboxed value recording whether it is set. Values can be read by column name, with the
+ * same conversions as a {@link DataSetUtils#record()}, or directly by slot.</p>
+ *
+ * <p>Any slot which has not been set is {@code null}.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public final class LayoutRecord extends AbstractSlotRecord {
+
+  private final RecordLayout layout;
+  private final long[] primitives;
+  private final Object[] objects;
+
+  /**
+   * One bit per primitive value, set once the value has been set to a non-null value.
+   */
+  private final long[] primitivesSet;
+
+
+  LayoutRecord(RecordLayout layout) {
+    super();
+    this.layout = layout;
+    this.primitives = new long[layout.primitiveCount()];
+    this.objects = new Object[layout.objectCount()];
+    this.primitivesSet = new long[(layout.primitiveCount() + 63) >>> 6];
+  }
+
+
+  /**
+   * @return The layout of this record.
+   */
+  public RecordLayout getLayout() {
+    return layout;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.AbstractSlotRecord#layout()
+   */
+  @Override
+  RecordLayout layout() {
+    return layout;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.AbstractSlotRecord#object(int)
+   */
+  @Override
+  Object object(int slot) {
+    return objects[layout.storageIndex(slot)];
+  }
+
+
+  /**
+   * Sets the value of a {@link DataType#BIG_INTEGER} slot.
+   *
+   * @param slot The slot.
+   * @param value The value.
+   * @return this, for chaining.
+   */
+  public LayoutRecord setLong(int slot, long value) {
+    return setPrimitive(slot, DataType.BIG_INTEGER, value);
+  }
+
+
+  /**
+   * Sets the value of an {@link DataType#INTEGER} slot.
+   *
+   * @param slot The slot.
+   * @param value The value.
+   * @return this, for chaining.
+   */
+  public LayoutRecord setInt(int slot, int value) {
+    return setPrimitive(slot, DataType.INTEGER, value);
+  }
+
+
+  /**
+   * Sets the value of a {@link DataType#BOOLEAN} slot.
+   *
+   * @param slot The slot.
+   * @param value The value.
+   * @return this, for chaining.
+   */
+  public LayoutRecord setBoolean(int slot, boolean value) {
+    return setPrimitive(slot, DataType.BOOLEAN, value ? 1L : 0L);
+  }
+
+
+  /**
+   * Sets the value of a slot which does not hold an unboxed value. The value may be a
+   * {@link String}, {@link BigDecimal}, {@link LocalDate}, {@link java.sql.Date},
+   * {@link Double}, {@code byte[]} or {@code null}.
+   *
+   * @param slot The slot.
+   * @param value The value.
+   * @return this, for chaining.
+   */
+  public LayoutRecord setObject(int slot, Object value) {
+    if (layout.isPrimitive(slot)) {
+      if (value != null) {
+        throw new IllegalArgumentException("Slot [" + slot + "] column [" + layout.getColumnName(slot) + "] of type [" + layout.getType(slot) + "] is not an object slot");
+      }
+      return setNull(slot);
+    }
+    if (value != null) {
+      converterFor(value);
+    }
+    objects[layout.storageIndex(slot)] = value;
+    return this;
+  }
+
+
+  /**
+   * Sets the value of any slot from its string form, as read by
+   * {@link DataValueLookup#getString(String)}, converting it to the type of the slot.
+   *
+   * @param slot The slot.
+   * @param value The value, which may be {@code null}.
+   * @return this, for chaining.
+   */
+  public LayoutRecord setString(int slot, String value) {
+    if (value == null) {
+      return setNull(slot);
+    }
+    StringValueConverter converter = StringValueConverter.instance();
+    switch (layout.getType(slot)) {
+      case BIG_INTEGER:
+        return setLong(slot, converter.longValue(value));
+      case INTEGER:
+        return setInt(slot, converter.integerValue(value));
+      case BOOLEAN:
+        return setBoolean(slot, converter.booleanValue(value));
+      case DATE:
+        return setObject(slot, converter.localDateValue(value));
+      case DECIMAL:
+        return setObject(slot, converter.bigDecimalValue(value));
+      case BLOB:
+        return setObject(slot, converter.byteArrayValue(value));
+      default:
+        return setObject(slot, value);
+    }
+  }
+
+
+  /**
+   * Sets a slot to {@code null}.
+   *
+   * @param slot The slot.
+   * @return this, for chaining.
+   */
+  public LayoutRecord setNull(int slot) {
+    int index = layout.storageIndex(slot);
+    if (layout.isPrimitive(slot)) {
+      primitivesSet[index >>> 6] &= ~(1L << index);
+    } else {
+      objects[index] = null;
+    }
+    return this;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.AbstractSlotRecord#isNull(int)
+   */
+  @Override
+  public boolean isNull(int slot) {
+    int index = layout.storageIndex(slot);
+    if (layout.isPrimitive(slot)) {
+      return (primitivesSet[index >>> 6] & (1L << index)) == 0;
+    }
+    return objects[index] == null;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.AbstractSlotRecord#longValue(int)
+   */
+  @Override
+  public long longValue(int slot) {
+    return primitive(slot, DataType.BIG_INTEGER);
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.AbstractSlotRecord#intValue(int)
+   */
+  @Override
+  public int intValue(int slot) {
+    return (int) primitive(slot, DataType.INTEGER);
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.metadata.AbstractSlotRecord#booleanValue(int)
+   */
+  @Override
+  public boolean booleanValue(int slot) {
+    return primitive(slot, DataType.BOOLEAN) != 0;
+  }
+
+
+  private LayoutRecord setPrimitive(int slot, DataType type, long value) {
+    checkType(slot, type);
+    int index = layout.storageIndex(slot);
+    primitives[index] = value;
+    primitivesSet[index >>> 6] |= 1L << index;
+    return this;
+  }
+
+
+  private long primitive(int slot, DataType type) {
+    checkType(slot, type);
+    return primitives[layout.storageIndex(slot)];
+  }
+}
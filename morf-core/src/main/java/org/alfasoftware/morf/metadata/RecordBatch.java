@@ -0,0 +1,470 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.metadata;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.ValueConverters.StringValueConverter;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.FluentIterable;
+
+/**
+ * A batch of rows held by column: one vector per slot of a {@link RecordLayout}.
+ *
+ * <p>Values of {@link DataType#BIG_INTEGER}, {@link DataType#INTEGER} and
+ * {@link DataType#BOOLEAN} columns are held unboxed in a {@code long[]} per column, with
+ * a bit per row recording whether it is set. Other values are held in an {@code Object[]}
+ * per column: {@link String}s, {@link java.math.BigDecimal}s, Joda {@link org.joda.time.LocalDate}s
+ * and {@code byte[]}s, as they would be by {@link LayoutRecord}.</p>
+ *
+ * <p>Rows are appended with {@link #addRow()} and their values set by slot, or copied from
+ * a {@link Record} with {@link #addRecord(Record)}. Any value not set is {@code null}.
+ * {@link #record(int)} gives a {@link Record} view of a row, which reads straight from the
+ * column vectors, so a batch must not be changed once it has been handed on.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public final class RecordBatch {
+
+  /**
+   * The number of rows in a batch unless otherwise specified.
+   */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  private final RecordLayout layout;
+  private final int capacity;
+  private final long[][] primitives;
+  private final long[][] primitivesSet;
+  private final Object[][] objects;
+  private int size;
+
+
+  /**
+   * @param layout The layout of the rows.
+   * @param capacity The maximum number of rows.
+   */
+  public RecordBatch(RecordLayout layout, int capacity) {
+    super();
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Batch capacity must be at least 1, not [" + capacity + "]");
+    }
+    this.layout = layout;
+    this.capacity = capacity;
+    this.primitives = new long[layout.primitiveCount()][capacity];
+    this.primitivesSet = new long[layout.primitiveCount()][(capacity + 63) >>> 6];
+    this.objects = new Object[layout.objectCount()][capacity];
+  }
+
+
+  /**
+   * Splits <var>records</var> into batches, copying each record's values into the column
+   * vectors. The values are converted to the types of the columns in <var>layout</var>.
+   *
+   * @param layout The layout of the batches.
+   * @param records The records.
+   * @param capacity The maximum number of rows in each batch.
+   * @return The batches, read lazily from <var>records</var>.
+   */
+  public static Iterable<RecordBatch> batches(RecordLayout layout, Iterable<Record> records, int capacity) {
+    return () -> new AbstractIterator<RecordBatch>() {
+      private final Iterator<Record> iterator = records.iterator();
+
+      @Override
+      protected RecordBatch computeNext() {
+        if (!iterator.hasNext()) {
+          return endOfData();
+        }
+        RecordBatch batch = new RecordBatch(layout, capacity);
+        while (!batch.isFull() && iterator.hasNext()) {
+          batch.addRecord(iterator.next());
+        }
+        return batch;
+      }
+    };
+  }
+
+
+  /**
+   * Presents batches as records, each a view of a row of its batch.
+   *
+   * @param batches The batches.
+   * @return The records of every batch, in order.
+   */
+  public static Iterable<Record> records(Iterable<RecordBatch> batches) {
+    return FluentIterable.from(batches).transformAndConcat(RecordBatch::records);
+  }
+
+
+  /**
+   * @return The layout of the rows.
+   */
+  public RecordLayout getLayout() {
+    return layout;
+  }
+
+
+  /**
+   * @return The number of rows in the batch.
+   */
+  public int size() {
+    return size;
+  }
+
+
+  /**
+   * @return The maximum number of rows in the batch.
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+
+  /**
+   * @return Whether the batch has reached its capacity.
+   */
+  public boolean isFull() {
+    return size == capacity;
+  }
+
+
+  /**
+   * Appends a row, all of whose values are initially {@code null}.
+   *
+   * @return The index of the new row.
+   */
+  public int addRow() {
+    if (isFull()) {
+      throw new IllegalStateException("Batch is full at [" + capacity + "] rows");
+    }
+    return size++;
+  }
+
+
+  /**
+   * Appends a row holding the values of <var>record</var>, converted to the types of
+   * the columns.
+   *
+   * @param record The record to copy.
+   * @return this, for chaining.
+   */
+  public RecordBatch addRecord(Record record) {
+    int row = addRow();
+    for (int slot = 0; slot < layout.size(); slot++) {
+      String name = layout.getColumnName(slot);
+      switch (layout.getType(slot)) {
+        case BIG_INTEGER:
+          Long longValue = record.getLong(name);
+          if (longValue != null) setLong(row, slot, longValue);
+          break;
+        case INTEGER:
+          Integer intValue = record.getInteger(name);
+          if (intValue != null) setInt(row, slot, intValue);
+          break;
+        case BOOLEAN:
+          Boolean booleanValue = record.getBoolean(name);
+          if (booleanValue != null) setBoolean(row, slot, booleanValue);
+          break;
+        case DATE:
+          setObject(row, slot, record.getLocalDate(name));
+          break;
+        case DECIMAL:
+          setObject(row, slot, record.getBigDecimal(name));
+          break;
+        case BLOB:
+          setObject(row, slot, record.getByteArray(name));
+          break;
+        default:
+          setObject(row, slot, record.getString(name));
+          break;
+      }
+    }
+    return this;
+  }
+
+
+  /**
+   * Sets the value of a {@link DataType#BIG_INTEGER} column.
+   *
+   * @param row The row.
+   * @param slot The slot of the column.
+   * @param value The value.
+   * @return this, for chaining.
+   */
+  public RecordBatch setLong(int row, int slot, long value) {
+    return setPrimitive(row, slot, DataType.BIG_INTEGER, value);
+  }
+
+
+  /**
+   * Sets the value of an {@link DataType#INTEGER} column.
+   *
+   * @param row The row.
+   * @param slot The slot of the column.
+   * @param value The value.
+   * @return this, for chaining.
+   */
+  public RecordBatch setInt(int row, int slot, int value) {
+    return setPrimitive(row, slot, DataType.INTEGER, value);
+  }
+
+
+  /**
+   * Sets the value of a {@link DataType#BOOLEAN} column.
+   *
+   * @param row The row.
+   * @param slot The slot of the column.
+   * @param value The value.
+   * @return this, for chaining.
+   */
+  public RecordBatch setBoolean(int row, int slot, boolean value) {
+    return setPrimitive(row, slot, DataType.BOOLEAN, value ? 1L : 0L);
+  }
+
+
+  /**
+   * Sets the value of a column which is not held unboxed. See {@link LayoutRecord#setObject(int, Object)}.
+   *
+   * @param row The row.
+   * @param slot The slot of the column.
+   * @param value The value, which may be {@code null}.
+   * @return this, for chaining.
+   */
+  public RecordBatch setObject(int row, int slot, Object value) {
+    checkRow(row);
+    if (layout.isPrimitive(slot)) {
+      if (value != null) {
+        throw new IllegalArgumentException("Slot [" + slot + "] column [" + layout.getColumnName(slot) + "] of type [" + layout.getType(slot) + "] is not an object slot");
+      }
+      return this;
+    }
+    if (value != null) {
+      AbstractSlotRecord.converterFor(value);
+    }
+    objects[layout.storageIndex(slot)][row] = value;
+    return this;
+  }
+
+
+  /**
+   * Sets the value of any column from its string form, as read by
+   * {@link DataValueLookup#getString(String)}, converting it to the type of the column.
+   *
+   * @param row The row.
+   * @param slot The slot of the column.
+   * @param value The value, which may be {@code null}.
+   * @return this, for chaining.
+   */
+  public RecordBatch setString(int row, int slot, String value) {
+    if (value == null) {
+      return setObject(row, slot, null);
+    }
+    StringValueConverter converter = StringValueConverter.instance();
+    switch (layout.getType(slot)) {
+      case BIG_INTEGER:
+        return setLong(row, slot, converter.longValue(value));
+      case INTEGER:
+        return setInt(row, slot, converter.integerValue(value));
+      case BOOLEAN:
+        return setBoolean(row, slot, converter.booleanValue(value));
+      case DATE:
+        return setObject(row, slot, converter.localDateValue(value));
+      case DECIMAL:
+        return setObject(row, slot, converter.bigDecimalValue(value));
+      case BLOB:
+        return setObject(row, slot, converter.byteArrayValue(value));
+      default:
+        return setObject(row, slot, value);
+    }
+  }
+
+
+  /**
+   * @param row The row.
+   * @param slot The slot of the column.
+   * @return Whether the value is {@code null}.
+   */
+  public boolean isNull(int row, int slot) {
+    int index = layout.storageIndex(slot);
+    if (layout.isPrimitive(slot)) {
+      return (primitivesSet[index][row >>> 6] & (1L << row)) == 0;
+    }
+    return objects[index][row] == null;
+  }
+
+
+  /**
+   * Reads an unboxed value. Check {@link #isNull(int, int)} first, as a {@code null}
+   * reads as zero.
+   *
+   * @param row The row.
+   * @param slot The slot of a {@link DataType#BIG_INTEGER} column.
+   * @return The value.
+   */
+  public long longValue(int row, int slot) {
+    return primitive(row, slot, DataType.BIG_INTEGER);
+  }
+
+
+  /**
+   * Reads an unboxed value. Check {@link #isNull(int, int)} first, as a {@code null}
+   * reads as zero.
+   *
+   * @param row The row.
+   * @param slot The slot of an {@link DataType#INTEGER} column.
+   * @return The value.
+   */
+  public int intValue(int row, int slot) {
+    return (int) primitive(row, slot, DataType.INTEGER);
+  }
+
+
+  /**
+   * Reads an unboxed value. Check {@link #isNull(int, int)} first, as a {@code null}
+   * reads as false.
+   *
+   * @param row The row.
+   * @param slot The slot of a {@link DataType#BOOLEAN} column.
+   * @return The value.
+   */
+  public boolean booleanValue(int row, int slot) {
+    return primitive(row, slot, DataType.BOOLEAN) != 0;
+  }
+
+
+  /**
+   * Reads a value, boxing it if it is held unboxed.
+   *
+   * @param row The row.
+   * @param slot The slot of the column.
+   * @return The value, which may be {@code null}.
+   */
+  public Object objectValue(int row, int slot) {
+    checkRow(row);
+    return new BatchRecord(row).objectValue(slot);
+  }
+
+
+  /**
+   * Gives a view of a row as a {@link Record}, which remains valid for as long as the
+   * batch is not changed.
+   *
+   * @param row The row.
+   * @return The record.
+   */
+  public Record record(int row) {
+    checkRow(row);
+    return new BatchRecord(row);
+  }
+
+
+  /**
+   * @return Views of every row in the batch, in order.
+   */
+  public Iterable<Record> records() {
+    return () -> new Iterator<Record>() {
+      private int row;
+
+      @Override
+      public boolean hasNext() {
+        return row < size;
+      }
+
+      @Override
+      public Record next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return new BatchRecord(row++);
+      }
+    };
+  }
+
+
+  private RecordBatch setPrimitive(int row, int slot, DataType type, long value) {
+    checkRow(row);
+    checkType(slot, type);
+    int index = layout.storageIndex(slot);
+    primitives[index][row] = value;
+    primitivesSet[index][row >>> 6] |= 1L << row;
+    return this;
+  }
+
+
+  private long primitive(int row, int slot, DataType type) {
+    checkType(slot, type);
+    return primitives[layout.storageIndex(slot)][row];
+  }
+
+
+  private void checkType(int slot, DataType type) {
+    if (layout.getType(slot) != type) {
+      throw new IllegalArgumentException("Slot [" + slot + "] column [" + layout.getColumnName(slot) + "] is of type [" + layout.getType(slot) + "], not [" + type + "]");
+    }
+  }
+
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row [" + row + "] is not in the batch of [" + size + "] rows");
+    }
+  }
+
+
+  /**
+   * A view of one row of the batch.
+   */
+  private final class BatchRecord extends AbstractSlotRecord {
+
+    private final int row;
+
+    BatchRecord(int row) {
+      this.row = row;
+    }
+
+    @Override
+    RecordLayout layout() {
+      return layout;
+    }
+
+    @Override
+    Object object(int slot) {
+      return objects[layout.storageIndex(slot)][row];
+    }
+
+    @Override
+    public boolean isNull(int slot) {
+      return RecordBatch.this.isNull(row, slot);
+    }
+
+    @Override
+    public long longValue(int slot) {
+      return RecordBatch.this.longValue(row, slot);
+    }
+
+    @Override
+    public int intValue(int slot) {
+      return RecordBatch.this.intValue(row, slot);
+    }
+
+    @Override
+    public boolean booleanValue(int slot) {
+      return RecordBatch.this.booleanValue(row, slot);
+    }
+  }
+}
@@ -30,6 +30,11 @@ class RecordBuilderImpl extends DataValueLookupBuilderImpl implements RecordBuil
     return (RecordBuilder) super.withInitialColumnCount(count);
   }
 
+  @Override
+  public RecordBuilder withLayout(RecordLayout layout) {
+    return (RecordBuilder) super.withLayout(layout);
+  }
+
   @Override
   public RecordBuilder value(String columnName, String value) {
     return (RecordBuilder) super.value(columnName, value);
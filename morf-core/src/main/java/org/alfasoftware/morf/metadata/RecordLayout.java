@@ -0,0 +1,216 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.metadata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The column layout of a {@link LayoutRecord}: the name and type of the value in
+ * each slot, and where it is stored.
+ *
+ * <p>A layout is resolved once, typically for all the rows of a result set, so that
+ * each record only has to hold its values. Values of {@link DataType#BIG_INTEGER},
+ * {@link DataType#INTEGER} and {@link DataType#BOOLEAN} columns are stored unboxed.</p>
+ *
+ * <p>Column names are looked up in constant time: first by exact name, then through a
+ * case-folded hash table which is probed without allocating. A layout may also be shared
+ * by {@link DataSetUtils.RecordBuilder}s, through
+ * {@link DataSetUtils.DataValueLookupBuilder#withLayout(RecordLayout)}.</p>
+ *
+ * <p>Instances are immutable, and may be shared between threads.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public final class RecordLayout {
+
+  private final String[] columnNames;
+  private final DataType[] types;
+
+  /**
+   * For each slot, its index into the primitive or the object values of a record.
+   */
+  private final int[] storageIndexes;
+
+  private final int primitiveCount;
+  private final int objectCount;
+
+  /**
+   * Slots by exact column name, checked first as it needs no case folding.
+   */
+  private final Map<String, Integer> slotsByName = new HashMap<>();
+
+  /**
+   * Open addressed hash table of slots, plus one, by case-folded column name. Zero marks
+   * an empty entry. Sized to a power of two at most half full.
+   */
+  private final int[] caseInsensitiveSlots;
+
+
+  /**
+   * Resolves the layout of records holding values for <var>columns</var>.
+   *
+   * @param columns The columns, in slot order.
+   * @return The layout.
+   */
+  public static RecordLayout of(Iterable<Column> columns) {
+    return new RecordLayout(columns);
+  }
+
+
+  private RecordLayout(Iterable<Column> columns) {
+    List<Column> columnList = new ArrayList<>();
+    columns.forEach(columnList::add);
+
+    columnNames = new String[columnList.size()];
+    types = new DataType[columnList.size()];
+    storageIndexes = new int[columnList.size()];
+
+    caseInsensitiveSlots = new int[Integer.highestOneBit(Math.max(1, columnList.size()) * 2) << 1];
+
+    int primitives = 0;
+    int objects = 0;
+    for (int slot = 0; slot < columnList.size(); slot++) {
+      Column column = columnList.get(slot);
+      columnNames[slot] = column.getName().intern();
+      types[slot] = column.getType();
+      storageIndexes[slot] = isPrimitive(column.getType()) ? primitives++ : objects++;
+
+      // Later columns of the same name take precedence, as they do in a RecordBuilder
+      slotsByName.put(columnNames[slot], slot);
+      caseInsensitiveSlots[probe(columnNames[slot])] = slot + 1;
+    }
+    primitiveCount = primitives;
+    objectCount = objects;
+  }
+
+
+  /**
+   * @return A new, empty record with this layout.
+   */
+  public LayoutRecord newRecord() {
+    return new LayoutRecord(this);
+  }
+
+
+  /**
+   * @return The number of slots.
+   */
+  public int size() {
+    return columnNames.length;
+  }
+
+
+  /**
+   * Finds the slot holding the value of a column.
+   *
+   * @param columnName The column name, which is not case sensitive.
+   * @return The slot, or -1 if there is no such column.
+   */
+  public int slotOf(String columnName) {
+    Integer slot = slotsByName.get(columnName);
+    if (slot != null) {
+      return slot;
+    }
+    return caseInsensitiveSlots[probe(columnName)] - 1;
+  }
+
+
+  /**
+   * Finds the entry in {@link #caseInsensitiveSlots} for a column name: either the
+   * entry holding it, or the empty entry where it would go.
+   */
+  private int probe(String columnName) {
+    int mask = caseInsensitiveSlots.length - 1;
+    int index = caseInsensitiveHash(columnName) & mask;
+    while (caseInsensitiveSlots[index] != 0 && !columnName.equalsIgnoreCase(columnNames[caseInsensitiveSlots[index] - 1])) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+
+  /**
+   * A hash of a column name consistent with {@link String#equalsIgnoreCase(String)},
+   * without creating a case-folded copy of it.
+   */
+  private static int caseInsensitiveHash(String columnName) {
+    int hash = 0;
+    for (int i = 0; i < columnName.length(); i++) {
+      hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(columnName.charAt(i)));
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+
+  /**
+   * @param slot The slot.
+   * @return The name of the column in the slot.
+   */
+  public String getColumnName(int slot) {
+    return columnNames[slot];
+  }
+
+
+  /**
+   * @param slot The slot.
+   * @return The type of the column in the slot.
+   */
+  public DataType getType(int slot) {
+    return types[slot];
+  }
+
+
+  /**
+   * @param slot The slot.
+   * @return Whether the slot holds an unboxed value.
+   */
+  boolean isPrimitive(int slot) {
+    return isPrimitive(types[slot]);
+  }
+
+
+  /**
+   * @param slot The slot.
+   * @return The index of the slot's value in the primitive or object values of a record.
+   */
+  int storageIndex(int slot) {
+    return storageIndexes[slot];
+  }
+
+
+  /**
+   * @return The number of slots holding unboxed values.
+   */
+  int primitiveCount() {
+    return primitiveCount;
+  }
+
+
+  /**
+   * @return The number of slots holding objects.
+   */
+  int objectCount() {
+    return objectCount;
+  }
+
+
+  private static boolean isPrimitive(DataType type) {
+    return type == DataType.BIG_INTEGER || type == DataType.INTEGER || type == DataType.BOOLEAN;
+  }
+}
@@ -30,6 +30,11 @@ class StatementParametersBuilderImpl extends DataValueLookupBuilderImpl implemen
     return (StatementParametersBuilder) super.withInitialColumnCount(count);
   }
 
+  @Override
+  public StatementParametersBuilder withLayout(RecordLayout layout) {
+    return (StatementParametersBuilder) super.withLayout(layout);
+  }
+
   @Override
   public StatementParametersBuilder value(String columnName, String value) {
     return (StatementParametersBuilder) super.value(columnName, value);
@@ -304,15 +304,17 @@ final class ValueConverters {
     public org.joda.time.LocalDate localDateValue(LocalDate value) {
       return value;
     }
+    @SuppressWarnings("deprecation")
     @Override
     public java.sql.Date dateValue(LocalDate value) {
-      return java.sql.Date.valueOf(value.toString());
+      return new java.sql.Date(value.getYear() - 1900, value.getMonthOfYear() - 1, value.getDayOfMonth());
     }
   }
 
 
   /**
-   * Strings can represent anything. Here we do the conversions.
+   * Strings can represent anything. Here we do the conversions, sharing common
+   * values as described by {@link DataValueLookupHelper}.
    *
    * @author Copyright (c) CHP Consulting Ltd. 2017
    */
@@ -340,7 +342,7 @@ final class ValueConverters {
 
     @Override
     public java.sql.Date dateValue(String value) {
-      return java.sql.Date.valueOf(value);
+      return DataValueLookupHelper.parseDate(value);
     }
 
     @Override
@@ -350,17 +352,17 @@ final class ValueConverters {
 
     @Override
     public Integer integerValue(String value) {
-      return Integer.valueOf(value);
+      return DataValueLookupHelper.parseInteger(value);
     }
 
     @Override
     public org.joda.time.LocalDate localDateValue(String value) {
-      return org.joda.time.LocalDate.parse(value, DataValueLookupHelper.FROM_YYYY_MM_DD);
+      return DataValueLookupHelper.parseLocalDate(value);
     }
 
     @Override
     public Long longValue(String value) {
-      return Long.valueOf(value);
+      return DataValueLookupHelper.parseLong(value);
     }
 
     @Override
@@ -559,4 +559,73 @@ public abstract class AbstractSelectStatement<T extends AbstractSelectStatement<
     if (!orderBys.isEmpty()) result.append(" ORDER BY ").append(orderBys);
     return result.toString();
   }
+
+
+  /**
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((fields == null) ? 0 : fields.hashCode());
+    result = prime * result + ((table == null) ? 0 : table.hashCode());
+    result = prime * result + ((fromSelects == null) ? 0 : fromSelects.hashCode());
+    result = prime * result + ((joins == null) ? 0 : joins.hashCode());
+    result = prime * result + ((whereCriterion == null) ? 0 : whereCriterion.hashCode());
+    result = prime * result + ((alias == null) ? 0 : alias.hashCode());
+    result = prime * result + ((orderBys == null) ? 0 : orderBys.hashCode());
+    return result;
+  }
+
+
+  /**
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    AbstractSelectStatement<?> other = (AbstractSelectStatement<?>) obj;
+    if (fields == null) {
+      if (other.fields != null)
+        return false;
+    } else if (!fields.equals(other.fields))
+      return false;
+    if (table == null) {
+      if (other.table != null)
+        return false;
+    } else if (!table.equals(other.table))
+      return false;
+    if (fromSelects == null) {
+      if (other.fromSelects != null)
+        return false;
+    } else if (!fromSelects.equals(other.fromSelects))
+      return false;
+    if (joins == null) {
+      if (other.joins != null)
+        return false;
+    } else if (!joins.equals(other.joins))
+      return false;
+    if (whereCriterion == null) {
+      if (other.whereCriterion != null)
+        return false;
+    } else if (!whereCriterion.equals(other.whereCriterion))
+      return false;
+    if (alias == null) {
+      if (other.alias != null)
+        return false;
+    } else if (!alias.equals(other.alias))
+      return false;
+    if (orderBys == null) {
+      if (other.orderBys != null)
+        return false;
+    } else if (!orderBys.equals(other.orderBys))
+      return false;
+    return true;
+  }
 }
\ No newline at end of file
@@ -149,4 +149,43 @@ public class DeleteStatement  implements Statement, DeepCopyableWithTransformati
   public Builder<DeleteStatement> deepCopy(DeepCopyTransformation transformer) {
     return TempTransitionalBuilderWrapper.wrapper(new DeleteStatement(this,transformer));
   }
+
+
+  /**
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((table == null) ? 0 : table.hashCode());
+    result = prime * result + ((whereCriterion == null) ? 0 : whereCriterion.hashCode());
+    return result;
+  }
+
+
+  /**
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    DeleteStatement other = (DeleteStatement) obj;
+    if (table == null) {
+      if (other.table != null)
+        return false;
+    } else if (!table.equals(other.table))
+      return false;
+    if (whereCriterion == null) {
+      if (other.whereCriterion != null)
+        return false;
+    } else if (!whereCriterion.equals(other.whereCriterion))
+      return false;
+    return true;
+  }
 }
@@ -35,4 +35,34 @@ public final class OptimiseForRowCount implements Hint {
   public int getRowCount() {
     return rowCount;
   }
+
+
+  /**
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + rowCount;
+    return result;
+  }
+
+
+  /**
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    OptimiseForRowCount other = (OptimiseForRowCount) obj;
+    if (rowCount != other.rowCount)
+      return false;
+    return true;
+  }
 }
\ No newline at end of file
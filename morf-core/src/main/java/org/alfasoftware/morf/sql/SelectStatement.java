@@ -106,6 +106,15 @@ public class SelectStatement extends AbstractSelectStatement<SelectStatement> im
     this.having = transformation.deepCopy(sourceStatement.having);
     this.groupBys.addAll(DeepCopyTransformations.transformIterable(sourceStatement.groupBys, transformation));
     this.setOperators.addAll(DeepCopyTransformations.transformIterable(sourceStatement.setOperators,transformation));
+    this.forUpdate = sourceStatement.forUpdate;
+    for (Hint hint : sourceStatement.hints) {
+      if (hint instanceof UseIndex) {
+        UseIndex useIndex = (UseIndex) hint;
+        this.hints.add(new UseIndex(transformation.deepCopy(useIndex.getTable()), useIndex.getIndexName()));
+      } else {
+        this.hints.add(hint);
+      }
+    }
   }
 
 
@@ -463,4 +472,61 @@ public class SelectStatement extends AbstractSelectStatement<SelectStatement> im
   public Builder<SelectStatement> deepCopy(DeepCopyTransformation transformer) {
     return TempTransitionalBuilderWrapper.wrapper(new SelectStatement(this,transformer));
   }
+
+
+  /**
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = super.hashCode();
+    result = prime * result + (distinct ? 1231 : 1237);
+    result = prime * result + ((groupBys == null) ? 0 : groupBys.hashCode());
+    result = prime * result + ((having == null) ? 0 : having.hashCode());
+    result = prime * result + ((setOperators == null) ? 0 : setOperators.hashCode());
+    result = prime * result + (forUpdate ? 1231 : 1237);
+    result = prime * result + ((hints == null) ? 0 : hints.hashCode());
+    return result;
+  }
+
+
+  /**
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (!super.equals(obj))
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    SelectStatement other = (SelectStatement) obj;
+    if (distinct != other.distinct)
+      return false;
+    if (groupBys == null) {
+      if (other.groupBys != null)
+        return false;
+    } else if (!groupBys.equals(other.groupBys))
+      return false;
+    if (having == null) {
+      if (other.having != null)
+        return false;
+    } else if (!having.equals(other.having))
+      return false;
+    if (setOperators == null) {
+      if (other.setOperators != null)
+        return false;
+    } else if (!setOperators.equals(other.setOperators))
+      return false;
+    if (forUpdate != other.forUpdate)
+      return false;
+    if (hints == null) {
+      if (other.hints != null)
+        return false;
+    } else if (!hints.equals(other.hints))
+      return false;
+    return true;
+  }
 }
@@ -179,4 +179,40 @@ public class UnionSetOperator implements SetOperator{
   public Builder<SetOperator> deepCopy(DeepCopyTransformation transformer) {
     return TempTransitionalBuilderWrapper.<SetOperator>wrapper(new UnionSetOperator(getUnionStrategy(),transformer.deepCopy(getSelectStatement())));
   }
+
+
+  /**
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((selectStatement == null) ? 0 : selectStatement.hashCode());
+    result = prime * result + ((unionStrategy == null) ? 0 : unionStrategy.hashCode());
+    return result;
+  }
+
+
+  /**
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    UnionSetOperator other = (UnionSetOperator) obj;
+    if (selectStatement == null) {
+      if (other.selectStatement != null)
+        return false;
+    } else if (!selectStatement.equals(other.selectStatement))
+      return false;
+    if (unionStrategy != other.unionStrategy)
+      return false;
+    return true;
+  }
 }
\ No newline at end of file
@@ -182,4 +182,49 @@ public class UpdateStatement implements Statement ,  DeepCopyableWithTransformat
       .dispatch(getWhereCriterion())
       .dispatch(getFields());
   }
+
+
+  /**
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((table == null) ? 0 : table.hashCode());
+    result = prime * result + ((fields == null) ? 0 : fields.hashCode());
+    result = prime * result + ((whereCriterion == null) ? 0 : whereCriterion.hashCode());
+    return result;
+  }
+
+
+  /**
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    UpdateStatement other = (UpdateStatement) obj;
+    if (table == null) {
+      if (other.table != null)
+        return false;
+    } else if (!table.equals(other.table))
+      return false;
+    if (fields == null) {
+      if (other.fields != null)
+        return false;
+    } else if (!fields.equals(other.fields))
+      return false;
+    if (whereCriterion == null) {
+      if (other.whereCriterion != null)
+        return false;
+    } else if (!whereCriterion.equals(other.whereCriterion))
+      return false;
+    return true;
+  }
 }
@@ -23,4 +23,26 @@ package org.alfasoftware.morf.sql;
  */
 public class UseImplicitJoinOrder implements Hint {
 
+  /**
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    return getClass().hashCode();
+  }
+
+
+  /**
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    return true;
+  }
 }
\ No newline at end of file
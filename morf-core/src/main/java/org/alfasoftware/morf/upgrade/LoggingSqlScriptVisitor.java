@@ -55,6 +55,15 @@ public class LoggingSqlScriptVisitor implements SqlScriptVisitor {
     log.info("Completed [" + sql + "] with [" + numberOfRowsUpdated + "] rows updated");
   }
 
+  /**
+   * {@inheritDoc}
+   * @see org.alfasoftware.morf.jdbc.SqlScriptExecutor.SqlScriptVisitor#batchSizeChanged(java.lang.String, int)
+   */
+  @Override
+  public void batchSizeChanged(String sql, int statementsPerFlush) {
+    log.debug("Executing [" + sql + "] in batches of [" + statementsPerFlush + "]");
+  }
+
   /**
    * {@inheritDoc}
    * @see org.alfasoftware.morf.jdbc.SqlScriptExecutor.SqlScriptVisitor#executionEnd()
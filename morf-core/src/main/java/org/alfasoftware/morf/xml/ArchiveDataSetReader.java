@@ -20,19 +20,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+import org.alfasoftware.morf.dataset.TableSizeEstimator;
 import org.alfasoftware.morf.xml.XmlStreamProvider.XmlInputStreamProvider;
 
+import com.google.common.base.Optional;
+
 /**
  * Allows reading of data sets based on an archive (zip) file.
  *
+ * <p>Entries compressed with a registered {@link DataSetCodec}, identified by the file
+ * extension following <code>.xml</code>, are decompressed as they are read.</p>
+ *
  * @author Copyright (c) Alfa Financial Software 2010
  */
-class ArchiveDataSetReader extends BaseDataSetReader implements XmlInputStreamProvider {
+class ArchiveDataSetReader extends BaseDataSetReader implements XmlInputStreamProvider, TableSizeEstimator {
 
   /**
    * The file to read the archive from.
@@ -44,7 +52,12 @@ class ArchiveDataSetReader extends BaseDataSetReader implements XmlInputStreamPr
    */
   private ZipFile zipFile;
 
-  private final Pattern filenamePattern = Pattern.compile("(\\w+)\\.xml");
+  private final Pattern filenamePattern = Pattern.compile("(\\w+)\\.xml(?:\\.(\\w+))?");
+
+  /**
+   * The codecs with which the entries read are compressed, by entry name.
+   */
+  private final Map<String, DataSetCodec> codecsByEntryName = new HashMap<>();
 
   /**
    * Creates an archive data set linked to the specified <var>file</var>.
@@ -84,10 +97,18 @@ class ArchiveDataSetReader extends BaseDataSetReader implements XmlInputStreamPr
     // add all the table names
     for (ZipEntry entry : Collections.list(zipFile.entries())) {
       Matcher matcher = filenamePattern.matcher(entry.getName());
-      if (matcher.matches()) {
-        addTableName(matcher.group(1), entry.getName());
-        tableAdded = true;
+      if (!matcher.matches()) {
+        continue;
       }
+      if (matcher.group(2) != null) {
+        Optional<DataSetCodec> entryCodec = DataSetCodec.Registry.findByFileExtension(matcher.group(2));
+        if (!entryCodec.isPresent()) {
+          throw new IllegalArgumentException("Archive file [" + file + "] entry [" + entry.getName() + "] is compressed with unknown codec [" + matcher.group(2) + "]");
+        }
+        codecsByEntryName.put(entry.getName(), entryCodec.get());
+      }
+      addTableName(matcher.group(1), entry.getName());
+      tableAdded = true;
     }
 
     if (!tableAdded) {
@@ -104,6 +125,7 @@ class ArchiveDataSetReader extends BaseDataSetReader implements XmlInputStreamPr
     super.close();
 
     clear();
+    codecsByEntryName.clear();
 
     if (zipFile == null) {
       throw new IllegalStateException("Archive data set has not been opened");
@@ -136,9 +158,27 @@ class ArchiveDataSetReader extends BaseDataSetReader implements XmlInputStreamPr
     }
 
     try {
-      return zipFile.getInputStream(entry);
+      DataSetCodec entryCodec = codecsByEntryName.get(fileName);
+      return entryCodec == null ? zipFile.getInputStream(entry) : entryCodec.decompress(zipFile.getInputStream(entry));
     } catch (IOException e) {
       throw new RuntimeException("Error accessing zip entry [" + tableName + "]", e);
     }
   }
+
+
+  /**
+   * Estimates the size of the table as the uncompressed size of its zip entry in bytes,
+   * which for an entry compressed with a codec is its size as compressed by the codec.
+   *
+   * @see org.alfasoftware.morf.dataset.TableSizeEstimator#estimateSize(java.lang.String)
+   */
+  @Override
+  public Optional<Long> estimateSize(String tableName) {
+    if (zipFile == null) {
+      throw new IllegalStateException("Archive data set has not been opened");
+    }
+
+    ZipEntry entry = zipFile.getEntry(fileNameForTable(tableName));
+    return entry == null || entry.getSize() < 0 ? Optional.<Long>absent() : Optional.of(entry.getSize());
+  }
 }
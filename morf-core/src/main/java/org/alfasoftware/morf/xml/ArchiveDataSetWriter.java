@@ -15,20 +15,46 @@
 
 package org.alfasoftware.morf.xml;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import org.alfasoftware.morf.xml.XmlStreamProvider.XmlOutputStreamProvider;
 
-import com.google.common.io.ByteStreams;
+import com.google.common.base.Optional;
+import com.google.common.io.CountingOutputStream;
 
 /**
- * Allows reading of data sets based on an archive (zip) file.
+ * Allows writing of data sets based on an archive (zip) file.
+ *
+ * <p>Tables may be written concurrently, each compressed on the thread writing it. The
+ * first table opened while the archive is idle is compressed straight into the archive.
+ * Any table opened while another is being written straight in is compressed into a
+ * temporary file alongside the archive instead, and once complete its compressed bytes
+ * are copied into the archive as they are, when the archive is next idle. A single
+ * threaded writer therefore pays nothing extra.</p>
+ *
+ * <p>The archive is written directly rather than through {@link java.util.zip.ZipOutputStream},
+ * which cannot accept entries which are already compressed. Every entry carries ZIP64 sizes
+ * so that its header can be completed once the entry is written.</p>
+ *
+ * <p>Tables are deflated by the archive at a chosen level. Alternatively they can be
+ * compressed with a {@link DataSetCodec}, in which case each is stored in the archive
+ * as it comes from the codec, with the codec's file extension added to its name.</p>
  *
  * @author Copyright (c) Alfa Financial Software 2010
  */
@@ -39,15 +65,67 @@ class ArchiveDataSetWriter implements XmlOutputStreamProvider {
    */
   private static final String READ_ME = "This is a data set archive file.";
 
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int ZIP64_VERSION = 45;
+  private static final int UTF8_NAMES_FLAG = 0x0800;
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+  private static final long MAX_32 = 0xFFFFFFFFL;
+  private static final int MAX_16 = 0xFFFF;
+
+  /**
+   * The offsets within a local header of the CRC, and of the ZIP64 extra field's sizes,
+   * after the name.
+   */
+  private static final int LOCAL_HEADER_CRC_OFFSET = 14;
+  private static final int LOCAL_HEADER_FIXED_LENGTH = 30;
+  private static final int LOCAL_EXTRA_LENGTH = 20;
+
   /**
    * Identifies the archive to access.
    */
   private final File file;
 
   /**
-   * References the zip archive.
+   * The deflate level for tables deflated by the archive.
+   */
+  private final int compressionLevel;
+
+  /**
+   * The codec with which to compress tables, if any, in place of deflating them.
+   */
+  private final Optional<DataSetCodec> codec;
+
+  /**
+   * The archive, written from its end position by whichever entry currently has it.
+   */
+  private FileChannel channel;
+
+  /**
+   * The entries written to the archive, for the central directory.
+   */
+  private final List<Entry> entries = new ArrayList<>();
+
+  /**
+   * Entries complete in temporary files, waiting for the archive to be idle.
+   */
+  private final List<Entry> spooled = new ArrayList<>();
+
+  /**
+   * The entry being written straight into the archive, if any.
+   */
+  private Entry direct;
+
+  /**
+   * The number of entries opened but not yet closed.
    */
-  private AdaptedZipOutputStream zipOutput;
+  private int openEntries;
+
 
   /**
    * Creates an archive data set linked to the specified <var>file</var>.
@@ -55,8 +133,26 @@ class ArchiveDataSetWriter implements XmlOutputStreamProvider {
    * @param file The archive file to use.
    */
   public ArchiveDataSetWriter(File file) {
+    this(file, Deflater.DEFAULT_COMPRESSION, Optional.<DataSetCodec>absent());
+  }
+
+
+  /**
+   * Creates an archive data set linked to the specified <var>file</var>.
+   *
+   * @param file The archive file to use.
+   * @param compressionLevel The deflate level for tables, from {@link Deflater#NO_COMPRESSION}
+   *          to {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+   * @param codec The codec with which to compress tables in place of deflating them, if any.
+   */
+  public ArchiveDataSetWriter(File file, int compressionLevel, Optional<DataSetCodec> codec) {
     super();
+    if (compressionLevel != Deflater.DEFAULT_COMPRESSION && (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Invalid deflate level [" + compressionLevel + "]");
+    }
     this.file = file;
+    this.compressionLevel = compressionLevel;
+    this.codec = codec;
   }
 
 
@@ -73,18 +169,21 @@ class ArchiveDataSetWriter implements XmlOutputStreamProvider {
    * @see org.alfasoftware.morf.xml.XmlStreamProvider#open()
    */
   @Override
-  public void open() {
-    if (zipOutput != null) {
+  public synchronized void open() {
+    if (channel != null) {
       throw new IllegalStateException("Archive data set instance for [" + file + "] already open");
     }
 
     try {
-      zipOutput = new AdaptedZipOutputStream(new FileOutputStream(file));
+      @SuppressWarnings("resource")
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+      randomAccessFile.setLength(0);
+      channel = randomAccessFile.getChannel();
 
       // Put the read me entry in
-      ZipEntry entry = new ZipEntry("_ReadMe.txt");
-      zipOutput.putNextEntry(entry);
-      ByteStreams.copy(new ByteArrayInputStream(READ_ME.getBytes("UTF-8")), zipOutput);
+      try (OutputStream readMe = openEntry("_ReadMe.txt", DEFLATED)) {
+        readMe.write(READ_ME.getBytes(StandardCharsets.UTF_8));
+      }
     } catch (Exception e) {
       throw new RuntimeException("Error opening zip archive [" + file + "]", e);
     }
@@ -95,15 +194,31 @@ class ArchiveDataSetWriter implements XmlOutputStreamProvider {
    * @see org.alfasoftware.morf.xml.XmlStreamProvider#close()
    */
   @Override
-  public void close() {
-    if (zipOutput == null) {
+  public synchronized void close() {
+    if (channel == null) {
       throw new IllegalStateException("Archive data set has not been opened");
     }
 
     try {
-      zipOutput.reallyClose();
+      if (openEntries > 0) {
+        throw new IllegalStateException("Archive [" + file + "] closed with [" + openEntries + "] tables still being written");
+      }
+      appendSpooled();
+      writeCentralDirectory();
     } catch (IOException e) {
       throw new RuntimeException("Error closing zip archive [" + file + "]", e);
+    } finally {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        throw new RuntimeException("Error closing zip archive [" + file + "]", e);
+      } finally {
+        channel = null;
+        for (Entry entry : spooled) {
+          entry.deleteSpool();
+        }
+        spooled.clear();
+      }
     }
   }
 
@@ -112,17 +227,16 @@ class ArchiveDataSetWriter implements XmlOutputStreamProvider {
    * @see org.alfasoftware.morf.xml.XmlStreamProvider.XmlOutputStreamProvider#openOutputStreamForTable(java.lang.String)
    */
   @Override
-  public OutputStream openOutputStreamForTable(String tableName) {
-    if (zipOutput == null) {
+  public synchronized OutputStream openOutputStreamForTable(String tableName) {
+    if (channel == null) {
       throw new IllegalStateException("Archive data set has not been opened");
     }
 
     try {
-      ZipEntry entry = new ZipEntry(tableName + ".xml");
-      zipOutput.putNextEntry(entry);
-
-      // Make sure the caller can't actually close the underlying stream
-      return zipOutput;
+      if (codec.isPresent()) {
+        return codec.get().compress(openEntry(tableName + ".xml." + codec.get().fileExtension(), STORED));
+      }
+      return openEntry(tableName + ".xml", DEFLATED);
     } catch (IOException e) {
       throw new RuntimeException("Error creating new zip entry in archive [" + file + "]", e);
     }
@@ -130,36 +244,250 @@ class ArchiveDataSetWriter implements XmlOutputStreamProvider {
 
 
   /**
-   * Allows a zip stream to be returned to callers who can safely call
-   * {@link #close()} without actually closing the stream.
-   *
-   * @author Copyright (c) Alfa Financial Software 2010
+   * Opens an entry, straight into the archive if it is idle, or into a temporary file if not.
+   */
+  private OutputStream openEntry(String name, int method) throws IOException {
+    Entry entry = new Entry(name, method);
+    OutputStream target;
+    if (direct == null) {
+      direct = entry;
+      entry.localHeaderOffset = channel.size();
+      channel.position(entry.localHeaderOffset);
+      writeFully(localHeader(entry));
+      target = Channels.newOutputStream(channel);
+    } else {
+      entry.spool = File.createTempFile("morf-archive-", ".tmp", file.getAbsoluteFile().getParentFile());
+      target = new FileOutputStream(entry.spool);
+    }
+    openEntries++;
+    return new EntryOutputStream(entry, target);
+  }
+
+
+  /**
+   * Records an entry as complete, and appends any entries which were waiting for the archive.
+   */
+  private synchronized void entryClosed(Entry entry) throws IOException {
+    openEntries--;
+    if (entry == direct) {
+      ByteBuffer crcAndSizes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) entry.crc);
+      crcAndSizes.flip();
+      channel.write(crcAndSizes, entry.localHeaderOffset + LOCAL_HEADER_CRC_OFFSET);
+      ByteBuffer extraSizes = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putLong(entry.size).putLong(entry.compressedSize);
+      extraSizes.flip();
+      channel.write(extraSizes, entry.localHeaderOffset + LOCAL_HEADER_FIXED_LENGTH + entry.nameBytes.length + 4);
+      entries.add(entry);
+      direct = null;
+    } else {
+      spooled.add(entry);
+    }
+    if (direct == null) {
+      appendSpooled();
+    }
+  }
+
+
+  /**
+   * Copies the compressed bytes of each complete temporary entry into the archive.
+   */
+  private void appendSpooled() throws IOException {
+    for (Entry entry : spooled) {
+      entry.localHeaderOffset = channel.size();
+      channel.position(entry.localHeaderOffset);
+      writeFully(localHeader(entry));
+      try (FileChannel spool = new RandomAccessFile(entry.spool, "r").getChannel()) {
+        long copied = 0;
+        while (copied < entry.compressedSize) {
+          copied += spool.transferTo(copied, entry.compressedSize - copied, channel);
+        }
+      }
+      entry.deleteSpool();
+      entries.add(entry);
+    }
+    spooled.clear();
+  }
+
+
+  /**
+   * Writes the central directory and end records, with the ZIP64 forms where needed.
+   */
+  private void writeCentralDirectory() throws IOException {
+    long centralDirectoryOffset = channel.size();
+    channel.position(centralDirectoryOffset);
+    for (Entry entry : entries) {
+      writeFully(centralHeader(entry));
+    }
+    long centralDirectorySize = channel.size() - centralDirectoryOffset;
+
+    boolean zip64 = entries.size() >= MAX_16 || centralDirectoryOffset >= MAX_32 || centralDirectorySize >= MAX_32;
+    if (zip64) {
+      long zip64EndOffset = channel.size();
+      ByteBuffer zip64End = ByteBuffer.allocate(56 + 20).order(ByteOrder.LITTLE_ENDIAN);
+      zip64End.putInt(ZIP64_END_SIGNATURE).putLong(44).putShort((short) ZIP64_VERSION).putShort((short) ZIP64_VERSION)
+        .putInt(0).putInt(0).putLong(entries.size()).putLong(entries.size())
+        .putLong(centralDirectorySize).putLong(centralDirectoryOffset);
+      zip64End.putInt(ZIP64_LOCATOR_SIGNATURE).putInt(0).putLong(zip64EndOffset).putInt(1);
+      zip64End.flip();
+      writeFully(zip64End);
+    }
+
+    ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+    end.putInt(END_SIGNATURE).putShort((short) 0).putShort((short) 0)
+      .putShort((short) Math.min(entries.size(), MAX_16)).putShort((short) Math.min(entries.size(), MAX_16))
+      .putInt((int) Math.min(centralDirectorySize, MAX_32)).putInt((int) Math.min(centralDirectoryOffset, MAX_32))
+      .putShort((short) 0);
+    end.flip();
+    writeFully(end);
+  }
+
+
+  /**
+   * A local header, with the CRC and sizes as known so far. The sizes are always held
+   * in the ZIP64 extra field, so that they can be filled in once the entry is complete.
+   */
+  private ByteBuffer localHeader(Entry entry) {
+    ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_FIXED_LENGTH + entry.nameBytes.length + LOCAL_EXTRA_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(LOCAL_HEADER_SIGNATURE).putShort((short) ZIP64_VERSION).putShort((short) UTF8_NAMES_FLAG).putShort((short) entry.method)
+      .putInt(entry.dosTime).putInt((int) entry.crc).putInt((int) MAX_32).putInt((int) MAX_32)
+      .putShort((short) entry.nameBytes.length).putShort((short) LOCAL_EXTRA_LENGTH)
+      .put(entry.nameBytes)
+      .putShort((short) ZIP64_EXTRA_ID).putShort((short) 16).putLong(entry.size).putLong(entry.compressedSize);
+    header.flip();
+    return header;
+  }
+
+
+  /**
+   * A central directory header, using the ZIP64 extra field only for values which need it.
+   */
+  private ByteBuffer centralHeader(Entry entry) {
+    boolean bigSize = entry.size >= MAX_32;
+    boolean bigCompressedSize = entry.compressedSize >= MAX_32;
+    boolean bigOffset = entry.localHeaderOffset >= MAX_32;
+    int extraLength = (bigSize ? 8 : 0) + (bigCompressedSize ? 8 : 0) + (bigOffset ? 8 : 0);
+    if (extraLength > 0) {
+      extraLength += 4;
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(46 + entry.nameBytes.length + extraLength).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(CENTRAL_HEADER_SIGNATURE).putShort((short) ZIP64_VERSION).putShort((short) ZIP64_VERSION)
+      .putShort((short) UTF8_NAMES_FLAG).putShort((short) entry.method).putInt(entry.dosTime).putInt((int) entry.crc)
+      .putInt((int) Math.min(entry.compressedSize, MAX_32)).putInt((int) Math.min(entry.size, MAX_32))
+      .putShort((short) entry.nameBytes.length).putShort((short) extraLength).putShort((short) 0)
+      .putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) Math.min(entry.localHeaderOffset, MAX_32))
+      .put(entry.nameBytes);
+    if (extraLength > 0) {
+      header.putShort((short) ZIP64_EXTRA_ID).putShort((short) (extraLength - 4));
+      if (bigSize) header.putLong(entry.size);
+      if (bigCompressedSize) header.putLong(entry.compressedSize);
+      if (bigOffset) header.putLong(entry.localHeaderOffset);
+    }
+    header.flip();
+    return header;
+  }
+
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+
+  /**
+   * An entry in the archive.
    */
-  private static final class AdaptedZipOutputStream extends ZipOutputStream {
+  private static final class Entry {
+    final byte[] nameBytes;
+    final int method;
+    final int dosTime;
+    long crc;
+    long size;
+    long compressedSize;
+    long localHeaderOffset;
+    File spool;
+
+    Entry(String name, int method) {
+      this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+      this.method = method;
+      Calendar now = Calendar.getInstance();
+      this.dosTime = (now.get(Calendar.YEAR) - 1980) << 25
+          | (now.get(Calendar.MONTH) + 1) << 21
+          | now.get(Calendar.DAY_OF_MONTH) << 16
+          | now.get(Calendar.HOUR_OF_DAY) << 11
+          | now.get(Calendar.MINUTE) << 5
+          | now.get(Calendar.SECOND) >> 1;
+    }
 
-    /**
-     * @param out The output stream to write to.
-     */
-    public AdaptedZipOutputStream(OutputStream out) {
-      super(out);
+    void deleteSpool() {
+      if (spool != null && spool.exists() && !spool.delete()) {
+        spool.deleteOnExit();
+      }
     }
+  }
+
+
+  /**
+   * Deflates or stores the content of an entry, recording its CRC and sizes, and hands
+   * the entry back to the archive when closed.
+   */
+  private final class EntryOutputStream extends OutputStream {
+
+    private final Entry entry;
+    private final CRC32 crc = new CRC32();
+    private final Deflater deflater;
+    private final CountingOutputStream compressed;
+    private final OutputStream content;
+    private boolean closed;
 
+    EntryOutputStream(Entry entry, OutputStream target) {
+      this.entry = entry;
+      this.compressed = new CountingOutputStream(new BufferedOutputStream(target, 65536));
+      if (entry.method == DEFLATED) {
+        this.deflater = new Deflater(compressionLevel, true);
+        this.content = new DeflaterOutputStream(compressed, deflater, 65536);
+      } else {
+        this.deflater = null;
+        this.content = compressed;
+      }
+    }
 
-    /**
-     * @see java.util.zip.ZipOutputStream#close()
-     */
     @Override
-    public void close() throws IOException {
-      // Suppress the close
+    public void write(int b) throws IOException {
+      crc.update(b);
+      entry.size++;
+      content.write(b);
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      crc.update(b, off, len);
+      entry.size += len;
+      content.write(b, off, len);
+    }
 
-    /**
-     * @see java.util.zip.ZipOutputStream#close()
-     * @throws IOException If the exception is thrown from {@link ZipOutputStream#close()}
-     */
-    public void reallyClose() throws IOException {
-      super.close();
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        if (deflater != null) {
+          ((DeflaterOutputStream) content).finish();
+        }
+        compressed.flush();
+        if (entry.spool != null) {
+          compressed.close();
+        }
+      } finally {
+        if (deflater != null) {
+          deflater.end();
+        }
+      }
+      entry.crc = crc.getValue();
+      entry.compressedSize = compressed.getCount();
+      entryClosed(entry);
     }
   }
 }
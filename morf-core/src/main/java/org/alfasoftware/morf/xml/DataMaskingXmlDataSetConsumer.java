@@ -16,24 +16,88 @@
 package org.alfasoftware.morf.xml;
 
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.alfasoftware.morf.dataset.DataSetConsumer;
 import org.alfasoftware.morf.dataset.Record;
 import org.alfasoftware.morf.metadata.Column;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.RecordBatch;
+import org.alfasoftware.morf.metadata.RecordLayout;
+import org.alfasoftware.morf.metadata.SchemaUtils;
+import org.alfasoftware.morf.metadata.Table;
 import org.alfasoftware.morf.xml.XmlStreamProvider.XmlOutputStreamProvider;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
- * Implementation of {@linkplain DataSetConsumer} which discards specific fields when consuming
+ * Implementation of {@linkplain DataSetConsumer} which masks specific fields when consuming
  * a data set.
  *
+ * <p>By default masked fields are discarded. Other {@link MaskingFunction}s, such as those of
+ * {@link MaskingFunctions}, can be applied with {@link #withMaskingFunction(MaskingFunction)}
+ * or {@link #withMaskingFunction(String, String, MaskingFunction)}.</p>
+ *
+ * <p>The records of a table with fields to mask are gathered into batches, which are masked
+ * on worker threads while earlier batches are serialised. Batches are serialised in the
+ * order they were read. The worker threads are daemon threads, so cannot keep the JVM alive
+ * if the consumer is not closed.</p>
+ *
+ * <p>A subclass which overrides {@link #getValue(Record, Column, String)} has its records
+ * masked one value at a time, on the serialising thread, as before masking functions and
+ * batches were introduced.</p>
+ *
  * @author Copyright (c) Alfa Financial Software 2015
  */
 public class DataMaskingXmlDataSetConsumer extends XmlDataSetConsumer {
 
   private final Map<String, Set<String>> tableColumnsToMask;
 
+  /**
+   * The masking function of specific columns, by table name then column name.
+   */
+  private final Map<String, Map<String, MaskingFunction>> columnMaskingFunctions = new HashMap<>();
+
+  /**
+   * The masking function of any column without one of its own.
+   */
+  private MaskingFunction maskingFunction = MaskingFunctions.nullValue();
+
+  /**
+   * The number of threads masking batches.
+   */
+  private int threadCount = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The number of records in each batch.
+   */
+  private int batchSize = RecordBatch.DEFAULT_CAPACITY;
+
+  /**
+   * Masks batches, while the consumer is open and {@link #threadCount} is more than one.
+   */
+  private ExecutorService executor;
+
+  /**
+   * Whether a subclass overrides {@link #getValue(Record, Column, String)}, so that values
+   * must be masked as they are serialised, rather than in batches.
+   */
+  private final boolean valuesMaskedOnSerialisation = overridesGetValue(getClass());
+
+
   /**
    * Creates a data set consumer that will pipe the data set to the file system location
    * specified by <var>file</var>.
@@ -69,15 +133,236 @@ public class DataMaskingXmlDataSetConsumer extends XmlDataSetConsumer {
   }
 
 
+  /**
+   * Sets the masking function of every column to mask, other than those given one of
+   * their own. Masked fields are discarded unless this is set.
+   *
+   * @param maskingFunction The masking function.
+   * @return this, for chaining.
+   */
+  public DataMaskingXmlDataSetConsumer withMaskingFunction(MaskingFunction maskingFunction) {
+    this.maskingFunction = maskingFunction;
+    return this;
+  }
+
+
+  /**
+   * Sets the masking function of one column. The column must also be one of those to mask.
+   *
+   * @param tableName The name of the table.
+   * @param columnName The name of the column.
+   * @param maskingFunction The masking function.
+   * @return this, for chaining.
+   */
+  public DataMaskingXmlDataSetConsumer withMaskingFunction(String tableName, String columnName, MaskingFunction maskingFunction) {
+    columnMaskingFunctions.computeIfAbsent(tableName, name -> new HashMap<>()).put(columnName, maskingFunction);
+    return this;
+  }
+
+
+  /**
+   * Sets the number of threads masking batches. With one thread, batches are masked as
+   * they are serialised. Defaults to the number of processors.
+   *
+   * @param threadCount The number of threads.
+   * @return this, for chaining.
+   */
+  public DataMaskingXmlDataSetConsumer withThreadCount(int threadCount) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("Masking thread count must be at least 1, not [" + threadCount + "]");
+    }
+    this.threadCount = threadCount;
+    return this;
+  }
+
+
+  /**
+   * Sets the number of records in each batch masked.
+   *
+   * @param batchSize The number of records.
+   * @return this, for chaining.
+   */
+  public DataMaskingXmlDataSetConsumer withBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Masking batch size must be at least 1, not [" + batchSize + "]");
+    }
+    this.batchSize = batchSize;
+    return this;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.xml.XmlDataSetConsumer#open()
+   */
+  @Override
+  public void open() {
+    super.open();
+    if (threadCount > 1 && !valuesMaskedOnSerialisation) {
+      executor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("morf-masking-%d").build());
+    }
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.xml.XmlDataSetConsumer#close(org.alfasoftware.morf.dataset.DataSetConsumer.CloseState)
+   */
+  @Override
+  public void close(CloseState closeState) {
+    try {
+      super.close(closeState);
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+        executor = null;
+      }
+    }
+  }
+
+
+  /**
+   * Masks the records of <var>table</var> in batches before serialising them.
+   *
+   * @see org.alfasoftware.morf.xml.XmlDataSetConsumer#table(org.alfasoftware.morf.metadata.Table, java.lang.Iterable)
+   */
+  @Override
+  public void table(Table table, Iterable<Record> records) {
+    Set<String> columnsToMask = table == null ? null : tableColumnsToMask.get(table.getName());
+    if (columnsToMask == null || columnsToMask.isEmpty() || valuesMaskedOnSerialisation) {
+      super.table(table, records);
+      return;
+    }
+
+    // Batches hold every value as its string form, exactly as it will be serialised
+    List<Column> layoutColumns = new ArrayList<>();
+    List<Integer> maskedSlots = new ArrayList<>();
+    List<MaskingFunction> maskingFunctions = new ArrayList<>();
+    for (Column column : table.columns()) {
+      if (columnsToMask.contains(column.getName())) {
+        maskedSlots.add(layoutColumns.size());
+        maskingFunctions.add(maskingFunctionFor(table.getName(), column.getName()));
+      }
+      layoutColumns.add(SchemaUtils.column(column.getName(), DataType.STRING));
+    }
+
+    BatchMask batchMask = new BatchMask(maskedSlots, maskingFunctions);
+    Iterable<RecordBatch> batches = RecordBatch.batches(RecordLayout.of(layoutColumns), records, batchSize);
+    super.table(table, RecordBatch.records(executor == null ? Iterables.transform(batches, batchMask::apply) : masked(batches, batchMask)));
+  }
+
 
   /**
-   * If the provided column should be masked then return null, otherwise return the value.
+   * Masks the value of a column to mask with its masking function. Only called for
+   * the values of each record as it is serialised when a subclass overrides this;
+   * otherwise the values have already been masked in batches.
+   *
+   * @see org.alfasoftware.morf.xml.XmlDataSetConsumer#getValue(org.alfasoftware.morf.dataset.Record, org.alfasoftware.morf.metadata.Column, java.lang.String)
+   * @deprecated Overriding this masks every value on the serialising thread. Supply a
+   *             {@link MaskingFunction} with {@link #withMaskingFunction(String, String, MaskingFunction)}
+   *             instead.
    */
+  @Deprecated
   @Override
   protected String getValue(Record record, Column column, String table) {
-    if (tableColumnsToMask.containsKey(table) && tableColumnsToMask.get(table).contains(column.getName())) {
-      return null;
+    String value = super.getValue(record, column, table);
+    if (!valuesMaskedOnSerialisation || value == null) {
+      return value;
+    }
+    Set<String> columnsToMask = tableColumnsToMask.get(table);
+    return columnsToMask != null && columnsToMask.contains(column.getName()) ? maskingFunctionFor(table, column.getName()).mask(value) : value;
+  }
+
+
+  /**
+   * @return The masking function of a column to mask.
+   */
+  private MaskingFunction maskingFunctionFor(String tableName, String columnName) {
+    Map<String, MaskingFunction> tableMaskingFunctions = columnMaskingFunctions.get(tableName);
+    MaskingFunction columnMaskingFunction = tableMaskingFunctions == null ? null : tableMaskingFunctions.get(columnName);
+    return columnMaskingFunction == null ? maskingFunction : columnMaskingFunction;
+  }
+
+
+  /**
+   * @return Whether <var>consumerClass</var>, or one of its superclasses below this one, overrides {@link #getValue(Record, Column, String)}.
+   */
+  private static boolean overridesGetValue(Class<?> consumerClass) {
+    for (Class<?> each = consumerClass; each != DataMaskingXmlDataSetConsumer.class; each = each.getSuperclass()) {
+      try {
+        each.getDeclaredMethod("getValue", Record.class, Column.class, String.class);
+        return true;
+      } catch (NoSuchMethodException e) {
+        // not declared on this class
+      }
+    }
+    return false;
+  }
+
+
+  /**
+   * Masks batches on {@link #executor}, keeping enough in hand to occupy every thread.
+   * The source records are only read on the calling thread.
+   */
+  private Iterable<RecordBatch> masked(final Iterable<RecordBatch> batches, final BatchMask batchMask) {
+    final ExecutorService maskingExecutor = executor;
+    return () -> new AbstractIterator<RecordBatch>() {
+      private final Iterator<RecordBatch> iterator = batches.iterator();
+      private final Queue<Future<RecordBatch>> inProgress = new ArrayDeque<>();
+
+      @Override
+      protected RecordBatch computeNext() {
+        while (inProgress.size() < threadCount * 2 && iterator.hasNext()) {
+          final RecordBatch batch = iterator.next();
+          inProgress.add(maskingExecutor.submit(() -> batchMask.apply(batch)));
+        }
+        if (inProgress.isEmpty()) {
+          return endOfData();
+        }
+        try {
+          return inProgress.remove().get();
+        } catch (ExecutionException e) {
+          throw new RuntimeException("Error masking records", e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("Interrupted masking records", e);
+        }
+      }
+    };
+  }
+
+
+  /**
+   * Applies the masking functions of a table to the masked columns of a batch, in place.
+   *
+   * @author Copyright (c) Alfa Financial Software 2017
+   */
+  private static final class BatchMask {
+
+    private final int[] slots;
+    private final MaskingFunction[] maskingFunctions;
+
+
+    BatchMask(List<Integer> slots, List<MaskingFunction> maskingFunctions) {
+      super();
+      this.slots = new int[slots.size()];
+      for (int i = 0; i < this.slots.length; i++) {
+        this.slots[i] = slots.get(i);
+      }
+      this.maskingFunctions = maskingFunctions.toArray(new MaskingFunction[maskingFunctions.size()]);
+    }
+
+
+    RecordBatch apply(RecordBatch batch) {
+      for (int i = 0; i < slots.length; i++) {
+        int slot = slots[i];
+        MaskingFunction maskingFunction = maskingFunctions[i];
+        for (int row = 0; row < batch.size(); row++) {
+          String value = (String) batch.objectValue(row, slot);
+          if (value != null) {
+            batch.setObject(row, slot, maskingFunction.mask(value));
+          }
+        }
+      }
+      return batch;
     }
-    return super.getValue(record, column, table);
   }
 }
@@ -0,0 +1,108 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ServiceLoader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Compresses the XML for each table of a file based data set.
+ *
+ * <p>A table compressed with a codec is held in a file, or archive entry, named for the
+ * table with <code>.xml.</code> and the codec's {@linkplain #fileExtension() file extension}
+ * appended, so that readers can pick the codec to decompress it with. Gzip is available
+ * by default, as {@link GzipDataSetCodec}. Other codecs, such as LZ4 or Zstandard, can be
+ * made available by registering an implementation using {@link ServiceLoader}.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public interface DataSetCodec {
+
+  /**
+   * @return The file extension identifying content compressed by this codec, without the dot,
+   *         such as <code>gz</code>.
+   */
+  public String fileExtension();
+
+
+  /**
+   * Wraps <var>outputStream</var> in a stream which compresses the content written to it.
+   * Closing the returned stream must close <var>outputStream</var>.
+   *
+   * @param outputStream The stream to receive the compressed content.
+   * @return The stream to write the uncompressed content to.
+   * @throws IOException If the stream cannot be created.
+   */
+  public OutputStream compress(OutputStream outputStream) throws IOException;
+
+
+  /**
+   * Wraps <var>inputStream</var> in a stream which decompresses the content read from it.
+   * Closing the returned stream must close <var>inputStream</var>.
+   *
+   * @param inputStream The stream supplying the compressed content.
+   * @return The stream to read the uncompressed content from.
+   * @throws IOException If the stream cannot be created.
+   */
+  public InputStream decompress(InputStream inputStream) throws IOException;
+
+
+  /**
+   * Static registry of all available codecs, derived from {@link ServiceLoader}.
+   *
+   * @author Copyright (c) Alfa Financial Software 2017
+   */
+  public static final class Registry {
+
+    private static final Log log = LogFactory.getLog(DataSetCodec.Registry.class);
+
+    private static final ImmutableMap<String, DataSetCodec> registeredCodecs;
+
+    /*
+     * Inspects the classpath for implementations of {@link DataSetCodec} and registers them automatically.
+     */
+    static {
+      registeredCodecs = Maps.uniqueIndex(ServiceLoader.load(DataSetCodec.class), new Function<DataSetCodec, String>() {
+        @Override
+        public String apply(DataSetCodec input) {
+          log.debug("Registering data set codec [" + input.fileExtension() + "] as [" + input.getClass().getCanonicalName() + "]");
+          return input.fileExtension();
+        }
+      });
+    }
+
+
+    /**
+     * Returns the registered codec for a file extension.
+     *
+     * @param fileExtension The file extension, without the dot.
+     * @return The codec, or absent if none is registered for the extension.
+     */
+    public static Optional<DataSetCodec> findByFileExtension(String fileExtension) {
+      return Optional.fromNullable(registeredCodecs.get(fileExtension));
+    }
+  }
+}
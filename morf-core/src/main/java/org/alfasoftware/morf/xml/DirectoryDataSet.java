@@ -15,39 +15,93 @@
 
 package org.alfasoftware.morf.xml;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
 
-import org.alfasoftware.morf.xml.XmlStreamProvider.XmlInputStreamProvider;
+import org.alfasoftware.morf.dataset.TableSizeEstimator;
+import org.alfasoftware.morf.xml.XmlStreamProvider.IndexedXmlInputStreamProvider;
 import org.alfasoftware.morf.xml.XmlStreamProvider.XmlOutputStreamProvider;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
 /**
  * Allows reading of a data set from a directory.
  *
+ * <p>Tables may be held as plain XML, or compressed with any registered {@link DataSetCodec},
+ * which is picked from the file extension following <code>.xml</code>. Tables are written
+ * using the codec given on construction, if any.</p>
+ *
+ * <p>For plain XML table files, the end of each table's meta data, and whether it has any
+ * records, are found by scanning the start of the file, and kept in a {@link DirectoryDataSetIndex}
+ * alongside the tables. The meta data and the records can then each be read alone, from
+ * a stream of their own.</p>
+ *
  * @author Copyright (c) Alfa Financial Software 2010
  */
-class DirectoryDataSet extends BaseDataSetReader implements XmlInputStreamProvider, XmlOutputStreamProvider {
+class DirectoryDataSet extends BaseDataSetReader implements IndexedXmlInputStreamProvider, XmlOutputStreamProvider, TableSizeEstimator {
 
   /**
    * The directory to read from.
    */
   private final File directory;
 
+  /**
+   * The codec with which to compress tables written, if any.
+   */
+  private final Optional<DataSetCodec> codec;
+
+  /**
+   * The codecs with which the tables read are compressed, by file name.
+   */
+  private final Map<String, DataSetCodec> codecsByFileName = new HashMap<>();
+
+  private final Pattern filenamePattern = Pattern.compile("(.*)\\.xml(?:\\.(\\w+))?");
+
+  /**
+   * The names of the plain XML table files written, to be indexed when the data set is closed.
+   */
+  private final Set<String> writtenFiles = ConcurrentHashMap.newKeySet();
+
+  private final DirectoryDataSetIndex index;
+
   /**
    * Creates a directory based data set reader based on the directory <var>file</var>.
    *
    * @param directory The directory to access.
    */
   public DirectoryDataSet(File directory) {
+    this(directory, Optional.<DataSetCodec>absent());
+  }
+
+
+  /**
+   * Creates a directory based data set based on the directory <var>file</var>,
+   * writing tables compressed with <var>codec</var>.
+   *
+   * @param directory The directory to access.
+   * @param codec The codec with which to compress tables written, or absent to write plain XML.
+   */
+  public DirectoryDataSet(File directory, Optional<DataSetCodec> codec) {
     super();
     this.directory = directory;
+    this.codec = codec;
+    this.index = new DirectoryDataSetIndex(directory);
 
     if (!directory.isDirectory()) {
       throw new IllegalArgumentException("[" + directory + "] is not a directory");
@@ -56,9 +110,18 @@ class DirectoryDataSet extends BaseDataSetReader implements XmlInputStreamProvid
     // read the files in the directory
     // Do it here because DirectoryDataSet historically did not have to be "open" to be used.
     for (File file : directory.listFiles()) {
-      if (file.getName().matches(".*\\.xml")) {
-        addTableName(file.getName().replaceAll("\\.xml", ""), file.getName());
+      Matcher matcher = filenamePattern.matcher(file.getName());
+      if (!matcher.matches()) {
+        continue;
+      }
+      if (matcher.group(2) != null) {
+        Optional<DataSetCodec> fileCodec = DataSetCodec.Registry.findByFileExtension(matcher.group(2));
+        if (!fileCodec.isPresent()) {
+          throw new IllegalArgumentException("File [" + file + "] is compressed with unknown codec [" + matcher.group(2) + "]");
+        }
+        codecsByFileName.put(file.getName(), fileCodec.get());
       }
+      addTableName(matcher.group(1), file.getName());
     }
   }
 
@@ -68,6 +131,7 @@ class DirectoryDataSet extends BaseDataSetReader implements XmlInputStreamProvid
    */
   @Override
   public void clearDestination() {
+    index.clear();
     try {
       for (File file : directory.listFiles()) {
         // skip files/folders that start with . such as .svn
@@ -86,11 +150,108 @@ class DirectoryDataSet extends BaseDataSetReader implements XmlInputStreamProvid
    */
   @Override
   public InputStream openInputStreamForTable(String tableName) {
+    String fileName = fileNameForTable(tableName);
     try {
-      return new FileInputStream(new File(directory, fileNameForTable(tableName)));
-    } catch (FileNotFoundException e) {
-      throw new RuntimeException("Error opening output stream", e);
+      DataSetCodec fileCodec = codecsByFileName.get(fileName);
+      if (fileCodec != null) {
+        return fileCodec.decompress(new FileInputStream(new File(directory, fileName)));
+      }
+      return new FileInputStream(new File(directory, fileName));
+    } catch (IOException e) {
+      throw new RuntimeException("Error opening input stream", e);
+    }
+  }
+
+
+  /**
+   * Reads the table file only up to the data element.
+   *
+   * @see org.alfasoftware.morf.xml.XmlStreamProvider.IndexedXmlInputStreamProvider#openMetadataStreamForTable(java.lang.String)
+   */
+  @Override
+  public Optional<InputStream> openMetadataStreamForTable(String tableName) {
+    String fileName = fileNameForTable(tableName);
+    Optional<DirectoryDataSetIndex.Entry> entry = indexEntry(fileName);
+    if (!entry.isPresent()) {
+      return Optional.absent();
+    }
+    try {
+      return Optional.of(ByteStreams.limit(new FileInputStream(new File(directory, fileName)), entry.get().getMetadataEnd()));
+    } catch (IOException e) {
+      throw new RuntimeException("Error opening input stream", e);
+    }
+  }
+
+
+  /**
+   * Reads the table file from the data element on.
+   *
+   * @see org.alfasoftware.morf.xml.XmlStreamProvider.IndexedXmlInputStreamProvider#openDataStreamForTable(java.lang.String)
+   */
+  @Override
+  public Optional<InputStream> openDataStreamForTable(String tableName) {
+    String fileName = fileNameForTable(tableName);
+    Optional<DirectoryDataSetIndex.Entry> entry = indexEntry(fileName);
+    if (!entry.isPresent()) {
+      return Optional.absent();
+    }
+    FileInputStream data = null;
+    try {
+      data = new FileInputStream(new File(directory, fileName));
+      data.getChannel().position(entry.get().getMetadataEnd());
+      return Optional.<InputStream>of(data);
+    } catch (IOException e) {
+      Closeables.closeQuietly(data);
+      throw new RuntimeException("Error opening input stream", e);
+    }
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.xml.XmlStreamProvider.IndexedXmlInputStreamProvider#isTableEmpty(java.lang.String)
+   */
+  @Override
+  public Optional<Boolean> isTableEmpty(String tableName) {
+    Optional<DirectoryDataSetIndex.Entry> entry = indexEntry(fileNameForTable(tableName));
+    return entry.isPresent() ? Optional.of(entry.get().isEmpty()) : Optional.<Boolean>absent();
+  }
+
+
+  /**
+   * Indexes the table files written, if any, and writes the index alongside them. The
+   * index of a data set which has only been read is not written.
+   *
+   * @see org.alfasoftware.morf.xml.BaseDataSetReader#close()
+   */
+  @Override
+  public void close() {
+    super.close();
+    if (!writtenFiles.isEmpty()) {
+      index.save(Iterables.transform(writtenFiles, fileName -> new File(directory, fileName)));
+      writtenFiles.clear();
+    }
+  }
+
+
+  /**
+   * The index entry of a plain XML table file.
+   */
+  private Optional<DirectoryDataSetIndex.Entry> indexEntry(String fileName) {
+    if (codecsByFileName.containsKey(fileName)) {
+      return Optional.absent();
     }
+    return index.entryFor(new File(directory, fileName));
+  }
+
+
+  /**
+   * Estimates the size of the table as the length of its file in bytes, compressed or not.
+   *
+   * @see org.alfasoftware.morf.dataset.TableSizeEstimator#estimateSize(java.lang.String)
+   */
+  @Override
+  public Optional<Long> estimateSize(String tableName) {
+    return Optional.of(new File(directory, fileNameForTable(tableName)).length());
   }
 
 
@@ -99,9 +260,15 @@ class DirectoryDataSet extends BaseDataSetReader implements XmlInputStreamProvid
    */
   @Override
   public OutputStream openOutputStreamForTable(String tableName) {
+    String fileName = tableName + ".xml" + (codec.isPresent() ? "." + codec.get().fileExtension() : "");
+    index.remove(fileName);
     try {
-      return new FileOutputStream(new File(directory, tableName + ".xml"));
-    } catch (FileNotFoundException e) {
+      if (!codec.isPresent()) {
+        writtenFiles.add(fileName);
+        return new FileOutputStream(new File(directory, fileName));
+      }
+      return codec.get().compress(new BufferedOutputStream(new FileOutputStream(new File(directory, fileName)), 65536));
+    } catch (IOException e) {
       throw new RuntimeException("Error opening output stream", e);
     }
   }
@@ -0,0 +1,346 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Optional;
+
+/**
+ * Records where the meta data of each table file in a {@link DirectoryDataSet} ends, and
+ * whether the table has any records, so that neither needs the XML to be parsed.
+ *
+ * <p>The index is held in a sidecar file in the directory, {@value #FILE_NAME}, so that it
+ * survives between uses of the data set. It is only written by a data set which has written
+ * tables; one which is only read keeps its index in memory. Each entry records the length
+ * and modification time of the table file it describes, and a checksum of the bytes it was
+ * found from, and is ignored once any of these change. The index is a cache: if the sidecar
+ * cannot be read or written, table files are indexed again as needed.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+final class DirectoryDataSetIndex {
+
+  private static final Log log = LogFactory.getLog(DirectoryDataSetIndex.class);
+
+  /**
+   * The name of the sidecar file. It starts with a dot so that it is kept when the
+   * directory is cleared, and so it is removed explicitly.
+   */
+  static final String FILE_NAME = ".morf-index";
+
+  private static final String HEADER = "# Morf directory data set index, version 2";
+
+  /**
+   * How much of a table file is read at first to find the data element. Doubled until it is found.
+   */
+  private static final int INITIAL_SCAN_LENGTH = 64 * 1024;
+
+  /**
+   * How much of a table file is read, at most, to find the data element, before the file is left unindexed.
+   */
+  private static final int MAX_SCAN_LENGTH = 16 * 1024 * 1024;
+
+  private static final byte[] DATA_START = ("<" + XmlDataSetNode.DATA_NODE).getBytes(StandardCharsets.UTF_8);
+  private static final byte[] DATA_END = ("</" + XmlDataSetNode.DATA_NODE).getBytes(StandardCharsets.UTF_8);
+
+  private final File file;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private volatile boolean changed;
+
+
+  /**
+   * Loads the index of <var>directory</var>, if it has one.
+   *
+   * @param directory The directory of the data set.
+   */
+  DirectoryDataSetIndex(File directory) {
+    this.file = new File(directory, FILE_NAME);
+    load();
+  }
+
+
+  /**
+   * Finds the index entry for a table file, indexing its content if it has no current entry.
+   *
+   * @param tableFile The table file.
+   * @return The entry, or absent if the file content does not have the expected layout.
+   */
+  Optional<Entry> entryFor(File tableFile) {
+    try (FileChannel channel = FileChannel.open(tableFile.toPath(), StandardOpenOption.READ)) {
+      long length = channel.size();
+      long lastModified = tableFile.lastModified();
+      Entry entry = entries.get(tableFile.getName());
+      if (entry != null && entry.length == length && entry.lastModified == lastModified
+          && entry.checksum == checksum(read(channel, entry.scannedLength), entry.scannedLength)) {
+        return Optional.of(entry);
+      }
+
+      int scanLength = (int) Math.min(INITIAL_SCAN_LENGTH, length);
+      Optional<Entry> scanned = scan(read(channel, scanLength), length, lastModified);
+      while (!scanned.isPresent() && scanLength < length && scanLength < MAX_SCAN_LENGTH) {
+        scanLength = (int) Math.min(scanLength * 2L, Math.min(length, MAX_SCAN_LENGTH));
+        scanned = scan(read(channel, scanLength), length, lastModified);
+      }
+      if (scanned.isPresent()) {
+        entries.put(tableFile.getName(), scanned.get());
+        changed = true;
+      }
+      return scanned;
+
+    } catch (IOException e) {
+      throw new RuntimeException("Error indexing [" + tableFile + "]", e);
+    }
+  }
+
+
+  /**
+   * Forgets the entry for a table file which is being rewritten.
+   *
+   * @param fileName The name of the table file.
+   */
+  void remove(String fileName) {
+    if (entries.remove(fileName) != null) {
+      changed = true;
+    }
+  }
+
+
+  /**
+   * Forgets all entries, and deletes the sidecar file.
+   */
+  void clear() {
+    entries.clear();
+    changed = false;
+    if (file.exists() && !file.delete()) {
+      log.warn("Could not delete data set index [" + file + "]");
+    }
+  }
+
+
+  /**
+   * Indexes the table files written, and writes the sidecar file if any entries have changed.
+   *
+   * @param tableFiles The table files written.
+   */
+  synchronized void save(Iterable<File> tableFiles) {
+    for (File tableFile : tableFiles) {
+      try {
+        entryFor(tableFile);
+      } catch (RuntimeException e) {
+        log.debug("Could not index [" + tableFile + "]", e);
+      }
+    }
+
+    if (!changed) {
+      return;
+    }
+    changed = false;
+    List<String> lines = new ArrayList<>();
+    lines.add(HEADER);
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      Entry value = entry.getValue();
+      lines.add(entry.getKey() + "\t" + value.length + "\t" + value.lastModified + "\t" + value.scannedLength + "\t" + value.checksum
+        + "\t" + value.metadataEnd + "\t" + value.empty);
+    }
+    try {
+      File temporary = File.createTempFile(FILE_NAME, ".tmp", file.getAbsoluteFile().getParentFile());
+      Files.write(temporary.toPath(), lines, StandardCharsets.UTF_8);
+      Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException | SecurityException e) {
+      log.debug("Could not write data set index [" + file + "]", e);
+    }
+  }
+
+
+  private void load() {
+    if (!file.isFile()) {
+      return;
+    }
+    try {
+      List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+      if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+        return;
+      }
+      for (String line : lines.subList(1, lines.size())) {
+        String[] fields = line.split("\t");
+        if (fields.length == 7) {
+          entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), Integer.parseInt(fields[3]), Long.parseLong(fields[4]),
+            Long.parseLong(fields[5]), Boolean.parseBoolean(fields[6])));
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      log.debug("Ignoring unreadable data set index [" + file + "]", e);
+      entries.clear();
+    }
+  }
+
+
+  /**
+   * Reads up to <var>length</var> bytes from the start of <var>channel</var>.
+   */
+  private static ByteBuffer read(FileChannel channel, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, buffer.position()) < 0) {
+        break;
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+
+  /**
+   * @return The checksum of the first <var>length</var> bytes of <var>content</var>, or -1 if it is shorter.
+   */
+  private static long checksum(ByteBuffer content, int length) {
+    if (content.limit() < length) {
+      return -1;
+    }
+    ByteBuffer bytes = content.duplicate();
+    bytes.position(0);
+    bytes.limit(length);
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return crc.getValue();
+  }
+
+
+  /**
+   * Finds the start of the data element, which ends the meta data, and whether a record
+   * follows it. Markup characters cannot appear unescaped in attribute values, so the
+   * bytes can be searched directly. <var>content</var> may be just the start of the file,
+   * in which case the entry is absent if the bytes needed are not all there.
+   */
+  static Optional<Entry> scan(ByteBuffer content, long length, long lastModified) {
+    int dataStart = find(content, DATA_START, 0);
+    while (dataStart >= 0 && !isNameEnd(content, dataStart + DATA_START.length)) {
+      dataStart = find(content, DATA_START, dataStart + 1);
+    }
+    if (dataStart < 0) {
+      return Optional.absent();
+    }
+
+    int tagEnd = indexOf(content, (byte) '>', dataStart);
+    if (tagEnd < 0) {
+      return Optional.absent();
+    }
+    if (content.get(tagEnd - 1) == '/') {
+      return Optional.of(new Entry(length, lastModified, tagEnd + 1, checksum(content, tagEnd + 1), dataStart, true));
+    }
+    int nextTag = indexOf(content, (byte) '<', tagEnd);
+    if (nextTag < 0 || nextTag + DATA_END.length > content.limit()) {
+      return Optional.absent();
+    }
+    int scannedLength = nextTag + DATA_END.length;
+    return Optional.of(new Entry(length, lastModified, scannedLength, checksum(content, scannedLength), dataStart, startsWith(content, DATA_END, nextTag)));
+  }
+
+
+  private static boolean isNameEnd(ByteBuffer content, int position) {
+    if (position >= content.limit()) {
+      return false;
+    }
+    byte next = content.get(position);
+    return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\r' || next == '\n';
+  }
+
+
+  private static int find(ByteBuffer content, byte[] bytes, int from) {
+    for (int position = indexOf(content, bytes[0], from); position >= 0; position = indexOf(content, bytes[0], position + 1)) {
+      if (startsWith(content, bytes, position)) {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+
+  private static int indexOf(ByteBuffer content, byte value, int from) {
+    for (int position = from; position < content.limit(); position++) {
+      if (content.get(position) == value) {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+
+  private static boolean startsWith(ByteBuffer content, byte[] bytes, int position) {
+    if (position + bytes.length > content.limit()) {
+      return false;
+    }
+    for (int i = 0; i < bytes.length; i++) {
+      if (content.get(position + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * The index entry for one table file.
+   */
+  static final class Entry {
+
+    private final long length;
+    private final long lastModified;
+    private final int scannedLength;
+    private final long checksum;
+    private final long metadataEnd;
+    private final boolean empty;
+
+    Entry(long length, long lastModified, int scannedLength, long checksum, long metadataEnd, boolean empty) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.scannedLength = scannedLength;
+      this.checksum = checksum;
+      this.metadataEnd = metadataEnd;
+      this.empty = empty;
+    }
+
+    /**
+     * @return The offset of the data element, which follows the meta data.
+     */
+    long getMetadataEnd() {
+      return metadataEnd;
+    }
+
+    /**
+     * @return Whether the table has no records.
+     */
+    boolean isEmpty() {
+      return empty;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses table XML in gzip format, at a chosen deflate level.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class GzipDataSetCodec implements DataSetCodec {
+
+  private static final int BUFFER_SIZE = 65536;
+
+  /**
+   * The deflate level, from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}.
+   */
+  private final int level;
+
+
+  /**
+   * Creates a codec compressing at the default deflate level.
+   */
+  public GzipDataSetCodec() {
+    this(Deflater.DEFAULT_COMPRESSION);
+  }
+
+
+  /**
+   * Creates a codec compressing at the deflate level <var>level</var>. Lower levels
+   * compress faster, {@link Deflater#BEST_SPEED} being the fastest which compresses.
+   *
+   * @param level The deflate level, from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION},
+   *          or {@link Deflater#DEFAULT_COMPRESSION}.
+   */
+  public GzipDataSetCodec(int level) {
+    super();
+    if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Invalid deflate level [" + level + "]");
+    }
+    this.level = level;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.xml.DataSetCodec#fileExtension()
+   */
+  @Override
+  public String fileExtension() {
+    return "gz";
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.xml.DataSetCodec#compress(java.io.OutputStream)
+   */
+  @Override
+  public OutputStream compress(OutputStream outputStream) throws IOException {
+    return new GZIPOutputStream(outputStream, BUFFER_SIZE) {
+      {
+        def.setLevel(level);
+      }
+    };
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.xml.DataSetCodec#decompress(java.io.InputStream)
+   */
+  @Override
+  public InputStream decompress(InputStream inputStream) throws IOException {
+    return new GZIPInputStream(inputStream, BUFFER_SIZE);
+  }
+}
@@ -0,0 +1,36 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.xml;
+
+/**
+ * Masks the values of a column as they are consumed by a {@link DataMaskingXmlDataSetConsumer}.
+ *
+ * <p>Functions are applied to batches of records on several threads at once, so
+ * must be thread safe. {@code null} values are never passed to a function.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ * @see MaskingFunctions
+ */
+public interface MaskingFunction {
+
+  /**
+   * Masks a value.
+   *
+   * @param value The value, in its string form. Never {@code null}.
+   * @return The masked value, which may be {@code null}.
+   */
+  public String mask(String value);
+}
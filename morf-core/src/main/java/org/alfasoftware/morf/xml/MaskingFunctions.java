@@ -0,0 +1,163 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Standard {@link MaskingFunction}s.
+ *
+ * <p>Other than {@link #nullValue()}, the functions here are deterministic: a value
+ * is always masked to the same result for the same key, so that values which match
+ * before masking, such as keys joining two tables, still match afterwards.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public final class MaskingFunctions {
+
+  /**
+   * Masks every value to {@code null}.
+   */
+  private static final MaskingFunction NULL_VALUE = value -> null;
+
+
+  /**
+   * Prevent construction.
+   */
+  private MaskingFunctions() {
+  }
+
+
+  /**
+   * @return A function masking every value to {@code null}, which omits it from the data set.
+   */
+  public static MaskingFunction nullValue() {
+    return NULL_VALUE;
+  }
+
+
+  /**
+   * Creates a function which keeps the format of each value: its length, where its digits,
+   * lower case and upper case letters fall, and any other characters. Each digit and
+   * letter is substituted from a table picked by the characters before it and a hash of
+   * the whole value.
+   *
+   * @param key The key from which the substitution tables are generated.
+   * @return The function.
+   */
+  public static MaskingFunction formatPreserving(long key) {
+    return new FormatPreservingMask(key);
+  }
+
+
+  /**
+   * Creates a function which replaces each value with one of <var>replacements</var>,
+   * chosen by a hash of the value. Useful for replacing names and the like with
+   * realistic values.
+   *
+   * @param key The key of the hash.
+   * @param replacements The values to substitute.
+   * @return The function.
+   */
+  public static MaskingFunction substitution(long key, List<String> replacements) {
+    if (replacements.isEmpty()) {
+      throw new IllegalArgumentException("No replacements provided");
+    }
+    final List<String> lookup = ImmutableList.copyOf(replacements);
+    final HashFunction hashFunction = hashFunction(key);
+    return value -> lookup.get(Math.floorMod(hashFunction.hashUnencodedChars(value).asInt(), lookup.size()));
+  }
+
+
+  private static HashFunction hashFunction(long key) {
+    return Hashing.sipHash24(key, Long.reverse(key) ^ 0x9E3779B97F4A7C15L);
+  }
+
+
+  /**
+   * Substitutes digits and letters from precomputed permutations.
+   *
+   * @author Copyright (c) Alfa Financial Software 2017
+   */
+  private static final class FormatPreservingMask implements MaskingFunction {
+
+    /**
+     * The number of substitution tables for each class of character. A power of two.
+     */
+    private static final int TABLES = 64;
+
+    private final HashFunction hashFunction;
+    private final char[][] digits = new char[TABLES][];
+    private final char[][] lowerCase = new char[TABLES][];
+    private final char[][] upperCase = new char[TABLES][];
+
+
+    FormatPreservingMask(long key) {
+      super();
+      this.hashFunction = hashFunction(key);
+      Random random = new Random(key);
+      for (int table = 0; table < TABLES; table++) {
+        digits[table] = permutation('0', 10, random);
+        lowerCase[table] = permutation('a', 26, random);
+        upperCase[table] = permutation('A', 26, random);
+      }
+    }
+
+
+    private static char[] permutation(char first, int length, Random random) {
+      List<Character> characters = new ArrayList<>(length);
+      for (int i = 0; i < length; i++) {
+        characters.add((char) (first + i));
+      }
+      Collections.shuffle(characters, random);
+      char[] result = new char[length];
+      for (int i = 0; i < length; i++) {
+        result[i] = characters.get(i);
+      }
+      return result;
+    }
+
+
+    /**
+     * @see org.alfasoftware.morf.xml.MaskingFunction#mask(java.lang.String)
+     */
+    @Override
+    public String mask(String value) {
+      long state = hashFunction.hashUnencodedChars(value).asLong();
+      char[] result = value.toCharArray();
+      for (int i = 0; i < result.length; i++) {
+        char c = result[i];
+        int table = (int) (state >>> 58) & (TABLES - 1);
+        if (c >= '0' && c <= '9') {
+          result[i] = digits[table][c - '0'];
+        } else if (c >= 'a' && c <= 'z') {
+          result[i] = lowerCase[table][c - 'a'];
+        } else if (c >= 'A' && c <= 'Z') {
+          result[i] = upperCase[table][c - 'A'];
+        }
+        state = state * 6364136223846793005L + c;
+      }
+      return new String(result);
+    }
+  }
+}
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
+import java.util.zip.Deflater;
 
 import org.alfasoftware.morf.dataset.DataSetConsumer;
 import org.alfasoftware.morf.dataset.Record;
@@ -41,6 +42,8 @@ import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
+import com.google.common.base.Optional;
+
 /**
  * Serialises data sets to XML.
  *
@@ -119,11 +122,57 @@ public class XmlDataSetConsumer implements DataSetConsumer {
    * @param clearDestinationBehaviour Whether to clear the destination directory or not.
    */
   public XmlDataSetConsumer(File file, ClearDestinationBehaviour clearDestinationBehaviour) {
+    this(file, clearDestinationBehaviour, Deflater.DEFAULT_COMPRESSION, Optional.<DataSetCodec>absent());
+  }
+
+
+  /**
+   * Creates a data set consumer that will pipe the data set to the file system location
+   * specified by <var>file</var>, as for {@link #XmlDataSetConsumer(File, ClearDestinationBehaviour)},
+   * deflating the entries of a zip archive at <var>compressionLevel</var>.
+   *
+   * <p>Lower levels trade archive size for speed. The level has no effect when writing to
+   * a directory, where the XML files are not compressed.</p>
+   *
+   * @param file The file system location to receive the data set.
+   * @param clearDestinationBehaviour Whether to clear the destination directory or not.
+   * @param compressionLevel The deflate level, from {@link Deflater#NO_COMPRESSION} to
+   *          {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+   */
+  public XmlDataSetConsumer(File file, ClearDestinationBehaviour clearDestinationBehaviour, int compressionLevel) {
+    this(file, clearDestinationBehaviour, compressionLevel, Optional.<DataSetCodec>absent());
+  }
+
+
+  /**
+   * Creates a data set consumer that will pipe the data set to the file system location
+   * specified by <var>file</var>, as for {@link #XmlDataSetConsumer(File, ClearDestinationBehaviour)},
+   * compressing the XML for each table with <var>codec</var>.
+   *
+   * <p>Each table is written to a file, or stored as a zip entry, named for the table with
+   * <code>.xml.</code> and the codec's file extension appended. {@link XmlDataSetProducer}
+   * decompresses these automatically, provided the codec is registered with
+   * {@link DataSetCodec.Registry}.</p>
+   *
+   * @param file The file system location to receive the data set.
+   * @param clearDestinationBehaviour Whether to clear the destination directory or not.
+   * @param codec The codec with which to compress each table.
+   */
+  public XmlDataSetConsumer(File file, ClearDestinationBehaviour clearDestinationBehaviour, DataSetCodec codec) {
+    this(file, clearDestinationBehaviour, Deflater.DEFAULT_COMPRESSION, Optional.of(codec));
+  }
+
+
+  /**
+   * Creates a data set consumer for <var>file</var>, compressing tables with <var>codec</var> if present,
+   * or else deflating the entries of an archive at <var>compressionLevel</var>.
+   */
+  private XmlDataSetConsumer(File file, ClearDestinationBehaviour clearDestinationBehaviour, int compressionLevel, Optional<DataSetCodec> codec) {
     super();
     if (file.isDirectory()) {
-      this.xmlStreamProvider = new DirectoryDataSet(file);
+      this.xmlStreamProvider = new DirectoryDataSet(file, codec);
     } else {
-      this.xmlStreamProvider = new ArchiveDataSetWriter(file);
+      this.xmlStreamProvider = new ArchiveDataSetWriter(file, compressionLevel, codec);
     }
     this.clearDestinationBehaviour = clearDestinationBehaviour;
   }
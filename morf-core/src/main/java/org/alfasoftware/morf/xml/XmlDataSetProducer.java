@@ -34,16 +34,19 @@ import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarInputStream;
 import java.util.zip.ZipEntry;
 
@@ -54,21 +57,28 @@ import javax.net.ssl.X509TrustManager;
 
 import org.alfasoftware.morf.dataset.DataSetProducer;
 import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.dataset.TableSizeEstimator;
 import org.alfasoftware.morf.metadata.Column;
 import org.alfasoftware.morf.metadata.DataSetUtils;
 import org.alfasoftware.morf.metadata.DataSetUtils.RecordBuilder;
 import org.alfasoftware.morf.metadata.DataType;
 import org.alfasoftware.morf.metadata.Index;
+import org.alfasoftware.morf.metadata.LayoutRecord;
+import org.alfasoftware.morf.metadata.RecordBatch;
+import org.alfasoftware.morf.metadata.RecordLayout;
 import org.alfasoftware.morf.metadata.Schema;
 import org.alfasoftware.morf.metadata.SchemaUtils;
 import org.alfasoftware.morf.metadata.Table;
 import org.alfasoftware.morf.metadata.View;
+import org.alfasoftware.morf.xml.XmlStreamProvider.IndexedXmlInputStreamProvider;
 import org.alfasoftware.morf.xml.XmlStreamProvider.XmlInputStreamProvider;
 import org.apache.commons.lang.StringUtils;
 import org.xmlpull.mxp1.MXParser;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharSource;
 import com.google.common.io.Closeables;
@@ -77,8 +87,14 @@ import com.google.common.io.Files;
 /**
  * Reads XML and provides it as a data set. Uses XML pull-processing to get the
  * XML efficiently.
+ *
+ * <p>Table sizes are estimated from the size of the XML for each table, where the
+ * underlying storage knows it.</p>
+ *
+ * <p>The meta data of every table is read once, when the producer is opened, and the
+ * schema then served from it. Reading records skips over the meta data.</p>
  */
-public class XmlDataSetProducer implements DataSetProducer {
+public class XmlDataSetProducer implements DataSetProducer, TableSizeEstimator {
 
   /**
    * Source of streams from which to read XMl.
@@ -91,11 +107,28 @@ public class XmlDataSetProducer implements DataSetProducer {
     */
   private final List<File> tempFiles = new ArrayList<>();
 
+  /**
+   * Whether records hold values converted to their column types as they are read.
+   */
+  private boolean schemaBoundRecords;
+
+  /**
+   * Whether {@link #xmlStreamProvider} can be read from several threads at once, so that
+   * table meta data can be read in parallel.
+   */
+  private final boolean concurrentReads;
+
+  /**
+   * The meta data of every table, read once the producer is opened.
+   */
+  private volatile Schema schema;
+
 
   /**
    * Creates a data set producer that will read data from the file system.
    * <p>
-   * <var>source</var> may point to either a zip file or a directory.
+   * <var>source</var> may point to either a zip file or a directory. Tables compressed
+   * with a registered {@link DataSetCodec} are decompressed automatically.
    * </p>
    *
    * @param source The location from which to read the data set.
@@ -108,7 +141,8 @@ public class XmlDataSetProducer implements DataSetProducer {
   /**
    * Creates a data set producer that will read data from the file system.
    * <p>
-   * <var>source</var> may point to either a zip file or a directory.
+   * <var>source</var> may point to either a zip file or a directory. Tables compressed
+   * with a registered {@link DataSetCodec} are decompressed automatically.
    * </p>
    *
    * @param source The location from which to read the data set.
@@ -128,6 +162,7 @@ public class XmlDataSetProducer implements DataSetProducer {
     } else {
       this.xmlStreamProvider = new ArchiveDataSetReader(file);
     }
+    this.concurrentReads = true;
   }
 
   /**
@@ -139,18 +174,38 @@ public class XmlDataSetProducer implements DataSetProducer {
   public XmlDataSetProducer(XmlInputStreamProvider xmlStreamProvider) {
     super();
     this.xmlStreamProvider = xmlStreamProvider;
+    this.concurrentReads = false;
+  }
+
+
+  /**
+   * Converts each value to the type of its column as the record is read, and holds it
+   * unboxed where possible, rather than holding the string from the XML and converting it
+   * each time it is read.
+   *
+   * <p>This suits consumers which read each value once by its type, such as a database
+   * restore. The values read back as strings are those of the converted value, so for
+   * example a decimal loses any trailing zeros. Malformed values fail as they are read
+   * from the XML, rather than when they are first used.</p>
+   *
+   * @return this, for chaining.
+   */
+  public XmlDataSetProducer withSchemaBoundRecords() {
+    this.schemaBoundRecords = true;
+    return this;
   }
 
 
   /**
-   * Creates an XML pull parser based on the XML reader specified at
-   * construction.
+   * Opens the XML source specified at construction, and reads the meta data of
+   * every table.
    *
    * @see org.alfasoftware.morf.dataset.DataSetProducer#open()
    */
   @Override
   public void open() {
     xmlStreamProvider.open();
+    schema = readSchema();
   }
 
 
@@ -164,6 +219,7 @@ public class XmlDataSetProducer implements DataSetProducer {
         throw new RuntimeException("Could not delete file [" + file.getPath() + "]");
       }
     }
+    schema = null;
     xmlStreamProvider.close();
   }
 
@@ -177,11 +233,12 @@ public class XmlDataSetProducer implements DataSetProducer {
     return new Iterable<Record>() {
       @Override
       public Iterator<Record> iterator() {
-        final InputStream inputStream = xmlStreamProvider.openInputStreamForTable(tableName);
+        final Table table = getSchema().getTable(tableName);
+        final InputStream inputStream = openDataStreamForTable(tableName);
 
         final XmlPullParser pullParser = openPullParser(inputStream);
 
-        return new PullProcessorRecordIterator(pullParser) {
+        return new PullProcessorRecordIterator(pullParser, table, schemaBoundRecords) {
           @Override
           public boolean hasNext() {
             boolean result = super.hasNext();
@@ -202,16 +259,54 @@ public class XmlDataSetProducer implements DataSetProducer {
   }
 
 
+  /**
+   * Parses the attributes of each record straight into the column vectors of the batch.
+   *
+   * @see org.alfasoftware.morf.dataset.DataSetProducer#recordBatches(java.lang.String, int)
+   */
+  @Override
+  public Iterable<RecordBatch> recordBatches(final String tableName, final int batchSize) {
+    return () -> {
+      final Table table = getSchema().getTable(tableName);
+      final InputStream inputStream = openDataStreamForTable(tableName);
+      final PullProcessorRecordIterator records = new PullProcessorRecordIterator(openPullParser(inputStream), table, false);
+
+      return new AbstractIterator<RecordBatch>() {
+        @Override
+        protected RecordBatch computeNext() {
+          if (!records.hasNext()) {
+            try {
+              inputStream.close();
+            } catch (IOException e) {
+              throw new RuntimeException("Error closing input stream", e);
+            }
+            return endOfData();
+          }
+          return records.nextBatch(batchSize);
+        }
+      };
+    };
+  }
+
+
   /**
    * @see org.alfasoftware.morf.dataset.DataSetProducer#isTableEmpty(java.lang.String)
    */
   @Override
   public boolean isTableEmpty(String tableName) {
-    final InputStream inputStream = xmlStreamProvider.openInputStreamForTable(tableName);
+    if (xmlStreamProvider instanceof IndexedXmlInputStreamProvider) {
+      Optional<Boolean> indexed = ((IndexedXmlInputStreamProvider) xmlStreamProvider).isTableEmpty(tableName);
+      if (indexed.isPresent()) {
+        return indexed.get();
+      }
+    }
+
+    final Table table = getSchema().getTable(tableName);
+    final InputStream inputStream = openDataStreamForTable(tableName);
 
     try {
       final XmlPullParser pullParser = openPullParser(inputStream);
-      PullProcessorRecordIterator pullProcessorRecordIterator = new PullProcessorRecordIterator(pullParser);
+      PullProcessorRecordIterator pullProcessorRecordIterator = new PullProcessorRecordIterator(pullParser, table, false);
       return !pullProcessorRecordIterator.hasNext();
     } finally {
       Closeables.closeQuietly(inputStream);
@@ -219,12 +314,112 @@ public class XmlDataSetProducer implements DataSetProducer {
   }
 
 
+  /**
+   * @see org.alfasoftware.morf.dataset.TableSizeEstimator#estimateSize(java.lang.String)
+   */
+  @Override
+  public Optional<Long> estimateSize(String tableName) {
+    if (xmlStreamProvider instanceof TableSizeEstimator) {
+      return ((TableSizeEstimator) xmlStreamProvider).estimateSize(tableName);
+    }
+    return Optional.absent();
+  }
+
+
   /**
    * @see org.alfasoftware.morf.dataset.DataSetProducer#getSchema()
    */
   @Override
   public Schema getSchema() {
-    return new PullProcessorMetaDataProvider(xmlStreamProvider);
+    Schema result = schema;
+    if (result == null) {
+      // Not opened. Some sources can be read regardless.
+      synchronized (this) {
+        if (schema == null) {
+          schema = readSchema();
+        }
+        result = schema;
+      }
+    }
+    return result;
+  }
+
+
+  /**
+   * Reads the meta data of every table, in parallel if the source allows it.
+   */
+  private Schema readSchema() {
+    List<String> tableNames = new ArrayList<>(xmlStreamProvider.availableStreamNames());
+    Map<String, Table> tables = new HashMap<>();
+
+    int threadCount = concurrentReads ? Math.min(tableNames.size(), Runtime.getRuntime().availableProcessors()) : 1;
+    if (threadCount <= 1) {
+      for (String tableName : tableNames) {
+        tables.put(tableName.toUpperCase(), readTableMetaData(tableName));
+      }
+      return new PullProcessorMetaDataProvider(tableNames, tables);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      List<Future<Table>> futures = new ArrayList<>();
+      for (final String tableName : tableNames) {
+        futures.add(executor.submit(() -> readTableMetaData(tableName)));
+      }
+      for (int i = 0; i < tableNames.size(); i++) {
+        try {
+          tables.put(tableNames.get(i).toUpperCase(), futures.get(i).get());
+        } catch (ExecutionException e) {
+          throw new RuntimeException("Error reading meta data of table [" + tableNames.get(i) + "]", e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted reading table meta data", e);
+    } finally {
+      executor.shutdownNow();
+    }
+    return new PullProcessorMetaDataProvider(tableNames, tables);
+  }
+
+
+  /**
+   * Reads the meta data of a table, only as far as it goes if the source knows where that is.
+   */
+  private Table readTableMetaData(String tableName) {
+    Optional<InputStream> metadataStream = xmlStreamProvider instanceof IndexedXmlInputStreamProvider
+        ? ((IndexedXmlInputStreamProvider) xmlStreamProvider).openMetadataStreamForTable(tableName)
+        : Optional.<InputStream>absent();
+    InputStream inputStream = metadataStream.isPresent() ? metadataStream.get() : xmlStreamProvider.openInputStreamForTable(tableName);
+    try {
+      XmlPullParser xmlPullParser = openPullParser(inputStream);
+      XmlPullProcessor.readTag(xmlPullParser, XmlDataSetNode.TABLE_NODE);
+
+      String version = xmlPullParser.getAttributeValue(XmlDataSetNode.URI, XmlDataSetNode.VERSION_ATTRIBUTE);
+      if (StringUtils.isNotEmpty(version)) {
+        return new PullProcessorTableMetaData(xmlPullParser, Integer.parseInt(version));
+      } else {
+        return new PullProcessorTableMetaData(xmlPullParser, 1);
+      }
+    } finally {
+      // abandon any remaining content
+      Closeables.closeQuietly(inputStream);
+    }
+  }
+
+
+  /**
+   * Opens the XML of a table from the start of its data, if the source knows where that
+   * is, or else from the start.
+   */
+  private InputStream openDataStreamForTable(String tableName) {
+    if (xmlStreamProvider instanceof IndexedXmlInputStreamProvider) {
+      Optional<InputStream> dataStream = ((IndexedXmlInputStreamProvider) xmlStreamProvider).openDataStreamForTable(tableName);
+      if (dataStream.isPresent()) {
+        return dataStream.get();
+      }
+    }
+    return xmlStreamProvider.openInputStreamForTable(tableName);
   }
 
   /**
@@ -477,24 +672,31 @@ public class XmlDataSetProducer implements DataSetProducer {
 
 
   /**
-   * Provides meta data based on an {@link XmlInputStreamProvider}.
+   * Provides the meta data of every table of the data set, read once.
    *
    * @author Copyright (c) Alfa Financial Software 2010
    */
   private static final class PullProcessorMetaDataProvider implements Schema {
 
     /**
-     * The source for data.
+     * The table names, as provided by the source.
+     */
+    private final List<String> tableNames;
+
+    /**
+     * The tables, by upper case name.
      */
-    private final XmlInputStreamProvider xmlStreamProvider;
+    private final Map<String, Table> tables;
 
 
     /**
-     * @param xmlStreamProvider The source stream provider.
+     * @param tableNames The table names, as provided by the source.
+     * @param tables The tables, by upper case name.
      */
-    public PullProcessorMetaDataProvider(XmlInputStreamProvider xmlStreamProvider) {
+    public PullProcessorMetaDataProvider(List<String> tableNames, Map<String, Table> tables) {
       super();
-      this.xmlStreamProvider = xmlStreamProvider;
+      this.tableNames = Collections.unmodifiableList(new ArrayList<>(tableNames));
+      this.tables = Collections.unmodifiableMap(new HashMap<>(tables));
     }
 
 
@@ -503,22 +705,9 @@ public class XmlDataSetProducer implements DataSetProducer {
      */
     @Override
     public Table getTable(String name) {
-      // Read the meta data for the specified table
-      InputStream inputStream = xmlStreamProvider.openInputStreamForTable(name);
-      try {
-        XmlPullParser xmlPullParser = openPullParser(inputStream);
-        XmlPullProcessor.readTag(xmlPullParser, XmlDataSetNode.TABLE_NODE);
-
-        String version = xmlPullParser.getAttributeValue(XmlDataSetNode.URI, XmlDataSetNode.VERSION_ATTRIBUTE);
-        if (StringUtils.isNotEmpty(version)) {
-          return new PullProcessorTableMetaData(xmlPullParser, Integer.parseInt(version));
-        } else {
-          return new PullProcessorTableMetaData(xmlPullParser, 1);
-        }
-      } finally {
-        // abandon any remaining content
-        Closeables.closeQuietly(inputStream);
-      }
+      Table table = tables.get(name.toUpperCase());
+      if (table == null) throw new IllegalArgumentException("No such table [" + name + "]");
+      return table;
     }
 
 
@@ -527,7 +716,7 @@ public class XmlDataSetProducer implements DataSetProducer {
      */
     @Override
     public boolean isEmptyDatabase() {
-      return xmlStreamProvider.availableStreamNames().isEmpty();
+      return tableNames.isEmpty();
     }
 
 
@@ -536,7 +725,7 @@ public class XmlDataSetProducer implements DataSetProducer {
      */
     @Override
     public boolean tableExists(String name) {
-      return xmlStreamProvider.tableExists(name);
+      return tables.containsKey(name.toUpperCase());
     }
 
 
@@ -545,7 +734,7 @@ public class XmlDataSetProducer implements DataSetProducer {
      */
     @Override
     public Collection<String> tableNames() {
-      return xmlStreamProvider.availableStreamNames();
+      return tableNames;
     }
 
 
@@ -554,11 +743,11 @@ public class XmlDataSetProducer implements DataSetProducer {
      */
     @Override
     public Collection<Table> tables() {
-      List<Table> tables = new ArrayList<>();
-      for (String tableName : tableNames()) {
-        tables.add(getTable(tableName));
+      List<Table> result = new ArrayList<>();
+      for (String tableName : tableNames) {
+        result.add(getTable(tableName));
       }
-      return tables;
+      return result;
     }
 
 
@@ -943,14 +1132,39 @@ public class XmlDataSetProducer implements DataSetProducer {
   /**
    * Provides on demand XML reading as a record iterator.
    *
+   * <p>The attributes of each record are walked once, in the order they appear, and
+   * each is matched to the slot of its column. The attributes of every record are
+   * normally written in the same order, so the slot found for each position is
+   * remembered and checked first for the next record.</p>
+   *
    * @author Copyright (c) Alfa Financial Software 2010
    */
   private static class PullProcessorRecordIterator extends XmlPullProcessor implements Iterator<Record> {
 
     /**
-     * Stores the column names we need to provide values for.
+     * Stores the column names we need to provide values for, by slot.
      */
-    private final Set<String> columnNames = new HashSet<>();
+    private final List<String> columnNames = new ArrayList<>();
+
+    /**
+     * The slot of each column, by the exact name of its attribute.
+     */
+    private final Map<String, Integer> slotsByAttributeName = new HashMap<>();
+
+    /**
+     * The layout shared by all the records of the table, keyed by the upper case column names.
+     */
+    private final RecordLayout recordLayout;
+
+    /**
+     * Whether to produce records with values converted to their column types.
+     */
+    private final boolean schemaBound;
+
+    /**
+     * The slot matched to the attribute at each position of the last record, or -1 if none.
+     */
+    private int[] slotsByPosition = new int[0];
 
     /**
      * Holds the current tag so we know if there is a record to read.
@@ -959,32 +1173,49 @@ public class XmlDataSetProducer implements DataSetProducer {
 
 
     /**
-     * @param xmlPullParser Input stream containing the source XML data.
+     * @param xmlPullParser Input stream containing the source XML data, either the whole
+     *          table or from the data element on.
+     * @param table The meta data of the table, already read.
+     * @param schemaBound Whether to produce records with values converted to their column types.
      */
-    public PullProcessorRecordIterator(XmlPullParser xmlPullParser) {
+    public PullProcessorRecordIterator(XmlPullParser xmlPullParser, Table table, boolean schemaBound) {
       super(xmlPullParser);
+      this.schemaBound = schemaBound;
 
       // Store the column names and get to the first record
-      readTag(XmlDataSetNode.TABLE_NODE);
-
-      // read the meta data
-      Table table;
-      String version = xmlPullParser.getAttributeValue(XmlDataSetNode.URI, XmlDataSetNode.VERSION_ATTRIBUTE);
-      if (StringUtils.isNotEmpty(version)) {
-        table = new PullProcessorTableMetaData(xmlPullParser, Integer.parseInt(version));
-      } else {
-        table = new PullProcessorTableMetaData(xmlPullParser, 1);
-      }
-
+      List<Column> layoutColumns = new ArrayList<>();
       for (Column column : table.columns()) {
-        columnNames.add(column.getName());
+        if (!slotsByAttributeName.containsKey(column.getName())) {
+          slotsByAttributeName.put(column.getName(), columnNames.size());
+          columnNames.add(column.getName());
+          layoutColumns.add(SchemaUtils.column(column.getName().toUpperCase(), column.getType()));
+        }
       }
+      recordLayout = RecordLayout.of(layoutColumns);
 
-      readTag(XmlDataSetNode.DATA_NODE);
+      skipToData();
       currentTagName = readNextTagInsideParent(XmlDataSetNode.DATA_NODE);
     }
 
 
+    /**
+     * Moves past any meta data, which is already known, to the start of the data element.
+     */
+    private void skipToData() {
+      try {
+        int event;
+        do {
+          event = xmlPullParser.next();
+          if (event == XmlPullParser.END_DOCUMENT) {
+            throw new IllegalStateException("No [" + XmlDataSetNode.DATA_NODE + "] element found");
+          }
+        } while (event != XmlPullParser.START_TAG || !XmlDataSetNode.DATA_NODE.equals(xmlPullParser.getName()));
+      } catch (XmlPullParserException | IOException e) {
+        throw new RuntimeException("Error reading data from the XML pull parser", e);
+      }
+    }
+
+
     /**
      * @see java.util.Iterator#hasNext()
      */
@@ -1000,10 +1231,27 @@ public class XmlDataSetProducer implements DataSetProducer {
     @Override
     public Record next() {
       if (hasNext()) {
-        // Buffer this record
-        RecordBuilder result = DataSetUtils.record();
-        for (String columnName : columnNames) {
-          result.setString(columnName.toUpperCase(), xmlPullParser.getAttributeValue(XmlDataSetNode.URI, columnName));
+        Record result;
+        int attributeCount = xmlPullParser.getAttributeCount();
+        if (schemaBound) {
+          LayoutRecord record = recordLayout.newRecord();
+          for (int i = 0; i < attributeCount; i++) {
+            int slot = slotOfAttribute(i);
+            if (slot != -1) {
+              record.setString(slot, xmlPullParser.getAttributeValue(i));
+            }
+          }
+          result = record;
+        } else {
+          // Buffer this record
+          RecordBuilder record = DataSetUtils.record().withLayout(recordLayout);
+          for (int i = 0; i < attributeCount; i++) {
+            int slot = slotOfAttribute(i);
+            if (slot != -1) {
+              record.setString(recordLayout.getColumnName(slot), xmlPullParser.getAttributeValue(i));
+            }
+          }
+          result = record;
         }
 
         // Is there another
@@ -1016,6 +1264,57 @@ public class XmlDataSetProducer implements DataSetProducer {
     }
 
 
+    /**
+     * Reads up to <var>batchSize</var> records into a new batch.
+     *
+     * @param batchSize The maximum number of rows in the batch.
+     * @return The batch.
+     */
+    public RecordBatch nextBatch(int batchSize) {
+      if (!hasNext()) {
+        throw new NoSuchElementException("No more records");
+      }
+      RecordBatch batch = new RecordBatch(recordLayout, batchSize);
+      while (hasNext() && !batch.isFull()) {
+        int row = batch.addRow();
+        int attributeCount = xmlPullParser.getAttributeCount();
+        for (int i = 0; i < attributeCount; i++) {
+          int slot = slotOfAttribute(i);
+          if (slot != -1) {
+            batch.setString(row, slot, xmlPullParser.getAttributeValue(i));
+          }
+        }
+        currentTagName = readNextTagInsideParent(XmlDataSetNode.DATA_NODE);
+      }
+      return batch;
+    }
+
+
+    /**
+     * Finds the slot of the column for the attribute at <var>position</var> of the current record.
+     *
+     * @param position The position of the attribute.
+     * @return The slot, or -1 if the attribute is not a column of the table.
+     */
+    private int slotOfAttribute(int position) {
+      String attributeName = xmlPullParser.getAttributeName(position);
+      if (position < slotsByPosition.length) {
+        int slot = slotsByPosition[position];
+        if (slot != -1 && columnNames.get(slot).equals(attributeName)) {
+          return slot;
+        }
+      } else {
+        int oldLength = slotsByPosition.length;
+        slotsByPosition = Arrays.copyOf(slotsByPosition, position + 1);
+        Arrays.fill(slotsByPosition, oldLength, position + 1, -1);
+      }
+
+      Integer slot = slotsByAttributeName.get(attributeName);
+      slotsByPosition[position] = slot == null ? -1 : slot;
+      return slotsByPosition[position];
+    }
+
+
     /**
      * @see java.util.Iterator#remove()
      */
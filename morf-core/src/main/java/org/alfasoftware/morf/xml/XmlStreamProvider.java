@@ -19,6 +19,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collection;
 
+import com.google.common.base.Optional;
+
 /**
  * Provides streams for accessing XML data sets.
  *
@@ -66,6 +68,41 @@ interface XmlStreamProvider {
   }
 
 
+  /**
+   * Optionally implemented by an {@link XmlInputStreamProvider} which can locate the meta
+   * data of each table, and tell whether it has any records, without parsing its XML.
+   *
+   * @author Copyright (c) Alfa Financial Software 2017
+   */
+  interface IndexedXmlInputStreamProvider extends XmlInputStreamProvider {
+
+    /**
+     * Provides an input stream holding the XML for a table up to the end of its meta data.
+     *
+     * @param tableName The table.
+     * @return The stream, or absent if the end of the meta data is not known.
+     */
+    Optional<InputStream> openMetadataStreamForTable(String tableName);
+
+    /**
+     * Provides an input stream holding the XML for a table from the start of its data,
+     * skipping its meta data.
+     *
+     * @param tableName The table.
+     * @return The stream, or absent if the start of the data is not known.
+     */
+    Optional<InputStream> openDataStreamForTable(String tableName);
+
+    /**
+     * Determines whether a table has any records.
+     *
+     * @param tableName The table.
+     * @return Whether the table is empty, or absent if this is not known.
+     */
+    Optional<Boolean> isTableEmpty(String tableName);
+  }
+
+
   /**
    * Provides output streams for writing XML.
    *
@@ -0,0 +1,379 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import static org.alfasoftware.morf.metadata.DataSetUtils.record;
+import static org.alfasoftware.morf.metadata.SchemaUtils.idColumn;
+import static org.alfasoftware.morf.metadata.SchemaUtils.table;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.alfasoftware.morf.dataset.DataSetConsumer.CloseState;
+import org.alfasoftware.morf.metadata.DataSetUtils.RecordBuilder;
+import org.alfasoftware.morf.metadata.RecordBatch;
+import org.alfasoftware.morf.metadata.RecordLayout;
+import org.alfasoftware.morf.metadata.Schema;
+import org.alfasoftware.morf.metadata.Table;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link DataSetConnectorMultiThreaded}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestDataSetConnectorMultiThreaded {
+
+  private final Table small = table("Small").columns(idColumn());
+  private final Table large = table("Large").columns(idColumn());
+  private final Table unknown = table("Unknown").columns(idColumn());
+  private final Table medium = table("Medium").columns(idColumn());
+
+  private DataSetProducer producer;
+  private final DataSetConsumer consumer = mock(DataSetConsumer.class);
+
+
+  /**
+   * Sets up a producer which can estimate the size of all but one of its tables.
+   */
+  @Before
+  public void setUp() {
+    producer = mock(DataSetProducer.class, withSettings().extraInterfaces(TableSizeEstimator.class));
+    Schema schema = mock(Schema.class);
+    given(producer.getSchema()).willReturn(schema);
+    given(schema.tableNames()).willReturn(ImmutableList.of("Small", "Unknown", "Large", "Medium"));
+    for (Table table : ImmutableList.of(small, large, unknown, medium)) {
+      given(schema.getTable(table.getName())).willReturn(table);
+      given(producer.records(table.getName())).willReturn(Collections.<Record>emptyList());
+    }
+
+    TableSizeEstimator estimator = (TableSizeEstimator) producer;
+    given(estimator.estimateSize(anyString())).willReturn(Optional.<Long>absent());
+    given(estimator.estimateSize("Small")).willReturn(Optional.of(10L));
+    given(estimator.estimateSize("Large")).willReturn(Optional.of(1000L));
+    given(estimator.estimateSize("Medium")).willReturn(Optional.of(100L));
+  }
+
+
+  /**
+   * Tests that tables are started largest first, with tables of unknown size last.
+   */
+  @Test
+  public void testLargestTablesStartedFirst() {
+    DataSetConnectorMultiThreaded connector = new DataSetConnectorMultiThreaded(producer, consumer).withThreadCount(1);
+    connector.connect();
+
+    InOrder inOrder = inOrder(consumer);
+    inOrder.verify(consumer).open();
+    inOrder.verify(consumer).table(eq(large), anyRecords());
+    inOrder.verify(consumer).table(eq(medium), anyRecords());
+    inOrder.verify(consumer).table(eq(small), anyRecords());
+    inOrder.verify(consumer).table(eq(unknown), anyRecords());
+    inOrder.verify(consumer).close(CloseState.COMPLETE);
+
+    assertEquals("Timed tables", ImmutableList.of("Large", "Medium", "Small", "Unknown"), ImmutableList.copyOf(connector.getTableTimings().keySet()));
+  }
+
+
+  /**
+   * Tests that a custom scheduler can be supplied.
+   */
+  @Test
+  public void testCustomScheduler() {
+    new DataSetConnectorMultiThreaded(producer, consumer)
+      .withThreadCount(1)
+      .withScheduler((p, tableNames) -> ImmutableList.of("Medium", "Small"))
+      .connect();
+
+    InOrder inOrder = inOrder(consumer);
+    inOrder.verify(consumer).table(eq(medium), anyRecords());
+    inOrder.verify(consumer).table(eq(small), anyRecords());
+    inOrder.verify(consumer).close(CloseState.COMPLETE);
+  }
+
+
+  /**
+   * Tests that a failure on a worker thread fails the whole transfer.
+   */
+  @Test
+  public void testFailureOnWorkerThreadIsPropagated() {
+    doThrow(new IllegalStateException("Bang")).when(consumer).table(eq(medium), anyRecords());
+
+    try {
+      new DataSetConnectorMultiThreaded(producer, consumer).withThreadCount(4).connect();
+      fail("Expected RuntimeException");
+    } catch (RuntimeException e) {
+      assertEquals("Message", "Error connecting table [Medium]", e.getMessage());
+    }
+
+    verify(consumer).close(CloseState.INCOMPLETE);
+  }
+
+
+  /**
+   * Tests that tables at or above the size threshold are transmitted in key ranges.
+   */
+  @Test
+  public void testLargeTablesArePartitioned() {
+    DataSetProducer partitionedProducer = mock(DataSetProducer.class, withSettings().extraInterfaces(TableSizeEstimator.class, PartitionedTableProducer.class));
+    DataSetConsumer partitionedConsumer = mock(DataSetConsumer.class, withSettings().extraInterfaces(PartitionedTableConsumer.class));
+    Schema schema = producer.getSchema();
+    given(partitionedProducer.getSchema()).willReturn(schema);
+    given(partitionedProducer.records(anyString())).willReturn(Collections.<Record>emptyList());
+    TableSizeEstimator estimator = (TableSizeEstimator) partitionedProducer;
+    given(estimator.estimateSize(anyString())).willReturn(Optional.of(10L));
+    given(estimator.estimateSize("Large")).willReturn(Optional.of(1000L));
+
+    List<KeyRange> keyRanges = ImmutableList.of(new KeyRange(1, 50), new KeyRange(51, 100));
+    PartitionedTableProducer partitioner = (PartitionedTableProducer) partitionedProducer;
+    given(partitioner.partition("Large", 2)).willReturn(keyRanges);
+    given(partitioner.records(eq("Large"), any(KeyRange.class))).willReturn(Collections.<Record>emptyList());
+
+    DataSetConnectorMultiThreaded connector = new DataSetConnectorMultiThreaded(partitionedProducer, partitionedConsumer)
+        .withThreadCount(1)
+        .withPartitioning(2, 100);
+    connector.connect();
+
+    PartitionedTableConsumer partitionedTableConsumer = (PartitionedTableConsumer) partitionedConsumer;
+    InOrder inOrder = inOrder(partitionedTableConsumer);
+    inOrder.verify(partitionedTableConsumer).openPartitionedTable(large);
+    inOrder.verify(partitionedTableConsumer).tablePartition(eq(large), eq(keyRanges.get(0)), anyRecords());
+    inOrder.verify(partitionedTableConsumer).tablePartition(eq(large), eq(keyRanges.get(1)), anyRecords());
+    inOrder.verify(partitionedTableConsumer).closePartitionedTable(large);
+
+    verify(partitionedConsumer, never()).table(eq(large), anyRecords());
+    verify(partitionedConsumer).table(eq(small), anyRecords());
+    verify(partitioner, never()).partition(eq("Small"), anyInt());
+    verify(partitionedConsumer).close(CloseState.COMPLETE);
+    assertEquals("Timed tables", 4, connector.getTableTimings().size());
+  }
+
+
+  /**
+   * Tests that pipelined tables pass all their records, in order, from reader to writer,
+   * even if the producer reuses the same record instance for each.
+   */
+  @Test
+  public void testPipelinedRecordsArriveInOrder() {
+    RecordBuilder reused = record();
+    List<Long> ids = Lists.newArrayList();
+    for (long i = 0; i < 25; i++) {
+      ids.add(i);
+    }
+    given(producer.records("Large")).willReturn(Iterables.transform(ids, id -> reused.setLong("id", id)));
+
+    List<Record> written = Collections.synchronizedList(Lists.<Record>newArrayList());
+    doAnswer(invocation -> {
+      for (Object each : (Iterable<?>) invocation.getArguments()[1]) {
+        written.add((Record) each);
+      }
+      return null;
+    }).when(consumer).table(eq(large), anyRecords());
+
+    new DataSetConnectorMultiThreaded(producer, consumer)
+      .withThreadCount(2)
+      .withPipelining(4, 2)
+      .connect();
+
+    assertEquals("Records written", ids, Lists.transform(written, each -> each.getLong("id")));
+    verify(consumer).table(eq(small), anyRecords());
+    verify(consumer).close(CloseState.COMPLETE);
+  }
+
+
+  /**
+   * Tests that tables are passed from producer to consumer in batches when asked.
+   */
+  @Test
+  public void testRecordBatches() {
+    List<Record> records = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      records.add(record().setInteger("id", i));
+    }
+    RecordLayout layout = RecordLayout.of(large.columns());
+    given(producer.recordBatches(anyString(), anyInt())).willReturn(Collections.<RecordBatch>emptyList());
+    given(producer.recordBatches("Large", 4)).willReturn(RecordBatch.batches(layout, records, 4));
+
+    List<Integer> batchSizes = Collections.synchronizedList(Lists.<Integer>newArrayList());
+    List<Long> written = Collections.synchronizedList(Lists.<Long>newArrayList());
+    doAnswer(invocation -> {
+      for (Object each : (Iterable<?>) invocation.getArguments()[1]) {
+        RecordBatch batch = (RecordBatch) each;
+        batchSizes.add(batch.size());
+        for (int row = 0; row < batch.size(); row++) {
+          written.add(batch.longValue(row, layout.slotOf("id")));
+        }
+      }
+      return null;
+    }).when(consumer).tableBatches(eq(large), anyBatches());
+
+    new DataSetConnectorMultiThreaded(producer, consumer)
+      .withThreadCount(2)
+      .withRecordBatches(4)
+      .connect();
+
+    assertEquals("Batch sizes", ImmutableList.of(4, 4, 2), batchSizes);
+    assertEquals("Records written", ImmutableList.of(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), written);
+    verify(consumer).tableBatches(eq(small), anyBatches());
+    verify(consumer, never()).table(any(Table.class), anyRecords());
+    verify(consumer).close(CloseState.COMPLETE);
+  }
+
+
+  /**
+   * Tests that a failure reading a pipelined table fails the transfer.
+   */
+  @Test
+  public void testPipelinedReadFailureIsPropagated() {
+    given(producer.records("Medium")).willReturn(new Iterable<Record>() {
+      @Override
+      public Iterator<Record> iterator() {
+        throw new IllegalStateException("Bang");
+      }
+    });
+    doAnswer(invocation -> {
+      for (Object each : (Iterable<?>) invocation.getArguments()[1]) {
+        ((Record) each).getString("id");
+      }
+      return null;
+    }).when(consumer).table(any(Table.class), anyRecords());
+
+    try {
+      new DataSetConnectorMultiThreaded(producer, consumer).withThreadCount(2).withPipelining(10, 1).connect();
+      fail("Expected RuntimeException");
+    } catch (RuntimeException e) {
+      assertEquals("Message", "Error connecting table [Medium]", e.getMessage());
+      assertEquals("Cause", "Bang", Throwables.getRootCause(e).getMessage());
+    }
+
+    verify(consumer).close(CloseState.INCOMPLETE);
+  }
+
+
+  /**
+   * Tests that tables and key ranges recorded in the journal are not transmitted again,
+   * that the consumer is told of the tables resumed, and that the rest are recorded as
+   * they complete.
+   */
+  @Test
+  public void testResumeFromJournal() {
+    DataSetProducer partitionedProducer = mock(DataSetProducer.class, withSettings().extraInterfaces(PartitionedTableProducer.class));
+    DataSetConsumer partitionedConsumer = mock(DataSetConsumer.class, withSettings().extraInterfaces(PartitionedTableConsumer.class, ResumableDataSetConsumer.class));
+    Schema schema = producer.getSchema();
+    given(partitionedProducer.getSchema()).willReturn(schema);
+    given(partitionedProducer.records(anyString())).willReturn(Collections.<Record>emptyList());
+
+    List<KeyRange> keyRanges = ImmutableList.of(new KeyRange(1, 50), new KeyRange(51, 100));
+    PartitionedTableProducer partitioner = (PartitionedTableProducer) partitionedProducer;
+    given(partitioner.partition(anyString(), eq(2))).willReturn(Collections.<KeyRange>emptyList());
+    given(partitioner.partition("Large", 2)).willReturn(keyRanges);
+    given(partitioner.records(eq("Large"), any(KeyRange.class))).willReturn(Collections.<Record>emptyList());
+
+    TransferJournal journal = mock(TransferJournal.class);
+    given(journal.completedTables()).willReturn(ImmutableSet.of("Small", "Medium"));
+    given(journal.completedKeyRanges("Large")).willReturn(ImmutableSet.of(keyRanges.get(0)));
+    given(((ResumableDataSetConsumer) partitionedConsumer).isDurablePerTable()).willReturn(true);
+
+    new DataSetConnectorMultiThreaded(partitionedProducer, partitionedConsumer)
+      .withThreadCount(1)
+      .withPartitioning(2, 0)
+      .withJournal(journal)
+      .connect();
+
+    PartitionedTableConsumer partitionedTableConsumer = (PartitionedTableConsumer) partitionedConsumer;
+    verify(partitionedTableConsumer, never()).openPartitionedTable(large);
+    verify(partitionedTableConsumer, never()).tablePartition(eq(large), eq(keyRanges.get(0)), anyRecords());
+    verify(partitionedTableConsumer).tablePartition(eq(large), eq(keyRanges.get(1)), anyRecords());
+    verify(partitionedTableConsumer).closePartitionedTable(large);
+    verify(partitionedConsumer, never()).table(eq(small), anyRecords());
+    verify(partitionedConsumer, never()).table(eq(medium), anyRecords());
+    verify(partitionedConsumer).table(eq(unknown), anyRecords());
+
+    ResumableDataSetConsumer resumableConsumer = (ResumableDataSetConsumer) partitionedConsumer;
+    verify(resumableConsumer).tableResumed(small);
+    verify(resumableConsumer).tableResumed(medium);
+    verify(resumableConsumer).tableResumed(large);
+    verify(resumableConsumer, never()).tableResumed(unknown);
+
+    verify(journal).keyRangeCompleted("Large", keyRanges.get(1));
+    verify(journal).tableCompleted("Large");
+    verify(journal).tableCompleted("Unknown");
+    verify(journal, never()).tableStarted("Large");
+  }
+
+
+  /**
+   * Tests that a journal is rejected if the consumer does not make each table durable as
+   * it is loaded, as the tables recorded would not survive a failure.
+   */
+  @Test
+  public void testJournalNeedsDurableConsumer() {
+    DataSetConsumer resumableConsumer = mock(DataSetConsumer.class, withSettings().extraInterfaces(ResumableDataSetConsumer.class));
+    TransferJournal journal = mock(TransferJournal.class);
+
+    for (DataSetConsumer each : ImmutableList.of(consumer, resumableConsumer)) {
+      try {
+        new DataSetConnectorMultiThreaded(producer, each).withJournal(journal).connect();
+        fail("Expected IllegalStateException");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+      verify(each, never()).open();
+    }
+    verifyZeroInteractions(journal);
+  }
+
+
+  /**
+   * @return A matcher for any records passed to the consumer.
+   */
+  private static Iterable<Record> anyRecords() {
+    return any();
+  }
+
+
+  /**
+   * @return A matcher for any record batches passed to the consumer.
+   */
+  private static Iterable<RecordBatch> anyBatches() {
+    return any();
+  }
+}
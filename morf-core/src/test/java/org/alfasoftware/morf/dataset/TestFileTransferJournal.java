@@ -0,0 +1,121 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests for {@link FileTransferJournal}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestFileTransferJournal {
+
+  /**
+   * Holds the journal files.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+
+  /**
+   * Tests that progress recorded in a journal is read back by a new journal on the same file.
+   */
+  @Test
+  public void testProgressIsReadBack() {
+    File file = new File(folder.getRoot(), "journal");
+    FileTransferJournal journal = new FileTransferJournal(file);
+    journal.tableCompleted("Small");
+    journal.tableStarted("Large");
+    journal.keyRangeCompleted("Large", new KeyRange(1, 50));
+    journal.keyRangeCompleted("Large", new KeyRange(51, 100));
+
+    FileTransferJournal resumed = new FileTransferJournal(file);
+    assertEquals("Completed tables", ImmutableSet.of("Small"), resumed.completedTables());
+    assertEquals("Completed key ranges", ImmutableSet.of(new KeyRange(1, 50), new KeyRange(51, 100)), resumed.completedKeyRanges("Large"));
+    assertTrue("Unknown table", resumed.completedKeyRanges("Medium").isEmpty());
+  }
+
+
+  /**
+   * Tests that starting a table again discards the key ranges recorded for it.
+   */
+  @Test
+  public void testTableStartedDiscardsKeyRanges() {
+    File file = new File(folder.getRoot(), "journal");
+    FileTransferJournal journal = new FileTransferJournal(file);
+    journal.keyRangeCompleted("Large", new KeyRange(1, 50));
+    journal.tableStarted("Large");
+    journal.keyRangeCompleted("Large", new KeyRange(1, 100));
+
+    assertEquals("Completed key ranges", ImmutableSet.of(new KeyRange(1, 100)), journal.completedKeyRanges("Large"));
+    assertEquals("Completed key ranges read back", ImmutableSet.of(new KeyRange(1, 100)), new FileTransferJournal(file).completedKeyRanges("Large"));
+  }
+
+
+  /**
+   * Tests that a line left incomplete by a crash is ignored.
+   *
+   * @throws IOException if the journal file cannot be written.
+   */
+  @Test
+  public void testIncompleteLineIsIgnored() throws IOException {
+    File file = new File(folder.getRoot(), "journal");
+    new FileTransferJournal(file).tableCompleted("Small");
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write("TABLE\tLar".getBytes(StandardCharsets.UTF_8));
+    }
+
+    assertEquals("Completed tables", ImmutableSet.of("Small"), new FileTransferJournal(file).completedTables());
+  }
+
+
+  /**
+   * Tests that events recorded after a line left incomplete by a crash are read back,
+   * and that a line corrupted by being run into the next is ignored.
+   *
+   * @throws IOException if the journal file cannot be written.
+   */
+  @Test
+  public void testEventsAfterIncompleteLine() throws IOException {
+    File file = new File(folder.getRoot(), "journal");
+    new FileTransferJournal(file).tableStarted("Large");
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write("RANGE\tLarge\t5START\tMedium\t\n".getBytes(StandardCharsets.UTF_8));
+      out.write("RANGE\tLarge\t5".getBytes(StandardCharsets.UTF_8));
+    }
+
+    FileTransferJournal journal = new FileTransferJournal(file);
+    journal.keyRangeCompleted("Large", new KeyRange(51, 100));
+    journal.tableCompleted("Small");
+
+    FileTransferJournal resumed = new FileTransferJournal(file);
+    assertEquals("Completed tables", ImmutableSet.of("Small"), resumed.completedTables());
+    assertEquals("Completed key ranges", ImmutableSet.of(new KeyRange(51, 100)), resumed.completedKeyRanges("Large"));
+  }
+}
@@ -0,0 +1,135 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import static org.alfasoftware.morf.metadata.DataSetUtils.record;
+import static org.alfasoftware.morf.metadata.SchemaUtils.autonumber;
+import static org.alfasoftware.morf.metadata.SchemaUtils.column;
+import static org.alfasoftware.morf.metadata.SchemaUtils.table;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.util.Collection;
+import java.util.List;
+
+import org.alfasoftware.morf.jdbc.BulkLoader;
+import org.alfasoftware.morf.jdbc.SqlDialect;
+import org.alfasoftware.morf.jdbc.SqlScriptExecutor;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.Schema;
+import org.alfasoftware.morf.metadata.Table;
+import org.alfasoftware.morf.sql.InsertStatement;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests for {@link TableLoader}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestTableLoader {
+
+  private final Table table = table("Foo").columns(autonumber("id", 1), column("name", DataType.STRING, 10).nullable());
+  private final List<Record> records = ImmutableList.<Record>of(record().setInteger("id", 1).setString("name", "A"));
+  private final Collection<String> preInsert = ImmutableList.of("PRE");
+
+  private SqlDialect sqlDialect;
+  private SqlScriptExecutor sqlScriptExecutor;
+  private Connection connection;
+  private BulkLoader bulkLoader;
+
+
+  @Before
+  public void setUp() {
+    sqlDialect = mock(SqlDialect.class);
+    sqlScriptExecutor = mock(SqlScriptExecutor.class);
+    connection = mock(Connection.class);
+    bulkLoader = mock(BulkLoader.class);
+    when(sqlDialect.convertStatementToSQL(any(InsertStatement.class), any(Schema.class))).thenReturn("INSERT");
+    when(sqlDialect.preInsertWithPresetAutonumStatements(table, false)).thenReturn(preInsert);
+  }
+
+
+  /**
+   * Tests that the dialect's bulk loader is used, between the autonumber statements, when it supports the table.
+   */
+  @Test
+  public void testBulkLoad() {
+    when(sqlDialect.bulkLoader()).thenReturn(Optional.of(bulkLoader));
+    when(bulkLoader.supports(connection, table, true)).thenReturn(true);
+
+    loader().forTable(table).load(records);
+
+    InOrder inOrder = inOrder(sqlScriptExecutor, bulkLoader, sqlDialect);
+    inOrder.verify(sqlScriptExecutor).execute(preInsert, connection);
+    inOrder.verify(bulkLoader).load(connection, sqlScriptExecutor, table, records, true);
+    inOrder.verify(sqlDialect).postInsertWithPresetAutonumStatements(table, sqlScriptExecutor, connection, false);
+    verify(sqlScriptExecutor, never()).executeStatementBatch(anyString(), any(), any(), any(), anyBoolean(), anyInt());
+  }
+
+
+  /**
+   * Tests that records are inserted in batches when the bulk loader does not support the table.
+   */
+  @Test
+  public void testBulkLoadFallsBackToBatchInsert() {
+    when(sqlDialect.bulkLoader()).thenReturn(Optional.of(bulkLoader));
+    when(bulkLoader.supports(connection, table, true)).thenReturn(false);
+
+    loader().forTable(table).load(records);
+
+    verify(bulkLoader, never()).load(any(), any(), any(), any(), anyBoolean());
+    verify(sqlScriptExecutor).executeStatementBatch(eq("INSERT"), any(), eq(records), eq(connection), eq(true), anyInt());
+    verify(sqlDialect).postInsertWithPresetAutonumStatements(table, sqlScriptExecutor, connection, false);
+  }
+
+
+  /**
+   * Tests that records are inserted in batches when the dialect has no bulk loader.
+   */
+  @Test
+  public void testBulkLoadWithoutDialectSupport() {
+    when(sqlDialect.bulkLoader()).thenReturn(Optional.<BulkLoader>absent());
+
+    loader().forTable(table).load(records);
+
+    verify(sqlScriptExecutor).executeStatementBatch(eq("INSERT"), any(), eq(records), eq(connection), eq(true), anyInt());
+  }
+
+
+  private TableLoaderBuilder loader() {
+    return TableLoader.builder()
+        .withDialect(sqlDialect)
+        .withConnection(connection)
+        .withSqlScriptExecutor(sqlScriptExecutor)
+        .explicitCommit()
+        .insertingWithPresetAutonums()
+        .withBulkLoad();
+  }
+}
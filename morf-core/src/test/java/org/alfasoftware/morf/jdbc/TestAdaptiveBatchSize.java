@@ -0,0 +1,97 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import static org.alfasoftware.morf.metadata.SchemaUtils.column;
+import static org.alfasoftware.morf.metadata.SchemaUtils.idColumn;
+import static org.alfasoftware.morf.metadata.SchemaUtils.table;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.alfasoftware.morf.metadata.DataType;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AdaptiveBatchSize}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestAdaptiveBatchSize {
+
+  /**
+   * Tests that tables with wide rows start with smaller batches than tables with narrow ones.
+   */
+  @Test
+  public void testInitialSizeFromColumnTypes() {
+    AdaptiveBatchSize narrow = new AdaptiveBatchSize(table("Narrow").columns(idColumn(), column("flag", DataType.BOOLEAN)));
+    AdaptiveBatchSize wide = new AdaptiveBatchSize(table("Wide").columns(idColumn(), column("content", DataType.BLOB)));
+
+    assertEquals("Narrow batch size", 10000, narrow.getBatchSize());
+    assertEquals("Wide batch size", 15, wide.getBatchSize());
+  }
+
+
+  /**
+   * Tests that the batch size grows while batches execute faster than the target, up to the maximum.
+   */
+  @Test
+  public void testGrowsWhenFast() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize(table("Wide").columns(idColumn(), column("content", DataType.BLOB)))
+        .withBounds(10, 50)
+        .withTargetFlushMillis(100);
+
+    assertTrue("Changed", batchSize.batchExecuted(15, TimeUnit.MILLISECONDS.toNanos(10)));
+    assertEquals("Doubled", 30, batchSize.getBatchSize());
+    assertTrue("Changed", batchSize.batchExecuted(30, TimeUnit.MILLISECONDS.toNanos(10)));
+    assertEquals("Capped at maximum", 50, batchSize.getBatchSize());
+    assertFalse("Unchanged", batchSize.batchExecuted(50, TimeUnit.MILLISECONDS.toNanos(10)));
+  }
+
+
+  /**
+   * Tests that the batch size shrinks when batches execute slower than the target, down to the minimum.
+   */
+  @Test
+  public void testShrinksWhenSlow() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize(table("Narrow").columns(idColumn()))
+        .withBounds(3000, 8000)
+        .withTargetFlushMillis(100);
+
+    assertEquals("Initial", 8000, batchSize.getBatchSize());
+    assertTrue("Changed", batchSize.batchExecuted(8000, TimeUnit.MILLISECONDS.toNanos(1000)));
+    assertEquals("Halved", 4000, batchSize.getBatchSize());
+    assertTrue("Changed", batchSize.batchExecuted(4000, TimeUnit.MILLISECONDS.toNanos(1000)));
+    assertEquals("Capped at minimum", 3000, batchSize.getBatchSize());
+  }
+
+
+  /**
+   * Tests that batches close to the target time, and partial batches, leave the size alone.
+   */
+  @Test
+  public void testStableNearTarget() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize(table("Narrow").columns(idColumn()))
+        .withBounds(10, 1000)
+        .withTargetFlushMillis(100);
+
+    assertFalse("Near target", batchSize.batchExecuted(1000, TimeUnit.MILLISECONDS.toNanos(120)));
+    assertFalse("Partial batch", batchSize.batchExecuted(10, TimeUnit.MILLISECONDS.toNanos(1000)));
+    assertEquals("Batch size", 1000, batchSize.getBatchSize());
+  }
+}
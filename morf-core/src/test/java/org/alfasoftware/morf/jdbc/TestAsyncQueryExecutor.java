@@ -0,0 +1,142 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link AsyncQueryExecutor}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestAsyncQueryExecutor {
+
+  private static final String SQL = "select id from Foo";
+
+  private final DataSource dataSource = mock(DataSource.class);
+  private final Connection connection = mock(Connection.class);
+  private final PreparedStatement preparedStatement = mock(PreparedStatement.class);
+  private final ResultSet resultSet = mock(ResultSet.class);
+
+  private SqlScriptExecutor sqlScriptExecutor;
+
+
+  /**
+   * Sets up the mocks.
+   *
+   * @throws SQLException not really thrown.
+   */
+  @Before
+  public void setUp() throws SQLException {
+    when(dataSource.getConnection()).thenReturn(connection);
+    when(connection.prepareStatement(SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    sqlScriptExecutor = new SqlScriptExecutorProvider(dataSource, mock(SqlDialect.class)).get();
+  }
+
+
+  /**
+   * Checks that no more than the maximum number of queries run at once, that they all
+   * complete, and that each is given the timeout.
+   *
+   * @throws Exception if the test fails.
+   */
+  @Test
+  public void testConcurrencyLimited() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    List<CompletableFuture<Integer>> results = new ArrayList<>();
+    try (AsyncQueryExecutor async = new AsyncQueryExecutor(sqlScriptExecutor).withMaxConcurrentQueries(2).withQueryTimeout(30)) {
+      for (int i = 0; i < 10; i++) {
+        final int query = i;
+        results.add(async.executeQuery(SQL, rs -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          try {
+            Thread.sleep(10);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          running.decrementAndGet();
+          return query;
+        }));
+      }
+
+      for (int i = 0; i < 10; i++) {
+        assertEquals("Result " + i, Integer.valueOf(i), results.get(i).get(10, TimeUnit.SECONDS));
+      }
+    }
+
+    assertTrue("At most 2 at once, not " + maxRunning.get(), maxRunning.get() <= 2);
+    verify(preparedStatement, times(10)).setQueryTimeout(30);
+    verify(connection, times(10)).close();
+  }
+
+
+  /**
+   * Checks that a failed query completes its future exceptionally, without affecting the others.
+   *
+   * @throws Exception if the test fails.
+   */
+  @Test
+  public void testFailure() throws Exception {
+    try (AsyncQueryExecutor async = new AsyncQueryExecutor(sqlScriptExecutor).withMaxConcurrentQueries(1)) {
+      CompletableFuture<Integer> failed = async.executeQuery(SQL, rs -> {
+        throw new SQLException("Fail");
+      });
+      CompletableFuture<Integer> succeeded = async.executeQuery(SQL, rs -> 1);
+
+      try {
+        failed.get(10, TimeUnit.SECONDS);
+        fail("Expected an exception");
+      } catch (ExecutionException e) {
+        assertTrue("Cause", e.getCause() instanceof RuntimeSqlException);
+      }
+      assertEquals("Succeeded", Integer.valueOf(1), succeeded.get(10, TimeUnit.SECONDS));
+    }
+  }
+
+
+  /**
+   * Checks that the limit must be positive.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLimit() {
+    new AsyncQueryExecutor(sqlScriptExecutor).withMaxConcurrentQueries(0);
+  }
+}
@@ -0,0 +1,72 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.alfasoftware.morf.dataset.KeyRange;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests for {@link DatabaseDataSetProducer}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestDatabaseDataSetProducer {
+
+  /**
+   * Tests that the span of keys is split into ranges of equal length, but for the last.
+   */
+  @Test
+  public void testSplitEvenly() {
+    assertEquals("Even", ImmutableList.of(new KeyRange(1, 25), new KeyRange(26, 50), new KeyRange(51, 75), new KeyRange(76, 100)),
+      DatabaseDataSetProducer.splitEvenly(1, 100, 4));
+    assertEquals("Uneven", ImmutableList.of(new KeyRange(1, 4), new KeyRange(5, 8), new KeyRange(9, 10)),
+      DatabaseDataSetProducer.splitEvenly(1, 10, 3));
+    assertEquals("Single key", ImmutableList.of(new KeyRange(5, 5)), DatabaseDataSetProducer.splitEvenly(5, 5, 3));
+  }
+
+
+  /**
+   * Tests that keys at the limits of a long are split without overflowing.
+   */
+  @Test
+  public void testSplitEvenlyAtLimits() {
+    assertEquals("Whole range", ImmutableList.of(new KeyRange(Long.MIN_VALUE, -1), new KeyRange(0, Long.MAX_VALUE)),
+      DatabaseDataSetProducer.splitEvenly(Long.MIN_VALUE, Long.MAX_VALUE, 2));
+    assertEquals("Highest keys", ImmutableList.of(new KeyRange(Long.MAX_VALUE - 2, Long.MAX_VALUE - 1), new KeyRange(Long.MAX_VALUE, Long.MAX_VALUE)),
+      DatabaseDataSetProducer.splitEvenly(Long.MAX_VALUE - 2, Long.MAX_VALUE, 2));
+    assertEquals("Lowest keys", ImmutableList.of(new KeyRange(Long.MIN_VALUE, Long.MIN_VALUE + 1), new KeyRange(Long.MIN_VALUE + 2, Long.MIN_VALUE + 2)),
+      DatabaseDataSetProducer.splitEvenly(Long.MIN_VALUE, Long.MIN_VALUE + 2, 2));
+  }
+
+
+  /**
+   * Tests that sampled slices are shared out evenly among contiguous ranges, with gaps in the keys ignored.
+   */
+  @Test
+  public void testShareOut() {
+    List<KeyRange> occupied = ImmutableList.of(new KeyRange(1, 2), new KeyRange(5, 5), new KeyRange(100, 110), new KeyRange(200, 200));
+    assertEquals("Even", ImmutableList.of(new KeyRange(1, 99), new KeyRange(100, 200)), DatabaseDataSetProducer.shareOut(occupied, 2));
+    assertEquals("Uneven", ImmutableList.of(new KeyRange(1, 4), new KeyRange(5, 99), new KeyRange(100, 200)), DatabaseDataSetProducer.shareOut(occupied, 3));
+    assertEquals("Fewer slices than ranges", ImmutableList.of(new KeyRange(1, 4), new KeyRange(5, 5)),
+      DatabaseDataSetProducer.shareOut(occupied.subList(0, 2), 3));
+  }
+}
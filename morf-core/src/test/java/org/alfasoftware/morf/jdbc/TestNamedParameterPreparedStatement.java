@@ -15,9 +15,12 @@
 
 package org.alfasoftware.morf.jdbc;
 
+import static org.alfasoftware.morf.sql.element.SqlParameter.parameter;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -30,6 +33,8 @@ import java.sql.SQLException;
 import org.junit.Test;
 
 import org.alfasoftware.morf.jdbc.NamedParameterPreparedStatement.ParseResult;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.sql.element.SqlParameter;
 
 /**
  * Tests {@link NamedParameterPreparedStatement}.
@@ -58,6 +63,17 @@ public class TestNamedParameterPreparedStatement {
   }
 
 
+  /**
+   * Ensure identical SQL is only parsed once.
+   */
+  @Test
+  public void testParseCached() {
+    String sql = "SELECT :fee FROM Foo WHERE :fi = 1";
+    assertThat("Cached", NamedParameterPreparedStatement.parse(sql), sameInstance(NamedParameterPreparedStatement.parse(sql)));
+    assertThat("Distinct SQL", NamedParameterPreparedStatement.parse(sql + " "), not(sameInstance(NamedParameterPreparedStatement.parse(sql))));
+  }
+
+
   /**
    * Tests that maximum rows are passed through.
    *
@@ -70,4 +86,28 @@ public class TestNamedParameterPreparedStatement {
     NamedParameterPreparedStatement.parse("SELECT * FROM somewhere").createFor(connection).setMaxRows(123);
     verify(underlying).setMaxRows(123);
   }
+
+
+  /**
+   * Tests that a single occurrence of a parameter can be set, as for each row of a multi-row insert.
+   *
+   * @throws SQLException
+   */
+  @Test
+  public void testForOccurrence() throws SQLException {
+    Connection connection = mock(Connection.class);
+    PreparedStatement underlying = mock(PreparedStatement.class);
+    when(connection.prepareStatement("INSERT INTO Foo (id) VALUES (?), (?)")).thenReturn(underlying);
+    SqlParameter id = parameter("id").type(DataType.BIG_INTEGER).build();
+
+    NamedParameterPreparedStatement statement = NamedParameterPreparedStatement.parse("INSERT INTO Foo (id) VALUES (:id), (:id)").createFor(connection);
+    statement.forOccurrence(0).setLong(id, 10L);
+    statement.forOccurrence(1).setLong(id, 20L);
+    statement.forOccurrence(-1).setLong(id, 30L);
+
+    verify(underlying).setLong(1, 10L);
+    verify(underlying).setLong(2, 20L);
+    verify(underlying).setLong(1, 30L);
+    verify(underlying).setLong(2, 30L);
+  }
 }
@@ -0,0 +1,178 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import static org.alfasoftware.morf.metadata.DataSetUtils.statementParameters;
+import static org.alfasoftware.morf.sql.element.SqlParameter.parameter;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.alfasoftware.morf.jdbc.NamedParameterPreparedStatement.ParseResult;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.sql.element.SqlParameter;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests {@link ParameterBinder}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestParameterBinder {
+
+  private final Connection connection = mock(Connection.class);
+  private final PreparedStatement jdbcStatement = mock(PreparedStatement.class);
+
+  private final List<SqlParameter> parameters = ImmutableList.of(
+    parameter("id").type(DataType.BIG_INTEGER).build(),
+    parameter("name").type(DataType.STRING).width(10).build(),
+    parameter("amount").type(DataType.DECIMAL).width(9, 2).build(),
+    parameter("flag").type(DataType.BOOLEAN).build()
+  );
+
+
+  /**
+   * Sets up the mock connection.
+   *
+   * @throws SQLException not really thrown.
+   */
+  @Before
+  public void setUp() throws SQLException {
+    when(connection.prepareStatement(anyString())).thenReturn(jdbcStatement);
+  }
+
+
+  /**
+   * Checks each parameter is set at every index at which it occurs, with the same conversions
+   * as {@link SqlDialect#prepareStatementParameters(NamedParameterPreparedStatement, Iterable, org.alfasoftware.morf.metadata.DataValueLookup)}.
+   *
+   * @throws SQLException not really thrown.
+   */
+  @Test
+  public void testBind() throws SQLException {
+    ParseResult sql = NamedParameterPreparedStatement.parse("SELECT :id, :name, :amount, :flag FROM Foo WHERE :id > 0");
+    SqlDialect dialect = new MockDialect();
+
+    NamedParameterPreparedStatement statement = sql.createFor(connection);
+    sql.binderFor(parameters, dialect).bind(statement, statementParameters()
+      .setLong("id", 3L)
+      .setString("name", "")
+      .setBigDecimal("amount", new BigDecimal("1.50"))
+      .setBoolean("flag", true), dialect);
+
+    verify(jdbcStatement).setLong(1, 3L);
+    verify(jdbcStatement).setLong(5, 3L);
+    verify(jdbcStatement).setString(2, null);
+    verify(jdbcStatement).setBigDecimal(3, new BigDecimal("1.50"));
+    verify(jdbcStatement).setBoolean(4, true);
+
+    sql.binderFor(parameters, dialect).bind(statement, statementParameters().setNull("id").setString("name", "Bob").setNull("flag"), dialect);
+
+    verify(jdbcStatement).setObject(1, null);
+    verify(jdbcStatement).setObject(5, null);
+    verify(jdbcStatement).setString(2, "Bob");
+    verify(jdbcStatement).setObject(4, null);
+  }
+
+
+  /**
+   * Checks a binder is only compiled again if the parameters or dialect change.
+   */
+  @Test
+  public void testBinderReused() {
+    ParseResult sql = NamedParameterPreparedStatement.parse("SELECT :id, :name, :amount, :flag FROM Bar");
+    SqlDialect dialect = new MockDialect();
+
+    ParameterBinder binder = sql.binderFor(parameters, dialect);
+    assertThat("Same parameters", sql.binderFor(ImmutableList.copyOf(parameters), new MockDialect()), sameInstance(binder));
+
+    ParameterBinder otherParameters = sql.binderFor(parameters.subList(0, 2), dialect);
+    assertThat("Other parameters", otherParameters, not(sameInstance(binder)));
+    assertThat("Other dialect", sql.binderFor(parameters.subList(0, 2), new BooleanAsIntegerDialect()), not(sameInstance(otherParameters)));
+  }
+
+
+  /**
+   * Checks that only the selected occurrence of each parameter is set for multi-row statements.
+   *
+   * @throws SQLException not really thrown.
+   */
+  @Test
+  public void testBindOccurrence() throws SQLException {
+    ParseResult sql = NamedParameterPreparedStatement.parse("INSERT INTO Foo (id, name) VALUES (:id, :name), (:id, :name)");
+    SqlDialect dialect = new MockDialect();
+    List<SqlParameter> rowParameters = parameters.subList(0, 2);
+
+    NamedParameterPreparedStatement statement = sql.createFor(connection);
+    statement.forOccurrence(1);
+    sql.binderFor(rowParameters, dialect).bind(statement, statementParameters().setLong("id", 7L).setString("name", "Sue"), dialect);
+
+    verify(jdbcStatement).setLong(3, 7L);
+    verify(jdbcStatement).setString(4, "Sue");
+
+    statement.forOccurrence(2);
+    try {
+      sql.binderFor(rowParameters, dialect).bind(statement, statementParameters().setLong("id", 8L).setString("name", "Jim"), dialect);
+      fail("Expected an exception");
+    } catch (RuntimeException e) {
+      assertThat(e.getCause().getMessage(), containsString("does not occur [3] times"));
+    }
+  }
+
+
+  /**
+   * Checks that a dialect's own handling of boolean parameters is kept.
+   *
+   * @throws SQLException not really thrown.
+   */
+  @Test
+  public void testDialectHookKept() throws SQLException {
+    ParseResult sql = NamedParameterPreparedStatement.parse("SELECT :id, :name, :amount, :flag FROM Baz");
+    SqlDialect dialect = new BooleanAsIntegerDialect();
+
+    NamedParameterPreparedStatement statement = sql.createFor(connection);
+    sql.binderFor(parameters, dialect).bind(statement, statementParameters().setLong("id", 1L).setBoolean("flag", true), dialect);
+
+    verify(jdbcStatement).setLong(1, 1L);
+    verify(jdbcStatement).setInt(4, 1);
+  }
+
+
+  /**
+   * A dialect which sets booleans as integers.
+   */
+  private static final class BooleanAsIntegerDialect extends MockDialect {
+    @Override
+    protected void prepareBooleanParameter(NamedParameterPreparedStatement statement, Boolean boolVal, SqlParameter parameter) throws SQLException {
+      statement.setInt(parameter, boolVal ? 1 : 0);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc;
+
+import static org.alfasoftware.morf.sql.SqlUtils.field;
+import static org.alfasoftware.morf.sql.SqlUtils.select;
+import static org.alfasoftware.morf.sql.SqlUtils.tableRef;
+import static org.alfasoftware.morf.sql.SqlUtils.update;
+import static org.alfasoftware.morf.sql.element.Criterion.eq;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfasoftware.morf.sql.SelectStatement;
+import org.alfasoftware.morf.sql.UpdateStatement;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RenderedSqlCache}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestRenderedSqlCache {
+
+  private final AtomicInteger renderCount = new AtomicInteger();
+
+
+  private String render(Object statement) {
+    renderCount.incrementAndGet();
+    return statement.toString();
+  }
+
+
+  /**
+   * Tests that structurally equal statements are rendered once.
+   */
+  @Test
+  public void testEqualStatementsRenderedOnce() {
+    RenderedSqlCache cache = new RenderedSqlCache(10);
+
+    String first = cache.get(select(field("a")).from(tableRef("Foo")).where(eq(field("a"), 1)), this::render);
+    String second = cache.get(select(field("a")).from(tableRef("Foo")).where(eq(field("a"), 1)), this::render);
+    String other = cache.get(select(field("a")).from(tableRef("Foo")).where(eq(field("a"), 2)), this::render);
+    cache.get(update(tableRef("Foo")).set(field("a")), this::render);
+
+    assertEquals("SQL", first, second);
+    assertEquals("Renders", 3, renderCount.get());
+    assertEquals("Hits", 1, cache.hitCount());
+    assertEquals("Misses", 3, cache.missCount());
+    assertEquals("Size", 3, cache.size());
+    assertEquals("Other SQL", select(field("a")).from(tableRef("Foo")).where(eq(field("a"), 2)).toString(), other);
+  }
+
+
+  /**
+   * Tests that changing a statement after it is rendered does not change what is cached.
+   */
+  @Test
+  public void testMutatedStatementNotServedFromCache() {
+    RenderedSqlCache cache = new RenderedSqlCache(10);
+
+    SelectStatement statement = select(field("a")).from(tableRef("Foo"));
+    String before = cache.get(statement, this::render);
+    statement.where(eq(field("a"), 1));
+    String after = cache.get(statement, this::render);
+
+    assertEquals("Renders", 2, renderCount.get());
+    assertEquals("Before", select(field("a")).from(tableRef("Foo")).toString(), before);
+    assertEquals("After", statement.toString(), after);
+    assertEquals("Original still cached", before, cache.get(select(field("a")).from(tableRef("Foo")), this::render));
+    assertEquals("Renders", 2, renderCount.get());
+  }
+
+
+  /**
+   * Tests that the least recently used statements are evicted once the cache is full,
+   * and that a cache of size zero renders every time.
+   */
+  @Test
+  public void testBounded() {
+    RenderedSqlCache cache = new RenderedSqlCache(2);
+    for (int i = 0; i < 5; i++) {
+      cache.get(select(field("a" + i)).from(tableRef("Foo")), this::render);
+    }
+    assertEquals("Size", 2, cache.size());
+    assertEquals("Evictions", 3, cache.evictionCount());
+
+    RenderedSqlCache disabled = new RenderedSqlCache(0);
+    UpdateStatement statement = update(tableRef("Foo")).set(field("a"));
+    disabled.get(statement, this::render);
+    disabled.get(statement, this::render);
+    assertEquals("Renders", 7, renderCount.get());
+    assertEquals("Size", 0, disabled.size());
+  }
+}
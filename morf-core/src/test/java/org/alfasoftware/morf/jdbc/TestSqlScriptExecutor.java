@@ -3,23 +3,51 @@ package org.alfasoftware.morf.jdbc;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.alfasoftware.morf.metadata.DataSetUtils.record;
+import static org.alfasoftware.morf.metadata.SchemaUtils.idColumn;
+import static org.alfasoftware.morf.metadata.SchemaUtils.table;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.sql.DataSource;
 
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.jdbc.SqlScriptExecutor.RecordIterator;
+import org.alfasoftware.morf.jdbc.SqlScriptExecutor.SqlScriptVisitor;
+import org.alfasoftware.morf.metadata.DataSetUtils.RecordBuilder;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.DataValueLookup;
+import org.alfasoftware.morf.metadata.RecordLayout;
+import org.alfasoftware.morf.metadata.Table;
+import org.alfasoftware.morf.sql.element.SqlParameter;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+
 /**
  * Test for {@link SqlScriptExecutor}.
  *
@@ -163,5 +191,285 @@ public class TestSqlScriptExecutor {
       assertEquals("Cause", SQLException.class, e.getCause().getClass());
     }
   }
-}
 
+
+  /**
+   * Verify that {@link SqlScriptExecutor#executeStatementBatch(String, Iterable, Iterable, Connection, boolean, AdaptiveBatchSize)}
+   * flushes at the adaptive batch size, and reports it to the visitor.
+   *
+   * @throws SQLException if something goes wrong.
+   */
+  @Test
+  public void testExecuteStatementBatchWithAdaptiveBatchSize() throws SQLException {
+    String sql = "insert into Foo (id) values (:id)";
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    when(connection.prepareStatement("insert into Foo (id) values (?)")).thenReturn(preparedStatement);
+    when(sqlDialect.useInsertBatching()).thenReturn(true);
+    SqlScriptVisitor visitor = mock(SqlScriptVisitor.class);
+
+    List<DataValueLookup> records = Arrays.<DataValueLookup>asList(record().setInteger("id", 1), record().setInteger("id", 2), record().setInteger("id", 3));
+    Table table = table("Foo").columns(idColumn());
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize(table).withBounds(1, 2);
+
+    new SqlScriptExecutorProvider(dataSource, sqlDialect).get(visitor)
+      .executeStatementBatch(sql, SqlParameter.parametersFromColumns(table.columns()), records, connection, false, batchSize);
+
+    verify(preparedStatement, times(3)).addBatch();
+    verify(preparedStatement, times(2)).executeBatch();
+    verify(visitor).batchSizeChanged(eq(sql), eq(2));
+    verify(visitor, times(1)).batchSizeChanged(eq(sql), anyInt());
+  }
+
+
+  /**
+   * Verify that {@link SqlScriptExecutor#executeMultiRowStatementBatch(java.util.function.IntFunction, int, Iterable, Iterable, Connection, boolean, int)}
+   * groups records into multi-row statements, with a shorter statement for those left over.
+   *
+   * @throws SQLException if something goes wrong.
+   */
+  @Test
+  public void testExecuteMultiRowStatementBatch() throws SQLException {
+    PreparedStatement twoRows = mock(PreparedStatement.class);
+    PreparedStatement oneRow = mock(PreparedStatement.class);
+    when(connection.prepareStatement("insert into Foo (id) values (?), (?)")).thenReturn(twoRows);
+    when(connection.prepareStatement("insert into Foo (id) values (?)")).thenReturn(oneRow);
+    when(sqlDialect.useInsertBatching()).thenReturn(true);
+
+    List<DataValueLookup> records = Arrays.<DataValueLookup>asList(record().setInteger("id", 1), record().setInteger("id", 2), record().setInteger("id", 3),
+      record().setInteger("id", 4), record().setInteger("id", 5));
+    Table table = table("Foo").columns(idColumn());
+
+    sqlScriptExecutor.executeMultiRowStatementBatch(
+      rowCount -> "insert into Foo (id) values " + String.join(", ", Collections.nCopies(rowCount, "(:id)")),
+      2, SqlParameter.parametersFromColumns(table.columns()), records, connection, false, 10);
+
+    verify(twoRows, times(2)).addBatch();
+    verify(twoRows, times(1)).executeBatch();
+    verify(oneRow).executeUpdate();
+  }
+
+
+  /**
+   * Verify that {@link SqlScriptExecutor#executeMultiRowStatementBatch(java.util.function.IntFunction, int, Iterable, Iterable, Connection, boolean, int)}
+   * binds the values each record had when it was read, even if the same instance is reused for every record.
+   *
+   * @throws SQLException if something goes wrong.
+   */
+  @Test
+  public void testExecuteMultiRowStatementBatchWithReusedRecord() throws SQLException {
+    PreparedStatement twoRows = mock(PreparedStatement.class);
+    PreparedStatement oneRow = mock(PreparedStatement.class);
+    when(connection.prepareStatement("insert into Foo (id) values (?), (?)")).thenReturn(twoRows);
+    when(connection.prepareStatement("insert into Foo (id) values (?)")).thenReturn(oneRow);
+    SqlScriptExecutor executor = new SqlScriptExecutorProvider(dataSource, new MockDialect()).get();
+
+    RecordBuilder reused = record();
+    Iterable<DataValueLookup> records = Iterables.transform(Arrays.asList(1L, 2L, 3L, 4L, 5L), id -> reused.setLong("id", id));
+    Table table = table("Foo").columns(idColumn());
+
+    executor.executeMultiRowStatementBatch(
+      rowCount -> "insert into Foo (id) values " + String.join(", ", Collections.nCopies(rowCount, "(:id)")),
+      2, SqlParameter.parametersFromColumns(table.columns()), records, connection, false, 10);
+
+    verify(twoRows).setLong(1, 1L);
+    verify(twoRows).setLong(2, 2L);
+    verify(twoRows).setLong(1, 3L);
+    verify(twoRows).setLong(2, 4L);
+    verify(oneRow).setLong(1, 5L);
+  }
+
+
+  /**
+   * Verify that statements executed repeatedly on a connection with a {@link PreparedStatementCache}
+   * are prepared once, reset between uses, and closed with the cache.
+   *
+   * @throws SQLException if something goes wrong.
+   */
+  @Test
+  public void testPreparedStatementCache() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    when(connection.prepareStatement("update Foo set bar = ? where id = ?")).thenReturn(preparedStatement);
+    Table table = table("Foo").columns(idColumn());
+
+    try (PreparedStatementCache statements = sqlScriptExecutor.cachePreparedStatements(connection)) {
+      for (int i = 0; i < 3; i++) {
+        sqlScriptExecutor.execute("update Foo set bar = :bar where id = :id", connection, SqlParameter.parametersFromColumns(table.columns()), record().setInteger("id", i));
+      }
+      verify(connection, times(1)).prepareStatement("update Foo set bar = ? where id = ?");
+      verify(preparedStatement, times(3)).executeUpdate();
+      verify(preparedStatement, times(3)).clearParameters();
+      verify(preparedStatement, never()).close();
+      assertEquals("Hits", 2, statements.hitCount());
+      assertEquals("Misses", 1, statements.missCount());
+      assertEquals("Size", 1, statements.size());
+    }
+    verify(preparedStatement, times(1)).close();
+
+    // Once the cache is closed, statements are prepared and closed each time again
+    sqlScriptExecutor.execute("update Foo set bar = :bar where id = :id", connection, SqlParameter.parametersFromColumns(table.columns()), record().setInteger("id", 4));
+    verify(connection, times(2)).prepareStatement("update Foo set bar = ? where id = ?");
+    verify(preparedStatement, times(2)).close();
+  }
+
+
+  /**
+   * Verify that statements whose parameters differ only in order are not confused by the
+   * {@link PreparedStatementCache}, even though their JDBC SQL is the same, and that the
+   * fetch size is reset before a statement is reused.
+   *
+   * @throws SQLException if something goes wrong.
+   */
+  @Test
+  public void testPreparedStatementCacheDistinguishesParameterOrder() throws SQLException {
+    PreparedStatement xFirst = mock(PreparedStatement.class);
+    PreparedStatement yFirst = mock(PreparedStatement.class);
+    when(connection.prepareStatement("update Foo set a = ? where b = ?")).thenReturn(xFirst, yFirst);
+    SqlScriptExecutor executor = new SqlScriptExecutorProvider(dataSource, new MockDialect()).get();
+    List<SqlParameter> parameters = Arrays.asList(
+      SqlParameter.parameter("x").type(DataType.INTEGER).build(),
+      SqlParameter.parameter("y").type(DataType.INTEGER).build());
+
+    try (PreparedStatementCache statements = executor.cachePreparedStatements(connection)) {
+      executor.execute("update Foo set a = :x where b = :y", connection, parameters, record().setInteger("x", 1).setInteger("y", 2));
+      executor.execute("update Foo set a = :y where b = :x", connection, parameters, record().setInteger("x", 1).setInteger("y", 2));
+
+      verify(xFirst).setInt(1, 1);
+      verify(xFirst).setInt(2, 2);
+      verify(yFirst).setInt(1, 2);
+      verify(yFirst).setInt(2, 1);
+      assertEquals("Misses", 2, statements.missCount());
+    }
+  }
+
+
+  /**
+   * Verify that a statement returned to the {@link PreparedStatementCache} has its fetch size reset.
+   *
+   * @throws SQLException if something goes wrong.
+   */
+  @Test
+  public void testPreparedStatementCacheResetsFetchSize() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    when(connection.prepareStatement("select a from Foo")).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(mock(ResultSet.class));
+    when(sqlDialect.fetchSizeForBulkSelectsAllowingConnectionUseDuringStreaming()).thenReturn(500);
+
+    try (PreparedStatementCache statements = sqlScriptExecutor.cachePreparedStatements(connection)) {
+      sqlScriptExecutor.executeQuery("select a from Foo").withConnection(connection).processWith(resultSet -> null);
+      verify(preparedStatement).setFetchSize(500);
+      verify(preparedStatement).setFetchSize(0);
+      assertEquals("Size", 1, statements.size());
+    }
+  }
+
+
+  /**
+   * Verify that {@link SqlScriptExecutor.QueryBuilder#stream(Iterable)} reads the records lazily on a
+   * connection of its own, and releases everything once they have all been read.
+   *
+   * @throws SQLException if something goes wrong.
+   */
+  @Test
+  public void testStream() throws SQLException {
+    ResultSet resultSet = mockQuery(100);
+    when(resultSet.next()).thenReturn(true, true, false);
+    when(resultSet.getLong(1)).thenReturn(1L, 2L);
+
+    try (Stream<Record> records = sqlScriptExecutor.executeQuery("select id from Foo").stream(table("Foo").columns(idColumn()).columns())) {
+      verify(resultSet, never()).next();
+      assertEquals("Records", Arrays.asList(1L, 2L), records.map(record -> record.getLong("id")).collect(Collectors.toList()));
+      verify(resultSet).close();
+      verify(connection).commit();
+      verify(connection).close();
+    }
+    verify(resultSet, times(1)).close();
+    verify(connection, times(1)).close();
+  }
+
+
+  /**
+   * Verify that an iterator which reads ahead can be closed before it has been read in full.
+   *
+   * @throws SQLException if something goes wrong.
+   */
+  @Test
+  public void testIteratorWithReadAheadClosedEarly() throws SQLException {
+    ResultSet resultSet = mockQuery(2);
+    when(resultSet.next()).thenReturn(true);
+    when(resultSet.getLong(1)).thenReturn(7L);
+
+    try (RecordIterator records = sqlScriptExecutor.executeQuery("select id from Foo").withReadAhead(3).iterator(table("Foo").columns(idColumn()).columns())) {
+      for (int i = 0; i < 5; i++) {
+        assertEquals("Record " + i, Long.valueOf(7L), records.next().getLong("id"));
+      }
+    }
+    verify(resultSet).close();
+    verify(connection).close();
+  }
+
+
+  /**
+   * Verify that rows are read ahead on a daemon thread, which cannot keep the JVM alive.
+   *
+   * @throws SQLException if something goes wrong.
+   */
+  @Test
+  public void testReadAheadOnDaemonThread() throws SQLException {
+    ResultSet resultSet = mockQuery(2);
+    List<Boolean> daemon = Collections.synchronizedList(new ArrayList<Boolean>());
+    when(resultSet.next()).thenAnswer(invocation -> {
+      daemon.add(Thread.currentThread().isDaemon());
+      return daemon.size() < 3;
+    });
+
+    try (RecordIterator records = sqlScriptExecutor.executeQuery("select id from Foo").withReadAhead(1).iterator(table("Foo").columns(idColumn()).columns())) {
+      assertEquals("Records", 2, Iterators.size(records));
+    }
+    assertEquals("Read on daemon thread", Collections.nCopies(3, true), daemon);
+  }
+
+
+  /**
+   * Verify that an iterator whose rows have all been read ahead, but which is discarded without being
+   * read or closed, still releases its connection once it has been garbage collected.
+   *
+   * @throws Exception if something goes wrong.
+   */
+  @Test
+  public void testDiscardedIteratorWithReadAheadReleased() throws Exception {
+    ResultSet resultSet = mockQuery(2);
+    when(resultSet.next()).thenReturn(true, false);
+    CountDownLatch closed = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      closed.countDown();
+      return null;
+    }).when(connection).close();
+
+    sqlScriptExecutor.executeQuery("select id from Foo").withReadAhead(3).iterator(table("Foo").columns(idColumn()).columns());
+
+    long deadline = System.currentTimeMillis() + 30000;
+    while (!closed.await(50, TimeUnit.MILLISECONDS)) {
+      assertTrue("Connection not closed", System.currentTimeMillis() < deadline);
+      System.gc();
+    }
+    verify(resultSet).close();
+    verify(connection).close();
+  }
+
+
+  /**
+   * Sets up the mocks to run a query of one column, <var>id</var>, on a connection from the data source.
+   */
+  private ResultSet mockQuery(int fetchSize) throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+    when(connection.prepareStatement("select id from Foo", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.findColumn("id")).thenReturn(1);
+    when(sqlDialect.fetchSizeForBulkSelects()).thenReturn(fetchSize);
+    when(sqlDialect.resultSetToRecord(any(ResultSet.class), any(RecordLayout.class))).thenAnswer(
+      invocation -> record().setLong("id", ((ResultSet) invocation.getArguments()[0]).getLong(1)));
+    return resultSet;
+  }
+}
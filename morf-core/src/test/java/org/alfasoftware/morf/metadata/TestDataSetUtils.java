@@ -5,11 +5,15 @@ import static org.alfasoftware.morf.metadata.SchemaUtils.column;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.alfasoftware.morf.dataset.BaseRecordMatcher;
 import org.alfasoftware.morf.metadata.DataSetUtils.RecordBuilder;
@@ -18,6 +22,8 @@ import org.apache.commons.codec.binary.Base64;
 import org.joda.time.LocalDate;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableList;
+
 
 /**
  * Tests {@link DataSetUtils}.
@@ -156,6 +162,43 @@ public class TestDataSetUtils {
   }
 
 
+  /**
+   * Strings should parse exactly as the general parsers would, sharing small integers and
+   * recent dates, and reporting malformed values in the same way.
+   */
+  @Test
+  public void testStringParsing() {
+    String col = "CoL";
+
+    assertSame(record().setString(col, "1000").getLong(col),    record().setString(col, "1000").getLong(col));
+    assertSame(record().setString(col, "1000").getInteger(col), record().setString(col, "1000").getInteger(col));
+    assertEquals(Long.valueOf(-1000L),       record().setString(col, "-1000").getLong(col));
+    assertEquals(Long.valueOf(Long.MAX_VALUE), record().setString(col, Long.toString(Long.MAX_VALUE)).getLong(col));
+
+    assertSame(record().setString(col, "2009-12-31").getLocalDate(col), record().setString(col, "2009-12-31").getLocalDate(col));
+    assertEquals(new LocalDate(2009, 1, 2),           record().setString(col, "2009-1-2").getLocalDate(col));
+    assertEquals(java.sql.Date.valueOf("2009-1-2"),   record().setString(col, "2009-1-2").getDate(col));
+    assertEquals(java.sql.Date.valueOf("2009-02-31"), record().setString(col, "2009-02-31").getDate(col));
+
+    for (String malformed : new String[] { "2009-13-01", "2009-02-31", "2009/12/31", "20091231" }) {
+      try {
+        record().setString(col, malformed).getLocalDate(col);
+        fail("Expected IllegalArgumentException parsing [" + malformed + "]");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    for (String malformed : new String[] { "2009-13-01", "2009/12/31", "20091231" }) {
+      try {
+        record().setString(col, malformed).getDate(col);
+        fail("Expected IllegalArgumentException parsing [" + malformed + "]");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+
   @Test
   public void testBooleanGetters() {
     String col = "CoL";
@@ -296,6 +339,70 @@ public class TestDataSetUtils {
   }
 
 
+  /*
+   * Tests that a record sharing a layout with only some of its columns behaves as one without.
+   */
+  @Test
+  public void testWithLayout() {
+    RecordLayout layout = RecordLayout.of(ImmutableList.<Column>of(
+      column(INTEGER_COLUMN, DataType.INTEGER),
+      column(STRING_COLUMN.toLowerCase(), DataType.STRING, 10),
+      column(BIG_DECIMAL_COLUMN, DataType.DECIMAL, 13, 3),
+      column("NotSet", DataType.STRING, 10)
+    ));
+    RecordBuilder record = record().withLayout(layout)
+      .setInteger(INTEGER_COLUMN, INTEGER)
+      .setString(STRING_COLUMN, STRING)
+      .setBigDecimal(BIG_DECIMAL_COLUMN, BIG_DECIMAL)
+      .setBoolean(BOOLEAN_COLUMN, BOOLEAN)
+      .setDate(DATE_COLUMN, DATE)
+      .setLocalDate(LOCAL_DATE_COLUMN, LOCAL_DATE)
+      .setLong(LONG_COLUMN, LONG)
+      .setByteArray(BLOB_COLUMN, BYTE_ARRAY)
+      .setString(UNTYPED_COLUMN, VALUE);
+
+    assertThat(record, originalMatcher());
+    assertNull(record.getString("NotSet"));
+    assertNull(record.getString("Missing"));
+
+    record.setString(STRING_COLUMN.toLowerCase(), "X").setString(LONG_COLUMN, "Y");
+    assertEquals("X", record.getString(STRING_COLUMN));
+    assertEquals("Y", record.getString(LONG_COLUMN));
+    assertEquals("Z", RecordDecorator.of(record).setString(INTEGER_COLUMN, "Z").getString(INTEGER_COLUMN));
+    assertEquals(LOCAL_DATE, RecordDecorator.of(record).setString(INTEGER_COLUMN, "Z").getLocalDate(LOCAL_DATE_COLUMN));
+  }
+
+
+  /*
+   * Tests lookups in a layout with enough columns to collide in its hash table.
+   */
+  @Test
+  public void testWithWideLayout() {
+    List<Column> columns = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      columns.add(column("Column" + i, DataType.INTEGER));
+    }
+    RecordLayout layout = RecordLayout.of(columns);
+    RecordBuilder record = record().withLayout(layout);
+    for (int i = 0; i < 300; i++) {
+      record.setInteger("column" + i, i);
+    }
+    for (int i = 0; i < 300; i++) {
+      assertEquals(i, layout.slotOf("COLUMN" + i));
+      assertEquals(Integer.valueOf(i), record.getInteger("Column" + i));
+    }
+  }
+
+
+  /*
+   * Tests that the layout cannot be changed once values are set.
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testWithLayoutAfterValues() {
+    record().setString("a", "A").withLayout(RecordLayout.of(ImmutableList.<Column>of(column("a", DataType.STRING, 1))));
+  }
+
+
   private BaseRecordMatcher originalMatcher() {
     return BaseRecordMatcher.create()
       .withValue(INTEGER_COLUMN, INTEGER.toString())
@@ -0,0 +1,194 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.metadata;
+
+import static org.alfasoftware.morf.metadata.DataSetUtils.record;
+import static org.alfasoftware.morf.metadata.SchemaUtils.column;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests {@link LayoutRecord} and {@link RecordLayout}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestLayoutRecord {
+
+  private static final LocalDate LOCAL_DATE = new LocalDate(2010, 7, 2);
+  private static final BigDecimal BIG_DECIMAL = new BigDecimal("10.500");
+  private static final byte[] BYTE_ARRAY = new byte[] { -127, 127 };
+
+  private final RecordLayout layout = RecordLayout.of(ImmutableList.<Column>of(
+    column("longCol", DataType.BIG_INTEGER),
+    column("intCol", DataType.INTEGER),
+    column("booleanCol", DataType.BOOLEAN),
+    column("stringCol", DataType.STRING, 10),
+    column("decimalCol", DataType.DECIMAL, 10, 3),
+    column("dateCol", DataType.DATE),
+    column("blobCol", DataType.BLOB)
+  ));
+
+  private final Record layoutRecord = layout.newRecord()
+      .setLong(0, 3333333333333L)
+      .setInt(1, 12)
+      .setBoolean(2, true)
+      .setObject(3, "13")
+      .setObject(4, BIG_DECIMAL)
+      .setObject(5, LOCAL_DATE)
+      .setObject(6, BYTE_ARRAY);
+
+  private final Record builtRecord = record()
+      .setLong("longCol", 3333333333333L)
+      .setInteger("intCol", 12)
+      .setBoolean("booleanCol", true)
+      .setString("stringCol", "13")
+      .setBigDecimal("decimalCol", BIG_DECIMAL)
+      .setLocalDate("dateCol", LOCAL_DATE)
+      .setByteArray("blobCol", BYTE_ARRAY);
+
+
+  /**
+   * Values read by name should be converted exactly as they are from a {@link DataSetUtils#record()}.
+   */
+  @Test
+  public void testConversionsMatchRecordBuilder() {
+    assertEquals(builtRecord.getLong("longCol"), layoutRecord.getLong("longCol"));
+    assertEquals(builtRecord.getInteger("longCol"), layoutRecord.getInteger("longCol"));
+    assertEquals(builtRecord.getString("longCol"), layoutRecord.getString("longCol"));
+    assertEquals(builtRecord.getBigDecimal("longCol"), layoutRecord.getBigDecimal("longCol"));
+
+    assertEquals(builtRecord.getInteger("intCol"), layoutRecord.getInteger("intCol"));
+    assertEquals(builtRecord.getLong("intCol"), layoutRecord.getLong("intCol"));
+    assertEquals(builtRecord.getDouble("intCol"), layoutRecord.getDouble("intCol"));
+    assertEquals(builtRecord.getBoolean("intCol"), layoutRecord.getBoolean("intCol"));
+
+    assertEquals(builtRecord.getBoolean("booleanCol"), layoutRecord.getBoolean("booleanCol"));
+    assertEquals(builtRecord.getString("booleanCol"), layoutRecord.getString("booleanCol"));
+
+    assertEquals(builtRecord.getString("stringCol"), layoutRecord.getString("stringCol"));
+    assertEquals(builtRecord.getInteger("stringCol"), layoutRecord.getInteger("stringCol"));
+    assertEquals(builtRecord.getBigDecimal("stringCol"), layoutRecord.getBigDecimal("stringCol"));
+
+    assertEquals(builtRecord.getBigDecimal("decimalCol"), layoutRecord.getBigDecimal("decimalCol"));
+    assertEquals(builtRecord.getString("decimalCol"), layoutRecord.getString("decimalCol"));
+
+    assertEquals(builtRecord.getLocalDate("dateCol"), layoutRecord.getLocalDate("dateCol"));
+    assertEquals(builtRecord.getDate("dateCol"), layoutRecord.getDate("dateCol"));
+    assertEquals(builtRecord.getString("dateCol"), layoutRecord.getString("dateCol"));
+
+    assertArrayEquals(builtRecord.getByteArray("blobCol"), layoutRecord.getByteArray("blobCol"));
+    assertEquals(builtRecord.getString("blobCol"), layoutRecord.getString("blobCol"));
+  }
+
+
+  /**
+   * Column names should not be case sensitive, and unknown columns should read as null.
+   */
+  @Test
+  public void testLookupByName() {
+    assertEquals(3, layout.slotOf("stringCol"));
+    assertEquals(3, layout.slotOf("STRINGCOL"));
+    assertEquals(-1, layout.slotOf("missing"));
+    assertEquals(Integer.valueOf(12), layoutRecord.getInteger("INTCOL"));
+    assertNull(layoutRecord.getString("missing"));
+  }
+
+
+  /**
+   * Unset and null slots should read as null, whether or not they are held unboxed.
+   */
+  @Test
+  public void testNulls() {
+    LayoutRecord record = layout.newRecord().setLong(0, 1L).setObject(3, "x");
+    assertFalse(record.isNull(0));
+    assertTrue(record.isNull(1));
+    assertNull(record.getInteger("intCol"));
+    assertNull(record.getBoolean("booleanCol"));
+    assertNull(record.getString("decimalCol"));
+
+    record.setNull(0).setNull(3);
+    assertTrue(record.isNull(0));
+    assertNull(record.getLong("longCol"));
+    assertNull(record.getString("longCol"));
+    assertNull(record.getString("stringCol"));
+  }
+
+
+  /**
+   * Slot accessors should read unboxed values without conversion.
+   */
+  @Test
+  public void testSlotAccess() {
+    LayoutRecord record = layout.newRecord().setLong(0, -5L).setInt(1, 7).setBoolean(2, false);
+    assertEquals(-5L, record.longValue(0));
+    assertEquals(7, record.intValue(1));
+    assertFalse(record.booleanValue(2));
+    assertEquals(Boolean.FALSE, record.objectValue(2));
+    assertEquals("{longCol=-5, intCol=7, booleanCol=false, stringCol=null, decimalCol=null, dateCol=null, blobCol=null}", record.toString());
+  }
+
+
+  /**
+   * Values set from their string form should be converted to the slot types.
+   */
+  @Test
+  public void testSetString() {
+    LayoutRecord record = layout.newRecord();
+    for (int slot = 0; slot < layout.size(); slot++) {
+      record.setString(slot, builtRecord.getString(layout.getColumnName(slot)));
+    }
+
+    assertEquals("Long", 3333333333333L, record.longValue(0));
+    assertEquals("Int", 12, record.intValue(1));
+    assertTrue("Boolean", record.booleanValue(2));
+    assertEquals("String", "13", record.objectValue(3));
+    assertEquals("Decimal", 0, BIG_DECIMAL.compareTo(record.getBigDecimal("decimalCol")));
+    assertEquals("Date", LOCAL_DATE, record.objectValue(5));
+    assertArrayEquals("Blob", BYTE_ARRAY, (byte[]) record.objectValue(6));
+
+    record.setString(0, null);
+    assertTrue("Null", record.isNull(0));
+  }
+
+
+  /**
+   * Slots can only be set and read as their own type.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongSlotType() {
+    layout.newRecord().setInt(0, 1);
+  }
+
+
+  /**
+   * Primitive slots cannot hold objects.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testObjectInPrimitiveSlot() {
+    layout.newRecord().setObject(1, "1");
+  }
+}
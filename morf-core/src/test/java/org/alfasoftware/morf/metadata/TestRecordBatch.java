@@ -0,0 +1,182 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.metadata;
+
+import static org.alfasoftware.morf.metadata.DataSetUtils.record;
+import static org.alfasoftware.morf.metadata.SchemaUtils.column;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests {@link RecordBatch}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestRecordBatch {
+
+  private static final LocalDate LOCAL_DATE = new LocalDate(2010, 7, 2);
+  private static final BigDecimal BIG_DECIMAL = new BigDecimal("10.500");
+  private static final byte[] BYTE_ARRAY = new byte[] { -127, 127 };
+
+  private final RecordLayout layout = RecordLayout.of(ImmutableList.<Column>of(
+    column("longCol", DataType.BIG_INTEGER),
+    column("intCol", DataType.INTEGER),
+    column("booleanCol", DataType.BOOLEAN),
+    column("stringCol", DataType.STRING, 10),
+    column("decimalCol", DataType.DECIMAL, 10, 3),
+    column("dateCol", DataType.DATE),
+    column("blobCol", DataType.BLOB)
+  ));
+
+  private final Record builtRecord = record()
+      .setLong("longCol", 3333333333333L)
+      .setInteger("intCol", 12)
+      .setBoolean("booleanCol", true)
+      .setString("stringCol", "13")
+      .setBigDecimal("decimalCol", BIG_DECIMAL)
+      .setLocalDate("dateCol", LOCAL_DATE)
+      .setByteArray("blobCol", BYTE_ARRAY);
+
+
+  /**
+   * Values set by slot should be read back from the vectors and through the record views.
+   */
+  @Test
+  public void testSetAndReadBySlot() {
+    RecordBatch batch = new RecordBatch(layout, 3);
+    int row = batch.addRow();
+    batch.setLong(row, 0, 3333333333333L)
+      .setInt(row, 1, 12)
+      .setBoolean(row, 2, true)
+      .setObject(row, 3, "13")
+      .setObject(row, 4, BIG_DECIMAL)
+      .setObject(row, 5, LOCAL_DATE)
+      .setObject(row, 6, BYTE_ARRAY);
+    batch.addRow();
+
+    assertEquals("Size", 2, batch.size());
+    assertEquals("Long", 3333333333333L, batch.longValue(0, 0));
+    assertEquals("Int", 12, batch.intValue(0, 1));
+    assertTrue("Boolean", batch.booleanValue(0, 2));
+    assertEquals("Boxed", Integer.valueOf(12), batch.objectValue(0, 1));
+    assertEquals("String", "13", batch.objectValue(0, 3));
+
+    for (int slot = 0; slot < layout.size(); slot++) {
+      assertFalse("Set " + slot, batch.isNull(0, slot));
+      assertTrue("Unset " + slot, batch.isNull(1, slot));
+      assertNull("Unset value " + slot, batch.record(1).getString(layout.getColumnName(slot)));
+    }
+
+    Record view = batch.record(0);
+    assertEquals(builtRecord.getLong("longCol"), view.getLong("LONGCOL"));
+    assertEquals(builtRecord.getString("intCol"), view.getString("intCol"));
+    assertEquals(builtRecord.getBoolean("booleanCol"), view.getBoolean("booleanCol"));
+    assertEquals(builtRecord.getInteger("stringCol"), view.getInteger("stringCol"));
+    assertEquals(builtRecord.getString("decimalCol"), view.getString("decimalCol"));
+    assertEquals(builtRecord.getDate("dateCol"), view.getDate("dateCol"));
+    assertArrayEquals(builtRecord.getByteArray("blobCol"), view.getByteArray("blobCol"));
+  }
+
+
+  /**
+   * Values set from their string form should be converted to the column types.
+   */
+  @Test
+  public void testSetString() {
+    RecordBatch batch = new RecordBatch(layout, 1);
+    int row = batch.addRow();
+    for (int slot = 0; slot < layout.size(); slot++) {
+      batch.setString(row, slot, builtRecord.getString(layout.getColumnName(slot)));
+    }
+
+    assertEquals("Long", 3333333333333L, batch.longValue(row, 0));
+    assertEquals("Int", 12, batch.intValue(row, 1));
+    assertTrue("Boolean", batch.booleanValue(row, 2));
+    assertEquals("String", "13", batch.objectValue(row, 3));
+    assertEquals("Decimal", 0, BIG_DECIMAL.compareTo((BigDecimal) batch.objectValue(row, 4)));
+    assertEquals("Date", LOCAL_DATE, batch.objectValue(row, 5));
+    assertArrayEquals("Blob", BYTE_ARRAY, (byte[]) batch.objectValue(row, 6));
+  }
+
+
+  /**
+   * Records should be split into full batches and read back in order.
+   */
+  @Test
+  public void testBatchesAndRecords() {
+    List<Record> records = Lists.newArrayList();
+    for (int i = 0; i < 5; i++) {
+      records.add(record().setInteger("longCol", i).setString("stringCol", "S" + i));
+    }
+
+    List<RecordBatch> batches = ImmutableList.copyOf(RecordBatch.batches(layout, records, 2));
+    assertEquals("Batches", 3, batches.size());
+    assertTrue("First full", batches.get(0).isFull());
+    assertEquals("Last size", 1, batches.get(2).size());
+
+    int i = 0;
+    for (Record each : RecordBatch.records(batches)) {
+      assertEquals("Long", Long.valueOf(i), each.getLong("longCol"));
+      assertEquals("String", "S" + i, each.getString("stringCol"));
+      assertNull("Boolean", each.getBoolean("booleanCol"));
+      i++;
+    }
+    assertEquals("Records", 5, i);
+  }
+
+
+  /**
+   * Rows beyond the capacity cannot be added.
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testFull() {
+    RecordBatch batch = new RecordBatch(layout, 1);
+    batch.addRow();
+    batch.addRow();
+  }
+
+
+  /**
+   * Values cannot be set with the wrong type.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongType() {
+    RecordBatch batch = new RecordBatch(layout, 1);
+    batch.setInt(batch.addRow(), 0, 1);
+  }
+
+
+  /**
+   * Rows not yet added cannot be set.
+   */
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testRowNotAdded() {
+    new RecordBatch(layout, 2).setLong(0, 0, 1L);
+  }
+}
@@ -0,0 +1,95 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.metadata;
+
+import static org.alfasoftware.morf.metadata.DataSetUtils.record;
+import static org.alfasoftware.morf.metadata.SchemaUtils.column;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.alfasoftware.morf.metadata.DataSetUtils.RecordBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Measures the per-row cost of setting and then reading every column of a record, against
+ * the number of columns, for records built ad hoc and for records sharing a {@link RecordLayout}.
+ *
+ * <p>Disabled, as it is a benchmark rather than a test. Results are logged at info, as
+ * nanoseconds per row after a warm-up, and are only indicative: each measurement is the
+ * best of several runs in one JVM.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+@Ignore
+public class TestRecordLookupBenchmark {
+
+  private static final Log log = LogFactory.getLog(TestRecordLookupBenchmark.class);
+
+  private static final int[] COLUMN_COUNTS = { 10, 50, 150, 300 };
+  private static final int ROWS = 2000;
+  private static final int RUNS = 10;
+
+  /**
+   * Defeats dead code elimination of the reads.
+   */
+  private long blackhole;
+
+
+  /**
+   * Logs the cost per row of each kind of record for each column count.
+   */
+  @Test
+  public void testLookupCostAgainstColumnCount() {
+    for (int columnCount : COLUMN_COUNTS) {
+      List<String> columnNames = new ArrayList<>();
+      List<Column> columns = new ArrayList<>();
+      for (int i = 0; i < columnCount; i++) {
+        columnNames.add("Column" + i);
+        columns.add(column("Column" + i, DataType.INTEGER));
+      }
+      RecordLayout layout = RecordLayout.of(columns);
+
+      double adHoc = nanosPerRow(columnNames, () -> record());
+      double withLayout = nanosPerRow(columnNames, () -> record().withLayout(layout));
+      log.info(String.format("[%d] columns: ad hoc [%.0f] ns/row, with layout [%.0f] ns/row", columnCount, adHoc, withLayout));
+    }
+    log.debug(blackhole);
+  }
+
+
+  private double nanosPerRow(List<String> columnNames, Supplier<RecordBuilder> builders) {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      long start = System.nanoTime();
+      for (int row = 0; row < ROWS; row++) {
+        RecordBuilder record = builders.get();
+        for (int i = 0; i < columnNames.size(); i++) {
+          record.setInteger(columnNames.get(i), i);
+        }
+        for (String columnName : columnNames) {
+          blackhole += record.getInteger(columnName);
+        }
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return (double) best / ROWS;
+  }
+}
@@ -0,0 +1,64 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.sql;
+
+import static org.alfasoftware.morf.sql.SqlUtils.field;
+import static org.alfasoftware.morf.sql.SqlUtils.literal;
+import static org.alfasoftware.morf.sql.SqlUtils.select;
+import static org.alfasoftware.morf.sql.SqlUtils.selectDistinct;
+import static org.alfasoftware.morf.sql.SqlUtils.tableRef;
+import static org.alfasoftware.morf.sql.element.Criterion.eq;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.alfasoftware.morf.sql.element.AbstractDeepCopyableTest;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests the structural equality and deep copying of {@link SelectStatement}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+@RunWith(Parameterized.class)
+public class TestSelectStatement extends AbstractDeepCopyableTest<SelectStatement> {
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> data() {
+    return Arrays.asList(
+      testCase("simple", () -> select(field("a")).from(tableRef("Foo"))),
+      testCase("other field", () -> select(field("b")).from(tableRef("Foo"))),
+      testCase("other table", () -> select(field("a")).from(tableRef("Bar"))),
+      testCase("aliased", () -> select(field("a")).from(tableRef("Foo")).alias("x")),
+      testCase("distinct", () -> selectDistinct(field("a")).from(tableRef("Foo"))),
+      testCase("where", () -> select(field("a")).from(tableRef("Foo")).where(eq(field("a"), 1))),
+      testCase("where other value", () -> select(field("a")).from(tableRef("Foo")).where(eq(field("a"), 2))),
+      testCase("order by", () -> select(field("a")).from(tableRef("Foo")).orderBy(field("a"))),
+      testCase("group by", () -> select(field("a")).from(tableRef("Foo")).groupBy(field("a"))),
+      testCase("having", () -> select(field("a")).from(tableRef("Foo")).groupBy(field("a")).having(eq(field("a"), 1))),
+      testCase("join", () -> select(field("a")).from(tableRef("Foo")).innerJoin(tableRef("Bar"), eq(field("a"), field("b")))),
+      testCase("union", () -> select(field("a")).from(tableRef("Foo")).union(select(field("a")).from(tableRef("Bar")))),
+      testCase("union all", () -> select(field("a")).from(tableRef("Foo")).unionAll(select(field("a")).from(tableRef("Bar")))),
+      testCase("for update", () -> select(field("a")).from(tableRef("Foo")).forUpdate()),
+      testCase("use index", () -> select(field("a")).from(tableRef("Foo")).useIndex(tableRef("Foo"), "Foo_1")),
+      testCase("optimise for row count", () -> select(field("a")).from(tableRef("Foo")).optimiseForRowCount(10)),
+      testCase("implicit join order", () -> select(field("a")).from(tableRef("Foo")).useImplicitJoinOrder()),
+      testCase("literal", () -> select(literal(1)).from(tableRef("Foo")))
+    );
+  }
+}
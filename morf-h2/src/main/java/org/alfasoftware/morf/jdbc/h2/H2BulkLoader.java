@@ -0,0 +1,116 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc.h2;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.jdbc.AbstractTextBulkLoader;
+import org.alfasoftware.morf.jdbc.RuntimeSqlException;
+import org.alfasoftware.morf.jdbc.SqlScriptExecutor;
+import org.alfasoftware.morf.metadata.Column;
+import org.alfasoftware.morf.metadata.Table;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Bulk loads H2 tables by writing the records to a CSV file and inserting them
+ * all with one {@code INSERT ... SELECT} from {@code CSVREAD}.
+ *
+ * <p>H2 reads the file itself, so this only works where the database runs on the
+ * same machine as the loader, as it does for embedded and in-memory databases.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+class H2BulkLoader extends AbstractTextBulkLoader {
+
+  private final H2Dialect dialect;
+
+
+  /**
+   * @param dialect The dialect of the database being loaded.
+   */
+  H2BulkLoader(H2Dialect dialect) {
+    super();
+    this.dialect = dialect;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.jdbc.BulkLoader#load(java.sql.Connection, org.alfasoftware.morf.jdbc.SqlScriptExecutor, org.alfasoftware.morf.metadata.Table, java.lang.Iterable, boolean)
+   */
+  @Override
+  public void load(Connection connection, SqlScriptExecutor executor, Table table, Iterable<Record> records, boolean explicitCommit) {
+    File file = null;
+    try {
+      file = File.createTempFile("morf-" + table.getName() + "-", ".csv");
+      writeCsv(file, table, records);
+
+      String columnNames = Joiner.on(",").join(table.columns().stream().map(Column::getName).iterator());
+      executor.execute(
+        "INSERT INTO " + dialect.schemaNamePrefix() + table.getName() + " (" + columnNames + ")"
+        + " SELECT * FROM CSVREAD('" + file.getAbsolutePath().replace("'", "''") + "', '" + columnNames + "', 'charset=UTF-8')",
+        connection);
+
+      if (explicitCommit) {
+        connection.commit();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Error writing bulk load file for table [" + table.getName() + "]", e);
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("Error committing bulk load of table [" + table.getName() + "]", e);
+    } finally {
+      if (file != null && !file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+  }
+
+
+  /**
+   * Writes the records as CSV. Every value is quoted, so that an empty unquoted field
+   * unambiguously means null.
+   */
+  private void writeCsv(File file, Table table, Iterable<Record> records) throws IOException {
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      for (Record record : records) {
+        boolean first = true;
+        for (Column column : table.columns()) {
+          if (!first) {
+            writer.write(',');
+          }
+          first = false;
+
+          String value = textValue(record, column);
+          if (value != null) {
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+          }
+        }
+        writer.write('\n');
+      }
+    }
+  }
+}
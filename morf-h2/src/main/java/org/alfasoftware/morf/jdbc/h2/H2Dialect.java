@@ -25,6 +25,7 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.alfasoftware.morf.jdbc.BulkLoader;
 import org.alfasoftware.morf.jdbc.DatabaseType;
 import org.alfasoftware.morf.jdbc.SqlDialect;
 import org.alfasoftware.morf.metadata.Column;
@@ -41,6 +42,7 @@ import org.alfasoftware.morf.sql.element.WindowFunction;
 import org.apache.commons.lang.StringUtils;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.Iterables;
@@ -194,6 +196,24 @@ class H2Dialect extends SqlDialect {
   }
 
 
+  /**
+   * @see org.alfasoftware.morf.jdbc.SqlDialect#bulkLoader()
+   */
+  @Override
+  public Optional<BulkLoader> bulkLoader() {
+    return Optional.<BulkLoader>of(new H2BulkLoader(this));
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.jdbc.SqlDialect#supportsMultiRowInsert()
+   */
+  @Override
+  public boolean supportsMultiRowInsert() {
+    return true;
+  }
+
+
   /**
    * @see org.alfasoftware.morf.jdbc.SqlDialect#getFromDummyTable()
    */
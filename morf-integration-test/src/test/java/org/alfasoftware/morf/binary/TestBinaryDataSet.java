@@ -0,0 +1,210 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.binary;
+
+import static org.alfasoftware.morf.metadata.DataSetUtils.dataSetProducer;
+import static org.alfasoftware.morf.metadata.DataSetUtils.record;
+import static org.alfasoftware.morf.metadata.SchemaUtils.column;
+import static org.alfasoftware.morf.metadata.SchemaUtils.idColumn;
+import static org.alfasoftware.morf.metadata.SchemaUtils.index;
+import static org.alfasoftware.morf.metadata.SchemaUtils.schema;
+import static org.alfasoftware.morf.metadata.SchemaUtils.table;
+import static org.alfasoftware.morf.metadata.SchemaUtils.versionColumn;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.alfasoftware.morf.dataset.DataSetConnector;
+import org.alfasoftware.morf.dataset.DataSetHomology;
+import org.alfasoftware.morf.dataset.DataSetProducer;
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.Schema;
+import org.alfasoftware.morf.metadata.SchemaHomology;
+import org.alfasoftware.morf.xml.XmlDataSetConsumer;
+import org.alfasoftware.morf.xml.XmlDataSetProducer;
+import org.joda.time.LocalDate;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link BinaryDataSetConsumer} and {@link BinaryDataSetProducer}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestBinaryDataSet {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Schema schema = schema(
+    table("AllTypes").columns(
+      idColumn(),
+      versionColumn(),
+      column("stringCol", DataType.STRING, 20).nullable(),
+      column("clobCol", DataType.CLOB).nullable(),
+      column("intCol", DataType.INTEGER).nullable().defaultValue("7"),
+      column("bigIntCol", DataType.BIG_INTEGER).nullable(),
+      column("decimalCol", DataType.DECIMAL, 13, 2).nullable(),
+      column("bigDecimalCol", DataType.DECIMAL, 38, 10).nullable(),
+      column("booleanCol", DataType.BOOLEAN).nullable(),
+      column("dateCol", DataType.DATE).nullable(),
+      column("blobCol", DataType.BLOB).nullable()
+    ).indexes(
+      index("AllTypes_1").unique().columns("stringCol", "intCol"),
+      index("AllTypes_2").columns("dateCol")
+    ),
+    table("Empty").columns(
+      column("autoId", DataType.BIG_INTEGER).autoNumbered(1000).primaryKey()
+    )
+  );
+
+
+  /**
+   * A data set written in both formats should read back the same from each.
+   */
+  @Test
+  public void testRoundTripMatchesXml() throws IOException {
+    DataSetProducer source = dataSetProducer(schema).table("AllTypes", rows(500)).table("Empty");
+
+    File xmlDirectory = folder.newFolder("xml");
+    File binaryDirectory = folder.newFolder("binary");
+    new DataSetConnector(source, new XmlDataSetConsumer(xmlDirectory)).connect();
+    new DataSetConnector(source, new BinaryDataSetConsumer(binaryDirectory)).connect();
+
+    XmlDataSetProducer xml = new XmlDataSetProducer(xmlDirectory.toURI().toURL());
+    BinaryDataSetProducer binary = new BinaryDataSetProducer(binaryDirectory);
+    assertMatch(xml, binary);
+
+    assertTrue("Binary should be smaller than XML",
+      new File(binaryDirectory, "AllTypes.morf").length() < new File(xmlDirectory, "AllTypes.xml").length());
+  }
+
+
+  /**
+   * Compressed blocks should read back as written, across many blocks.
+   */
+  @Test
+  public void testCompressedBlocks() throws IOException {
+    DataSetProducer source = dataSetProducer(schema).table("AllTypes", rows(20000)).table("Empty");
+
+    File plainDirectory = folder.newFolder("plain");
+    File compressedDirectory = folder.newFolder("compressed");
+    new DataSetConnector(source, new BinaryDataSetConsumer(plainDirectory)).connect();
+    new DataSetConnector(source, new BinaryDataSetConsumer(compressedDirectory).withCompression(Deflater.BEST_SPEED)).connect();
+
+    assertMatch(source, new BinaryDataSetProducer(compressedDirectory));
+    assertMatch(new BinaryDataSetProducer(plainDirectory), new BinaryDataSetProducer(compressedDirectory));
+    assertTrue("Compressed should be smaller",
+      new File(compressedDirectory, "AllTypes.morf").length() < new File(plainDirectory, "AllTypes.morf").length());
+  }
+
+
+  /**
+   * Values should read back with the types of their columns.
+   */
+  @Test
+  public void testTypedValues() throws IOException {
+    File directory = folder.newFolder();
+    new DataSetConnector(dataSetProducer(schema).table("AllTypes", rows(3)).table("Empty"), new BinaryDataSetConsumer(directory)).connect();
+
+    BinaryDataSetProducer producer = new BinaryDataSetProducer(directory);
+    producer.open();
+    try {
+      assertTrue("Empty", producer.isTableEmpty("empty"));
+      assertFalse("Not empty", producer.isTableEmpty("AllTypes"));
+      assertEquals("Autonumber start", 1000, producer.getSchema().getTable("Empty").columns().get(0).getAutoNumberStart());
+
+      List<Record> records = new ArrayList<>();
+      for (Record record : producer.records("AllTypes")) {
+        records.add(record);
+      }
+      assertEquals("Rows", 3, records.size());
+
+      Record second = records.get(1);
+      assertEquals("id", Long.valueOf(1), second.getLong("id"));
+      assertEquals("stringCol", "String ×1", second.getString("stringCol"));
+      assertEquals("intCol", Integer.valueOf(-1), second.getInteger("intCol"));
+      assertEquals("bigIntCol", Long.valueOf(Long.MIN_VALUE + 1), second.getLong("bigIntCol"));
+      assertEquals("decimalCol", new BigDecimal("1.5"), second.getBigDecimal("decimalCol"));
+      assertEquals("bigDecimalCol", new BigDecimal("12345678901234567890.0000000001"), second.getBigDecimal("bigDecimalCol"));
+      assertEquals("booleanCol", Boolean.FALSE, second.getBoolean("booleanCol"));
+      assertEquals("dateCol", new LocalDate(2017, 1, 2), second.getLocalDate("dateCol"));
+      assertArrayEquals("blobCol", "Blob 1".getBytes(StandardCharsets.UTF_8), second.getByteArray("blobCol"));
+
+      Record first = records.get(0);
+      assertEquals("null stringCol", null, first.getString("stringCol"));
+      assertEquals("null dateCol", null, first.getLocalDate("dateCol"));
+      assertEquals("null bigIntCol", null, first.getLong("bigIntCol"));
+    } finally {
+      producer.close();
+    }
+  }
+
+
+  /**
+   * Every third row holds nulls, and the others values of every type.
+   */
+  private List<Record> rows(int count) {
+    List<Record> result = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      if (i % 3 == 0) {
+        result.add(record().setLong("id", (long) i).setInteger("version", 0));
+        continue;
+      }
+      result.add(record()
+        .setLong("id", (long) i)
+        .setInteger("version", i % 5)
+        .setString("stringCol", "String ×" + i)
+        .setString("clobCol", String.join(",", Collections.nCopies(i % 10, "clob")))
+        .setInteger("intCol", -i)
+        .setLong("bigIntCol", Long.MIN_VALUE + i)
+        .setBigDecimal("decimalCol", new BigDecimal(i).add(new BigDecimal("0.5")))
+        .setBigDecimal("bigDecimalCol", new BigDecimal("12345678901234567890.0000000001").multiply(new BigDecimal(i)))
+        .setBoolean("booleanCol", i % 2 == 0)
+        .setLocalDate("dateCol", new LocalDate(2017, 1, 1).plusDays(i))
+        .setByteArray("blobCol", ("Blob " + i).getBytes(StandardCharsets.UTF_8)));
+    }
+    return result;
+  }
+
+
+  private void assertMatch(DataSetProducer producer1, DataSetProducer producer2) {
+    producer1.open();
+    producer2.open();
+    try {
+      SchemaHomology schemaHomology = new SchemaHomology();
+      assertTrue("Schemas should match", schemaHomology.schemasMatch(producer1.getSchema(), producer2.getSchema(), Collections.<String>emptySet()));
+    } finally {
+      producer1.close();
+      producer2.close();
+    }
+
+    DataSetHomology dataSetHomology = new DataSetHomology();
+    assertTrue(dataSetHomology.getDifferences().toString(), dataSetHomology.dataSetProducersMatch(producer1, producer2));
+  }
+}
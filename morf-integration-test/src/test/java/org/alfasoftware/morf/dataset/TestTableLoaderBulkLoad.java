@@ -0,0 +1,210 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.dataset;
+
+import static org.alfasoftware.morf.metadata.DataSetUtils.record;
+import static org.alfasoftware.morf.metadata.SchemaUtils.autonumber;
+import static org.alfasoftware.morf.metadata.SchemaUtils.column;
+import static org.alfasoftware.morf.metadata.SchemaUtils.schema;
+import static org.alfasoftware.morf.metadata.SchemaUtils.table;
+import static org.alfasoftware.morf.sql.SqlUtils.field;
+import static org.alfasoftware.morf.sql.SqlUtils.insert;
+import static org.alfasoftware.morf.sql.SqlUtils.literal;
+import static org.alfasoftware.morf.sql.SqlUtils.select;
+import static org.alfasoftware.morf.sql.SqlUtils.tableRef;
+import static org.alfasoftware.morf.sql.element.Criterion.eq;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.alfasoftware.morf.guicesupport.InjectMembersRule;
+import org.alfasoftware.morf.jdbc.BulkLoader;
+import org.alfasoftware.morf.jdbc.ConnectionResources;
+import org.alfasoftware.morf.jdbc.SqlDialect;
+import org.alfasoftware.morf.jdbc.SqlScriptExecutor;
+import org.alfasoftware.morf.jdbc.SqlScriptExecutorProvider;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.Table;
+import org.alfasoftware.morf.sql.InsertStatement;
+import org.alfasoftware.morf.testing.DatabaseSchemaManager;
+import org.alfasoftware.morf.testing.DatabaseSchemaManager.TruncationBehavior;
+import org.alfasoftware.morf.testing.TestingDataSourceModule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Tests loading tables with {@link TableLoaderBuilder#withBulkLoad()} against the test database.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestTableLoaderBulkLoad {
+
+  @Rule
+  public InjectMembersRule injectMembersRule = new InjectMembersRule(new TestingDataSourceModule());
+
+  @Inject Provider<ConnectionResources> connectionProvider;
+  @Inject DataSource dataSource;
+  @Inject Provider<DatabaseSchemaManager> schemaManagerProvider;
+  @Inject SqlScriptExecutorProvider sqlScriptExecutorProvider;
+
+  private final Table table = table("BulkLoadTest").columns(
+      autonumber("id", 1),
+      column("stringCol", DataType.STRING, 30).nullable(),
+      column("decimalCol", DataType.DECIMAL, 13, 2).nullable(),
+      column("dateCol", DataType.DATE).nullable(),
+      column("booleanCol", DataType.BOOLEAN).nullable()
+    );
+
+  private Connection connection;
+
+
+  /**
+   * Creates the table and opens a connection.
+   */
+  @Before
+  public void before() throws SQLException {
+    schemaManagerProvider.get().mutateToSupportSchema(schema(table), TruncationBehavior.ALWAYS);
+    connection = dataSource.getConnection();
+  }
+
+
+  /**
+   * Closes the connection.
+   */
+  @After
+  public void after() throws SQLException {
+    connection.close();
+  }
+
+
+  /**
+   * Tests that records with preset autonumbers, awkward strings and null values survive a bulk load,
+   * that the dialect's bulk loader is the one which loads them, and that autonumbering carries on
+   * above the highest preset autonumber.
+   */
+  @Test
+  public void testBulkLoadWithPresetAutonums() throws SQLException {
+    SqlDialect dialect = connectionProvider.get().sqlDialect();
+    assertTrue("Dialect has a bulk loader", dialect.bulkLoader().isPresent());
+    CountingBulkLoader bulkLoader = new CountingBulkLoader(dialect.bulkLoader().get());
+    SqlDialect bulkLoadingDialect = spy(dialect);
+    doReturn(Optional.<BulkLoader>of(bulkLoader)).when(bulkLoadingDialect).bulkLoader();
+
+    List<Record> records = ImmutableList.<Record>of(
+      record().setInteger("id", 5).setString("stringCol", "quote\" tab\t comma, 'apos'").setBigDecimal("decimalCol", new BigDecimal("12.34"))
+              .setDate("dateCol", java.sql.Date.valueOf("2017-03-14")).setBoolean("booleanCol", true),
+      record().setInteger("id", 7).setString("stringCol", "back\\slash").setBigDecimal("decimalCol", new BigDecimal("-0.01"))
+              .setDate("dateCol", java.sql.Date.valueOf("2016-02-29")).setBoolean("booleanCol", false),
+      record().setInteger("id", 9)
+    );
+
+    TableLoader.builder()
+      .withConnection(connection)
+      .withSqlScriptExecutor(sqlScriptExecutorProvider.get())
+      .withDialect(bulkLoadingDialect)
+      .explicitCommit()
+      .insertingWithPresetAutonums()
+      .withBulkLoad()
+      .forTable(table)
+      .load(records);
+
+    assertEquals("Records bulk loaded", 3, bulkLoader.recordsLoaded.get());
+
+    String sql = dialect.convertStatementToSQL(select(field("id"), field("stringCol"), field("decimalCol"), field("dateCol"), field("booleanCol"))
+      .from(tableRef(table.getName())).orderBy(field("id")));
+    try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+      assertTrue(resultSet.next());
+      assertEquals(5, resultSet.getInt(1));
+      assertEquals("quote\" tab\t comma, 'apos'", resultSet.getString(2));
+      assertEquals(new BigDecimal("12.34"), resultSet.getBigDecimal(3));
+      assertEquals(java.sql.Date.valueOf("2017-03-14"), resultSet.getDate(4));
+      assertTrue(resultSet.getBoolean(5));
+
+      assertTrue(resultSet.next());
+      assertEquals(7, resultSet.getInt(1));
+      assertEquals("back\\slash", resultSet.getString(2));
+      assertEquals(new BigDecimal("-0.01"), resultSet.getBigDecimal(3));
+      assertEquals(java.sql.Date.valueOf("2016-02-29"), resultSet.getDate(4));
+      assertFalse(resultSet.getBoolean(5));
+
+      assertTrue(resultSet.next());
+      assertEquals(9, resultSet.getInt(1));
+      assertNull(resultSet.getString(2));
+      assertNull(resultSet.getBigDecimal(3));
+      assertNull(resultSet.getDate(4));
+      resultSet.getBoolean(5);
+      assertTrue(resultSet.wasNull());
+
+      assertFalse(resultSet.next());
+    }
+
+    InsertStatement insert = insert().into(tableRef(table.getName())).fields(field("stringCol")).values(literal("next").as("stringCol"));
+    sqlScriptExecutorProvider.get().execute(dialect.convertStatementToSQL(insert, schema(table), null), connection);
+    String nextIdSql = dialect.convertStatementToSQL(select(field("id")).from(tableRef(table.getName())).where(eq(field("stringCol"), "next")));
+    try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(nextIdSql)) {
+      assertTrue(resultSet.next());
+      assertTrue("Next autonumber [" + resultSet.getLong(1) + "] above highest loaded", resultSet.getLong(1) > 9);
+    }
+  }
+
+
+  /**
+   * Passes loads through to a dialect's bulk loader, counting the records loaded.
+   */
+  private static final class CountingBulkLoader implements BulkLoader {
+
+    private final BulkLoader bulkLoader;
+    private final AtomicInteger recordsLoaded = new AtomicInteger();
+
+    CountingBulkLoader(BulkLoader bulkLoader) {
+      this.bulkLoader = bulkLoader;
+    }
+
+    @Override
+    public boolean supports(Connection connection, Table table, boolean explicitCommit) {
+      return bulkLoader.supports(connection, table, explicitCommit);
+    }
+
+    @Override
+    public void load(Connection connection, SqlScriptExecutor executor, Table table, Iterable<Record> records, boolean explicitCommit) {
+      bulkLoader.load(connection, executor, table, Iterables.transform(records, record -> {
+        recordsLoaded.incrementAndGet();
+        return record;
+      }), explicitCommit);
+    }
+  }
+}
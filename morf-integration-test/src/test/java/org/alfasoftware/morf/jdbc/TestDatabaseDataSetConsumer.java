@@ -18,14 +18,19 @@ package org.alfasoftware.morf.jdbc;
 import static org.alfasoftware.morf.metadata.DataSetUtils.record;
 import static org.alfasoftware.morf.metadata.SchemaUtils.column;
 import static org.alfasoftware.morf.metadata.SchemaUtils.idColumn;
+import static org.alfasoftware.morf.metadata.SchemaUtils.index;
 import static org.alfasoftware.morf.metadata.SchemaUtils.table;
 import static org.alfasoftware.morf.metadata.SchemaUtils.versionColumn;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -38,10 +43,13 @@ import java.util.List;
 import javax.sql.DataSource;
 
 import org.alfasoftware.morf.dataset.DataSetConsumer.CloseState;
+import org.alfasoftware.morf.dataset.KeyRange;
 import org.alfasoftware.morf.dataset.Record;
 import org.alfasoftware.morf.metadata.DataType;
 import org.alfasoftware.morf.metadata.DataValueLookup;
+import org.alfasoftware.morf.metadata.Index;
 import org.alfasoftware.morf.metadata.Schema;
+import org.alfasoftware.morf.metadata.SchemaResource;
 import org.alfasoftware.morf.metadata.Table;
 import org.alfasoftware.morf.sql.InsertStatement;
 import org.alfasoftware.morf.sql.element.SqlParameter;
@@ -49,10 +57,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.util.Providers;
 
 /**
@@ -156,4 +166,229 @@ public class TestDatabaseDataSetConsumer {
     verify(connection).setAutoCommit(false);
     verify(connection).setAutoCommit(true);
   }
+
+
+  /**
+   * Check that each loading thread gets its own connection, and that they are all committed together.
+   *
+   * @throws Exception exception
+   */
+  @Test
+  public void testConnectionPerThread() throws Exception {
+    Connection connection = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    Connection threadConnection1 = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    Connection threadConnection2 = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    DatabaseDataSetConsumer consumer = connectionPerThreadConsumer(connection, threadConnection1, threadConnection2);
+
+    consumer.open();
+    loadOnTwoThreads(consumer);
+    consumer.close(CloseState.COMPLETE);
+
+    for (Connection each : new Connection[] { connection, threadConnection1, threadConnection2 }) {
+      verify(each).setAutoCommit(false);
+      verify(each).commit();
+      verify(each).setAutoCommit(true);
+      verify(each).close();
+    }
+  }
+
+
+  /**
+   * Check that a failed commit on one thread's connection rolls back those not yet committed.
+   *
+   * @throws Exception exception
+   */
+  @Test
+  public void testConnectionPerThreadCommitFailure() throws Exception {
+    Connection connection = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    Connection threadConnection1 = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    Connection threadConnection2 = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    doThrow(new SQLException("Commit failed")).when(connection).commit();
+    DatabaseDataSetConsumer consumer = connectionPerThreadConsumer(connection, threadConnection1, threadConnection2);
+
+    consumer.open();
+    loadOnTwoThreads(consumer);
+    try {
+      consumer.close(CloseState.COMPLETE);
+      fail("Expected RuntimeSqlException");
+    } catch (RuntimeSqlException e) {
+      // expected
+    }
+
+    for (Connection each : new Connection[] { threadConnection1, threadConnection2 }) {
+      verify(each, never()).commit();
+      verify(each).rollback();
+      verify(each).close();
+    }
+    verify(connection).close();
+  }
+
+
+  /**
+   * Check that a failed rollback on one connection still rolls back the others, before auto-commit is restored.
+   *
+   * @throws Exception exception
+   */
+  @Test
+  public void testConnectionPerThreadRollbackFailure() throws Exception {
+    Connection connection = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    Connection threadConnection1 = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    Connection threadConnection2 = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    doThrow(new SQLException("Rollback failed")).when(connection).rollback();
+    doThrow(new SQLException("Rollback failed again")).when(threadConnection1).rollback();
+    DatabaseDataSetConsumer consumer = connectionPerThreadConsumer(connection, threadConnection1, threadConnection2);
+
+    consumer.open();
+    loadOnTwoThreads(consumer);
+    try {
+      consumer.close(CloseState.INCOMPLETE);
+      fail("Expected RuntimeSqlException");
+    } catch (RuntimeSqlException e) {
+      assertThat("Suppressed", e.getCause().getSuppressed().length, equalTo(1));
+    }
+
+    for (Connection each : new Connection[] { connection, threadConnection1, threadConnection2 }) {
+      InOrder inOrder = inOrder(each);
+      inOrder.verify(each).rollback();
+      inOrder.verify(each).setAutoCommit(true);
+      inOrder.verify(each).close();
+      verify(each, never()).commit();
+    }
+  }
+
+
+  /**
+   * Check that indexes are dropped before their table is loaded, and rebuilt once the data has been committed.
+   *
+   * @throws SQLException exception
+   */
+  @Test
+  public void testDeferredIndexBuilds() throws SQLException {
+    ConnectionResources connectionResources = mock(ConnectionResources.class, Mockito.RETURNS_SMART_NULLS);
+    SqlScriptExecutorProvider sqlScriptExecutorProvider = mock(SqlScriptExecutorProvider.class, Mockito.RETURNS_SMART_NULLS);
+    DataSource dataSource = mock(DataSource.class, Mockito.RETURNS_SMART_NULLS);
+    Connection connection = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    Connection indexConnection = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    SqlScriptExecutor sqlScriptExecutor = mock(SqlScriptExecutor.class);
+    SqlDialect dialect = mock(SqlDialect.class);
+
+    Table table = table("Indexed").columns(idColumn(), column("code", DataType.STRING, 10), column("name", DataType.STRING, 10))
+      .indexes(index("Indexed_1").columns("code"), index("Indexed_2").unique().columns("name"));
+    when(dialect.indexDropStatements(eq(table), any(Index.class))).thenReturn(ImmutableList.of("DROP"));
+    when(dialect.addIndexStatements(eq(table), any(Index.class))).thenReturn(ImmutableList.of("ADD"));
+    when(dataSource.getConnection()).thenReturn(connection, indexConnection);
+    when(connectionResources.sqlDialect()).thenReturn(dialect);
+    when(sqlScriptExecutorProvider.get()).thenReturn(sqlScriptExecutor);
+
+    DatabaseDataSetConsumer consumer = new DatabaseDataSetConsumer(connectionResources, sqlScriptExecutorProvider, dataSource).withDeferredIndexBuilds(2);
+    consumer.open();
+    consumer.table(table, new ArrayList<Record>());
+
+    verify(sqlScriptExecutor, Mockito.times(2)).execute(ImmutableList.of("DROP"), indexConnection);
+    verify(sqlScriptExecutor, never()).execute(ImmutableList.of("ADD"), indexConnection);
+
+    consumer.close(CloseState.COMPLETE);
+
+    InOrder inOrder = inOrder(sqlScriptExecutor, connection);
+    inOrder.verify(connection).commit();
+    inOrder.verify(connection).close();
+    inOrder.verify(sqlScriptExecutor, Mockito.times(2)).execute(ImmutableList.of("ADD"), indexConnection);
+    verify(dialect).addIndexStatements(table, table.indexes().get(0));
+    verify(dialect).addIndexStatements(table, table.indexes().get(1));
+  }
+
+
+  /**
+   * Check that indexes missing from a table skipped by a resumed transfer are rebuilt when the data set is closed.
+   *
+   * @throws SQLException exception
+   */
+  @Test
+  public void testDeferredIndexesRebuiltOnResume() throws SQLException {
+    ConnectionResources connectionResources = mock(ConnectionResources.class, Mockito.RETURNS_SMART_NULLS);
+    SqlScriptExecutorProvider sqlScriptExecutorProvider = mock(SqlScriptExecutorProvider.class, Mockito.RETURNS_SMART_NULLS);
+    DataSource dataSource = mock(DataSource.class, Mockito.RETURNS_SMART_NULLS);
+    Connection connection = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    Connection indexConnection = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    SqlScriptExecutor sqlScriptExecutor = mock(SqlScriptExecutor.class);
+    SqlDialect dialect = mock(SqlDialect.class);
+    SchemaResource schemaResource = mock(SchemaResource.class);
+
+    Table table = table("Indexed").columns(idColumn(), column("code", DataType.STRING, 10), column("name", DataType.STRING, 10))
+      .indexes(index("Indexed_1").columns("code"), index("Indexed_2").unique().columns("name"));
+    when(schemaResource.tableExists("Indexed")).thenReturn(true);
+    when(schemaResource.getTable("Indexed")).thenReturn(table("Indexed").indexes(index("INDEXED_1").columns("code")));
+    when(connectionResources.openSchemaResource(dataSource)).thenReturn(schemaResource);
+    when(dialect.addIndexStatements(eq(table), any(Index.class))).thenReturn(ImmutableList.of("ADD"));
+    when(dataSource.getConnection()).thenReturn(connection, indexConnection);
+    when(connectionResources.sqlDialect()).thenReturn(dialect);
+    when(sqlScriptExecutorProvider.get()).thenReturn(sqlScriptExecutor);
+
+    DatabaseDataSetConsumer consumer = new DatabaseDataSetConsumer(connectionResources, sqlScriptExecutorProvider, dataSource).withDeferredIndexBuilds(2);
+    consumer.open();
+    consumer.tableResumed(table);
+    verify(schemaResource).close();
+    consumer.close(CloseState.COMPLETE);
+
+    verify(sqlScriptExecutor).execute(ImmutableList.of("ADD"), indexConnection);
+    verify(dialect, never()).addIndexStatements(table, table.indexes().get(0));
+    verify(dialect).addIndexStatements(table, table.indexes().get(1));
+  }
+
+
+  /**
+   * Check that session level set-up for loading preset autonumbers is undone on each key range's connection.
+   *
+   * @throws SQLException exception
+   */
+  @Test
+  public void testPresetAutonumSetUpUndoneOnRangeConnection() throws SQLException {
+    ConnectionResources connectionResources = mock(ConnectionResources.class, Mockito.RETURNS_SMART_NULLS);
+    SqlScriptExecutorProvider sqlScriptExecutorProvider = mock(SqlScriptExecutorProvider.class, Mockito.RETURNS_SMART_NULLS);
+    DataSource dataSource = mock(DataSource.class, Mockito.RETURNS_SMART_NULLS);
+    Connection connection = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    Connection rangeConnection = mock(Connection.class, Mockito.RETURNS_SMART_NULLS);
+    SqlScriptExecutor sqlScriptExecutor = mock(SqlScriptExecutor.class);
+    SqlDialect dialect = mock(SqlDialect.class);
+
+    Table table = table("Autonumbered").columns(idColumn());
+    when(dialect.preInsertWithPresetAutonumStatements(table, false)).thenReturn(ImmutableList.of("IDENTITY ON"));
+    when(dataSource.getConnection()).thenReturn(connection, rangeConnection);
+    when(connectionResources.sqlDialect()).thenReturn(dialect);
+    when(sqlScriptExecutorProvider.get()).thenReturn(sqlScriptExecutor);
+
+    DatabaseDataSetConsumer consumer = new DatabaseDataSetConsumer(connectionResources, sqlScriptExecutorProvider, dataSource);
+    consumer.open();
+    consumer.tablePartition(table, new KeyRange(1, 10), new ArrayList<Record>());
+
+    InOrder inOrder = inOrder(sqlScriptExecutor, dialect, rangeConnection);
+    inOrder.verify(sqlScriptExecutor).execute(ImmutableList.of("IDENTITY ON"), rangeConnection);
+    inOrder.verify(dialect).postInsertWithPresetAutonumStatements(table, sqlScriptExecutor, rangeConnection, false);
+    inOrder.verify(rangeConnection).commit();
+    inOrder.verify(rangeConnection).close();
+  }
+
+
+  private DatabaseDataSetConsumer connectionPerThreadConsumer(Connection connection, Connection... threadConnections) throws SQLException {
+    ConnectionResources connectionResources = mock(ConnectionResources.class, Mockito.RETURNS_SMART_NULLS);
+    SqlScriptExecutorProvider sqlScriptExecutorProvider = mock(SqlScriptExecutorProvider.class, Mockito.RETURNS_SMART_NULLS);
+    DataSource dataSource = mock(DataSource.class, Mockito.RETURNS_SMART_NULLS);
+
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(dataSource.getConnection()).thenReturn(connection, threadConnections);
+    when(connectionResources.sqlDialect()).thenReturn(mock(SqlDialect.class));
+    when(sqlScriptExecutorProvider.get()).thenReturn(mock(SqlScriptExecutor.class));
+
+    return new DatabaseDataSetConsumer(connectionResources, sqlScriptExecutorProvider, dataSource).withConnectionPerThread();
+  }
+
+
+  private void loadOnTwoThreads(DatabaseDataSetConsumer consumer) throws InterruptedException {
+    Thread thread1 = new Thread(() -> consumer.table(table("Table1").columns(idColumn()), new ArrayList<Record>()));
+    Thread thread2 = new Thread(() -> consumer.table(table("Table2").columns(idColumn()), new ArrayList<Record>()));
+    thread1.start();
+    thread1.join();
+    thread2.start();
+    thread2.join();
+  }
 }
@@ -0,0 +1,284 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.xml;
+
+import static org.alfasoftware.morf.metadata.DataSetUtils.record;
+import static org.alfasoftware.morf.metadata.SchemaUtils.column;
+import static org.alfasoftware.morf.metadata.SchemaUtils.idColumn;
+import static org.alfasoftware.morf.metadata.SchemaUtils.table;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.alfasoftware.morf.dataset.DataSetConnectorMultiThreaded;
+import org.alfasoftware.morf.dataset.DataSetProducer;
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.Schema;
+import org.alfasoftware.morf.metadata.SchemaUtils;
+import org.alfasoftware.morf.metadata.Table;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Tests {@link ArchiveDataSetWriter}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestArchiveDataSetWriter {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+
+  /**
+   * Entries written one after another, and entries written concurrently, should all read back
+   * with both {@link ZipFile} and {@link ZipInputStream}, with no temporary files left behind.
+   */
+  @Test
+  public void testInterleavedEntries() throws IOException {
+    File directory = folder.newFolder();
+    File archive = new File(directory, "archive.zip");
+    ArchiveDataSetWriter writer = new ArchiveDataSetWriter(archive);
+    writer.open();
+
+    OutputStream first = writer.openOutputStreamForTable("First");
+    OutputStream second = writer.openOutputStreamForTable("Second");
+    OutputStream third = writer.openOutputStreamForTable("Third");
+    first.write(content("First", 1000));
+    second.write(content("Second", 20000));
+    third.write(content("Third", 300));
+    second.close();
+    OutputStream fourth = writer.openOutputStreamForTable("Fourth");
+    third.close();
+    fourth.write(content("Fourth", 10));
+    first.close();
+    fourth.close();
+    OutputStream empty = writer.openOutputStreamForTable("Empty");
+    empty.close();
+    writer.close();
+
+    Map<String, byte[]> expected = ImmutableMap.<String, byte[]>builder()
+        .put("_ReadMe.txt", "This is a data set archive file.".getBytes(StandardCharsets.UTF_8))
+        .put("Empty.xml", new byte[0])
+        .put("First.xml", content("First", 1000))
+        .put("Fourth.xml", content("Fourth", 10))
+        .put("Second.xml", content("Second", 20000))
+        .put("Third.xml", content("Third", 300))
+        .build();
+
+    Map<String, byte[]> fromZipFile = new TreeMap<>();
+    try (ZipFile zipFile = new ZipFile(archive)) {
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        try (InputStream input = zipFile.getInputStream(entry)) {
+          fromZipFile.put(entry.getName(), ByteStreams.toByteArray(input));
+        }
+      }
+    }
+    assertContent(expected, fromZipFile);
+
+    Map<String, byte[]> fromZipInputStream = new TreeMap<>();
+    try (ZipInputStream input = new ZipInputStream(new FileInputStream(archive))) {
+      for (ZipEntry entry = input.getNextEntry(); entry != null; entry = input.getNextEntry()) {
+        fromZipInputStream.put(entry.getName(), ByteStreams.toByteArray(input));
+      }
+    }
+    assertContent(expected, fromZipInputStream);
+
+    assertEquals("Files left", Arrays.asList("archive.zip"), Arrays.asList(directory.list()));
+  }
+
+
+  /**
+   * Tables compressed with a codec should be stored in the archive as the codec wrote them,
+   * under names carrying the codec's extension.
+   */
+  @Test
+  public void testCodecEntriesAreStored() throws IOException {
+    File archive = folder.newFile("codec.zip");
+    GzipDataSetCodec codec = new GzipDataSetCodec();
+    ArchiveDataSetWriter writer = new ArchiveDataSetWriter(archive, Deflater.DEFAULT_COMPRESSION, Optional.<DataSetCodec>of(codec));
+    writer.open();
+    OutputStream first = writer.openOutputStreamForTable("First");
+    OutputStream second = writer.openOutputStreamForTable("Second");
+    first.write(content("First", 1000));
+    second.write(content("Second", 2000));
+    second.close();
+    first.close();
+    writer.close();
+
+    try (ZipFile zipFile = new ZipFile(archive)) {
+      for (String table : Arrays.asList("First", "Second")) {
+        ZipEntry entry = zipFile.getEntry(table + ".xml.gz");
+        assertEquals("Method of " + table, ZipEntry.STORED, entry.getMethod());
+        try (InputStream input = codec.decompress(zipFile.getInputStream(entry))) {
+          assertArrayEquals("Content of " + table, content(table, table.equals("First") ? 1000 : 2000), ByteStreams.toByteArray(input));
+        }
+      }
+    }
+
+    ArchiveDataSetReader reader = new ArchiveDataSetReader(archive);
+    reader.open();
+    try (InputStream input = reader.openInputStreamForTable("second")) {
+      assertArrayEquals("Content read back", content("Second", 2000), ByteStreams.toByteArray(input));
+    } finally {
+      reader.close();
+    }
+  }
+
+
+  /**
+   * The deflate level should be applied to every table.
+   */
+  @Test
+  public void testCompressionLevel() throws IOException {
+    File fastest = folder.newFile("fastest.zip");
+    File smallest = folder.newFile("smallest.zip");
+    for (File archive : Arrays.asList(fastest, smallest)) {
+      ArchiveDataSetWriter writer = new ArchiveDataSetWriter(archive, archive == fastest ? Deflater.NO_COMPRESSION : Deflater.BEST_COMPRESSION, Optional.<DataSetCodec>absent());
+      writer.open();
+      try (OutputStream output = writer.openOutputStreamForTable("Table")) {
+        output.write(content("Table", 5000));
+      }
+      writer.close();
+
+      try (ZipFile zipFile = new ZipFile(archive); InputStream input = zipFile.getInputStream(zipFile.getEntry("Table.xml"))) {
+        assertArrayEquals("Content", content("Table", 5000), ByteStreams.toByteArray(input));
+      }
+    }
+    assertTrue("Uncompressed archive should be larger", fastest.length() > 5 * smallest.length());
+  }
+
+
+  /**
+   * A multi-threaded transfer into an archive should write every table in full.
+   */
+  @Test
+  public void testMultiThreadedTransfer() throws IOException {
+    List<Table> tables = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      tables.add(table("Table" + i).columns(idColumn(), column("name", DataType.STRING, 20)));
+    }
+    Schema schema = SchemaUtils.schema(tables);
+
+    File archive = folder.newFile("transfer.zip");
+    new DataSetConnectorMultiThreaded(new GeneratingProducer(schema, 5000), new XmlDataSetConsumer(archive))
+      .withThreadCount(4)
+      .connect();
+
+    XmlDataSetProducer producer = new XmlDataSetProducer(archive.toURI().toURL());
+    producer.open();
+    try {
+      assertEquals("Tables", 8, producer.getSchema().tables().size());
+      for (Table table : tables) {
+        long expectedId = 0;
+        for (Record record : producer.records(table.getName())) {
+          assertEquals("Id in " + table.getName(), Long.valueOf(expectedId), record.getLong("id"));
+          assertEquals("Name in " + table.getName(), table.getName() + "-" + expectedId, record.getString("name"));
+          expectedId++;
+        }
+        assertEquals("Rows in " + table.getName(), 5000, expectedId);
+      }
+    } finally {
+      producer.close();
+    }
+  }
+
+
+  private static byte[] content(String name, int repeats) {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    for (int i = 0; i < repeats; i++) {
+      byte[] line = (name + " line " + i + "\n").getBytes(StandardCharsets.UTF_8);
+      result.write(line, 0, line.length);
+    }
+    return result.toByteArray();
+  }
+
+
+  private static void assertContent(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+    assertEquals("Entries", expected.keySet(), actual.keySet());
+    for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+      assertArrayEquals("Content of " + entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+    }
+  }
+
+
+  /**
+   * Produces rows numbered from zero for every table of a schema.
+   */
+  private static final class GeneratingProducer implements DataSetProducer {
+
+    private final Schema schema;
+    private final int rows;
+
+    GeneratingProducer(Schema schema, int rows) {
+      this.schema = schema;
+      this.rows = rows;
+    }
+
+    @Override
+    public void open() {
+      // Nothing to do
+    }
+
+    @Override
+    public void close() {
+      // Nothing to do
+    }
+
+    @Override
+    public Schema getSchema() {
+      return schema;
+    }
+
+    @Override
+    public Iterable<Record> records(String tableName) {
+      List<Record> result = new ArrayList<>();
+      for (long id = 0; id < rows; id++) {
+        result.add(record().setLong("id", id).setString("name", tableName + "-" + id));
+      }
+      return result;
+    }
+
+    @Override
+    public boolean isTableEmpty(String tableName) {
+      return rows == 0;
+    }
+  }
+}
@@ -21,8 +21,12 @@ import static org.alfasoftware.morf.metadata.SchemaUtils.index;
 import static org.alfasoftware.morf.metadata.SchemaUtils.table;
 import static org.alfasoftware.morf.metadata.SchemaUtils.versionColumn;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,6 +34,7 @@ import java.util.Set;
 import org.alfasoftware.morf.dataset.DataSetConsumer;
 import org.alfasoftware.morf.dataset.DataSetConsumer.CloseState;
 import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.Column;
 import org.alfasoftware.morf.metadata.DataType;
 import org.alfasoftware.morf.metadata.Table;
 import org.junit.Test;
@@ -82,4 +87,94 @@ public class TestDataMaskingXmlDataSetConsumer {
     assertEquals("Serialised data set", SourceXML.MASKED_SAMPLE, dummyXmlOutputStreamProvider.getXmlString().trim());
   }
 
+
+  /**
+   * Ensure that masking batches on several threads serialises the same records, in the same
+   * order, as masking them on one.
+   */
+  @Test
+  public void testParallelMasking() {
+    String singleThreaded = consume(new DummyXmlOutputStreamProvider(), 1, 1000);
+    String parallel = consume(new DummyXmlOutputStreamProvider(), 4, 7);
+
+    assertEquals("Serialised data set", singleThreaded, parallel);
+    assertFalse("Masked value", parallel.contains("bar=\"Name1\""));
+    assertTrue("Unmasked value", parallel.contains("baz=\"123\""));
+  }
+
+
+  /**
+   * Ensure that the standard masking functions are deterministic, and that format
+   * preserving masks keep the format of each value.
+   */
+  @Test
+  public void testMaskingFunctions() {
+    MaskingFunction formatPreserving = MaskingFunctions.formatPreserving(42);
+    String masked = formatPreserving.mask("Ab-0129 z");
+    assertEquals("Deterministic", masked, MaskingFunctions.formatPreserving(42).mask("Ab-0129 z"));
+    assertTrue("Format [" + masked + "]", masked.matches("[A-Z][a-z]-[0-9]{4} [a-z]"));
+    assertFalse("Masked", masked.equals("Ab-0129 z"));
+    assertFalse("Keyed", masked.equals(MaskingFunctions.formatPreserving(43).mask("Ab-0129 z")));
+
+    List<String> names = Arrays.asList("Alice", "Bob", "Carol");
+    MaskingFunction substitution = MaskingFunctions.substitution(42, names);
+    assertTrue("Substituted", names.contains(substitution.mask("Dave")));
+    assertEquals("Deterministic", substitution.mask("Dave"), MaskingFunctions.substitution(42, names).mask("Dave"));
+
+    assertNull("Null value", MaskingFunctions.nullValue().mask("Dave"));
+  }
+
+
+  /**
+   * Ensure that a subclass overriding getValue is still called for every value, and still
+   * finds the columns to mask masked by the superclass.
+   */
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testGetValueOverridden() {
+    DummyXmlOutputStreamProvider dummyXmlOutputStreamProvider = new DummyXmlOutputStreamProvider();
+    DataSetConsumer testConsumer = new DataMaskingXmlDataSetConsumer(dummyXmlOutputStreamProvider, toMask) {
+      @Override
+      protected String getValue(Record record, Column column, String table) {
+        return column.getName().equals("baz") ? "hidden" : super.getValue(record, column, table);
+      }
+    }.withThreadCount(4).withBatchSize(7);
+
+    String serialised = consume(testConsumer, dummyXmlOutputStreamProvider);
+    assertFalse("Masked value", serialised.contains("bar=\"Name"));
+    assertTrue("Overridden value", serialised.contains("baz=\"hidden\""));
+    assertFalse("Value not overridden", serialised.contains("baz=\"123\""));
+  }
+
+
+  private String consume(DummyXmlOutputStreamProvider dummyXmlOutputStreamProvider, int threadCount, int batchSize) {
+    DataSetConsumer testConsumer = new DataMaskingXmlDataSetConsumer(dummyXmlOutputStreamProvider, toMask)
+        .withMaskingFunction(MaskingFunctions.formatPreserving(42))
+        .withThreadCount(threadCount)
+        .withBatchSize(batchSize);
+    return consume(testConsumer, dummyXmlOutputStreamProvider);
+  }
+
+
+  private String consume(DataSetConsumer testConsumer, DummyXmlOutputStreamProvider dummyXmlOutputStreamProvider) {
+    Table metaData = table("Test").columns(
+        column("id", DataType.BIG_INTEGER, 19, 0).primaryKey(),
+        column("bar", DataType.STRING, 10).nullable(),
+        column("baz", DataType.STRING, 10).nullable()
+      );
+
+    List<Record> mockRecords = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      mockRecords.add(record()
+        .setInteger("id", i)
+        .setString("bar", i % 10 == 0 ? null : "Name" + i)
+        .setString("baz", "123"));
+    }
+
+    testConsumer.open();
+    testConsumer.table(metaData, mockRecords);
+    testConsumer.close(CloseState.COMPLETE);
+    return dummyXmlOutputStreamProvider.getXmlString();
+  }
+
 }
@@ -0,0 +1,194 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.xml;
+
+import static org.alfasoftware.morf.metadata.DataSetUtils.dataSetProducer;
+import static org.alfasoftware.morf.metadata.DataSetUtils.record;
+import static org.alfasoftware.morf.metadata.SchemaUtils.column;
+import static org.alfasoftware.morf.metadata.SchemaUtils.idColumn;
+import static org.alfasoftware.morf.metadata.SchemaUtils.schema;
+import static org.alfasoftware.morf.metadata.SchemaUtils.table;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.alfasoftware.morf.dataset.DataSetConnector;
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.Schema;
+import org.alfasoftware.morf.xml.XmlDataSetConsumer.ClearDestinationBehaviour;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Tests the indexed reading of {@link DirectoryDataSet}.
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+public class TestDirectoryDataSet {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Schema schema = schema(
+    table("Full").columns(idColumn(), column("name", DataType.STRING, 10)),
+    table("Empty").columns(idColumn(), column("name", DataType.STRING, 10))
+  );
+
+
+  /**
+   * Meta data, emptiness and records should all be served using the index, which should
+   * be saved alongside the tables when they are written.
+   */
+  @Test
+  public void testIndexedReads() throws IOException {
+    File directory = folder.getRoot();
+    new DataSetConnector(dataSetProducer(schema).table("Full", record().setLong("id", 1L).setString("name", "one")).table("Empty"),
+      new XmlDataSetConsumer(directory)).connect();
+    assertTrue("Index saved", new File(directory, DirectoryDataSetIndex.FILE_NAME).isFile());
+
+    XmlDataSetProducer producer = new XmlDataSetProducer(directory.toURI().toURL());
+    producer.open();
+    try {
+      assertFalse("Full", producer.isTableEmpty("Full"));
+      assertTrue("Empty", producer.isTableEmpty("empty"));
+      assertEquals("Columns", 2, producer.getSchema().getTable("Full").columns().size());
+      int rows = 0;
+      for (Record record : producer.records("Full")) {
+        assertEquals("name", "one", record.getString("name"));
+        rows++;
+      }
+      assertEquals("Rows", 1, rows);
+    } finally {
+      producer.close();
+    }
+
+    DirectoryDataSet dataSet = new DirectoryDataSet(directory);
+    Optional<InputStream> metadata = dataSet.openMetadataStreamForTable("Full");
+    assertTrue("Metadata indexed", metadata.isPresent());
+    String header = new String(ByteStreams.toByteArray(metadata.get()), StandardCharsets.UTF_8);
+    assertTrue(header, header.trim().endsWith("</metadata>"));
+    dataSet.close();
+  }
+
+
+  /**
+   * Index entries should not be used once their table is rewritten, and the index should be
+   * removed when the directory is cleared.
+   */
+  @Test
+  public void testStaleIndex() throws IOException {
+    File directory = folder.getRoot();
+    new DataSetConnector(dataSetProducer(schema).table("Full", record().setLong("id", 1L).setString("name", "one")).table("Empty"),
+      new XmlDataSetConsumer(directory)).connect();
+    DirectoryDataSet dataSet = new DirectoryDataSet(directory);
+    assertEquals("Full", Optional.of(false), dataSet.isTableEmpty("Full"));
+    dataSet.close();
+
+    new DataSetConnector(dataSetProducer(schema).table("Full").table("Empty", record().setLong("id", 1L).setString("name", "one")),
+      new XmlDataSetConsumer(directory, ClearDestinationBehaviour.OVERWRITE)).connect();
+    dataSet = new DirectoryDataSet(directory);
+    assertEquals("Full", Optional.of(true), dataSet.isTableEmpty("Full"));
+    assertEquals("Empty", Optional.of(false), dataSet.isTableEmpty("Empty"));
+    dataSet.close();
+
+    dataSet = new DirectoryDataSet(directory);
+    dataSet.clearDestination();
+    assertFalse("Index removed", new File(directory, DirectoryDataSetIndex.FILE_NAME).exists());
+  }
+
+
+  /**
+   * The index should not be written to a directory which is only read.
+   */
+  @Test
+  public void testIndexNotWrittenOnRead() throws IOException {
+    File directory = folder.getRoot();
+    new DataSetConnector(dataSetProducer(schema).table("Full", record().setLong("id", 1L).setString("name", "one")).table("Empty"),
+      new XmlDataSetConsumer(directory)).connect();
+    File indexFile = new File(directory, DirectoryDataSetIndex.FILE_NAME);
+    assertTrue("Index deleted", indexFile.delete());
+
+    DirectoryDataSet dataSet = new DirectoryDataSet(directory);
+    assertEquals("Full", Optional.of(false), dataSet.isTableEmpty("Full"));
+    dataSet.close();
+    assertFalse("Index written", indexFile.exists());
+  }
+
+
+  /**
+   * An index entry should not be used once its table is rewritten, even if the length and
+   * modification time of the file are unchanged.
+   */
+  @Test
+  public void testStaleIndexWithSameLengthAndTime() throws IOException {
+    File directory = folder.getRoot();
+    new DataSetConnector(dataSetProducer(schema).table("Full", record().setLong("id", 1L).setString("name", "one")).table("Empty"),
+      new XmlDataSetConsumer(directory)).connect();
+    File file = new File(directory, "Full.xml");
+    long lastModified = file.lastModified();
+
+    // blank out the record, so that the table is empty but the file is the same length
+    String xml = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    int recordStart = xml.indexOf("<record");
+    int recordEnd = xml.indexOf("/>", recordStart) + 2;
+    Files.write(file.toPath(), (xml.substring(0, recordStart) + Strings.repeat(" ", recordEnd - recordStart) + xml.substring(recordEnd)).getBytes(StandardCharsets.UTF_8));
+    assertTrue("Modification time restored", file.setLastModified(lastModified));
+
+    DirectoryDataSet dataSet = new DirectoryDataSet(directory);
+    assertEquals("Full", Optional.of(true), dataSet.isTableEmpty("Full"));
+    dataSet.close();
+  }
+
+
+  /**
+   * The scan should find the data element however it is written.
+   */
+  @Test
+  public void testScan() {
+    String metadata = "<table version=\"2\"><metadata name=\"A\"><column name=\"dataValue\" type=\"STRING\" default=\"&lt;data\"/></metadata>";
+    assertScan(metadata + "<data/></table>", metadata.length(), true);
+    assertScan(metadata + "<data>\n  </data></table>", metadata.length(), true);
+    assertScan(metadata + "\n  <data>\n    <record id=\"1\"/>\n  </data>", metadata.length() + 3, false);
+    assertFalse("No data element", DirectoryDataSetIndex.scan(buffer(metadata + "<dataset/>"), 0, 0).isPresent());
+    assertFalse("Cut short", DirectoryDataSetIndex.scan(buffer(metadata + "<data>\n  </da"), 0, 0).isPresent());
+  }
+
+
+  private void assertScan(String xml, int metadataEnd, boolean empty) {
+    Optional<DirectoryDataSetIndex.Entry> entry = DirectoryDataSetIndex.scan(buffer(xml), 0, 0);
+    assertTrue(xml, entry.isPresent());
+    assertEquals("Metadata end of " + xml, metadataEnd, entry.get().getMetadataEnd());
+    assertEquals("Empty " + xml, empty, entry.get().isEmpty());
+  }
+
+
+  private ByteBuffer buffer(String xml) {
+    return ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -17,21 +17,31 @@ package org.alfasoftware.morf.xml;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.alfasoftware.morf.dataset.DataSetConnector;
 import org.alfasoftware.morf.dataset.DataSetConsumer;
+import org.alfasoftware.morf.dataset.DataSetConsumer.CloseState;
 import org.alfasoftware.morf.dataset.DataSetProducer;
 import org.alfasoftware.morf.dataset.MockDataSetConsumer;
 import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.xml.XmlDataSetConsumer.ClearDestinationBehaviour;
 import org.alfasoftware.morf.xml.XmlStreamProvider.XmlInputStreamProvider;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -70,6 +80,75 @@ public class TestXmlDataSetProducer {
   }
 
 
+  /**
+   * Test that a full XML data set read into schema-bound records writes back out the same.
+   */
+  @Test
+  public void testFullXMLRoundTripSchemaBound() {
+    DataSetProducer producer = new XmlDataSetProducer(new TestXmlInputStreamProvider(SourceXML.FULL_SAMPLE)).withSchemaBoundRecords();
+
+    DummyXmlOutputStreamProvider dummyXmlOutputStreamProvider = new DummyXmlOutputStreamProvider();
+
+    DataSetConsumer testConsumer = new XmlDataSetConsumer(dummyXmlOutputStreamProvider);
+
+    new DataSetConnector(producer, testConsumer).connect();
+
+    assertEquals("output should be the same as input", SourceXML.FULL_SAMPLE, dummyXmlOutputStreamProvider.getXmlString().trim());
+  }
+
+
+  /**
+   * Test that record attributes are matched to their columns whatever order they are in,
+   * and that unknown attributes are ignored.
+   */
+  @Test
+  public void testAttributesInAnyOrder() {
+    String xml = SourceXML.FULL_SAMPLE.replace(
+      "    <record id=\"1\" version=\"1\" bar=\"abc\" baz=\"123\" bob=\"456.78\"/>\n",
+      "    <record id=\"1\" version=\"1\" bar=\"abc\" baz=\"123\" bob=\"456.78\"/>\n" +
+      "    <record bob=\"1.5\" extra=\"x\" id=\"2\" baz=\"456\"/>\n" +
+      "    <record id=\"3\" version=\"3\" bar=\"ghi\" baz=\"789\" bob=\"0.01\"/>\n");
+
+    for (boolean schemaBound : new boolean[] { false, true }) {
+      XmlDataSetProducer producer = new XmlDataSetProducer(new TestXmlInputStreamProvider(xml));
+      if (schemaBound) {
+        producer.withSchemaBoundRecords();
+      }
+      producer.open();
+      List<String> rows = new ArrayList<>();
+      for (Record record : producer.records("Test")) {
+        rows.add(record.getLong("id") + "," + record.getInteger("version") + "," + record.getString("bar") + "," + record.getString("baz") + "," + record.getBigDecimal("bob"));
+      }
+      producer.close();
+
+      assertEquals("Records, schema bound [" + schemaBound + "]", Arrays.asList("1,1,abc,123,456.78", "2,null,null,456,1.5", "3,3,ghi,789,0.01"), rows);
+    }
+  }
+
+
+  /**
+   * Test that reading a full XML data set in batches, and writing it back out, gives the same XML.
+   */
+  @Test
+  public void testFullXMLRoundTripInBatches() {
+    DataSetProducer producer = new XmlDataSetProducer(new TestXmlInputStreamProvider(SourceXML.FULL_SAMPLE));
+
+    DummyXmlOutputStreamProvider dummyXmlOutputStreamProvider = new DummyXmlOutputStreamProvider();
+
+    DataSetConsumer testConsumer = new XmlDataSetConsumer(dummyXmlOutputStreamProvider);
+
+    producer.open();
+    testConsumer.open();
+    for (String tableName : producer.getSchema().tableNames()) {
+      testConsumer.tableBatches(producer.getSchema().getTable(tableName), producer.recordBatches(tableName, 2));
+    }
+    testConsumer.close(CloseState.COMPLETE);
+    producer.close();
+
+    assertEquals("output should be the same as input", SourceXML.FULL_SAMPLE, dummyXmlOutputStreamProvider.getXmlString().trim());
+  }
+
+
   /**
    * Test we can read in an older version of the XML and that when it's written
    * back out things are up to date.
@@ -163,6 +242,112 @@ public class TestXmlDataSetProducer {
   }
 
 
+  /**
+   * Tests we can list table names from a directory of compressed tables.
+   * @throws MalformedURLException rarely
+   */
+  @Test
+  public void testTableNamesAgainstCompressedDirectory() throws MalformedURLException {
+    new DataSetConnector(new XmlDataSetProducer(getClass().getResource("dataset.zip")),
+      new XmlDataSetConsumer(folder.getRoot(), ClearDestinationBehaviour.CLEAR, new GzipDataSetCodec())).connect();
+    assertTrue("Compressed file", new File(folder.getRoot(), "EntityOne.xml.gz").isFile());
+    assertFalse("Plain file", new File(folder.getRoot(), "EntityOne.xml").exists());
+
+    XmlDataSetProducer producer = new XmlDataSetProducer(folder.getRoot().toURI().toURL());
+    testTableNamesAgainstProducer(producer);
+  }
+
+
+  /**
+   * Tests we can list table names from an archive of compressed tables.
+   * @throws MalformedURLException rarely
+   */
+  @Test
+  public void testTableNamesAgainstCompressedArchive() throws MalformedURLException {
+    File archive = new File(folder.getRoot(), "compressed.zip");
+    new DataSetConnector(new XmlDataSetProducer(getClass().getResource("dataset.zip")),
+      new XmlDataSetConsumer(archive, ClearDestinationBehaviour.CLEAR, new GzipDataSetCodec(1))).connect();
+
+    XmlDataSetProducer producer = new XmlDataSetProducer(archive.toURI().toURL());
+    testTableNamesAgainstProducer(producer);
+  }
+
+
+  /**
+   * Tests the schema is read once on open, and that records read the same once the
+   * directory is indexed and the meta data skipped.
+   * @throws MalformedURLException rarely
+   */
+  @Test
+  public void testSchemaReadOnceAgainstDirectory() throws MalformedURLException {
+    copyDataSet(folder.getRoot(), getClass().getResource("dataset.zip"));
+    XmlDataSetProducer producer = new XmlDataSetProducer(folder.getRoot().toURI().toURL());
+
+    producer.open();
+    assertSame("Cached schema", producer.getSchema(), producer.getSchema());
+    assertEquals("Table name", "EntityOne", producer.getSchema().getTable("ENTITYONE").getName());
+    List<String> firstRead = describe(producer.records("EntityOne"));
+    producer.close();
+
+    producer.open();
+    List<String> secondRead = describe(producer.records("EntityOne"));
+    producer.close();
+
+    assertFalse("Records", firstRead.isEmpty());
+    assertEquals("Records read from the data onwards", firstRead, secondRead);
+  }
+
+
+  private List<String> describe(Iterable<Record> records) {
+    List<String> result = new ArrayList<>();
+    for (Record record : records) {
+      result.add(record.getString("id") + ":" + record.getString("intProperty"));
+    }
+    return result;
+  }
+
+
+  /**
+   * Tests that a directory table compressed with a codec which is not registered is rejected, rather than skipped.
+   * @throws IOException rarely
+   */
+  @Test
+  public void testUnknownCodecInDirectory() throws IOException {
+    folder.newFile("EntityOne.xml.unknown");
+    try {
+      new XmlDataSetProducer(folder.getRoot().toURI().toURL()).open();
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertTrue("Message names the file", e.getMessage().contains("EntityOne.xml.unknown"));
+      assertTrue("Message names the codec", e.getMessage().contains("[unknown]"));
+    }
+  }
+
+
+  /**
+   * Tests that an archive entry compressed with a codec which is not registered is rejected, rather than skipped.
+   * @throws IOException rarely
+   */
+  @Test
+  public void testUnknownCodecInArchive() throws IOException {
+    File archive = folder.newFile("unknown.zip");
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive))) {
+      zip.putNextEntry(new ZipEntry("EntityOne.xml.unknown"));
+      zip.write(1);
+      zip.closeEntry();
+    }
+
+    XmlDataSetProducer producer = new XmlDataSetProducer(archive.toURI().toURL());
+    try {
+      producer.open();
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertTrue("Message names the entry", e.getMessage().contains("EntityOne.xml.unknown"));
+      assertTrue("Message names the codec", e.getMessage().contains("[unknown]"));
+    }
+  }
+
+
   /**
    * @param producer The producer to test.
    */
@@ -0,0 +1,271 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.xml;
+
+import static org.alfasoftware.morf.metadata.DataSetUtils.record;
+import static org.alfasoftware.morf.metadata.SchemaUtils.column;
+import static org.alfasoftware.morf.metadata.SchemaUtils.idColumn;
+import static org.alfasoftware.morf.metadata.SchemaUtils.table;
+import static org.alfasoftware.morf.metadata.SchemaUtils.versionColumn;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.alfasoftware.morf.dataset.DataSetConsumer.CloseState;
+import org.alfasoftware.morf.dataset.DataSetProducer;
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.metadata.Column;
+import org.alfasoftware.morf.metadata.DataSetUtils.RecordBuilder;
+import org.alfasoftware.morf.metadata.DataType;
+import org.alfasoftware.morf.metadata.RecordBatch;
+import org.alfasoftware.morf.metadata.Table;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.LocalDate;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Measures the throughput of reading an XML data set with each of the ways
+ * {@link XmlDataSetProducer} offers, reading every value by the type of its column
+ * as a database restore does.
+ *
+ * <p>The baseline looks up each column's attribute by name for every record, as the
+ * producer used to. The others walk each record's attributes once: into string records,
+ * into schema-bound records, and into column batches.</p>
+ *
+ * <p>Disabled, as it is a benchmark rather than a test. By default it reads a generated
+ * table of {@value #GENERATED_ROWS} rows. To measure a real dump, such as a multi-gigabyte
+ * archive or directory, name it in the system property {@value #DATA_SET_PROPERTY}.
+ * Results are logged at info.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+@Ignore
+public class TestXmlDataSetProducerBenchmark {
+
+  private static final Log log = LogFactory.getLog(TestXmlDataSetProducerBenchmark.class);
+
+  private static final String DATA_SET_PROPERTY = "morf.benchmark.xmlDataSet";
+  private static final int GENERATED_ROWS = 200000;
+  private static final int BATCH_SIZE = RecordBatch.DEFAULT_CAPACITY;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Defeats dead code elimination of the reads.
+   */
+  private long blackhole;
+
+
+  /**
+   * Logs the time taken to read the whole data set each way.
+   */
+  @Test
+  public void testReadThroughput() throws IOException {
+    File dataSet = System.getProperty(DATA_SET_PROPERTY) == null ? generate() : new File(System.getProperty(DATA_SET_PROPERTY));
+
+    for (int run = 0; run < 2; run++) {
+      String phase = run == 0 ? "warm-up" : "measured";
+      time(phase, "baseline name lookup", () -> readByName(dataSet));
+      time(phase, "attribute walk", () -> readRecords(new XmlDataSetProducer(toUrl(dataSet))));
+      time(phase, "schema-bound", () -> readRecords(new XmlDataSetProducer(toUrl(dataSet)).withSchemaBoundRecords()));
+      time(phase, "batches", () -> readBatches(new XmlDataSetProducer(toUrl(dataSet))));
+    }
+    log.debug(blackhole);
+  }
+
+
+  private void time(String phase, String mode, Supplier<Long> reader) {
+    long start = System.nanoTime();
+    long rows = reader.get();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    log.info(String.format("%s: [%s] read [%d] rows in [%.2f] s, [%.0f] rows/s", phase, mode, rows, seconds, rows / seconds));
+  }
+
+
+  private long readRecords(DataSetProducer producer) {
+    long rows = 0;
+    producer.open();
+    try {
+      for (String tableName : producer.getSchema().tableNames()) {
+        Table table = producer.getSchema().getTable(tableName);
+        for (Record record : producer.records(tableName)) {
+          for (Column column : table.columns()) {
+            consume(record.getObject(column));
+          }
+          rows++;
+        }
+      }
+    } finally {
+      producer.close();
+    }
+    return rows;
+  }
+
+
+  private long readBatches(DataSetProducer producer) {
+    long rows = 0;
+    producer.open();
+    try {
+      for (String tableName : producer.getSchema().tableNames()) {
+        for (RecordBatch batch : producer.recordBatches(tableName, BATCH_SIZE)) {
+          for (int slot = 0; slot < batch.getLayout().size(); slot++) {
+            for (int row = 0; row < batch.size(); row++) {
+              consume(batch.objectValue(row, slot));
+            }
+          }
+          rows += batch.size();
+        }
+      }
+    } finally {
+      producer.close();
+    }
+    return rows;
+  }
+
+
+  /**
+   * Reads each table with a pull parser, looking up every column's attribute by name
+   * for every record, and converting the strings to the column types.
+   */
+  private long readByName(File dataSet) {
+    long rows = 0;
+    XmlDataSetProducer producer = new XmlDataSetProducer(toUrl(dataSet));
+    producer.open();
+    try {
+      for (String tableName : producer.getSchema().tableNames()) {
+        Table table = producer.getSchema().getTable(tableName);
+        List<String> names = new ArrayList<>();
+        for (Column column : table.columns()) {
+          names.add(column.getName());
+        }
+        try (InputStream inputStream = openTable(dataSet, tableName)) {
+          XmlPullParser parser = new MXParser();
+          parser.setInput(inputStream, "UTF-8");
+          for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+            if (event == XmlPullParser.START_TAG && XmlDataSetNode.RECORD_NODE.equals(parser.getName())) {
+              RecordBuilder record = record();
+              for (String name : names) {
+                record.setString(name.toUpperCase(), parser.getAttributeValue(XmlDataSetNode.URI, name));
+              }
+              for (Column column : table.columns()) {
+                consume(record.getObject(column));
+              }
+              rows++;
+            }
+          }
+        }
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    } finally {
+      producer.close();
+    }
+    return rows;
+  }
+
+
+  private InputStream openTable(File dataSet, String tableName) throws IOException {
+    if (dataSet.isDirectory()) {
+      return new FileInputStream(new File(dataSet, tableName + ".xml"));
+    }
+    ArchiveDataSetReader reader = new ArchiveDataSetReader(dataSet);
+    reader.open();
+    return reader.openInputStreamForTable(tableName);
+  }
+
+
+  private void consume(Object value) {
+    if (value != null) {
+      blackhole += value.hashCode();
+    }
+  }
+
+
+  private URL toUrl(File file) {
+    try {
+      return file.toURI().toURL();
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+
+  /**
+   * Writes a directory data set of one table with a mix of column types.
+   */
+  private File generate() throws IOException {
+    File directory = folder.newFolder("dataset");
+    Table table = table("Benchmark").columns(
+      idColumn(),
+      versionColumn(),
+      column("code", DataType.STRING, 20),
+      column("description", DataType.STRING, 100).nullable(),
+      column("amount", DataType.DECIMAL, 19, 2),
+      column("rate", DataType.DECIMAL, 13, 6).nullable(),
+      column("startDate", DataType.DATE),
+      column("endDate", DataType.DATE).nullable(),
+      column("quantity", DataType.INTEGER),
+      column("active", DataType.BOOLEAN),
+      column("reference", DataType.BIG_INTEGER).nullable()
+    );
+
+    XmlDataSetConsumer consumer = new XmlDataSetConsumer(directory);
+    consumer.open();
+    consumer.table(table, () -> new AbstractIterator<Record>() {
+      private int row;
+
+      @Override
+      protected Record computeNext() {
+        if (row == GENERATED_ROWS) {
+          return endOfData();
+        }
+        row++;
+        return record()
+            .setLong("id", (long) row)
+            .setInteger("version", 0)
+            .setString("code", "CODE" + row % 500)
+            .setString("description", row % 3 == 0 ? null : "Description of row " + row)
+            .setBigDecimal("amount", BigDecimal.valueOf(row * 37L, 2))
+            .setBigDecimal("rate", BigDecimal.valueOf(row % 10000, 6))
+            .setLocalDate("startDate", new LocalDate(2017, 1, 1).plusDays(row % 365))
+            .setLocalDate("endDate", row % 2 == 0 ? null : new LocalDate(2018, 1, 1).plusDays(row % 365))
+            .setInteger("quantity", row % 1000)
+            .setBoolean("active", row % 2 == 0)
+            .setLong("reference", row % 5 == 0 ? null : (long) row * 7);
+      }
+    });
+    consumer.close(CloseState.COMPLETE);
+    log.info("Generated [" + GENERATED_ROWS + "] rows in [" + directory + "]");
+    return directory;
+  }
+}
@@ -0,0 +1,255 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc.mysql;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.jdbc.AbstractTextBulkLoader;
+import org.alfasoftware.morf.jdbc.RuntimeSqlException;
+import org.alfasoftware.morf.jdbc.SqlScriptExecutor;
+import org.alfasoftware.morf.metadata.Column;
+import org.alfasoftware.morf.metadata.Table;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Bulk loads MySQL tables with {@code LOAD DATA LOCAL INFILE}, streaming the records
+ * to the server as tab separated text as they are read, without an intermediate file.
+ *
+ * <p>This needs MySQL Connector/J, which can supply the "file" from a stream, with
+ * {@code allowLoadLocalInfile} enabled, and {@code local_infile} enabled on the server.
+ * Other drivers fall back to inserting over JDBC.</p>
+ *
+ * <p>{@code LOCAL} loads behave as if {@code IGNORE} were given: rows with duplicate keys
+ * are skipped and invalid values are truncated, with warnings rather than errors. So that
+ * this is not silent, a load fails if the number of rows loaded differs from the number
+ * of records streamed, or if the server raises any warnings. Where the commit is explicit,
+ * the load fails before committing, so can be rolled back.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+class MySqlBulkLoader extends AbstractTextBulkLoader {
+
+  /**
+   * The Connector/J statement interfaces which accept a stream for {@code LOAD DATA LOCAL INFILE},
+   * for versions 8 and 5 respectively.
+   */
+  private static final String[] DRIVER_STATEMENT_CLASSES = { "com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement" };
+
+  private final MySqlDialect dialect;
+
+
+  /**
+   * @param dialect The dialect of the database being loaded.
+   */
+  MySqlBulkLoader(MySqlDialect dialect) {
+    super();
+    this.dialect = dialect;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.jdbc.AbstractTextBulkLoader#supports(java.sql.Connection, org.alfasoftware.morf.metadata.Table, boolean)
+   */
+  @Override
+  public boolean supports(Connection connection, Table table, boolean explicitCommit) {
+    if (!super.supports(connection, table, explicitCommit)) {
+      return false;
+    }
+    try (Statement statement = connection.createStatement()) {
+      return driverStatementClass(statement) != null;
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("Error checking for bulk load support", e);
+    }
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.jdbc.BulkLoader#load(java.sql.Connection, org.alfasoftware.morf.jdbc.SqlScriptExecutor, org.alfasoftware.morf.metadata.Table, java.lang.Iterable, boolean)
+   */
+  @Override
+  public void load(Connection connection, SqlScriptExecutor executor, Table table, Iterable<Record> records, boolean explicitCommit) {
+    List<String> columnNames = table.columns().stream().map(Column::getName).collect(Collectors.toList());
+    String sql = "LOAD DATA LOCAL INFILE 'records' INTO TABLE " + dialect.schemaNamePrefix() + table.getName()
+        + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n'"
+        + " (" + Joiner.on(", ").join(columnNames) + ")";
+
+    try (Statement statement = connection.createStatement()) {
+      Class<?> driverStatementClass = driverStatementClass(statement);
+      RecordInputStream input = new RecordInputStream(table, records.iterator());
+      driverStatementClass.getMethod("setLocalInfileInputStream", InputStream.class).invoke(statement.unwrap(driverStatementClass), input);
+      statement.execute(sql);
+
+      SQLWarning warning = statement.getWarnings();
+      if (warning != null) {
+        throw warning;
+      }
+      if (statement.getUpdateCount() != input.streamed) {
+        throw new IllegalStateException("Bulk load of table [" + table.getName() + "] loaded [" + statement.getUpdateCount()
+            + "] rows from [" + input.streamed + "] records");
+      }
+
+      if (explicitCommit) {
+        connection.commit();
+      }
+    } catch (SQLException e) {
+      throw new RuntimeSqlException("Error bulk loading table [" + table.getName() + "]", e);
+    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Cannot stream records to the MySQL driver", e);
+    }
+  }
+
+
+  /**
+   * @return The driver's statement interface which accepts a stream of records, or null if the driver has none.
+   */
+  private Class<?> driverStatementClass(Statement statement) throws SQLException {
+    for (String className : DRIVER_STATEMENT_CLASSES) {
+      try {
+        Class<?> driverStatementClass = Class.forName(className, false, statement.getClass().getClassLoader());
+        if (statement.isWrapperFor(driverStatementClass)) {
+          return driverStatementClass;
+        }
+      } catch (ClassNotFoundException e) {
+        // try the next driver version
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * Produces the records as tab separated lines, one record at a time as the driver reads them.
+   */
+  private final class RecordInputStream extends InputStream {
+
+    private final Table table;
+    private final Iterator<Record> records;
+    private byte[] line = new byte[0];
+    private int position;
+
+    /** The number of records streamed so far. */
+    private long streamed;
+
+    RecordInputStream(Table table, Iterator<Record> records) {
+      this.table = table;
+      this.records = records;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return line[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int count = Math.min(length, line.length - position);
+      System.arraycopy(line, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+
+    /**
+     * Makes sure there is something left to read in {@link #line}, if there are any records left.
+     */
+    private boolean fill() {
+      while (position == line.length) {
+        if (!records.hasNext()) {
+          return false;
+        }
+        line = format(records.next()).getBytes(StandardCharsets.UTF_8);
+        streamed++;
+        position = 0;
+      }
+      return true;
+    }
+
+    private String format(Record record) {
+      StringBuilder result = new StringBuilder();
+      boolean first = true;
+      for (Column column : table.columns()) {
+        if (!first) {
+          result.append('\t');
+        }
+        first = false;
+
+        String value = textValue(record, column);
+        if (value == null) {
+          result.append("\\N");
+        } else {
+          escape(value, result);
+        }
+      }
+      return result.append('\n').toString();
+    }
+
+    private void escape(String value, StringBuilder result) {
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        switch (c) {
+          case '\\':
+            result.append("\\\\");
+            break;
+          case '\t':
+            result.append("\\t");
+            break;
+          case '\n':
+            result.append("\\n");
+            break;
+          case '\r':
+            result.append("\\r");
+            break;
+          case '\0':
+            result.append("\\0");
+            break;
+          default:
+            result.append(c);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * MySQL stores booleans as {@code TINYINT(1)}.
+   *
+   * @see org.alfasoftware.morf.jdbc.AbstractTextBulkLoader#booleanText(boolean)
+   */
+  @Override
+  protected String booleanText(boolean value) {
+    return value ? "1" : "0";
+  }
+}
@@ -34,6 +34,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 
+import org.alfasoftware.morf.jdbc.BulkLoader;
 import org.alfasoftware.morf.jdbc.DatabaseType;
 import org.alfasoftware.morf.jdbc.NamedParameterPreparedStatement;
 import org.alfasoftware.morf.jdbc.SqlDialect;
@@ -61,6 +62,7 @@ import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -927,6 +929,35 @@ class MySqlDialect extends SqlDialect {
   }
 
 
+  /**
+   * @see org.alfasoftware.morf.jdbc.SqlDialect#bulkLoader()
+   */
+  @Override
+  public Optional<BulkLoader> bulkLoader() {
+    return Optional.<BulkLoader>of(new MySqlBulkLoader(this));
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.jdbc.SqlDialect#supportsMultiRowInsert()
+   */
+  @Override
+  public boolean supportsMultiRowInsert() {
+    return true;
+  }
+
+
+  /**
+   * MySQL counts the parameters of a prepared statement in 16 bits.
+   *
+   * @see org.alfasoftware.morf.jdbc.SqlDialect#maximumParametersPerStatement()
+   */
+  @Override
+  public int maximumParametersPerStatement() {
+    return 65535;
+  }
+
+
   /**
    * @see org.alfasoftware.morf.jdbc.SqlDialect#getSqlFrom(org.alfasoftware.morf.sql.element.WindowFunction)
    */
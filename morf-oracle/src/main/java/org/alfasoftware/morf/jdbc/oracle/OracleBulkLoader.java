@@ -0,0 +1,77 @@
+/* Copyright 2017 Alfa Financial Software
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.alfasoftware.morf.jdbc.oracle;
+
+import java.sql.Connection;
+
+import org.alfasoftware.morf.dataset.Record;
+import org.alfasoftware.morf.jdbc.BulkLoader;
+import org.alfasoftware.morf.jdbc.SqlScriptExecutor;
+import org.alfasoftware.morf.metadata.SchemaUtils;
+import org.alfasoftware.morf.metadata.Table;
+import org.alfasoftware.morf.sql.InsertStatement;
+import org.alfasoftware.morf.sql.element.SqlParameter;
+import org.alfasoftware.morf.sql.element.TableReference;
+
+/**
+ * Bulk loads Oracle tables with direct-path array inserts, using the {@code APPEND_VALUES}
+ * hint, which write the records above the table's high water mark rather than through
+ * the buffer cache.
+ *
+ * <p>Oracle does not allow a table to be read or written again in the transaction which
+ * has made a direct-path insert into it, so each batch is committed as it is inserted.
+ * The loader is therefore only used where the caller permits an explicit commit.</p>
+ *
+ * @author Copyright (c) Alfa Financial Software 2017
+ */
+class OracleBulkLoader implements BulkLoader {
+
+  /**
+   * Direct-path inserts favour large batches, each of which is committed.
+   */
+  private static final int RECORDS_PER_BATCH = 10000;
+
+  private final OracleDialect dialect;
+
+
+  /**
+   * @param dialect The dialect of the database being loaded.
+   */
+  OracleBulkLoader(OracleDialect dialect) {
+    super();
+    this.dialect = dialect;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.jdbc.BulkLoader#supports(java.sql.Connection, org.alfasoftware.morf.metadata.Table, boolean)
+   */
+  @Override
+  public boolean supports(Connection connection, Table table, boolean explicitCommit) {
+    return explicitCommit;
+  }
+
+
+  /**
+   * @see org.alfasoftware.morf.jdbc.BulkLoader#load(java.sql.Connection, org.alfasoftware.morf.jdbc.SqlScriptExecutor, org.alfasoftware.morf.metadata.Table, java.lang.Iterable, boolean)
+   */
+  @Override
+  public void load(Connection connection, SqlScriptExecutor executor, Table table, Iterable<Record> records, boolean explicitCommit) {
+    String insert = dialect.buildParameterisedInsert(new InsertStatement().into(new TableReference(table.getName())), SchemaUtils.schema(table), 1);
+    String directPathInsert = insert.replaceFirst("^\\w+", "INSERT /*+ APPEND_VALUES */");
+    executor.executeStatementBatch(directPathInsert, SqlParameter.parametersFromColumns(table.columns()), records, connection, true, RECORDS_PER_BATCH);
+  }
+}
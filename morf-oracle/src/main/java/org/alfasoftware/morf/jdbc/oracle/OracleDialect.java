@@ -28,6 +28,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
+import org.alfasoftware.morf.jdbc.BulkLoader;
 import org.alfasoftware.morf.jdbc.DatabaseType;
 import org.alfasoftware.morf.jdbc.NamedParameterPreparedStatement;
 import org.alfasoftware.morf.jdbc.SqlDialect;
@@ -57,6 +58,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.Iterables;
@@ -548,6 +550,15 @@ class OracleDialect extends SqlDialect {
   }
 
 
+  /**
+   * @see org.alfasoftware.morf.jdbc.SqlDialect#bulkLoader()
+   */
+  @Override
+  public Optional<BulkLoader> bulkLoader() {
+    return Optional.<BulkLoader>of(new OracleBulkLoader(this));
+  }
+
+
   /**
    * @see org.alfasoftware.morf.jdbc.SqlDialect#connectionTestStatement()
    */
@@ -1453,6 +1453,29 @@ public abstract class AbstractSqlDialectTest {
   }
 
 
+  /**
+   * Tests a parameterised insert of several rows, where the dialect supports it.
+   */
+  @Test
+  public void testMultiRowParameterisedInsert() {
+    InsertStatement stmt = new InsertStatement().into(new TableReference(TEST_TABLE));
+
+    if (!testDialect.supportsMultiRowInsert()) {
+      try {
+        testDialect.buildParameterisedInsert(stmt, metadata, 3);
+        fail("Expected UnsupportedOperationException");
+      } catch (UnsupportedOperationException e) {
+        // expected
+      }
+      return;
+    }
+
+    String singleRow = testDialect.buildParameterisedInsert(stmt, metadata, 1);
+    String row = singleRow.substring(singleRow.indexOf(") VALUES (") + ") VALUES ".length());
+    assertEquals("Generated SQL not as expected", singleRow + ", " + row + ", " + row, testDialect.buildParameterisedInsert(stmt, metadata, 3));
+  }
+
+
   /**
    * Tests an insert statement where the value for each column (except the id) has been explicitly specified,
    */